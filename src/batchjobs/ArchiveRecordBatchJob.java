@@ -0,0 +1,79 @@
+package batchjobs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.archive.ArchiveBatchJob;
+import dk.netarkivet.common.utils.archive.ArchiveRecordBase;
+
+/**
+ * Base batchjob for handling both arc- and warc-records.
+ * Dispatches every record to the callback for its kind, with a context for
+ * the record, which parses the HTTP header of the record at most once.
+ *
+ * Only warc-records with the content type 'application/http;
+ * msgtype=response' are given to processWarcResponse, the other
+ * warc-records are ignored unless processOtherWarcRecord is overridden.
+ */
+@SuppressWarnings("serial")
+public abstract class ArchiveRecordBatchJob extends ArchiveBatchJob {
+
+    /**
+     * The number of records given to processArcRecord and
+     * processWarcResponse. The other warc-records are not counted.
+     */
+    protected long records = 0L;
+
+    @Override
+    public final void processRecord(ArchiveRecordBase record,
+            OutputStream out) {
+        ArchiveRecordContext context = new ArchiveRecordContext(record);
+        try {
+            if (record.bIsWarc) {
+                if (context.isWarcResponse()) {
+                    records++;
+                    processWarcResponse(context, out);
+                } else {
+                    processOtherWarcRecord(context, out);
+                }
+            } else if (record.bIsArc) {
+                records++;
+                processArcRecord(context, out);
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Could not handle url '" + context.getUrl()
+                    + "' with mimetype '" + context.getRecordMimetype()
+                    + "'.", e);
+        }
+    }
+
+    /**
+     * Handles an arc-record.
+     * @param context The context of the record.
+     * @param out The output stream.
+     * @throws IOException If the output cannot be written.
+     */
+    protected abstract void processArcRecord(ArchiveRecordContext context,
+            OutputStream out) throws IOException;
+
+    /**
+     * Handles a warc-record with a HTTP response.
+     * @param context The context of the record.
+     * @param out The output stream.
+     * @throws IOException If the output cannot be written.
+     */
+    protected abstract void processWarcResponse(ArchiveRecordContext context,
+            OutputStream out) throws IOException;
+
+    /**
+     * Handles the other warc-records. Does nothing by default.
+     * @param context The context of the record.
+     * @param out The output stream.
+     * @throws IOException If the output cannot be written.
+     */
+    protected void processOtherWarcRecord(ArchiveRecordContext context,
+            OutputStream out) throws IOException {
+        // Do nothing
+    }
+}
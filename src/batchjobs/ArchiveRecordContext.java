@@ -0,0 +1,199 @@
+package batchjobs;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.jwat.common.ByteCountingPushBackInputStream;
+import org.jwat.common.ContentType;
+import org.jwat.common.HttpHeader;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.archive.ArchiveHeaderBase;
+import dk.netarkivet.common.utils.archive.ArchiveRecordBase;
+
+/**
+ * The state of a single arc- or warc-record, while it is being processed.
+ * The HTTP header in the content of the record is parsed at most once, the
+ * first time it is asked for, and is then kept for the rest of the record.
+ *
+ * A new context is made for every record, thus it is not shared between
+ * threads.
+ */
+public class ArchiveRecordContext {
+    /** The size of the push back buffer for reading the HTTP header.*/
+    private static final int PUSHBACK_SIZE = 8192;
+
+    private final ArchiveRecordBase record;
+    private final ArchiveHeaderBase header;
+
+    private boolean httpParsed = false;
+    private ByteCountingPushBackInputStream pbin;
+    private HttpHeader httpHeader;
+    private ContentType payloadContentType;
+
+    public ArchiveRecordContext(ArchiveRecordBase record) {
+        this.record = record;
+        this.header = record.getHeader();
+    }
+
+    public ArchiveRecordBase getRecord() {
+        return record;
+    }
+
+    /**
+     * @return The archive header of the record. May be null for arc-records.
+     */
+    public ArchiveHeaderBase getHeader() {
+        return header;
+    }
+
+    public String getUrl() {
+        return header == null ? null : header.getUrl();
+    }
+
+    /**
+     * @return The mimetype of the record in the archive header. For
+     * warc-records this is the type of the record, not of the payload.
+     */
+    public String getRecordMimetype() {
+        return header == null ? null : header.getMimetype();
+    }
+
+    /**
+     * @return Whether this is a warc-record with the content type
+     * 'application/http; msgtype=response'.
+     */
+    public boolean isWarcResponse() {
+        if (!record.bIsWarc || header == null) {
+            return false;
+        }
+        ContentType recordContentType = ContentType.parseContentType(
+                header.getMimetype());
+        return recordContentType != null
+                && "application".equals(recordContentType.contentType)
+                && "http".equals(recordContentType.mediaType)
+                && "response".equals(recordContentType.getParameter("msgtype"));
+    }
+
+    /**
+     * Parses the HTTP response header at the start of the content of the
+     * record. The header is only parsed the first time.
+     * @return The HTTP header, or null if the record has no valid header.
+     */
+    public HttpHeader getHttpHeader() {
+        if (httpParsed) {
+            return httpHeader;
+        }
+        httpParsed = true;
+        if (header == null) {
+            return null;
+        }
+        pbin = new ByteCountingPushBackInputStream(record.getInputStream(),
+                PUSHBACK_SIZE);
+        try {
+            httpHeader = HttpHeader.processPayload(HttpHeader.HT_RESPONSE,
+                    pbin, header.getLength(), null);
+        } catch (IOException e) {
+            throw new IOFailure("Error reading WARC httpresponse header", e);
+        }
+        if (httpHeader != null && httpHeader.contentType != null) {
+            payloadContentType = ContentType.parseContentType(
+                    httpHeader.contentType);
+        }
+        return httpHeader;
+    }
+
+    /**
+     * @return The HTTP status code, or -1 if no HTTP header or status code.
+     */
+    public int getStatusCode() {
+        HttpHeader http = getHttpHeader();
+        if (http == null || http.statusCode == null) {
+            return -1;
+        }
+        return http.statusCode;
+    }
+
+    /**
+     * @return The parsed content type of the HTTP payload, or null if none.
+     */
+    public ContentType getPayloadContentType() {
+        getHttpHeader();
+        return payloadContentType;
+    }
+
+    /**
+     * @return The mimetype of the HTTP payload without parameters
+     * (e.g. 'text/html'), or null if none.
+     */
+    public String getPayloadMimetype() {
+        ContentType ct = getPayloadContentType();
+        return ct == null ? null : ct.toStringShort();
+    }
+
+    /**
+     * @return The charset of the content: of the HTTP payload for
+     * warc-records, and of the mimetype in the archive header for
+     * arc-records. Null if none.
+     */
+    public String getCharset() {
+        ContentType ct;
+        if (record.bIsWarc) {
+            ct = getPayloadContentType();
+        } else {
+            String mime = getRecordMimetype();
+            ct = mime == null ? null : ContentType.parseContentType(mime);
+        }
+        return ct == null ? null : ct.getParameter("charset");
+    }
+
+    /**
+     * @return The length of the HTTP payload, or 0 if no HTTP header.
+     */
+    public long getPayloadLength() {
+        HttpHeader http = getHttpHeader();
+        return http == null ? 0L : http.getPayloadLength();
+    }
+
+    /**
+     * Makes the output line of the mimetype jobs for the payload of the
+     * record.
+     * @param withLength Whether the payload length is added to the line,
+     * as in 'text/html##1234'.
+     * @return The line for the payload of a 200-record, the empty line if no
+     * content type, or null if not a 200-record.
+     */
+    public String getMimeLine(boolean withLength) {
+        HttpHeader http = getHttpHeader();
+        if (http == null || http.contentType == null) {
+            return "\n";
+        }
+        if (getStatusCode() != 200) {
+            return null;
+        }
+        ContentType ct = getPayloadContentType();
+        if (ct == null) {
+            return "\n";
+        }
+        if (withLength) {
+            return ct.toStringShort() + "##" + getPayloadLength() + "\n";
+        }
+        return ct.toStringShort() + "\n";
+    }
+
+    /**
+     * Returns the rest of the content of the record. When the HTTP header
+     * has been parsed, this is the payload after the header. Otherwise it is
+     * the entire content of the record.
+     *
+     * The stream used for parsing the header is continued, since it may hold
+     * bytes pushed back by the parser.
+     * @return The stream for the content.
+     */
+    public InputStream getInputStream() {
+        if (pbin == null) {
+            return record.getInputStream();
+        }
+        return pbin;
+    }
+}
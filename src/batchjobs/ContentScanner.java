@@ -0,0 +1,409 @@
+package batchjobs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Scans the raw bytes of a stream for many patterns in a single pass.
+ *
+ * Literal patterns are compiled into one Aho-Corasick automaton over bytes,
+ * which is run across the entire stream. Regular expressions without any
+ * special characters are treated as literals. A literal with characters
+ * beyond ASCII is searched for both in its UTF-8 and in its ISO-8859-1
+ * encoding, if it has one. The other regular expressions are compiled once,
+ * and are matched line by line. A line with only ASCII bytes is matched as a
+ * view of the bytes as characters, thus it is never decoded into a string.
+ * A line with other bytes is decoded with the charset of the content, 
+ * which is UTF-8 by default, since a regular expression may match its 
+ * characters through escapes, classes or flags, e.g. '\u00f8', '\p{L}' or 
+ * '(?iu)', and '.' must match a whole character. The same goes for every 
+ * line, when the charset does not encode ASCII as single bytes. Lines 
+ * longer than 64 KB are split.
+ *
+ * The patterns are numbered in the order they are given, and a scan returns
+ * the numbers of the patterns which were found. The scan stops as soon as
+ * every pattern has been found.
+ */
+@SuppressWarnings("serial")
+public class ContentScanner implements Serializable {
+    /** The prefix for a pattern, which is a literal and not a regex.*/
+    public static final String LITERAL_PREFIX = "literal:";
+    /** The size of the blocks read from the stream.*/
+    private static final int BLOCK_SIZE = 64 * 1024;
+    /** The maximum length of a line given to the regular expressions.*/
+    private static final int LINE_LIMIT = 64 * 1024;
+    /** The charset for the bytes of the literals.*/
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+    /** The charset of the content, when it is not known.*/
+    private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+    /** The last ASCII character.*/
+    private static final char ASCII_MAX = 0x7f;
+    /** The ASCII characters, for checking whether a charset encodes them 
+     * as single bytes.*/
+    private static final String ASCII_PROBE = " !\"#$%&'()*+,-./0123456789"
+            + ":;<=>?@ABCDEFGHIJKLMNOPQRSTUVWXYZ[\\]^_`"
+            + "abcdefghijklmnopqrstuvwxyz{|}~\t\r";
+    /** The characters, which makes a regular expression more than a literal.*/
+    private static final String REGEX_SPECIALS = "\\^$.|?*+()[]{}";
+
+    private final String[] patterns;
+    /** The transitions of the automaton: state * 256 + byte -> state.*/
+    private final int[] delta;
+    /** The numbers of the literal patterns ending in each state, or null.*/
+    private final int[][] output;
+    /** The compiled regular expressions.*/
+    private final Pattern[] regexes;
+    /** The pattern number for each of the regular expressions.*/
+    private final int[] regexIds;
+
+    /**
+     * Compiles the patterns. A pattern starting with 'literal:' is the
+     * literal text after the prefix, every other pattern is a regular
+     * expression.
+     * @param patterns The patterns.
+     */
+    public ContentScanner(String... patterns) {
+        if (patterns == null || patterns.length == 0) {
+            throw new IllegalArgumentException("No patterns to scan for.");
+        }
+        this.patterns = patterns.clone();
+
+        List<byte[]> literals = new ArrayList<byte[]>();
+        List<Integer> literalIds = new ArrayList<Integer>();
+        List<Pattern> regexList = new ArrayList<Pattern>();
+        List<Integer> regexIdList = new ArrayList<Integer>();
+        for (int id = 0; id < patterns.length; id++) {
+            String literal = asLiteral(patterns[id]);
+            if (literal != null && !literal.isEmpty()) {
+                for (byte[] encoded : encodings(literal)) {
+                    literals.add(encoded);
+                    literalIds.add(id);
+                }
+            } else {
+                regexList.add(Pattern.compile(patterns[id]));
+                regexIdList.add(id);
+            }
+        }
+
+        regexes = regexList.toArray(new Pattern[regexList.size()]);
+        regexIds = new int[regexIdList.size()];
+        for (int i = 0; i < regexIds.length; i++) {
+            regexIds[i] = regexIdList.get(i);
+        }
+
+        // build the trie.
+        List<int[]> next = new ArrayList<int[]>();
+        List<int[]> out = new ArrayList<int[]>();
+        next.add(newRow());
+        out.add(null);
+        for (int i = 0; i < literals.size(); i++) {
+            int state = 0;
+            for (byte b : literals.get(i)) {
+                int c = b & 0xff;
+                if (next.get(state)[c] < 0) {
+                    next.get(state)[c] = next.size();
+                    next.add(newRow());
+                    out.add(null);
+                }
+                state = next.get(state)[c];
+            }
+            out.set(state, append(out.get(state), literalIds.get(i)));
+        }
+
+        // make the automaton through a breadth first walk of the trie, where
+        // the missing transitions are taken from the failure state.
+        int states = next.size();
+        delta = new int[states * 256];
+        output = new int[states][];
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < 256; c++) {
+            int s = next.get(0)[c];
+            if (s < 0) {
+                delta[c] = 0;
+            } else {
+                delta[c] = s;
+                fail[s] = 0;
+                queue[tail++] = s;
+            }
+        }
+        output[0] = out.get(0);
+        while (head < tail) {
+            int state = queue[head++];
+            output[state] = merge(out.get(state), output[fail[state]]);
+            for (int c = 0; c < 256; c++) {
+                int s = next.get(state)[c];
+                if (s < 0) {
+                    delta[state * 256 + c] = delta[fail[state] * 256 + c];
+                } else {
+                    delta[state * 256 + c] = s;
+                    fail[s] = delta[fail[state] * 256 + c];
+                    queue[tail++] = s;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of patterns.
+     */
+    public int getPatternCount() {
+        return patterns.length;
+    }
+
+    /**
+     * @param id The number of a pattern.
+     * @return The pattern, as it was given.
+     */
+    public String getPattern(int id) {
+        return patterns[id];
+    }
+
+    /**
+     * Scans the rest of the stream for the patterns, where the content is
+     * taken to be UTF-8. The stream is not closed.
+     * @param in The stream to scan.
+     * @return The numbers of the patterns, which were found.
+     * @throws IOException If the stream cannot be read.
+     */
+    public BitSet scan(InputStream in) throws IOException {
+        return scan(in, null);
+    }
+
+    /**
+     * Scans the rest of the stream for the patterns. The stream is not
+     * closed.
+     * @param in The stream to scan.
+     * @param charsetName The charset of the content, for the lines with 
+     * bytes beyond ASCII. UTF-8 is used, if it is null or unknown.
+     * @return The numbers of the patterns, which were found.
+     * @throws IOException If the stream cannot be read.
+     */
+    public BitSet scan(InputStream in, String charsetName)
+            throws IOException {
+        Charset charset = toCharset(charsetName);
+        boolean decodeAll = !isAsciiCompatible(charset);
+        BitSet found = new BitSet(patterns.length);
+        byte[] block = new byte[BLOCK_SIZE];
+        byte[] line = regexes.length > 0 ? new byte[LINE_LIMIT] : null;
+        ByteCharSequence lineView = line == null ? null
+                : new ByteCharSequence(line);
+        Matcher[] matchers = new Matcher[regexes.length];
+        int lineLength = 0;
+        boolean lineAscii = true;
+        int state = 0;
+        int n;
+        while ((n = in.read(block)) != -1) {
+            for (int i = 0; i < n; i++) {
+                int c = block[i] & 0xff;
+                state = delta[(state << 8) | c];
+                if (output[state] != null) {
+                    for (int id : output[state]) {
+                        found.set(id);
+                    }
+                }
+                if (line != null) {
+                    if (c == '\n' || lineLength == LINE_LIMIT) {
+                        matchLine(lineView, lineLength,
+                                decodeAll || !lineAscii ? charset : null,
+                                matchers, found);
+                        lineLength = 0;
+                        lineAscii = true;
+                    }
+                    if (c != '\n') {
+                        line[lineLength++] = (byte) c;
+                        lineAscii &= c <= ASCII_MAX;
+                    }
+                }
+            }
+            if (found.cardinality() == patterns.length) {
+                return found;
+            }
+        }
+        if (line != null && lineLength > 0) {
+            matchLine(lineView, lineLength,
+                    decodeAll || !lineAscii ? charset : null, matchers, found);
+        }
+        return found;
+    }
+
+    /**
+     * Matches the regular expressions, which have not yet been found,
+     * against a line.
+     * @param charset The charset for decoding the line, or null if the line
+     * is matched as a view of its ASCII bytes.
+     */
+    private void matchLine(ByteCharSequence lineView, int length,
+            Charset charset, Matcher[] matchers, BitSet found) {
+        lineView.length = length;
+        CharSequence text = lineView;
+        if (charset != null) {
+            text = new String(lineView.bytes, 0, length, charset);
+        }
+        for (int r = 0; r < regexes.length; r++) {
+            if (found.get(regexIds[r])) {
+                continue;
+            }
+            if (matchers[r] == null) {
+                matchers[r] = regexes[r].matcher(text);
+            } else {
+                matchers[r].reset(text);
+            }
+            if (matchers[r].find()) {
+                found.set(regexIds[r]);
+            }
+        }
+    }
+
+    /**
+     * @return The literal text of the pattern, or null if it is a regular
+     * expression with special characters.
+     */
+    private static String asLiteral(String pattern) {
+        if (pattern.startsWith(LITERAL_PREFIX)) {
+            return pattern.substring(LITERAL_PREFIX.length());
+        }
+        for (int i = 0; i < pattern.length(); i++) {
+            if (REGEX_SPECIALS.indexOf(pattern.charAt(i)) >= 0) {
+                return null;
+            }
+        }
+        return pattern;
+    }
+
+    /**
+     * @return The encodings of a literal to search for: the ASCII bytes of
+     * an ASCII literal, otherwise the UTF-8 bytes, and the ISO-8859-1 bytes
+     * if every character has one.
+     */
+    private static List<byte[]> encodings(String literal) {
+        List<byte[]> res = new ArrayList<byte[]>(2);
+        if (isAscii(literal)) {
+            res.add(literal.getBytes(LATIN1));
+            return res;
+        }
+        res.add(literal.getBytes(DEFAULT_CHARSET));
+        for (int i = 0; i < literal.length(); i++) {
+            if (literal.charAt(i) > 0xff) {
+                return res;
+            }
+        }
+        res.add(literal.getBytes(LATIN1));
+        return res;
+    }
+
+    /**
+     * @return Whether the text only has ASCII characters.
+     */
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > ASCII_MAX) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Whether the charset encodes the ASCII characters as the same 
+     * single bytes, thus an ASCII line can be matched without decoding.
+     */
+    private static boolean isAsciiCompatible(Charset charset) {
+        return Arrays.equals(ASCII_PROBE.getBytes(charset),
+                ASCII_PROBE.getBytes(LATIN1));
+    }
+
+    /**
+     * @return The charset with the name, or UTF-8 if it is null or unknown.
+     */
+    private static Charset toCharset(String charsetName) {
+        if (charsetName == null || charsetName.trim().isEmpty()) {
+            return DEFAULT_CHARSET;
+        }
+        try {
+            return Charset.forName(charsetName.trim());
+        } catch (IllegalCharsetNameException e) {
+            return DEFAULT_CHARSET;
+        } catch (UnsupportedCharsetException e) {
+            return DEFAULT_CHARSET;
+        }
+    }
+
+    private static int[] newRow() {
+        int[] row = new int[256];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private static int[] append(int[] ids, int id) {
+        if (ids == null) {
+            return new int[] {id};
+        }
+        int[] res = Arrays.copyOf(ids, ids.length + 1);
+        res[ids.length] = id;
+        return res;
+    }
+
+    private static int[] merge(int[] a, int[] b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        int[] res = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, res, a.length, b.length);
+        return res;
+    }
+
+    /**
+     * A view of bytes as ISO-8859-1 characters, without copying them.
+     */
+    private static class ByteCharSequence implements CharSequence {
+        private final byte[] bytes;
+        private final int offset;
+        private int length;
+
+        ByteCharSequence(byte[] bytes) {
+            this(bytes, 0, 0);
+        }
+
+        ByteCharSequence(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[offset + index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new ByteCharSequence(bytes, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, offset, length, LATIN1);
+        }
+    }
+}
@@ -11,14 +11,8 @@ import java.util.regex.Pattern;
 
 import javax.annotation.Resource;
 import javax.annotation.Resources;
-import org.jwat.common.ByteCountingPushBackInputStream;
-import org.jwat.common.ContentType;
-import org.jwat.common.HttpHeader;
 
 import dk.netarkivet.common.exceptions.IOFailure;
-import dk.netarkivet.common.utils.archive.ArchiveBatchJob;
-import dk.netarkivet.common.utils.archive.ArchiveHeaderBase;
-import dk.netarkivet.common.utils.archive.ArchiveRecordBase;
 
 /**
  * Batchjob for performing text-searching through the content of arc-records.
@@ -38,23 +32,25 @@ import dk.netarkivet.common.utils.archive.ArchiveRecordBase;
             + "([0][1-9]|[1][0-2])" + "[0-9]{2}" 
             + "(([\\x2000]|\\p{Blank})*|-|~|-|_|-)" + "([0-9]{4})", 
                 type=batchjobs.ContentSearch.class)})
-public class ContentSearch extends ArchiveBatchJob {
+public class ContentSearch extends ArchiveRecordBatchJob {
 
     private String mimePattern;
     private String textPattern;
+    /** The text-pattern, compiled once for all the records.*/
+    private ContentScanner scanner;
     private long findings = 0L;
-    private long total = 0L;
 
     public ContentSearch(String mimePattern, String textPattern) {
         this.mimePattern = mimePattern;
         this.textPattern = textPattern;
+        this.scanner = new ContentScanner(textPattern);
     }
 
     @Override
     public void finish(OutputStream out) {
         String res = "Found " + findings + " urls which matches the "
                 + "text-pattern '" + textPattern + "', which also matches the "
-                + "mimetype pattern " + mimePattern + " out of " + total 
+                + "mimetype pattern " + mimePattern + " out of " + records 
                 + " urls.";
         try {
             out.write(new String("\n").getBytes());
@@ -69,35 +65,35 @@ public class ContentSearch extends ArchiveBatchJob {
         // Do nothing
     }
 
-   
-    public void processArcRecord(ArchiveRecordBase record, OutputStream out) {
-        total++;
-        ArchiveHeaderBase metadata = record.getHeader();
-       
-        try {
-            if(Pattern.matches(mimePattern, metadata.getMimetype())) {
-                // load content and match for text-pattern.
-                BufferedReader br = new BufferedReader(new InputStreamReader(record.getInputStream()));
-                Pattern regex = Pattern.compile(textPattern);
-                try {
-                    String line;
+    @Override
+    protected void processArcRecord(ArchiveRecordContext context,
+            OutputStream out) throws IOException {
+        if(Pattern.matches(mimePattern, context.getRecordMimetype())) {
+            searchContent(context, out);
+        }
+    }
 
-                    while ((line = br.readLine()) != null) {
-                        if(regex.matcher(line).find()) {
-                            findings++;
-                            out.write(new String("\n" 
-                                    + metadata.getUrl()).getBytes());
-                            return;
-                        }
-                    }
-                } finally {
-                    br.close();
-                }
-            }
-        } catch (IOException e) {
-            throw new IOFailure("Could not handle url '" + metadata.getUrl() 
-                    + "' with mimetype '" + metadata.getMimetype() + " for "
-                    + "mimetype pattern '" + mimePattern + "'.", e);
+    @Override
+    protected void processWarcResponse(ArchiveRecordContext context,
+            OutputStream out) throws IOException {
+        String payloadMime = context.getPayloadMimetype();
+        if (payloadMime != null && Pattern.matches(mimePattern, payloadMime)) {
+            searchContent(context, out);
+        }
+    }
+
+    /**
+     * Searches the rest of the content of the record for the text-pattern,
+     * and writes the url of the record, if found.
+     */
+    private void searchContent(ArchiveRecordContext context, OutputStream out)
+            throws IOException {
+        // The stream is not closed, since the record is closed by the
+        // archive reader.
+        if(!scanner.scan(context.getInputStream(), context.getCharset())
+                .isEmpty()) {
+            findings++;
+            out.write(new String("\n" + context.getUrl()).getBytes());
         }
     }
 
@@ -131,80 +127,4 @@ public class ContentSearch extends ArchiveBatchJob {
             return false;
         }
     }
-    
-    @Override
-    public void processRecord(ArchiveRecordBase record, OutputStream out) {
-        total++;
-        if (record.bIsWarc) {
-            processWarcRecord(record, out);
-        } else if (record.bIsArc) {
-            processArcRecord(record, out);
-        }
-    }
-    
-    public void processWarcRecord(ArchiveRecordBase record, OutputStream out) {  
-        ArchiveHeaderBase header = record.getHeader();
-        String mimeType = header.getMimetype();
-        String url = header.getUrl();
-        String msgType;
-        ContentType recordContentType = ContentType.parseContentType(mimeType);
-        try {
-            if (recordContentType != null) {
-                if ("application".equals(recordContentType.contentType)
-                    && "http".equals(recordContentType.mediaType)) {
-                msgType = recordContentType.getParameter("msgtype");
-                    if (!"response".equals(msgType)) {
-                        // don't do anything
-                        return;
-                    }
-                    String payloadMime = getMimeString(record.getInputStream(), header);
-                    if (Pattern.matches(mimePattern, payloadMime)) {
-                        BufferedReader br = new BufferedReader(new InputStreamReader(record.getInputStream()));
-                        Pattern regex = Pattern.compile(textPattern);
-                        try {
-                            String line;
-
-                            while ((line = br.readLine()) != null) {
-                                if(regex.matcher(line).find()) {
-                                    findings++;
-                                    out.write(new String("\n" + url).getBytes());
-                                    return;
-                                }
-                            }
-                        } finally {
-                            br.close();
-                        }
-                    }
-                     
-                } else {
-                    // don't do anything
-                    return;
-                }
-            }
-        } catch (Throwable e) {
-            throw new IOFailure("Bad record.", e);
-        }
-    }
-
-    private String getMimeString(InputStream sar, ArchiveHeaderBase header) { 
-        ByteCountingPushBackInputStream pbin = new ByteCountingPushBackInputStream(sar, 8192);
-        HttpHeader httpResponse = null;
-        ContentType payloadContentType = null;
-        String resultString = "\n";
-        try {
-            httpResponse = HttpHeader.processPayload(HttpHeader.HT_RESPONSE,
-                    pbin, header.getLength(), null);     
-            if (httpResponse != null && httpResponse.contentType != null) {
-                payloadContentType = ContentType.parseContentType(httpResponse.contentType);
-                if (payloadContentType != null) {
-                    resultString = payloadContentType.toStringShort() 
-                            + "##" + httpResponse.getPayloadLength() + "\n";
-                } 
-            }
-        } catch (IOException e) {
-            throw new IOFailure("Error reading WARC httpresponse header", e);
-        }
-        return resultString;
-    }
-    
 }
@@ -12,14 +12,7 @@ import java.util.regex.Pattern;
 import javax.annotation.Resource;
 import javax.annotation.Resources;
 
-import org.jwat.common.ByteCountingPushBackInputStream;
-import org.jwat.common.ContentType;
-import org.jwat.common.HttpHeader;
-
 import dk.netarkivet.common.exceptions.IOFailure;
-import dk.netarkivet.common.utils.archive.ArchiveBatchJob;
-import dk.netarkivet.common.utils.archive.ArchiveHeaderBase;
-import dk.netarkivet.common.utils.archive.ArchiveRecordBase;
 
 @SuppressWarnings("serial")
 @Resources(value = {
@@ -29,11 +22,10 @@ import dk.netarkivet.common.utils.archive.ArchiveRecordBase;
             + "mimetype, which matches a given regular expression.", 
                 type=batchjobs.MimeSearch.class)})
 
-public class MimeSearch extends ArchiveBatchJob {
+public class MimeSearch extends ArchiveRecordBatchJob {
 
     private String mimePattern;
     private long findings = 0L;
-    private long total = 0L;
 
     public MimeSearch(String mimePattern) {
         this.mimePattern = mimePattern;
@@ -42,7 +34,7 @@ public class MimeSearch extends ArchiveBatchJob {
     @Override
     public void finish(OutputStream out) {
         String res = "Found " + findings + " urls with mimetype matching the "
-                + "pattern " + mimePattern + " out of " + total + " urls.";
+                + "pattern " + mimePattern + " out of " + records + " urls.";
         try {
             out.write(new String("\n").getBytes());
             out.write(res.getBytes());
@@ -56,19 +48,22 @@ public class MimeSearch extends ArchiveBatchJob {
         // Do nothing
     }
 
-    public void processArcRecord(ArchiveRecordBase record, OutputStream out) {
-        total++;
-        ArchiveHeaderBase metadata = record.getHeader();
-        
-        try {
-            if(Pattern.matches(mimePattern, metadata.getMimetype())) {
-                findings++;
-                out.write(new String("\n" + metadata.getUrl()).getBytes());
-            }
-        } catch (IOException e) {
-            throw new IOFailure("Could not handle url '" + metadata.getUrl() 
-                    + "' with mimetype '" + metadata.getMimetype() + " for "
-                    + "mimetype pattern '" + mimePattern + "'.", e);
+    @Override
+    protected void processArcRecord(ArchiveRecordContext context,
+            OutputStream out) throws IOException {
+        if(Pattern.matches(mimePattern, context.getRecordMimetype())) {
+            findings++;
+            out.write(new String("\n" + context.getUrl()).getBytes());
+        }
+    }
+
+    @Override
+    protected void processWarcResponse(ArchiveRecordContext context,
+            OutputStream out) throws IOException {
+        String payloadMime = context.getPayloadMimetype();
+        if(payloadMime != null && Pattern.matches(mimePattern, payloadMime)) {
+            findings++;
+            out.write(new String("\n" + context.getUrl()).getBytes());
         }
     }
 
@@ -103,65 +98,4 @@ public class MimeSearch extends ArchiveBatchJob {
             return false;
         }
     }
-    
-    public void processWarcRecord(ArchiveRecordBase record, OutputStream out) {
-        ArchiveHeaderBase header = record.getHeader();
-        String mimeType = header.getMimetype();
-        String url = header.getUrl();
-        String msgType;
-        ContentType recordContentType = ContentType.parseContentType(mimeType);
-        try {
-            if (recordContentType != null) {
-                if ("application".equals(recordContentType.contentType)
-                    && "http".equals(recordContentType.mediaType)) {
-                    msgType = recordContentType.getParameter("msgtype");
-                    if (!"response".equals(msgType)) {
-                        // don't do anything
-                        return;
-                    }
-                    String mimeString = getMimeString(record.getInputStream(), header); 
-                    if(Pattern.matches(mimePattern, mimeString)) {
-                        findings++;
-                        out.write(new String("\n" + url).getBytes());
-                    }
-                } else {
-                    // don't do anything
-                    return;
-                }
-            }
-        } catch (Throwable e) {
-            throw new IOFailure("Bad record ", e);
-        }
-    }
-    
-    private String getMimeString(InputStream sar, ArchiveHeaderBase header) { 
-        ByteCountingPushBackInputStream pbin = new ByteCountingPushBackInputStream(sar, 8192);
-        HttpHeader httpResponse = null;
-        ContentType payloadContentType = null;
-        String resultString = "\n";
-        try {
-            httpResponse = HttpHeader.processPayload(HttpHeader.HT_RESPONSE,
-                    pbin, header.getLength(), null);     
-            if (httpResponse != null && httpResponse.contentType != null) {
-                payloadContentType = ContentType.parseContentType(httpResponse.contentType);
-                if (payloadContentType != null) {
-                    resultString = payloadContentType.toStringShort() 
-                            + "##" + httpResponse.getPayloadLength() + "\n";
-                } 
-            }
-        } catch (IOException e) {
-            throw new IOFailure("Error reading WARC httpresponse header", e);
-        }
-        return resultString;
-    }
-
-    @Override
-    public void processRecord(ArchiveRecordBase record, OutputStream out) {
-        if (record.bIsWarc) {
-            processWarcRecord(record, out);
-        } else if (record.bIsArc) {
-            processArcRecord(record, out);
-        }
-        
-    }
 }
@@ -0,0 +1,154 @@
+package batchjobs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.annotation.Resource;
+import javax.annotation.Resources;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * Batchjob for searching the content of the records for several patterns
+ * in a single pass. For each record with a match, the url is written
+ * together with the numbers of the patterns which were found:
+ * <br/> url##0,2
+ * <br/>
+ * <br/>The patterns are separated by '##', and are numbered from 0 in the
+ * given order. A pattern starting with 'literal:' is a literal text,
+ * otherwise it is a regular expression, which is matched line by line.
+ * Should only be used on records with text mimetype (e.g. matching text/.*).
+ */
+@SuppressWarnings("serial")
+@Resources(value = {
+        @Resource(name="MimePattern", description="The regular expression for "
+            + "the mimetype.", type=java.lang.String.class),
+        @Resource(name="TextPatterns", description="The patterns for matching "
+            + "text, separated by '##'. Patterns starting with 'literal:' "
+            + "are literal texts, the others are regular expressions.",
+            type=java.lang.String.class),
+        @Resource(description="Batchjob for searching the content of "
+            + "arc- and warc-records for several patterns in a single pass. "
+            + "Writes the url of the records with a match, together with the "
+            + "numbers of the patterns which were found.",
+                type=batchjobs.MultiContentSearch.class)})
+public class MultiContentSearch extends ArchiveRecordBatchJob {
+    /** The separator between the patterns, and between url and numbers.*/
+    public static final String SEPARATOR = "##";
+
+    private String mimePattern;
+    private Pattern mimeRegex;
+    private ContentScanner scanner;
+    /** The number of urls, where each pattern was found.*/
+    private long[] findings;
+    /** The number of urls with a matching mimetype, which were searched.*/
+    private long searched = 0L;
+
+    public MultiContentSearch(String mimePattern, String textPatterns) {
+        this.mimePattern = mimePattern;
+        this.mimeRegex = Pattern.compile(mimePattern);
+        this.scanner = new ContentScanner(textPatterns.split(SEPARATOR));
+        this.findings = new long[scanner.getPatternCount()];
+    }
+
+    @Override
+    public void initialize(OutputStream arg0) {
+        // Do nothing
+    }
+
+    @Override
+    public void finish(OutputStream out) {
+        StringBuilder res = new StringBuilder("\n");
+        for (int id = 0; id < findings.length; id++) {
+            res.append("Pattern " + id + " '" + scanner.getPattern(id)
+                    + "' was found in " + findings[id] + " urls.\n");
+        }
+        res.append("Searched " + searched + " urls, with a mimetype "
+                + "matching the pattern " + mimePattern + ".");
+        try {
+            out.write(res.toString().getBytes());
+        } catch (IOException e) {
+            throw new IOFailure("Could not write string: " + res, e);
+        }
+    }
+
+    @Override
+    protected void processArcRecord(ArchiveRecordContext context,
+            OutputStream out) throws IOException {
+        if (mimeRegex.matcher(context.getRecordMimetype()).matches()) {
+            searchContent(context, out);
+        }
+    }
+
+    @Override
+    protected void processWarcResponse(ArchiveRecordContext context,
+            OutputStream out) throws IOException {
+        String payloadMime = context.getPayloadMimetype();
+        if (payloadMime != null && mimeRegex.matcher(payloadMime).matches()) {
+            searchContent(context, out);
+        }
+    }
+
+    /**
+     * Scans the rest of the content of the record, and writes the url and
+     * the numbers of the patterns which were found.
+     */
+    private void searchContent(ArchiveRecordContext context, OutputStream out)
+            throws IOException {
+        searched++;
+        BitSet found = scanner.scan(context.getInputStream(),
+                context.getCharset());
+        if (found.isEmpty()) {
+            return;
+        }
+        StringBuilder res = new StringBuilder("\n");
+        res.append(context.getUrl());
+        res.append(SEPARATOR);
+        for (int id = found.nextSetBit(0); id >= 0;
+                id = found.nextSetBit(id + 1)) {
+            findings[id]++;
+            res.append(id);
+            res.append(',');
+        }
+        res.setLength(res.length() - 1);
+        out.write(res.toString().getBytes());
+    }
+
+    @Override
+    public boolean postProcess(InputStream input, OutputStream output) {
+        try {
+            BufferedReader br = new BufferedReader(
+                    new InputStreamReader(input));
+
+            List<String> urls = new ArrayList<String>();
+
+            String line = "";
+            // collect all the urls, and print the other stuff.
+            while((line = br.readLine()) != null) {
+                if(line.contains(SEPARATOR)) {
+                    urls.add(line);
+                } else if(!line.isEmpty()) {
+                    output.write(new String(line + "\n").getBytes());
+                }
+            }
+
+            output.write(new String("\n").getBytes());
+            // print the urls at the end.
+            for(String url : urls) {
+                output.write(new String(url + "\n").getBytes());
+            }
+
+            return true;
+        } catch (Exception e) {
+
+            return false;
+        }
+    }
+}
@@ -12,14 +12,7 @@ import java.util.regex.Pattern;
 import javax.annotation.Resource;
 import javax.annotation.Resources;
 
-import org.jwat.common.ByteCountingPushBackInputStream;
-import org.jwat.common.ContentType;
-import org.jwat.common.HttpHeader;
-
 import dk.netarkivet.common.exceptions.IOFailure;
-import dk.netarkivet.common.utils.archive.ArchiveBatchJob;
-import dk.netarkivet.common.utils.archive.ArchiveHeaderBase;
-import dk.netarkivet.common.utils.archive.ArchiveRecordBase;
 
 @SuppressWarnings("serial")
 @Resources(value = {
@@ -31,12 +24,11 @@ import dk.netarkivet.common.utils.archive.ArchiveRecordBase;
             + "a given regular expression and has a mimetype, which matches "
             + "another given regular expression.", 
                 type=batchjobs.UrlAndMimeSearch.class)})
-public class UrlAndMimeSearch extends ArchiveBatchJob {
+public class UrlAndMimeSearch extends ArchiveRecordBatchJob {
 
     private String mimePattern;
     private String urlPattern;
     private long findings = 0L;
-    private long total = 0L;
     
     public UrlAndMimeSearch(String mimeRegex, String urlRegex) {
         this.mimePattern = mimeRegex;
@@ -47,7 +39,7 @@ public class UrlAndMimeSearch extends ArchiveBatchJob {
     public void finish(OutputStream out) {
         String res = "Found " + findings + " urls which matches the pattern "
                 + urlPattern + " and with a mimetype which matching the "
-                + "pattern " + mimePattern + " out of " + total + " urls.";
+                + "pattern " + mimePattern + " out of " + records + " urls.";
         try {
             out.write(new String("\n").getBytes());
             out.write(res.getBytes());
@@ -61,20 +53,30 @@ public class UrlAndMimeSearch extends ArchiveBatchJob {
         // Do nothing
     }
 
-    
-    public void processArcRecord(ArchiveRecordBase record, OutputStream out) {
-        ArchiveHeaderBase metadata = record.getHeader();
-        try {
-            if(Pattern.matches(urlPattern, metadata.getUrl()) 
-                    && Pattern.matches(mimePattern, metadata.getMimetype())) {
-                findings++;
-                out.write(new String("\n" + metadata.getUrl()).getBytes());
-            }
-        } catch (IOException e) {
-            throw new IOFailure("Could not handle url '" + metadata.getUrl() 
-                    + "' with mimetype '" + metadata.getMimetype() + " for "
-                    + " the url pattern '" + urlPattern + "' and mimetype "
-                    + "pattern '" + mimePattern + "'.", e);
+
+    @Override
+    protected void processArcRecord(ArchiveRecordContext context,
+            OutputStream out) throws IOException {
+        String url = context.getUrl();
+        if(url != null && Pattern.matches(urlPattern, url) 
+                && Pattern.matches(mimePattern, context.getRecordMimetype())) {
+            findings++;
+            out.write(new String("\n" + url).getBytes());
+        }
+    }
+
+    @Override
+    protected void processWarcResponse(ArchiveRecordContext context,
+            OutputStream out) throws IOException {
+        // only parse the HTTP header, when the url matches.
+        String url = context.getUrl();
+        if (url == null || !Pattern.matches(urlPattern, url)) {
+            return;
+        }
+        String payloadMime = context.getPayloadMimetype();
+        if(payloadMime != null && Pattern.matches(mimePattern, payloadMime)) {
+            findings++;
+            out.write(new String("\n" + url).getBytes());
         }
     }
 
@@ -109,70 +111,4 @@ public class UrlAndMimeSearch extends ArchiveBatchJob {
             return false;
         }
     }
-
-    @Override
-    public void processRecord(ArchiveRecordBase record, OutputStream out) {
-        total++;
-        if (record.bIsWarc) {
-            processWarcRecord(record, out);
-        } else if (record.bIsArc) {
-            processArcRecord(record, out);
-        }
-        
-    }
-    
-    public void processWarcRecord(ArchiveRecordBase record, OutputStream out) {
-        ArchiveHeaderBase header = record.getHeader();
-        String mimeType = header.getMimetype();
-        String url = header.getUrl();
-        String msgType;
-        try {
-            if (Pattern.matches(urlPattern, url)) {
-                ContentType recordContentType = ContentType.parseContentType(mimeType);
-
-                if (recordContentType != null) {
-                    if ("application".equals(recordContentType.contentType)
-                            && "http".equals(recordContentType.mediaType)) {
-                        msgType = recordContentType.getParameter("msgtype");
-                        if (!"response".equals(msgType)) {
-                            // don't do anything
-                            return;
-                        }
-                        String mimeString = getMimeString(record.getInputStream(), header); 
-                        if(Pattern.matches(mimePattern, mimeString)) {
-                            findings++;
-                            out.write(new String("\n" + url).getBytes());
-                        }
-                    } else {
-                        // don't do anything
-                        return;
-                    }
-                }
-            }
-        } catch (Throwable e) {
-            throw new IOFailure("Bad record ", e);
-        }
-    }
-    
-    private String getMimeString(InputStream sar, ArchiveHeaderBase header) { 
-        ByteCountingPushBackInputStream pbin = new ByteCountingPushBackInputStream(sar, 8192);
-        HttpHeader httpResponse = null;
-        ContentType payloadContentType = null;
-        String resultString = "\n";
-        try {
-            httpResponse = HttpHeader.processPayload(HttpHeader.HT_RESPONSE,
-                    pbin, header.getLength(), null);     
-            if (httpResponse != null && httpResponse.contentType != null) {
-                payloadContentType = ContentType.parseContentType(httpResponse.contentType);
-                if (payloadContentType != null) {
-                    resultString = payloadContentType.toStringShort() 
-                            + "##" + httpResponse.getPayloadLength() + "\n";
-                } 
-            }
-        } catch (IOException e) {
-            throw new IOFailure("Error reading WARC httpresponse header", e);
-        }
-        return resultString;
-    }
-    
 }
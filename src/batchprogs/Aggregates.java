@@ -0,0 +1,491 @@
+package batchprogs;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Named statistics for a batchjob, which can be merged across the outputs
+ * of many batchjobs.
+ *
+ * The statistics are kept on the job instance, and are updated through
+ * synchronized methods, thus several files can be handled at the same time.
+ * In 'finish' the statistics are written as a binary block, and in
+ * 'postProcess' the blocks from every output are read and merged. Merging
+ * is associative, so the blocks can be merged in any grouping.
+ *
+ * A block is: the magic 'AGG1', the length of the content as an int, and
+ * the content. Anything between the blocks is skipped when reading.
+ */
+@SuppressWarnings("serial")
+public class Aggregates implements Serializable {
+    /** The magic bytes starting a block.*/
+    private static final byte[] MAGIC = {'A', 'G', 'G', '1'};
+
+    private static final byte TYPE_COUNTER = 1;
+    private static final byte TYPE_SUM = 2;
+    private static final byte TYPE_HISTOGRAM = 3;
+    private static final byte TYPE_KEYED = 4;
+
+    /** The statistics by name, in the order they were made.*/
+    private final Map<String, Aggregate> aggregates =
+            new LinkedHashMap<String, Aggregate>();
+
+    /**
+     * @param name The name of the counter.
+     * @return The counter with the name. Made if it does not exist.
+     */
+    public synchronized Counter counter(String name) {
+        Aggregate a = aggregates.get(name);
+        if (a == null) {
+            a = new Counter();
+            aggregates.put(name, a);
+        }
+        return (Counter) a;
+    }
+
+    /**
+     * @param name The name of the sum.
+     * @return The sum with the name. Made if it does not exist.
+     */
+    public synchronized Sum sum(String name) {
+        Aggregate a = aggregates.get(name);
+        if (a == null) {
+            a = new Sum();
+            aggregates.put(name, a);
+        }
+        return (Sum) a;
+    }
+
+    /**
+     * @param name The name of the histogram.
+     * @param bounds The increasing upper bounds (exclusive) of the buckets.
+     * A last bucket is added for the values above the last bound.
+     * @return The histogram with the name. Made if it does not exist.
+     */
+    public synchronized Histogram histogram(String name, long... bounds) {
+        Aggregate a = aggregates.get(name);
+        if (a == null) {
+            a = new Histogram(bounds);
+            aggregates.put(name, a);
+        }
+        return (Histogram) a;
+    }
+
+    /**
+     * @param name The name of the keyed sums.
+     * @return The keyed sums with the name. Made if it does not exist.
+     */
+    public synchronized KeyedSums keyed(String name) {
+        Aggregate a = aggregates.get(name);
+        if (a == null) {
+            a = new KeyedSums();
+            aggregates.put(name, a);
+        }
+        return (KeyedSums) a;
+    }
+
+    /**
+     * Merges other statistics into these. Statistics which only exist in
+     * the other are copied.
+     * @param other The other statistics.
+     */
+    public synchronized void merge(Aggregates other) {
+        for (Map.Entry<String, Aggregate> e : other.aggregates.entrySet()) {
+            Aggregate mine = aggregates.get(e.getKey());
+            if (mine == null) {
+                mine = newAggregate(e.getValue().type());
+                if (mine instanceof Histogram) {
+                    mine = new Histogram(((Histogram) e.getValue()).bounds);
+                }
+                aggregates.put(e.getKey(), mine);
+            }
+            mine.merge(e.getValue());
+        }
+    }
+
+    /**
+     * Writes the statistics as a binary block.
+     * @param out The stream to write to.
+     * @throws IOException If the block cannot be written.
+     */
+    public synchronized void write(OutputStream out) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(content);
+        dos.writeInt(aggregates.size());
+        for (Map.Entry<String, Aggregate> e : aggregates.entrySet()) {
+            dos.writeByte(e.getValue().type());
+            dos.writeUTF(e.getKey());
+            e.getValue().write(dos);
+        }
+        dos.flush();
+
+        DataOutputStream header = new DataOutputStream(out);
+        header.write(MAGIC);
+        header.writeInt(content.size());
+        content.writeTo(out);
+        out.flush();
+    }
+
+    /**
+     * Reads every block in the stream, and merges them into new statistics.
+     * @param in The stream with the blocks.
+     * @return The merged statistics.
+     * @throws IOException If a block cannot be read.
+     */
+    public static Aggregates readAll(InputStream in) throws IOException {
+        Aggregates res = new Aggregates();
+        DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(in));
+        while (skipToMagic(dis)) {
+            byte[] content = new byte[dis.readInt()];
+            dis.readFully(content);
+            res.merge(readBlock(new DataInputStream(
+                    new ByteArrayInputStream(content))));
+        }
+        return res;
+    }
+
+    /**
+     * Reads the content of a single block.
+     */
+    private static Aggregates readBlock(DataInputStream dis)
+            throws IOException {
+        Aggregates res = new Aggregates();
+        int count = dis.readInt();
+        for (int i = 0; i < count; i++) {
+            byte type = dis.readByte();
+            String name = dis.readUTF();
+            Aggregate a = newAggregate(type);
+            a.read(dis);
+            res.aggregates.put(name, a);
+        }
+        return res;
+    }
+
+    /**
+     * Skips the bytes until after the next magic.
+     * @return Whether a magic was found before the end of the stream.
+     */
+    private static boolean skipToMagic(DataInputStream dis)
+            throws IOException {
+        int matched = 0;
+        int b;
+        while ((b = dis.read()) != -1) {
+            if (b == MAGIC[matched]) {
+                matched++;
+                if (matched == MAGIC.length) {
+                    return true;
+                }
+            } else {
+                matched = (b == MAGIC[0]) ? 1 : 0;
+            }
+        }
+        return false;
+    }
+
+    private static Aggregate newAggregate(byte type) {
+        switch (type) {
+        case TYPE_COUNTER:
+            return new Counter();
+        case TYPE_SUM:
+            return new Sum();
+        case TYPE_HISTOGRAM:
+            return new Histogram(new long[0]);
+        case TYPE_KEYED:
+            return new KeyedSums();
+        default:
+            throw new IllegalStateException("Unknown aggregate type: " + type);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder res = new StringBuilder();
+        for (Map.Entry<String, Aggregate> e : aggregates.entrySet()) {
+            e.getValue().format(e.getKey(), res);
+        }
+        return res.toString();
+    }
+
+    /**
+     * A single named statistic.
+     */
+    private abstract static class Aggregate implements Serializable {
+        abstract byte type();
+        abstract void merge(Aggregate other);
+        abstract void write(DataOutputStream out) throws IOException;
+        abstract void read(DataInputStream in) throws IOException;
+        abstract void format(String name, StringBuilder res);
+    }
+
+    /**
+     * Counts occurrences.
+     */
+    public static class Counter extends Aggregate {
+        private long count = 0L;
+
+        public synchronized void increment() {
+            count++;
+        }
+
+        public synchronized void add(long n) {
+            count += n;
+        }
+
+        public synchronized long get() {
+            return count;
+        }
+
+        @Override
+        byte type() {
+            return TYPE_COUNTER;
+        }
+
+        @Override
+        synchronized void merge(Aggregate other) {
+            count += ((Counter) other).get();
+        }
+
+        @Override
+        synchronized void write(DataOutputStream out) throws IOException {
+            out.writeLong(count);
+        }
+
+        @Override
+        synchronized void read(DataInputStream in) throws IOException {
+            count = in.readLong();
+        }
+
+        @Override
+        synchronized void format(String name, StringBuilder res) {
+            res.append(name + ": " + count + "\n");
+        }
+    }
+
+    /**
+     * The number of values and their total, minimum and maximum.
+     */
+    public static class Sum extends Aggregate {
+        private long count = 0L;
+        private long total = 0L;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+
+        public synchronized void add(long value) {
+            count++;
+            total += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getTotal() {
+            return total;
+        }
+
+        public synchronized long getMin() {
+            return min;
+        }
+
+        public synchronized long getMax() {
+            return max;
+        }
+
+        @Override
+        byte type() {
+            return TYPE_SUM;
+        }
+
+        @Override
+        synchronized void merge(Aggregate other) {
+            Sum o = (Sum) other;
+            synchronized (o) {
+                count += o.count;
+                total += o.total;
+                min = Math.min(min, o.min);
+                max = Math.max(max, o.max);
+            }
+        }
+
+        @Override
+        synchronized void write(DataOutputStream out) throws IOException {
+            out.writeLong(count);
+            out.writeLong(total);
+            out.writeLong(min);
+            out.writeLong(max);
+        }
+
+        @Override
+        synchronized void read(DataInputStream in) throws IOException {
+            count = in.readLong();
+            total = in.readLong();
+            min = in.readLong();
+            max = in.readLong();
+        }
+
+        @Override
+        synchronized void format(String name, StringBuilder res) {
+            res.append(name + ": " + count + " : " + total + "\n");
+        }
+    }
+
+    /**
+     * Counts values in buckets given by upper bounds.
+     */
+    public static class Histogram extends Aggregate {
+        private long[] bounds;
+        private long[] counts;
+
+        Histogram(long[] bounds) {
+            this.bounds = bounds.clone();
+            this.counts = new long[bounds.length + 1];
+        }
+
+        public synchronized void add(long value) {
+            int i = Arrays.binarySearch(bounds, value);
+            // a value equal to a bound belongs to the next bucket.
+            counts[i >= 0 ? i + 1 : -i - 1]++;
+        }
+
+        public synchronized long[] getCounts() {
+            return counts.clone();
+        }
+
+        @Override
+        byte type() {
+            return TYPE_HISTOGRAM;
+        }
+
+        @Override
+        synchronized void merge(Aggregate other) {
+            Histogram o = (Histogram) other;
+            if (!Arrays.equals(bounds, o.bounds)) {
+                throw new IllegalStateException("Cannot merge histograms "
+                        + "with the bounds " + Arrays.toString(bounds)
+                        + " and " + Arrays.toString(o.bounds));
+            }
+            long[] oc = o.getCounts();
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += oc[i];
+            }
+        }
+
+        @Override
+        synchronized void write(DataOutputStream out) throws IOException {
+            out.writeInt(bounds.length);
+            for (long b : bounds) {
+                out.writeLong(b);
+            }
+            for (long c : counts) {
+                out.writeLong(c);
+            }
+        }
+
+        @Override
+        synchronized void read(DataInputStream in) throws IOException {
+            bounds = new long[in.readInt()];
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = in.readLong();
+            }
+            counts = new long[bounds.length + 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = in.readLong();
+            }
+        }
+
+        @Override
+        synchronized void format(String name, StringBuilder res) {
+            for (int i = 0; i < counts.length; i++) {
+                String range = (i == 0 ? "" : bounds[i - 1]) + "-"
+                        + (i == bounds.length ? "" : bounds[i]);
+                res.append(name + " " + range + ": " + counts[i] + "\n");
+            }
+        }
+    }
+
+    /**
+     * A count and total for each key, in the order the keys were added.
+     */
+    public static class KeyedSums extends Aggregate {
+        private final Map<String, long[]> sums =
+                new LinkedHashMap<String, long[]>();
+
+        public synchronized void add(String key, long value) {
+            add(key, 1L, value);
+        }
+
+        synchronized void add(String key, long count, long total) {
+            long[] s = sums.get(key);
+            if (s == null) {
+                s = new long[2];
+                sums.put(key, s);
+            }
+            s[0] += count;
+            s[1] += total;
+        }
+
+        /**
+         * @return The count and total for the key, or zeros if not found.
+         */
+        public synchronized long[] get(String key) {
+            long[] s = sums.get(key);
+            return s == null ? new long[2] : s.clone();
+        }
+
+        @Override
+        byte type() {
+            return TYPE_KEYED;
+        }
+
+        @Override
+        synchronized void merge(Aggregate other) {
+            KeyedSums o = (KeyedSums) other;
+            synchronized (o) {
+                for (Map.Entry<String, long[]> e : o.sums.entrySet()) {
+                    add(e.getKey(), e.getValue()[0], e.getValue()[1]);
+                }
+            }
+        }
+
+        @Override
+        synchronized void write(DataOutputStream out) throws IOException {
+            out.writeInt(sums.size());
+            for (Map.Entry<String, long[]> e : sums.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue()[0]);
+                out.writeLong(e.getValue()[1]);
+            }
+        }
+
+        @Override
+        synchronized void read(DataInputStream in) throws IOException {
+            sums.clear();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String key = in.readUTF();
+                add(key, in.readLong(), in.readLong());
+            }
+        }
+
+        @Override
+        synchronized void format(String name, StringBuilder res) {
+            for (Map.Entry<String, long[]> e : sums.entrySet()) {
+                res.append(name + " " + e.getKey() + ": " + e.getValue()[0]
+                        + " : " + e.getValue()[1] + "\n");
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package batchprogs;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -10,7 +11,12 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.arc.ARCBatchJob;
 
+@SuppressWarnings("serial")
 public class DeduplicationFinder extends ARCBatchJob {
+    /** Copies the DeDuplicator section of the processor reports.*/
+    private static final SectionExtractor DEDUPLICATOR_SECTION =
+            new SectionExtractor("Processor: is.hi.bok.digest.DeDuplicator",
+                    "[Host]", "UTF-8");
 
     @Override
     public void finish(OutputStream arg0) {
@@ -32,16 +38,11 @@ public class DeduplicationFinder extends ARCBatchJob {
                     !url.startsWith("metadata://netarkivet.dk/crawl/reports/processors-report.txt")) {
                 return;
             }
-  
-            String content = getInputStreamAsString(record);
-            int start = content.indexOf("Processor: is.hi.bok.digest.DeDuplicator");
-            int end = content.indexOf("[Host]", start);
-            if(end <= start) {
-                end = content.length()-1;
+
+            // copy the section directly from the record to the output.
+            if(DEDUPLICATOR_SECTION.copy(record, os)) {
+                os.write(new String("\n").getBytes());
             }
-            
-            os.write(content.substring(start, end).getBytes());
-            os.write(new String("\n").getBytes());
         } catch (IOException e) {
             throw new IOFailure("Could not dump the processor report!", e);
         }
@@ -60,21 +61,22 @@ public class DeduplicationFinder extends ARCBatchJob {
             throws ArgumentNotValid, IOFailure {
         ArgumentNotValid.checkNotNull(in, "InputStream in");
 
-        StringBuilder res = new StringBuilder();
+        // decode all the bytes at once, so multibyte characters are not
+        // split between the buffers.
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
         byte[] buf = new byte[dk.netarkivet.common.Constants.IO_BUFFER_SIZE];
         int read = 0;
         try {
             try {
                 while ((read = in.read(buf)) != -1) {
-                    res.append(new String(buf, "UTF-8"), 0, read);
+                    res.write(buf, 0, read);
                 }
             } finally {
                 in.close();
             }
+            return res.toString("UTF-8");
         } catch (IOException e) {
             throw new IOFailure( "Trouble reading inputstream '" + in + "'", e);
         }
-        
-        return res.toString();
     }
 }
@@ -1,63 +1,79 @@
 package batchprogs;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
-import org.apache.commons.io.IOUtils;
-
-import eu.planets.outputHandler.HandlerMap;
+import eu.planets.outputHandler.CountingMap;
+import eu.planets.outputHandler.HandlerOptions;
+import eu.planets.outputHandler.HandlerState;
+import eu.planets.outputHandler.ResultInput;
 
 public class MimeSizeHandler {
+    /** The size of the buffer for reading the files.*/
+    private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+    
     /**
-     * @param args
+     * Handles the files with mimetype and size lines, and prints the count 
+     * and the total size for each mimetype.
+     * The files can be preceded by the options of HandlerOptions. With a 
+     * state file, the aggregates are saved, and with the incremental option
+     * the files are folded into the saved aggregates.
+     * @param args The options and the files to be handled.
      */
     public static void main(String[] args) throws IOException {
-        if(args.length != 1) {
-            System.err.println("Takes a single argument: "
-                    + "The file to be handled!");
+        HandlerOptions options = new HandlerOptions(args);
+        args = options.getArguments();
+        if(args.length < 1) {
+            System.err.println("Takes the files to be handled as arguments!"
+                    + "\n" + HandlerOptions.usage());
             System.exit(1);
         }
         
-        File inputFile = new File(args[0]);
+        List<File> inputFiles = new ArrayList<File>(args.length);
+        for(String arg : args) {
+            File inputFile = new File(arg);
+            if(!inputFile.isFile()) {
+                System.err.println("The file '" 
+                        + inputFile.getAbsolutePath() + "' is not valid!");
+                System.exit(1);
+            }
+            inputFiles.add(inputFile);
+        }
         
-        if(!inputFile.isFile()) {
-            System.err.println("The file '" + inputFile.getAbsolutePath() 
-                    + "' is not valid!");
-            System.exit(1);
+        CountingMap mimetypeMap = new CountingMap("mimetypes");
+        CountingMap mimetypeSizeMap = new CountingMap("mimetype-size");
+        List<CountingMap> maps = Arrays.asList(mimetypeMap, mimetypeSizeMap);
+        for(CountingMap map : maps) {
+            options.configure(map);
         }
         
-        HandlerMap<String, Integer> mimetypeMap 
-                = new HandlerMap<String, Integer>("mimetypes");
-        HandlerMap<String, Long> mimetypeSizeMap 
-                = new HandlerMap<String, Long>("mimetype-size");
-        BufferedReader br = new BufferedReader(new FileReader(inputFile));
+        // fold the files into the saved aggregates, if incremental.
+        HandlerState state = null;
+        File stateFile = null;
+        if(options.isIncremental() || options.hasStateFile()) {
+            stateFile = options.getStateFile(null);
+            state = options.isIncremental() 
+                    ? HandlerState.load(stateFile, 
+                            MimeSizeHandler.class.getName())
+                    : new HandlerState(MimeSizeHandler.class.getName());
+            inputFiles = state.selectNew(inputFiles);
+            state.restore(maps);
+        }
         
-        String line;
-        while((line = br.readLine()) != null) {
-            try {
-                // Ignore empty lines
-                line = line.trim();
-                if (line.isEmpty()) {
-                    continue;
-                }
-                String[] split = line.split("#");
-
-                // Extract the variables.
-                String mimetype = split[0].toLowerCase();
-                Long size = Long.parseLong(split[split.length - 1]);
-                
-                // Put into the maps.
-                handleMap(mimetype, mimetypeMap);
-                handleMap(mimetype, size, mimetypeSizeMap);
-            } catch (Exception e) {
-                System.out.println("Bad line: '" + line + "' gave error: "
-                        + e.getMessage());
-            } finally {
-                IOUtils.closeQuietly(br);
-            }
-            
+        for(File inputFile : inputFiles) {
+            handleFile(inputFile, mimetypeMap, mimetypeSizeMap);
+        }
+        
+        // save the aggregates for the next incremental run.
+        if(state != null) {
+            state.store(maps);
+            state.markHandled(inputFiles);
+            state.save(stateFile);
         }
         
         System.out.println(mimetypeMap.toString());
@@ -65,23 +81,190 @@ public class MimeSizeHandler {
         System.out.println();
         System.out.println(mimetypeSizeMap.toString());
     }
-
-    private static void handleMap(String s, HandlerMap<String, Integer> m) {
-        if(m.containsKey(s)) {
-            // Extract the integer and increment it and put it back in.
-            Integer i = m.get(s);
-            m.put(s, i + 1);
-        } else {
-            m.put(s, 1);
+    
+    /**
+     * Handles the lines of a file. The file is read through a channel into 
+     * a large buffer, where the lines are parsed directly from the bytes:
+     * the mimetype is the bytes before the first '#', and the size is the 
+     * digits after the last '#', as in 'text/html##1234'. A gzip file is 
+     * decompressed.
+     */
+    private static void handleFile(File inputFile, CountingMap mimetypeMap,
+            CountingMap mimetypeSizeMap) throws IOException {
+        LineHandler handler = new LineHandler(mimetypeMap, mimetypeSizeMap);
+        ReadableByteChannel channel = ResultInput.openChannel(inputFile);
+        try {
+            byte[] buf = new byte[BUFFER_SIZE];
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            // the bytes in the buffer, the next byte to scan for a newline,
+            // and the start of the current line.
+            int limit = 0;
+            int scan = 0;
+            int lineStart = 0;
+            while(true) {
+                if(limit == buf.length) {
+                    if(lineStart == 0) {
+                        // the line is longer than the buffer.
+                        buf = Arrays.copyOf(buf, buf.length * 2);
+                    } else {
+                        System.arraycopy(buf, lineStart, buf, 0, 
+                                limit - lineStart);
+                        limit -= lineStart;
+                        scan -= lineStart;
+                        lineStart = 0;
+                    }
+                    bb = ByteBuffer.wrap(buf);
+                }
+                bb.limit(buf.length);
+                bb.position(limit);
+                int n = channel.read(bb);
+                if(n < 0) {
+                    break;
+                }
+                limit += n;
+                for(; scan < limit; scan++) {
+                    if(buf[scan] == '\n') {
+                        handler.handleLine(buf, lineStart, scan);
+                        lineStart = scan + 1;
+                    }
+                }
+            }
+            if(lineStart < limit) {
+                handler.handleLine(buf, lineStart, limit);
+            }
+        } finally {
+            channel.close();
         }
     }
     
-    private static void handleMap(String s, Long l, HandlerMap<String, Long> m) {
-        if(m.containsKey(s)) {
-            Long count = m.get(s);
-            m.put(s, count+l);
-        } else {
-            m.put(s, l);
+    /**
+     * Parses the lines from bytes into the maps.
+     */
+    private static class LineHandler {
+        /** The number of slots in the cache of the mimetypes.*/
+        private static final int CACHE_SIZE = 4096;
+        
+        private final CountingMap mimetypeMap;
+        private final CountingMap mimetypeSizeMap;
+        /** The lower case bytes of the cached mimetypes, by slot.*/
+        private final byte[][] cachedBytes = new byte[CACHE_SIZE][];
+        /** The cached mimetypes, by slot.*/
+        private final String[] cachedMimetypes = new String[CACHE_SIZE];
+        
+        LineHandler(CountingMap mimetypeMap, CountingMap mimetypeSizeMap) {
+            this.mimetypeMap = mimetypeMap;
+            this.mimetypeSizeMap = mimetypeSizeMap;
+        }
+        
+        /**
+         * Handles the line in the bytes from start to end.
+         */
+        void handleLine(byte[] buf, int start, int end) {
+            // Ignore the whitespace around the line, and empty lines.
+            while(start < end && (buf[start] & 0xff) <= ' ') {
+                start++;
+            }
+            while(end > start && (buf[end - 1] & 0xff) <= ' ') {
+                end--;
+            }
+            if(start == end) {
+                return;
+            }
+            
+            // The mimetype ends at the first '#'.
+            int mimeEnd = start;
+            while(mimeEnd < end && buf[mimeEnd] != '#') {
+                mimeEnd++;
+            }
+            // The size is after the last '#', ignoring any trailing '#'.
+            int sizeEnd = end;
+            while(sizeEnd > start && buf[sizeEnd - 1] == '#') {
+                sizeEnd--;
+            }
+            int sizeStart = sizeEnd;
+            while(sizeStart > start && buf[sizeStart - 1] != '#') {
+                sizeStart--;
+            }
+            
+            long size = parseSize(buf, sizeStart, sizeEnd);
+            if(size == Long.MIN_VALUE) {
+                System.out.println("Bad line: '" 
+                        + new String(buf, start, end - start) 
+                        + "' gave error: The size '" 
+                        + new String(buf, sizeStart, sizeEnd - sizeStart) 
+                        + "' is not a number.");
+                return;
+            }
+            
+            // Put into the maps.
+            String mimetype = mimetypeMap.increment(
+                    mimetype(buf, start, mimeEnd), 1L);
+            mimetypeSizeMap.increment(mimetype, size);
+        }
+        
+        /**
+         * @return The number in the bytes, or Long.MIN_VALUE if they are not
+         * a number.
+         */
+        private static long parseSize(byte[] buf, int start, int end) {
+            boolean negative = false;
+            if(start < end && (buf[start] == '-' || buf[start] == '+')) {
+                negative = buf[start] == '-';
+                start++;
+            }
+            if(start == end) {
+                return Long.MIN_VALUE;
+            }
+            long res = 0L;
+            for(int i = start; i < end; i++) {
+                int digit = buf[i] - '0';
+                if(digit < 0 || digit > 9 
+                        || res > (Long.MAX_VALUE - digit) / 10) {
+                    return Long.MIN_VALUE;
+                }
+                res = res * 10 + digit;
+            }
+            return negative ? -res : res;
+        }
+        
+        /**
+         * @return The mimetype in lower case. The mimetypes are cached by 
+         * their bytes, thus a string is only made for a new mimetype.
+         */
+        private String mimetype(byte[] buf, int start, int end) {
+            int hash = 0;
+            for(int i = start; i < end; i++) {
+                if(buf[i] < 0) {
+                    // not ASCII.
+                    return new String(buf, start, end - start).toLowerCase();
+                }
+                hash = 31 * hash + lower(buf[i]);
+            }
+            int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+            byte[] cached = cachedBytes[slot];
+            if(cached != null && cached.length == end - start) {
+                int i = 0;
+                while(i < cached.length && cached[i] == lower(buf[start + i])) {
+                    i++;
+                }
+                if(i == cached.length) {
+                    return cachedMimetypes[slot];
+                }
+            }
+            
+            byte[] bytes = new byte[end - start];
+            char[] chars = new char[end - start];
+            for(int i = 0; i < bytes.length; i++) {
+                bytes[i] = lower(buf[start + i]);
+                chars[i] = (char) bytes[i];
+            }
+            cachedBytes[slot] = bytes;
+            cachedMimetypes[slot] = new String(chars);
+            return cachedMimetypes[slot];
+        }
+        
+        private static byte lower(byte b) {
+            return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
         }
     }
 }
@@ -0,0 +1,135 @@
+package batchprogs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+
+/**
+ * Copies the section of a stream between a start marker and an end marker,
+ * without keeping the stream in memory.
+ *
+ * The bytes are scanned for the markers with the Knuth-Morris-Pratt
+ * algorithm, thus only the bytes, which may be the beginning of the end
+ * marker, are held back. The section includes the start marker, but not
+ * the end marker. If the end marker is not found, the section continues to
+ * the end of the stream.
+ */
+@SuppressWarnings("serial")
+public class SectionExtractor implements Serializable {
+    /** The size of the blocks read from the stream.*/
+    private static final int BLOCK_SIZE = 8192;
+
+    private final byte[] startMarker;
+    private final byte[] endMarker;
+    private final int[] startFail;
+    private final int[] endFail;
+
+    /**
+     * @param start The start marker.
+     * @param end The end marker.
+     * @param charset The charset for the markers, e.g. the charset of the
+     * stream.
+     */
+    public SectionExtractor(String start, String end, String charset) {
+        this.startMarker = start.getBytes(Charset.forName(charset));
+        this.endMarker = end.getBytes(Charset.forName(charset));
+        if (startMarker.length == 0 || endMarker.length == 0) {
+            throw new IllegalArgumentException("The markers must not be "
+                    + "empty.");
+        }
+        this.startFail = failure(startMarker);
+        this.endFail = failure(endMarker);
+    }
+
+    /**
+     * Copies the section from the stream. The streams are not closed.
+     * @param in The stream to copy the section from.
+     * @param out The stream to copy the section to.
+     * @return Whether the start marker was found.
+     * @throws IOException If the streams cannot be read or written.
+     */
+    public boolean copy(InputStream in, OutputStream out) throws IOException {
+        byte[] block = new byte[BLOCK_SIZE];
+        byte[] copy = new byte[Math.max(BLOCK_SIZE, endMarker.length + 1)];
+        int copied = 0;
+        boolean inSection = false;
+        // the number of bytes matching the current marker.
+        int matched = 0;
+        int n;
+        while ((n = in.read(block)) != -1) {
+            for (int i = 0; i < n; i++) {
+                byte b = block[i];
+                if (!inSection) {
+                    matched = next(startMarker, startFail, matched, b);
+                    if (matched == startMarker.length) {
+                        out.write(startMarker);
+                        inSection = true;
+                        matched = 0;
+                    }
+                    continue;
+                }
+
+                // the held back bytes are always the first 'matched' bytes
+                // of the end marker, thus the bytes no longer held back are
+                // written from the marker.
+                int held = matched;
+                matched = next(endMarker, endFail, matched, b);
+                if (matched == endMarker.length) {
+                    out.write(copy, 0, copied);
+                    return true;
+                }
+                int release = held + 1 - matched;
+                if (copied + release > copy.length) {
+                    out.write(copy, 0, copied);
+                    copied = 0;
+                }
+                if (release > held) {
+                    System.arraycopy(endMarker, 0, copy, copied, held);
+                    copy[copied + held] = b;
+                } else {
+                    System.arraycopy(endMarker, 0, copy, copied, release);
+                }
+                copied += release;
+            }
+        }
+        if (inSection) {
+            out.write(copy, 0, copied);
+            out.write(endMarker, 0, matched);
+        }
+        return inSection;
+    }
+
+    /**
+     * @return The number of bytes matching the marker after the byte.
+     */
+    private static int next(byte[] marker, int[] fail, int matched, byte b) {
+        while (matched > 0 && marker[matched] != b) {
+            matched = fail[matched - 1];
+        }
+        if (marker[matched] == b) {
+            matched++;
+        }
+        return matched;
+    }
+
+    /**
+     * @return The length of the longest proper prefix of the marker, which
+     * is also a suffix of the first i+1 bytes, for every i.
+     */
+    private static int[] failure(byte[] marker) {
+        int[] fail = new int[marker.length];
+        int k = 0;
+        for (int i = 1; i < marker.length; i++) {
+            while (k > 0 && marker[k] != marker[i]) {
+                k = fail[k - 1];
+            }
+            if (marker[k] == marker[i]) {
+                k++;
+            }
+            fail[i] = k;
+        }
+        return fail;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+package eu.planets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * Output stream, which writes to a file channel through a background thread.
+ *
+ * The written bytes are collected in one of two direct buffers. When the
+ * buffer is full it is handed to the writer thread, and the other buffer is
+ * filled in the meantime. Thus the writing threads only wait for the disc,
+ * when both buffers are full.
+ *
+ * A failure of the writer thread is thrown by the next call to write, flush
+ * or close.
+ */
+public class AsyncOutputStream extends OutputStream {
+    /** The channel to write to.*/
+    private final FileChannel channel;
+    /** The position in the channel, when this stream was made.*/
+    private final long startPosition;
+    /** The buffer being filled.*/
+    private ByteBuffer active;
+    /** The buffer being written by the writer thread, or null if none.*/
+    private ByteBuffer writing;
+    /** The empty buffer, when not being written.*/
+    private ByteBuffer spare;
+    /** The number of bytes written to this stream.*/
+    private long count = 0L;
+    /** The failure of the writer thread, if any.*/
+    private IOException failure;
+    /** Whether the stream is closed.*/
+    private boolean closed = false;
+    /** The thread writing to the channel.*/
+    private final Thread writer;
+
+    /**
+     * Constructor.
+     *
+     * @param fc The channel to write to. The writing starts at the current
+     * position of the channel.
+     * @param bufferSize The size of each of the two buffers.
+     * @throws IOException If the position of the channel cannot be read.
+     */
+    public AsyncOutputStream(FileChannel fc, int bufferSize)
+            throws IOException {
+        ArgumentNotValid.checkNotNull(fc, "FileChannel fc");
+        ArgumentNotValid.checkPositive(bufferSize, "int bufferSize");
+        this.channel = fc;
+        this.startPosition = fc.position();
+        this.active = ByteBuffer.allocateDirect(bufferSize);
+        this.spare = ByteBuffer.allocateDirect(bufferSize);
+        this.writer = new Thread(new Writer(), Constants.WRITER_THREAD_NAME);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Method for retrieving the number of bytes written to this stream.
+     *
+     * @return The number of bytes written, both those on the disc and those
+     * still in the buffers.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Method for retrieving the position in the channel after the bytes
+     * written to this stream, when they have been written to the channel.
+     *
+     * @return The position in the channel after the written bytes.
+     */
+    public synchronized long getPosition() {
+        return startPosition + count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len)
+            throws IOException {
+        if(off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        checkOpen();
+        while(len > 0) {
+            if(!active.hasRemaining()) {
+                handOver();
+            }
+            int n = Math.min(len, active.remaining());
+            active.put(b, off, n);
+            off += n;
+            len -= n;
+            count += n;
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the channel, and waits for the writer
+     * thread to finish writing them.
+     *
+     * @throws IOException If the bytes could not be written.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        checkOpen();
+        if(active.position() > 0) {
+            handOver();
+        }
+        awaitWriter();
+    }
+
+    /**
+     * Writes the buffered bytes to the channel, stops the writer thread and
+     * closes the channel.
+     *
+     * @throws IOException If the bytes could not be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+            notifyAll();
+            channel.close();
+        }
+    }
+
+    /**
+     * Hands the active buffer to the writer thread, and continues with the
+     * spare buffer. Waits for the previous buffer to be written first.
+     *
+     * @throws IOException If the writer thread has failed.
+     */
+    private void handOver() throws IOException {
+        awaitWriter();
+        active.flip();
+        writing = active;
+        active = spare;
+        spare = null;
+        notifyAll();
+    }
+
+    /**
+     * Waits for the writer thread to finish the buffer it is writing.
+     *
+     * @throws IOException If the writer thread has failed, or the waiting
+     * was interrupted.
+     */
+    private void awaitWriter() throws IOException {
+        while(writing != null && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(Constants.ERROR_MSG_WRITER_INTERRUPTED,
+                        e);
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Checks that the stream is still open and the writer has not failed.
+     *
+     * @throws IOException If closed or the writer thread has failed.
+     */
+    private void checkOpen() throws IOException {
+        if(closed) {
+            throw new IOException(Constants.ERROR_MSG_WRITER_CLOSED);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Throws the failure of the writer thread, if any.
+     *
+     * @throws IOException The failure of the writer thread.
+     */
+    private void checkFailure() throws IOException {
+        if(failure != null) {
+            throw new IOException(Constants.ERROR_MSG_WRITER_FAILED, failure);
+        }
+    }
+
+    /**
+     * Waits for the next buffer to write.
+     *
+     * @return The buffer, or null if the stream is closed.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private synchronized ByteBuffer nextBuffer() throws InterruptedException {
+        while(writing == null && !closed) {
+            wait();
+        }
+        return writing;
+    }
+
+    /**
+     * Hands back a written buffer as the spare buffer.
+     *
+     * @param buf The written buffer.
+     * @param e The failure while writing the buffer, or null.
+     */
+    private synchronized void bufferWritten(ByteBuffer buf, IOException e) {
+        buf.clear();
+        spare = buf;
+        writing = null;
+        if(e != null) {
+            failure = e;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Writes the handed over buffers to the channel. The lock is not held
+     * while writing, so the other buffer can be filled in the meantime.
+     */
+    private class Writer implements Runnable {
+        @Override
+        public void run() {
+            try {
+                ByteBuffer buf;
+                while((buf = nextBuffer()) != null) {
+                    IOException failed = null;
+                    try {
+                        while(buf.hasRemaining()) {
+                            channel.write(buf);
+                        }
+                    } catch (IOException e) {
+                        failed = e;
+                    }
+                    bufferWritten(buf, failed);
+                }
+            } catch (InterruptedException e) {
+                // stopped.
+            }
+        }
+    }
+}
@@ -66,6 +66,16 @@ public final class Batch {
     private static String jarfile;
     /** The package to distribute.*/
     private static File batchPack;
+    /** 
+     * The number of machines to install and start upon at the same time,
+     * or 0 if only the scripts should be made.
+     */
+    private static int fanOut;
+    /** 
+     * The number of seconds between the polls of the progress of the 
+     * machines, or 0 if the progress should not be collected.
+     */
+    private static long progressInterval;
 
     /** DUMMY constructor.*/
     private Batch() {}
@@ -123,6 +133,32 @@ public final class Batch {
 
         // Create the scripts.
         bc.createScripts();
+
+        // Listen for the machines, which get their files as work units.
+        WorkCoordinator coordinator = bc.startCoordinator();
+
+        // Install and start on the machines, if requested.
+        if(fanOut > 0 && !bc.deploy(fanOut)) {
+            System.err.println(Constants.ERROR_MSG_DEPLOY_FAILED);
+            System.exit(1);
+        }
+
+        // Show the progress of the machines.
+        ProgressCollector collector = null;
+        if(progressInterval > 0L) {
+            collector = bc.startProgressCollector(progressInterval);
+        }
+
+        // Hand out the work units until they are all finished.
+        if(coordinator != null) {
+            if(fanOut == 0) {
+                System.out.println(Constants.MSG_COORDINATOR_WAITING);
+            }
+            coordinator.await();
+        }
+        if(collector != null) {
+            collector.await();
+        }
     }
     
     /**
@@ -133,6 +169,58 @@ public final class Batch {
         initConfig();
         initJob();
         initBatchPack();
+        initDeploy();
+        initProgress();
+    }
+
+    /**
+     * Retrieves the number of seconds between the polls of the progress.
+     * When installing and starting on the machines, the progress is 
+     * collected by default. Exits if the argument is not a positive number.
+     */
+    private static void initProgress() {
+        String option = batchParms.getCommandLine()
+            .getOptionValue(Constants.PROGRESS_OPTION_KEY);
+        if(option == null || option.isEmpty()) {
+            progressInterval = fanOut > 0 ? Constants.DEFAULT_PROGRESS_INTERVAL
+                    : 0L;
+            return;
+        }
+
+        try {
+            progressInterval = Long.parseLong(option);
+        } catch (NumberFormatException e) {
+            progressInterval = 0L;
+        }
+        if(progressInterval <= 0L) {
+            System.err.println(Constants.ERROR_MSG_PROGRESS_ARGUMENT + option);
+            System.out.println(batchParms.listArguments());
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Retrieves the number of machines to deploy to at the same time.
+     * Exits if the argument is not a positive number.
+     */
+    private static void initDeploy() {
+        String option = batchParms.getCommandLine()
+            .getOptionValue(Constants.DEPLOY_OPTION_KEY);
+        if(option == null || option.isEmpty()) {
+            fanOut = 0;
+            return;
+        }
+
+        try {
+            fanOut = Integer.parseInt(option);
+        } catch (NumberFormatException e) {
+            fanOut = 0;
+        }
+        if(fanOut <= 0) {
+            System.err.println(Constants.ERROR_MSG_DEPLOY_ARGUMENT + option);
+            System.out.println(batchParms.listArguments());
+            System.exit(0);
+        }
     }
     
     /**
@@ -284,6 +372,11 @@ public final class Batch {
                     "The settings file.");
             options.addOption(Constants.BATCH_PACK_OPTION_KEY, hasArg,
                     "The batch package file (batch.jar)");
+            options.addOption(Constants.DEPLOY_OPTION_KEY, hasArg,
+                    "Install and start on the machines, this many at once");
+            options.addOption(Constants.PROGRESS_OPTION_KEY, hasArg,
+                    "Show the progress of the machines, polled this many "
+                            + "seconds apart");
         }
         
         /**
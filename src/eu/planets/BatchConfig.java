@@ -44,6 +44,9 @@ public abstract class BatchConfig {
     /** The batch package, which are to be used as argument when 
      * running the batch job.*/
     protected File batchPackage;
+    /** The work units cut from the directories of the machines, which get
+     * their files from the work coordinator.*/
+    protected List<WorkUnit> workUnits;
     /** Tells whether this instance has been initialised.*/
     protected boolean initialised;
     
@@ -264,6 +267,10 @@ public abstract class BatchConfig {
             createLocalStartScript(localDirectory);
         }
 
+        // Cut the directories into work units, before the machines know 
+        // whether to use them.
+        workUnits = createWorkUnits();
+
         // Create scripts to be distributed 
         for(Machine mac : macs) {
             mac.createScripts(localDirectory);
@@ -276,6 +283,161 @@ public abstract class BatchConfig {
         createStartAllScript(localDirectory);
     }
     
+    /**
+     * Enumerates the files in the directories of the machines, which use 
+     * work units, and cuts them into units of about the same size. 
+     * The work units are only used by Linux machines with directories, 
+     * which can be listed from the host, the other machines run directly 
+     * upon their directories.
+     * 
+     * @return The work units of all the machines.
+     */
+    protected List<WorkUnit> createWorkUnits() {
+        List<WorkUnit> res = new ArrayList<WorkUnit>();
+        for(Machine mac : macs) {
+            if(mac.getWorkUnitSize() <= 0L) {
+                continue;
+            }
+            if(!Constants.OPERATING_SYSTEM_LINUX.equals(mac.getOs())) {
+                System.out.println(Constants.WARN_MSG_NO_WORK_UNITS 
+                        + mac.getName());
+                mac.disableWorkUnits();
+                continue;
+            }
+            List<File> files;
+            try {
+                files = mac.listFiles();
+            } catch (IOFailure e) {
+                System.out.println(e.getMessage());
+                System.out.println(Constants.WARN_MSG_NO_WORK_UNITS 
+                        + mac.getName());
+                mac.disableWorkUnits();
+                continue;
+            }
+            if(files.isEmpty()) {
+                // nothing to hand out, thus nothing to wait for.
+                mac.disableWorkUnits();
+                continue;
+            }
+            res.addAll(WorkUnit.cut(res.size(), mac.getName(), files, 
+                    mac.getWorkUnitSize()));
+        }
+        return res;
+    }
+
+    /**
+     * Starts the work coordinator, which hands the work units to the 
+     * machines. Must be called after the scripts have been created, and 
+     * before the batch job is started on the machines.
+     * 
+     * @return The started coordinator, or null if no machine uses work 
+     * units.
+     */
+    public WorkCoordinator startCoordinator() {
+        // cannot use this function if the scripts have not been created.
+        if(workUnits == null) {
+            throw new IllegalState("Not initialised yet!");
+        }
+        if(workUnits.isEmpty()) {
+            return null;
+        }
+        WorkCoordinator coordinator = new WorkCoordinator(workUnits, 
+                Machine.getCoordinatorPort(settings), System.out);
+        coordinator.start();
+        return coordinator;
+    }
+
+    /**
+     * Installs and starts the batch job on the machines in parallel, 
+     * instead of through the install and start-all scripts. The local 
+     * directories are not run upon, this is still done by the start-all
+     * script.
+     * 
+     * The ssh and scp commands, and the number of seconds for deploying to
+     * a single machine, are taken from the settings.
+     * 
+     * @param fanOut The maximum number of machines to deploy to at the 
+     * same time.
+     * @return Whether the deployment succeeded on every machine.
+     */
+    public boolean deploy(int fanOut) {
+        ArgumentNotValid.checkPositive(fanOut, "int fanOut");
+        // cannot use this function if this instance has not been initialised.
+        if(!initialised) {
+            throw new IllegalState("Not initialised yet!");
+        }
+
+        long timeout = Constants.DEFAULT_DEPLOY_TIMEOUT;
+        String option = settings.getLeafValue(
+                Constants.SETTINGS_DEPLOY_TIMEOUT_LEAF);
+        if(option != null && !option.trim().isEmpty()) {
+            try {
+                timeout = Long.parseLong(option.trim());
+            } catch (NumberFormatException e) {
+                timeout = -1L;
+            }
+            if(timeout <= 0L) {
+                throw new IllegalState(Constants.ERROR_MSG_DEPLOY_TIMEOUT 
+                        + option);
+            }
+        }
+
+        ParallelDeployer deployer = new ParallelDeployer(macs, localDirectory,
+                getRemoteShell(), fanOut, timeout, System.out);
+        return deployer.deploy();
+    }
+
+    /**
+     * Starts collecting the progress heartbeats of the machines, and 
+     * printing the progress of the run. Must be called after the batch 
+     * job has been started on the machines.
+     * 
+     * @param intervalSeconds The number of seconds between the polls.
+     * @return The started collector, or null if no machine writes a 
+     * heartbeat, which can be read remotely.
+     */
+    public ProgressCollector startProgressCollector(long intervalSeconds) {
+        ArgumentNotValid.checkPositive(intervalSeconds, 
+                "long intervalSeconds");
+        // cannot use this function if the scripts have not been created.
+        if(workUnits == null) {
+            throw new IllegalState("Not initialised yet!");
+        }
+
+        long unitBytes = -1L;
+        if(!workUnits.isEmpty()) {
+            unitBytes = 0L;
+            for(WorkUnit unit : workUnits) {
+                unitBytes += unit.getBytes();
+            }
+        }
+        ProgressCollector collector = new ProgressCollector(macs, 
+                getRemoteShell(), localDirectory, intervalSeconds, unitBytes,
+                System.out);
+        if(!collector.hasMachines()) {
+            return null;
+        }
+        collector.start();
+        return collector;
+    }
+
+    /**
+     * Method for retrieving the ssh and scp commands from the settings.
+     * 
+     * @return The commands for reaching the machines.
+     */
+    private RemoteShell getRemoteShell() {
+        String ssh = settings.getLeafValue(Constants.SETTINGS_SSH_COMMAND_LEAF);
+        if(ssh == null || ssh.trim().isEmpty()) {
+            ssh = Constants.SSH;
+        }
+        String scp = settings.getLeafValue(Constants.SETTINGS_SCP_COMMAND_LEAF);
+        if(scp == null || scp.trim().isEmpty()) {
+            scp = Constants.SCP;
+        }
+        return new RemoteShell(ssh, scp);
+    }
+
     /**
      * Method for creating installation script.
      * Installs the batch package and the scripts on each machine.
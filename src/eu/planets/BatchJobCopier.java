@@ -0,0 +1,111 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+package eu.planets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+
+/**
+ * Makes fresh copies of a batch job, by deserializing the batch job as it
+ * was when the copier was made.
+ *
+ * Every copy is initialized with its output discarded, since the batch job 
+ * itself has written the beginning of the output. When finished, a copy 
+ * writes its own ending, as when the batch job is run on several machines, 
+ * and its exceptions and failed files are added to the batch job.
+ */
+public class BatchJobCopier {
+    /** The batch job.*/
+    private final FileBatchJob job;
+    /** The serialized batch job.*/
+    private final byte[] serializedJob;
+
+    /**
+     * Constructor. The batch job must have been initialized.
+     *
+     * @param fbj The batch job to copy.
+     * @throws IOFailure If the batch job cannot be serialized.
+     */
+    public BatchJobCopier(FileBatchJob fbj) {
+        ArgumentNotValid.checkNotNull(fbj, "FileBatchJob fbj");
+        this.job = fbj;
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(res);
+            try {
+                out.writeObject(fbj);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new IOFailure(Constants.ERROR_MSG_COPY_JOB, e);
+        }
+        this.serializedJob = res.toByteArray();
+    }
+
+    /**
+     * Makes a new copy of the batch job.
+     * 
+     * @return The initialized copy.
+     * @throws IOFailure If the batch job cannot be deserialized.
+     */
+    public FileBatchJob newCopy() {
+        FileBatchJob copy;
+        try {
+            ObjectInputStream in = new ObjectInputStream(
+                    new ByteArrayInputStream(serializedJob));
+            try {
+                copy = (FileBatchJob) in.readObject();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IOFailure(Constants.ERROR_MSG_COPY_JOB, e);
+        } catch (ClassNotFoundException e) {
+            throw new IOFailure(Constants.ERROR_MSG_COPY_JOB, e);
+        }
+        // the beginning of the output has been written by the batch job.
+        copy.initialize(new ByteArrayOutputStream());
+        return copy;
+    }
+
+    /**
+     * Lets a copy write its ending, and adds its exceptions and failed 
+     * files to the batch job.
+     * 
+     * @param copy The copy of the batch job.
+     * @param out The stream for the ending.
+     */
+    public void finish(FileBatchJob copy, OutputStream out) {
+        ArgumentNotValid.checkNotNull(copy, "FileBatchJob copy");
+        ArgumentNotValid.checkNotNull(out, "OutputStream out");
+        copy.finish(out);
+        job.getExceptions().addAll(copy.getExceptions());
+        job.getFilesFailed().addAll(copy.getFilesFailed());
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+package eu.planets;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Set;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.IllegalState;
+
+/**
+ * Journal of the files, which a batch job has finished.
+ *
+ * Each line of the journal contains the offset in the output file after the
+ * output of a file, and the path of the file:
+ * <br/> offset + TAB + path + NEWLINE
+ * <br/>
+ * <br/>A checkpoint ends with a line containing only the offset after the
+ * endings written by the batch job at the checkpoint:
+ * <br/> offset + NEWLINE
+ * <br/>
+ * <br/>The entries are kept in memory, and are first written to the journal
+ * when it is synchronised. The output must be synchronised to the disc
+ * before the journal, so the journal never points beyond the content of the
+ * output file. A line without a newline is the remains of an interrupted
+ * write, and is cut away when the journal is opened.
+ */
+public class CheckpointJournal {
+    /** The encoding of the journal.*/
+    private static final String ENCODING = "UTF-8";
+
+    /** The journal file.*/
+    private File journalFile;
+    /** The number of finished files between each synchronisation.*/
+    private int syncInterval;
+    /** The files already finished.*/
+    private Set<String> done = new HashSet<String>();
+    /** The offset in the output file after the last finished file.*/
+    private long offset = 0L;
+    /** The entries which have not yet been written to the journal.*/
+    private StringBuilder pending = new StringBuilder();
+    /** The number of entries which have not yet been written.*/
+    private int pendingCount = 0;
+    /** The stream for appending to the journal.*/
+    private FileOutputStream journalStream;
+
+    /**
+     * Constructor.
+     *
+     * @param journal The journal file. Is created if it does not exist.
+     * @param interval The number of finished files between each time the
+     * journal is written to the disc.
+     */
+    public CheckpointJournal(File journal, int interval) {
+        ArgumentNotValid.checkNotNull(journal, "File journal");
+        ArgumentNotValid.checkPositive(interval, "int interval");
+        this.journalFile = journal;
+        this.syncInterval = interval;
+    }
+
+    /**
+     * Reads the entries of an existing journal, and opens the journal for
+     * appending new entries.
+     * 
+     * @return Whether the journal existed, thus an earlier run is resumed.
+     */
+    public boolean open() {
+        if(journalStream != null) {
+            throw new IllegalState(Constants.ERROR_MSG_JOURNAL_OPEN);
+        }
+
+        boolean resumed = journalFile.exists();
+        try {
+            if(resumed) {
+                long complete = load();
+                if(complete < journalFile.length()) {
+                    cut(complete);
+                }
+            }
+            journalStream = new FileOutputStream(journalFile, true);
+        } catch (IOException e) {
+            throw new IOFailure(Constants.ERROR_MSG_JOURNAL
+                    + journalFile.getAbsolutePath(), e);
+        }
+        return resumed;
+    }
+
+    /**
+     * Reads the complete lines of the journal.
+     *
+     * @return The length of the complete lines.
+     * @throws IOException If the journal cannot be read.
+     */
+    private long load() throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(
+                journalFile));
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            long read = 0L;
+            long complete = 0L;
+            int b;
+            while((b = in.read()) != -1) {
+                read++;
+                if(b != '\n') {
+                    bytes.write(b);
+                    continue;
+                }
+                complete = read;
+                String line = bytes.toString(ENCODING);
+                bytes.reset();
+                int tab = line.indexOf(Constants.TAB);
+                if(tab > 0) {
+                    offset = Long.parseLong(line.substring(0, tab));
+                    done.add(line.substring(tab + 1));
+                } else if(line.length() > 0) {
+                    offset = Long.parseLong(line);
+                }
+            }
+            return complete;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Cuts the journal after the complete lines, thus the new entries are 
+     * not appended to the remains of an interrupted write.
+     *
+     * @param length The length of the complete lines.
+     * @throws IOException If the journal cannot be cut.
+     */
+    private void cut(long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Method for checking whether a file was finished by an earlier run.
+     *
+     * @param fil The file to check.
+     * @return Whether the file is in the journal.
+     */
+    public boolean isDone(File fil) {
+        return done.contains(fil.getAbsolutePath());
+    }
+
+    /**
+     * Method for retrieving the offset in the output file after the last
+     * file in the journal. Anything beyond this offset is output from files,
+     * which are not in the journal.
+     *
+     * @return The last consistent offset in the output file.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Adds a finished file to the journal. The entry is first written,
+     * when the journal is synchronised.
+     *
+     * @param fil The finished file.
+     * @param outputOffset The offset of the output file after the output of
+     * the file.
+     * @return Whether a checkpoint is due, where the output and then the 
+     * journal should be synchronised.
+     */
+    public boolean add(File fil, long outputOffset) {
+        String path = fil.getAbsolutePath();
+        done.add(path);
+        offset = outputOffset;
+        pending.append(outputOffset);
+        pending.append(Constants.TAB);
+        pending.append(path);
+        pending.append(Constants.NEWLINE);
+        pendingCount++;
+        return pendingCount >= syncInterval;
+    }
+
+    /**
+     * Writes the pending entries to the journal, and forces them to the disc.
+     * The output file must be forced to the disc before this is called.
+     *
+     * @throws IOException If the journal cannot be written.
+     */
+    public void sync() throws IOException {
+        if(pendingCount == 0) {
+            return;
+        }
+        journalStream.write(pending.toString().getBytes(ENCODING));
+        journalStream.getChannel().force(false);
+        pending.setLength(0);
+        pendingCount = 0;
+    }
+
+    /**
+     * Writes the pending entries and a checkpoint after them, and forces 
+     * them to the disc. The output file must be forced to the disc before 
+     * this is called.
+     * 
+     * @param outputOffset The offset of the output file after the endings
+     * written at the checkpoint.
+     * @throws IOException If the journal cannot be written.
+     */
+    public void checkpoint(long outputOffset) throws IOException {
+        offset = outputOffset;
+        pending.append(outputOffset);
+        pending.append(Constants.NEWLINE);
+        pendingCount++;
+        sync();
+    }
+
+    /**
+     * Writes the pending entries and closes the journal.
+     *
+     * @throws IOException If the journal cannot be written.
+     */
+    public void close() throws IOException {
+        if(journalStream == null) {
+            return;
+        }
+        try {
+            sync();
+        } finally {
+            journalStream.close();
+            journalStream = null;
+        }
+    }
+}
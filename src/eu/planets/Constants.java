@@ -106,6 +106,15 @@ public final class Constants {
     public static final String CHMOD_764 = "chmod 764";
     /** cd.*/
     public static final String CD = "cd";
+    /** cat.*/
+    public static final String CAT = "cat";
+    /** rm -f.*/
+    public static final String REMOVE_FORCED = "rm -f";
+    /** nohup.*/
+    public static final String NOHUP = "nohup";
+    /** End of a remote call, which is detached from the ssh session.*/
+    public static final String DETACHED_CALL_LINUX_SUFFIX = 
+        " < /dev/null > start.log 2>&1 &";
     /** End java call for linux.*/
     public static final String JAVA_CALL_LINUX_SUFFIX = 
         " < /dev/null > batch.log 2>&1 &";
@@ -145,12 +154,112 @@ public final class Constants {
     public static final int CONST_BATCH_ARGS = 3;
     /** The minimum number of arguments for running RunBatch.*/
     public static final int CONST_RUN_BATCH_ARGS = 2;
+    /** The default number of worker threads for processing files.*/
+    public static final int DEFAULT_WORKERS = 1;
+    /** The number of finished files between each write of the journal.*/
+    public static final int CHECKPOINT_SYNC_INTERVAL = 100;
     
     // default values
     /** Default regexp that matches everything. */
     public static final String DEFAULT_REGEXP = DOT + STAR;
     /** Default tmpdir to the current directory.*/
     public static final String DEFAULT_TMPDIR = DOT; 
+    /** The name prefix for the worker threads processing files.*/
+    public static final String WORKER_THREAD_NAME = "batch-worker-";
+    /** The name of the thread writing the output file.*/
+    public static final String WRITER_THREAD_NAME = "batch-output-writer";
+    /** The size of each of the two buffers for the output file.*/
+    public static final int OUTPUT_BUFFER_SIZE = 1024 * 1024;
+    /** The name of the thread monitoring the free space.*/
+    public static final String SPACE_THREAD_NAME = "batch-space-monitor";
+    /** The number of milliseconds between samples of the free space.*/
+    public static final long SPACE_SAMPLE_INTERVAL = 5000L;
+    /** The number of bytes in a megabyte.*/
+    public static final long MEGABYTE = 1024L * 1024L;
+    /** The default free space, below which the processing is paused.*/
+    public static final long DEFAULT_LOW_WATER_MARK = 100L * MEGABYTE;
+    /** The default free space, above which the processing is resumed.*/
+    public static final long DEFAULT_HIGH_WATER_MARK = 200L * MEGABYTE;
+    /** The default number of seconds for deploying to a single machine.*/
+    public static final long DEFAULT_DEPLOY_TIMEOUT = 600L;
+    /** The name prefix for the threads deploying to the machines.*/
+    public static final String DEPLOY_THREAD_NAME = "batch-deploy-";
+    /** The number of seconds for the detached start command of a machine.*/
+    public static final long DEPLOY_START_TIMEOUT = 60L;
+    /** The number of milliseconds between checks of a remote command.*/
+    public static final long DEPLOY_POLL_INTERVAL = 100L;
+    /** The number of milliseconds between updates of the deploy status.*/
+    public static final long DEPLOY_STATUS_INTERVAL = 1000L;
+    /** The default number of packages kept in the cache on a machine.*/
+    public static final int DEFAULT_PACKAGE_CACHE_SIZE = 4;
+    /** The algorithm for the digest of the packages.*/
+    public static final String PACKAGE_DIGEST_ALGORITHM = "SHA-1";
+    /** The size of the buffer for computing the digest of a package.*/
+    public static final int PACKAGE_DIGEST_BUFFER_SIZE = 64 * 1024;
+    /** The name prefix for the threads shipping the result files.*/
+    public static final String SHIP_THREAD_NAME = "batch-shipper-";
+    /** The number of milliseconds between checks for results to ship.*/
+    public static final long SHIP_POLL_INTERVAL = 1000L;
+    /** The most milliseconds shipped results wait before being shipped.*/
+    public static final long SHIP_INTERVAL = 30000L;
+    /** The number of waiting bytes, which are shipped at once.*/
+    public static final long SHIP_CHUNK_SIZE = 8L * MEGABYTE;
+    /** The size of the buffer for shipping the results.*/
+    public static final int SHIP_BUFFER_SIZE = 64 * 1024;
+    /** The default port of the work coordinator on the host.*/
+    public static final int DEFAULT_COORDINATOR_PORT = 7411;
+    /** The highest port number.*/
+    public static final int MAX_PORT = 65535;
+    /** The number of milliseconds the coordinator keeps listening after 
+     * the last unit has been finished, for machines which have not yet 
+     * asked for work.*/
+    public static final long COORDINATOR_LINGER = 60000L;
+    /** The name of the thread writing the progress heartbeat.*/
+    public static final String HEARTBEAT_THREAD_NAME = "batch-heartbeat";
+    /** The name of the thread counting the files to process.*/
+    public static final String HEARTBEAT_SCAN_THREAD_NAME = 
+        "batch-heartbeat-scan";
+    /** The number of milliseconds between the progress heartbeats.*/
+    public static final long HEARTBEAT_INTERVAL = 5000L;
+    /** The name prefix for the threads polling the progress of machines.*/
+    public static final String PROGRESS_THREAD_NAME = "batch-progress-";
+    /** The most machines polled for their progress at the same time.*/
+    public static final int PROGRESS_POLL_THREADS = 8;
+    /** The default number of seconds between polls of the progress.*/
+    public static final long DEFAULT_PROGRESS_INTERVAL = 30L;
+    /** The number of milliseconds without a new heartbeat, after which a 
+     * machine is regarded as lost.*/
+    public static final long PROGRESS_LOST_TIME = 300000L;
+    /** The name of the thread accepting connections to the coordinator.*/
+    public static final String COORDINATOR_THREAD_NAME = "batch-coordinator";
+    /** The name prefix for the threads serving the machines.*/
+    public static final String COORDINATOR_CONNECTION_THREAD_NAME = 
+        "batch-coordinator-";
+    /** The most files in a single work unit.*/
+    public static final int WORK_UNIT_MAX_FILES = 10000;
+    /** The number of milliseconds a machine waits, before asking again for 
+     * work, while other machines still are processing units.*/
+    public static final long WORK_WAIT_INTERVAL = 5000L;
+    /** The number of milliseconds between updates of the work status.*/
+    public static final long WORK_STATUS_INTERVAL = 10000L;
+    /** The encoding of the protocol between coordinator and machines.*/
+    public static final String WORK_PROTOCOL_ENCODING = "UTF-8";
+    /** The request for the next work unit: 'NEXT machine'.*/
+    public static final String WORK_REQUEST_NEXT = "NEXT";
+    /** The report of a finished work unit: 'DONE id'.*/
+    public static final String WORK_REQUEST_DONE = "DONE";
+    /** The report of a finished file of a work unit: 'FILE id path'.*/
+    public static final String WORK_REQUEST_FILE = "FILE";
+    /** The reply with a work unit: 'UNIT id count', and a line per file.*/
+    public static final String WORK_REPLY_UNIT = "UNIT";
+    /** The reply when other machines still process units: 'WAIT'.*/
+    public static final String WORK_REPLY_WAIT = "WAIT";
+    /** The reply when every unit has been finished: 'NONE'.*/
+    public static final String WORK_REPLY_NONE = "NONE";
+    /** The reply to a finished work unit or file: 'OK'.*/
+    public static final String WORK_REPLY_OK = "OK";
+    /** The name of the work units in the messages.*/
+    public static final String WORK_UNITS_NAME = "the work units";
     
     // Option keys.
     /** The jarfile option key. */
@@ -175,6 +284,24 @@ public final class Constants {
     public static final String RECURSIVE_OPTION_KEY = "R";
     /** The pattern for the regular expression to test against files.*/
     public static final String REGEX_PATTERN_OPTION_KEY = "P";
+    /** The number of worker threads processing files option key.*/
+    public static final String WORKERS_OPTION_KEY = "W";
+    /** The checkpoint journal file option key.*/
+    public static final String CHECKPOINT_OPTION_KEY = "K";
+    /** The low-water mark for the free space option key.*/
+    public static final String LOW_WATER_OPTION_KEY = "L";
+    /** The high-water mark for the free space option key.*/
+    public static final String HIGH_WATER_OPTION_KEY = "H";
+    /** The ship script (ship results while running) option key.*/
+    public static final String SHIP_SCRIPT_OPTION_KEY = "G";
+    /** The deploy (install and start in parallel) option key.*/
+    public static final String DEPLOY_OPTION_KEY = "X";
+    /** The coordinator (host:port of the work coordinator) option key.*/
+    public static final String COORDINATOR_OPTION_KEY = "U";
+    /** The machine name, for asking the coordinator for work, option key.*/
+    public static final String MACHINE_NAME_OPTION_KEY = "M";
+    /** The progress (heartbeat file, or poll interval) option key.*/
+    public static final String PROGRESS_OPTION_KEY = "T";
     
     // file names
     /** The extension for the script files for linux.*/
@@ -213,6 +340,66 @@ public final class Constants {
     /** The file name for the start script for windows.*/
     public static final String FILE_NAME_SEND_WINDOWS =
         FILE_NAME_SEND + FILE_EXTENSION_WINDOWS;
+    /** The suffix for the log of the deployment of a machine.*/
+    public static final String FILE_SUFFIX_DEPLOY_LOG = "_deploy.log";
+    /** The suffix for the log of the progress command of a machine.*/
+    public static final String FILE_SUFFIX_PROGRESS_LOG = "_progress.log";
+    /** The directory for the package cache within the install directory.*/
+    public static final String PACKAGE_CACHE_DIR = ".packages";
+    /** The suffix for a package, which is being copied to the cache.*/
+    public static final String PART_SUFFIX = ".part";
+    /** The file name of the ship script.*/
+    public static final String FILE_NAME_SHIP = "ship";
+    /** The file name for the ship script for linux.*/
+    public static final String FILE_NAME_SHIP_LINUX = 
+        FILE_NAME_SHIP + FILE_EXTENSION_LINUX;
+    /** The suffix for the file with the number of shipped bytes.*/
+    public static final String SHIPPED_SUFFIX = ".shipped";
+    /** The encoding of the file with the number of shipped bytes.*/
+    public static final String SHIPPED_ENCODING = "UTF-8";
+    /** The suffix for the shipped copy of a result file on the host.*/
+    public static final String SHIP_CHUNK_SUFFIX = ".gz";
+    /** The suffix for the marker of a completely shipped result file.*/
+    public static final String SHIP_DONE_SUFFIX = ".done";
+    /** The file name of the progress heartbeat.*/
+    public static final String FILE_NAME_PROGRESS = "progress.txt";
+    /** The suffix of the temporary file for a new heartbeat.*/
+    public static final String PROGRESS_TMP_SUFFIX = ".tmp";
+    /** The key of the number of heartbeats written so far.*/
+    public static final String PROGRESS_KEY_SEQUENCE = "sequence";
+    /** The key of the state: running or finished.*/
+    public static final String PROGRESS_KEY_STATE = "state";
+    /** The key of the number of milliseconds since the start.*/
+    public static final String PROGRESS_KEY_ELAPSED = "elapsedMillis";
+    /** The key of the number of processed files.*/
+    public static final String PROGRESS_KEY_FILES_DONE = "filesDone";
+    /** The key of the number of bytes in the processed files.*/
+    public static final String PROGRESS_KEY_BYTES_DONE = "bytesDone";
+    /** The key of the number of files skipped as finished by earlier runs.*/
+    public static final String PROGRESS_KEY_FILES_SKIPPED = "filesSkipped";
+    /** The key of the number of bytes in the skipped files.*/
+    public static final String PROGRESS_KEY_BYTES_SKIPPED = "bytesSkipped";
+    /** The key of the number of files to process, or -1 if not known.*/
+    public static final String PROGRESS_KEY_FILES_TOTAL = "filesTotal";
+    /** The key of the number of bytes to process, or -1 if not known.*/
+    public static final String PROGRESS_KEY_BYTES_TOTAL = "bytesTotal";
+    /** The key of the number of processed records, or -1 if not known.*/
+    public static final String PROGRESS_KEY_RECORDS = "records";
+    /** The key of the recent number of records per second.*/
+    public static final String PROGRESS_KEY_RECORDS_PER_SECOND = 
+        "recordsPerSecond";
+    /** The key of the recent number of bytes per second.*/
+    public static final String PROGRESS_KEY_BYTES_PER_SECOND = 
+        "bytesPerSecond";
+    /** The key of the file being processed.*/
+    public static final String PROGRESS_KEY_CURRENT_FILE = "currentFile";
+    /** The state of a running batch job.*/
+    public static final String PROGRESS_STATE_RUNNING = "RUNNING";
+    /** The state of a finished batch job.*/
+    public static final String PROGRESS_STATE_FINISHED = "FINISHED";
+    /** The name of the field with the loaded batch job in the loadable 
+     * batch jobs.*/
+    public static final String LOADED_JOB_FIELD = "loadedJob";
     
     // Attributes
     /** The operating system attribute for the machines.*/
@@ -253,6 +440,23 @@ public final class Constants {
     public static final String SETTINGS_HOST_LEAF = "host";
     /** The path to the username for the host machine from 'settings'.*/
     public static final String SETTINGS_HOST_USERNAME_LEAF = "hostUsername";
+    /** The path to the ssh command leaf from 'settings'.*/
+    public static final String SETTINGS_SSH_COMMAND_LEAF = "sshCommand";
+    /** The path to the scp command leaf from 'settings'.*/
+    public static final String SETTINGS_SCP_COMMAND_LEAF = "scpCommand";
+    /** The path to the deploy timeout (seconds) leaf from 'settings'.*/
+    public static final String SETTINGS_DEPLOY_TIMEOUT_LEAF = "deployTimeout";
+    /** The path to the package cache size leaf from 'settings'.*/
+    public static final String SETTINGS_PACKAGE_CACHE_LEAF = "packageCache";
+    /** The path to the ship results leaf from 'settings'.*/
+    public static final String SETTINGS_SHIP_RESULTS_LEAF = "shipResults";
+    /** The path to the work unit size leaf from 'settings'.*/
+    public static final String SETTINGS_WORK_UNIT_SIZE_LEAF = "workUnitSize";
+    /** The path to the coordinator port leaf from 'settings'.*/
+    public static final String SETTINGS_COORDINATOR_PORT_LEAF = 
+        "coordinatorPort";
+    /** The path to the progress heartbeat leaf from 'settings'.*/
+    public static final String SETTINGS_PROGRESS_LEAF = "progress";
 
     
     /** The error message for error in parsing the arguments.*/
@@ -366,8 +570,124 @@ public final class Constants {
     /** The error message when no access to directory by security.policy.*/
     public static final String ERROR_MSG_NO_DIR_ACCESS = 
 	"Security.policy has not given access to the following directory: ";
+    /** The error message when the worker argument is not a positive number.*/
+    public static final String ERROR_MSG_WORKERS_ARGUMENT = 
+        "The number of workers must be a positive number: ";
+    /** The error message when a water mark is not a non-negative number.*/
+    public static final String ERROR_MSG_WATER_MARK_ARGUMENT = 
+        "The water marks must be a non-negative number of megabytes: ";
+    /** The error message when the low-water mark is above the high.*/
+    public static final String ERROR_MSG_WATER_MARKS = 
+        "The low-water mark must not be above the high-water mark: ";
+    /** The error message when the water marks are set too late.*/
+    public static final String ERROR_MSG_SPACE_MARKS_LATE = 
+        "The water marks must be set before initialisation.";
+    /** The error message when the free space of a disc cannot be found.*/
+    public static final String ERROR_MSG_FILE_STORE = 
+        "Cannot find the free space of the disc for: ";
+    /** The error message when the checkpoint journal cannot be used.*/
+    public static final String ERROR_MSG_JOURNAL = 
+        "Cannot use the checkpoint journal: ";
+    /** The error message when the checkpoint journal is opened too late.*/
+    public static final String ERROR_MSG_JOURNAL_OPEN = 
+        "The checkpoint journal must be set once, before initialisation.";
+    /** The error message when the journal is ahead of the output file.*/
+    public static final String ERROR_MSG_JOURNAL_BEYOND_OUTPUT = 
+        "The checkpoint journal refers to more output than found in the "
+        + "output file: ";
+    /** The error message when interrupted while waiting for the workers.*/
+    public static final String ERROR_MSG_PARALLEL_INTERRUPTED = 
+        "Interrupted while waiting for the files to be processed.";
+    /** The error message when the batch job cannot be copied for a worker.*/
+    public static final String ERROR_MSG_COPY_JOB = 
+        "Could not copy the batch job for a worker thread.";
+    /** The error message when interrupted while waiting for the writer.*/
+    public static final String ERROR_MSG_WRITER_INTERRUPTED = 
+        "Interrupted while waiting for the output to be written.";
+    /** The error message when writing to a closed output.*/
+    public static final String ERROR_MSG_WRITER_CLOSED = 
+        "The output has been closed.";
+    /** The error message when the output could not be written.*/
+    public static final String ERROR_MSG_WRITER_FAILED = 
+        "Could not write the output file.";
+    /** The error message when the deploy argument is not positive.*/
+    public static final String ERROR_MSG_DEPLOY_ARGUMENT = 
+        "The number of machines to deploy to at once must be a positive "
+        + "number: ";
+    /** The error message when the deploy timeout is not positive.*/
+    public static final String ERROR_MSG_DEPLOY_TIMEOUT = 
+        "The deploy timeout must be a positive number of seconds: ";
+    /** The error message when interrupted while deploying.*/
+    public static final String ERROR_MSG_DEPLOY_INTERRUPTED = 
+        "Interrupted while deploying to the machines.";
+    /** The error message when the deployment failed on some machines.*/
+    public static final String ERROR_MSG_DEPLOY_FAILED = 
+        "The deployment failed on some of the machines.";
+    /** The error message when the package cache size is negative.*/
+    public static final String ERROR_MSG_PACKAGE_CACHE_SIZE = 
+        "The package cache size must be a non-negative number: ";
+    /** The error message when the digest of a package cannot be made.*/
+    public static final String ERROR_MSG_PACKAGE_DIGEST = 
+        "Cannot compute the digest of the package: ";
+    /** The error message when the shipped offset cannot be read.*/
+    public static final String ERROR_MSG_SHIPPED_OFFSET = 
+        "Cannot read the number of shipped bytes from: ";
+    /** The error message when a result file cannot be shipped.*/
+    public static final String ERROR_MSG_SHIP = 
+        "Could not ship the results of: ";
+    /** The error message when the ship script cannot be created.*/
+    public static final String ERROR_MSG_SHIP_SCRIPT = 
+        "Cannot create the ship script for machine: ";
+    /** The error message when interrupted while shipping.*/
+    public static final String ERROR_MSG_SHIP_INTERRUPTED = 
+        "Interrupted while shipping the results.";
+    /** The error message when a result file was not shipped completely.*/
+    public static final String ERROR_MSG_SHIP_INCOMPLETE = 
+        "The results were not completely shipped, they remain in: ";
+    /** The error message when the work unit size is negative.*/
+    public static final String ERROR_MSG_WORK_UNIT_SIZE = 
+        "The work unit size must be a non-negative number of MB: ";
+    /** The error message when the coordinator port is not valid.*/
+    public static final String ERROR_MSG_COORDINATOR_PORT = 
+        "The coordinator port must be a number between 1 and 65535: ";
+    /** The error message when the coordinator argument is not valid.*/
+    public static final String ERROR_MSG_COORDINATOR_ARGUMENT = 
+        "The coordinator must be given as host:port, together with the "
+        + "machine name: ";
+    /** The error message when the directory cannot be split into units.*/
+    public static final String ERROR_MSG_WORK_UNIT_DIRECTORY = 
+        "Cannot list the files for the work units, the directory must be "
+        + "reachable from the host: ";
+    /** The error message when the coordinator cannot be started.*/
+    public static final String ERROR_MSG_COORDINATOR_START = 
+        "Cannot start the work coordinator on port: ";
+    /** The error message when interrupted while coordinating.*/
+    public static final String ERROR_MSG_COORDINATOR_INTERRUPTED = 
+        "Interrupted while waiting for the work units to be finished.";
+    /** The error message when the coordinator cannot be reached.*/
+    public static final String ERROR_MSG_COORDINATOR_CONNECTION = 
+        "Cannot get work from the coordinator: ";
+    /** The error message for an unexpected message in the work protocol.*/
+    public static final String ERROR_MSG_WORK_PROTOCOL = 
+        "Unexpected message from the coordinator: ";
+    /** The error message when the heartbeat cannot be written.*/
+    public static final String ERROR_MSG_HEARTBEAT = 
+        "Cannot write the progress heartbeat: ";
+    /** The error message when the progress interval is not positive.*/
+    public static final String ERROR_MSG_PROGRESS_ARGUMENT = 
+        "The number of seconds between polls of the progress must be a "
+        + "positive number: ";
+    /** The error message when interrupted while collecting the progress.*/
+    public static final String ERROR_MSG_PROGRESS_INTERRUPTED = 
+        "Interrupted while collecting the progress of the machines.";
 
     
+    /** The message when the coordinator waits for the machines to be 
+     * started by the start-all script.*/
+    public static final String MSG_COORDINATOR_WAITING = 
+        "The work coordinator is running. Start the machines with the "
+        + "start-all script, and keep this running until they finish.";
+    
     // warning messages.
     /** The error message when no directories have been defined.*/
     public static final String WARN_MSG_NO_DIRECTORIES =
@@ -398,12 +718,32 @@ public final class Constants {
     public static final String WARN_MSG_DISC_FULL_FREE_SPACE = "Free size: ";
     /** The warning when disc full about space usage by output files.*/
     public static final String WARN_MSG_DISC_FULL_USAGE = "Size used: ";
+    /** The warning when the processing is resumed after a full disc.*/
+    public static final String WARN_MSG_DISC_SPACE_RECOVERED = 
+        "Resuming, since the free size is now: ";
     /** The warning when no output or error file for machine.*/
     public static final String WARN_MSG_MACHINE_NO_FILES = 
         "No result file created, thus no file to send back, for machine: ";
     /** The warning when an empty send-script is being created.*/
     public static final String WARN_MSG_EMPTY_SEND_SCRIPT = 
         "Empty send script created.";
+    /** The warning message when the results cannot be shipped.*/
+    public static final String WARN_MSG_NO_SHIPPING = 
+        "The results cannot be shipped while running, they are sent "
+        + "afterwards from machine: ";
+    /** The warning message when more bytes are shipped than in the file.*/
+    public static final String WARN_MSG_SHIPPED_BEYOND_FILE = 
+        "The file is shorter than the bytes already shipped. The copy on the "
+        + "host is cut back to the last shipment within the file: ";
+    /** The warning message when a machine lost its connection while 
+     * processing a work unit.*/
+    public static final String WARN_MSG_WORK_UNIT_REQUEUED = 
+        "The connection was lost, thus the unfinished files of the work "
+        + "unit are given to another machine: ";
+    /** The warning message when the work units cannot be used.*/
+    public static final String WARN_MSG_NO_WORK_UNITS = 
+        "The directories cannot be split into work units, they are run "
+        + "directly on machine: ";
     
     /**
      * Method for creating a warning about too many patterns in the settings.
@@ -473,6 +813,18 @@ public final class Constants {
         return "Cannot process the file " + path + ", since it is a directory.";
     }
     
+    /**
+     * Method for creating a warning about a directory, which is skipped
+     * since a symbolic link leads back to one of its parent directories.
+     * 
+     * @param path The path to the directory.
+     * @return The warning.
+     */
+    public static final String WARN_MSG_DIRECTORY_LOOP(String path) {
+        return "Skipping the directory " + path + ", since it is a link to "
+            + "one of its parent directories.";
+    }
+    
     /**
      * Method for creating a warning about too many directories given.
      * 
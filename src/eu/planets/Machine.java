@@ -23,14 +23,26 @@
 package eu.planets;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import org.dom4j.Element;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.IllegalState;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.StringUtils;
 import dk.netarkivet.deploy.XmlStructure;
 
 /**
@@ -71,6 +83,18 @@ public abstract class Machine {
     protected String regexPattern;
     /** Whether to run upon the sub-directories.*/
     protected boolean subDir;
+    /** Whether the result files are shipped to the host while running.*/
+    protected boolean shipResults;
+    /** Whether the batch job writes a progress heartbeat.*/
+    protected boolean progress;
+    /** The number of packages to keep in the cache on the machine, 
+     * or 0 if the packages should not be cached.*/
+    protected int packageCacheSize;
+    /** The size of the work units in bytes, or 0 if the directories are 
+     * given directly to the batch job instead of through the coordinator.*/
+    protected long workUnitSize;
+    /** The port of the work coordinator on the host.*/
+    protected int coordinatorPort;
 
     /**
      * The constructor for LoadableJarBatchJob.
@@ -274,6 +298,77 @@ public abstract class Machine {
                         + errStreamFile);
             }
         }
+
+        // extract whether the results are shipped while running.
+        options = settings.getLeafValues(Constants.SETTINGS_SHIP_RESULTS_LEAF);
+        shipResults = options != null && options.length > 0;
+
+        // extract whether the progress heartbeat is written.
+        options = settings.getLeafValues(Constants.SETTINGS_PROGRESS_LEAF);
+        progress = options != null && options.length > 0;
+
+        // extract the size of the package cache.
+        options = settings.getLeafValues(Constants.SETTINGS_PACKAGE_CACHE_LEAF);
+        if(options == null || options.length < 1) {
+            packageCacheSize = Constants.DEFAULT_PACKAGE_CACHE_SIZE;
+        } else {
+            try {
+                packageCacheSize = Integer.parseInt(options[0].trim());
+            } catch (NumberFormatException e) {
+                packageCacheSize = -1;
+            }
+            if(packageCacheSize < 0) {
+                throw new IllegalState(Constants.ERROR_MSG_PACKAGE_CACHE_SIZE
+                        + options[0]);
+            }
+        }
+
+        // extract the size of the work units in MB.
+        options = settings.getLeafValues(
+                Constants.SETTINGS_WORK_UNIT_SIZE_LEAF);
+        if(options == null || options.length < 1) {
+            workUnitSize = 0L;
+        } else {
+            try {
+                workUnitSize = Long.parseLong(options[0].trim()) 
+                        * Constants.MEGABYTE;
+            } catch (NumberFormatException e) {
+                workUnitSize = -1L;
+            }
+            if(workUnitSize < 0L) {
+                throw new IllegalState(Constants.ERROR_MSG_WORK_UNIT_SIZE
+                        + options[0]);
+            }
+        }
+
+        // extract the port of the work coordinator.
+        coordinatorPort = getCoordinatorPort(settings);
+    }
+    
+    /**
+     * Method for extracting the port of the work coordinator from the 
+     * settings.
+     * 
+     * @param set The settings.
+     * @return The port, or the default port if not given.
+     */
+    public static int getCoordinatorPort(XmlStructure set) {
+        String option = set.getLeafValue(
+                Constants.SETTINGS_COORDINATOR_PORT_LEAF);
+        if(option == null || option.trim().isEmpty()) {
+            return Constants.DEFAULT_COORDINATOR_PORT;
+        }
+        int port;
+        try {
+            port = Integer.parseInt(option.trim());
+        } catch (NumberFormatException e) {
+            port = 0;
+        }
+        if(port <= 0 || port > Constants.MAX_PORT) {
+            throw new IllegalState(Constants.ERROR_MSG_COORDINATOR_PORT
+                    + option);
+        }
+        return port;
     }
     
     /**
@@ -312,6 +407,112 @@ public abstract class Machine {
         return installDir;
     }
     
+    /**
+     * Method for retrieving the size of the work units.
+     * 
+     * @return The size in bytes, or 0 if the work units are not used.
+     */
+    public long getWorkUnitSize() {
+        return workUnitSize;
+    }
+    
+    /**
+     * Makes the batch job run directly upon the directories of this 
+     * machine, instead of getting the files from the work coordinator.
+     * Must be called before the scripts are created.
+     */
+    public void disableWorkUnits() {
+        workUnitSize = 0L;
+    }
+    
+    /**
+     * Method for listing the files for the work units, which are the files 
+     * in the directories of this machine, matching the pattern. The 
+     * directories must be reachable from the host by the same paths.
+     * 
+     * @return The files, in the order of the directories.
+     * @throws IOFailure If a directory cannot be listed.
+     */
+    public List<File> listFiles() {
+        final List<File> res = new ArrayList<File>();
+        if(dirs == null) {
+            return res;
+        }
+        final Pattern pattern = Pattern.compile(regexPattern == null 
+                || regexPattern.isEmpty() ? Constants.DEFAULT_REGEXP 
+                        : regexPattern);
+        int depth = subDir ? Integer.MAX_VALUE : 1;
+        for(String dir : dirs) {
+            Path path = new File(dir).toPath();
+            if(!Files.isDirectory(path)) {
+                throw new IOFailure(Constants.ERROR_MSG_WORK_UNIT_DIRECTORY 
+                        + dir);
+            }
+            try {
+                Files.walkFileTree(path, EnumSet.of(
+                        FileVisitOption.FOLLOW_LINKS), depth, 
+                        new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path p, 
+                            BasicFileAttributes attrs) {
+                        if(attrs.isRegularFile() && pattern.matcher(
+                                p.getFileName().toString()).matches()) {
+                            res.add(p.toFile());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path p, 
+                            IOException e) throws IOException {
+                        if(e instanceof FileSystemLoopException) {
+                            System.out.println(Constants
+                                    .WARN_MSG_DIRECTORY_LOOP(p.toString()));
+                            return FileVisitResult.CONTINUE;
+                        }
+                        throw e;
+                    }
+                });
+            } catch (IOException e) {
+                throw new IOFailure(Constants.ERROR_MSG_WORK_UNIT_DIRECTORY 
+                        + dir, e);
+            }
+        }
+        return res;
+    }
+    
+    /**
+     * Method for retrieving the arguments for RunBatch, which tell what to
+     * run the batch job upon: either the directories, or the work 
+     * coordinator on the host and the name of this machine.
+     * 
+     * ' -Ddir1#dir2' or ' -Uhost:port -Mname'
+     * 
+     * @return The arguments, beginning with a space.
+     */
+    protected String getSourceArguments() {
+        StringBuilder res = new StringBuilder();
+        if(workUnitSize > 0L) {
+            res.append(Constants.SPACE);
+            res.append(Constants.DASH);
+            res.append(Constants.COORDINATOR_OPTION_KEY);
+            res.append(host);
+            res.append(Constants.COLON);
+            res.append(coordinatorPort);
+            res.append(Constants.SPACE);
+            res.append(Constants.DASH);
+            res.append(Constants.MACHINE_NAME_OPTION_KEY);
+            res.append(name);
+        } else {
+            res.append(Constants.SPACE);
+            res.append(Constants.DASH);
+            res.append(Constants.DIRECTORY_OPTION_KEY);
+            res.append(StringUtils.conjoin(Constants.DIRECTORY_SEPARATOR, 
+                    dirs));
+        }
+        return res.toString();
+    }
+    
     /**
      * Method for retrieving the login for the host.
      * 
@@ -341,6 +542,9 @@ public abstract class Machine {
 
         createStartScript(machineDir);
         createSendResultScript(machineDir);
+        if(shipResults) {
+            createShipScript(machineDir);
+        }
     }
 
     /**
@@ -360,6 +564,18 @@ public abstract class Machine {
      */
     protected abstract void createSendResultScript(File outputDir);
 
+    /**
+     * Method for creating the script for shipping the result files to the 
+     * host while the batch job is running. The script is called by 
+     * ResultShipper as 'ship-script file-name suffix offset', and must cut
+     * the copy of the file on the host with the suffix to the offset, and
+     * then append its input. The '.done' marker of an earlier run must be
+     * removed, while the copy is being shipped again.
+     * 
+     * @param outputDir The directory where the ship script should be created.
+     */
+    protected abstract void createShipScript(File outputDir);
+
     /**
      * Method for making and retrieving the script for installing the 
      * needed files for this machine.
@@ -376,4 +592,97 @@ public abstract class Machine {
      * @return The command for calling the start script on this machine.
      */
     protected abstract String getScriptForStartAll();
+
+    /**
+     * Method for retrieving the commands for installing the needed files 
+     * on this machine. These are the steps of the install script, as 
+     * separate commands which can be run directly.
+     * 
+     * @param outputDir The directory where the scripts for the machines 
+     * have been created.
+     * @param shell The commands for reaching the machine.
+     * @return The steps to run in order.
+     */
+    protected abstract List<RemoteStep> getInstallCommands(File outputDir,
+            RemoteShell shell);
+
+    /**
+     * Method for retrieving the command for calling the start script on 
+     * this machine. The command must return when the batch job has been
+     * started, not when it has finished.
+     * 
+     * @param shell The commands for reaching the machine.
+     * @return The command with its arguments, or null if the batch job 
+     * cannot be started remotely on this machine.
+     */
+    protected abstract List<String> getStartCommand(RemoteShell shell);
+
+    /**
+     * Method for retrieving the command for reading the progress heartbeat
+     * of the batch job on this machine.
+     * 
+     * @param shell The commands for reaching the machine.
+     * @return The command with its arguments, which writes the heartbeat 
+     * on its output, or null if the progress cannot be read remotely.
+     */
+    protected abstract List<String> getProgressCommand(RemoteShell shell);
+
+    /**
+     * Method for retrieving whether the batch job on this machine writes a
+     * progress heartbeat.
+     * 
+     * @return Whether the progress heartbeat is written.
+     */
+    public boolean hasProgress() {
+        return progress;
+    }
+
+    /**
+     * Method for retrieving the package cache on this machine.
+     * 
+     * @return The package cache, or null if the packages are not cached.
+     */
+    protected PackageCache getPackageCache() {
+        if(packageCacheSize == 0) {
+            return null;
+        }
+        return new PackageCache(installDir, packageCacheSize);
+    }
+
+    /**
+     * Method for retrieving the packages to install on this machine: 
+     * the batch package and the batch job.
+     * 
+     * @return The package files.
+     */
+    protected List<File> getPackageFiles() {
+        List<File> res = new ArrayList<File>(2);
+        res.add(batchPack);
+        if(jarFile == null || jarFile.isEmpty()) {
+            res.add(new File(classFile));
+        } else {
+            res.add(new File(jarFile));
+        }
+        return res;
+    }
+
+    /**
+     * Method for retrieving the scripts to install on this machine.
+     * 
+     * @param outputDir The directory where the scripts for the machines 
+     * have been created.
+     * @return The absolute paths of the scripts.
+     */
+    protected List<String> getScriptFiles(File outputDir) {
+        List<String> res = new ArrayList<String>();
+        File[] scripts = new File(outputDir, name).listFiles();
+        if(scripts != null) {
+            for(File script : scripts) {
+                if(script.isFile()) {
+                    res.add(script.getAbsolutePath());
+                }
+            }
+        }
+        return res;
+    }
 }
@@ -26,11 +26,12 @@ package eu.planets;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.dom4j.Element;
 
 import dk.netarkivet.common.exceptions.IOFailure;
-import dk.netarkivet.common.utils.StringUtils;
 import dk.netarkivet.deploy.XmlStructure;
 
 /**
@@ -86,10 +87,6 @@ public class MachineLinux extends Machine {
     @Override
     protected void createStartScript(File outputDir) {
         try {
-            // make the list of directories into a string, where they are
-            // separated by '#'.
-            String d = StringUtils.conjoin(Constants.DIRECTORY_SEPARATOR, dirs);
-
             // initialise the file.
             File startScript = new File(outputDir, 
                     Constants.FILE_NAME_START_LINUX);
@@ -100,6 +97,33 @@ public class MachineLinux extends Machine {
             fw.write(login);
             fw.write(Constants.NEWLINE);
             
+            // 'rm -f installDir/progress.txt', so the heartbeat of an 
+            // earlier run is not taken for the progress of this run.
+            if(progress) {
+                fw.write(Constants.REMOVE_FORCED);
+                fw.write(Constants.SPACE);
+                fw.write(getProgressFile());
+                fw.write(Constants.NEWLINE);
+            }
+            
+            // 'rm -f installDir/outputFile.shipped ...', so the shipments
+            // of an earlier run are not continued by this run.
+            if(shipResults) {
+                for(String resultFile : new String[] {outStreamFile, 
+                        errStreamFile}) {
+                    if(resultFile == null || resultFile.isEmpty()) {
+                        continue;
+                    }
+                    fw.write(Constants.REMOVE_FORCED);
+                    fw.write(Constants.SPACE);
+                    fw.write(installDir);
+                    fw.write(Constants.SLASH);
+                    fw.write(Constants.getFilenameFromPath(resultFile));
+                    fw.write(Constants.SHIPPED_SUFFIX);
+                    fw.write(Constants.NEWLINE);
+                }
+            }
+            
             // 'java -cp batchPack RunBatch' ...
             fw.write(Constants.JAVA);
             fw.write(Constants.SPACE);
@@ -135,11 +159,9 @@ public class MachineLinux extends Machine {
                 fw.write(className);
             }
             
-            // write directory argument. ' -D' + dir
-            fw.write(Constants.SPACE);
-            fw.write(Constants.DASH);
-            fw.write(Constants.DIRECTORY_OPTION_KEY);
-            fw.write(d);
+            // write directory argument ' -D' + dirs, or the coordinator
+            // arguments ' -U' + host:port + ' -M' + name.
+            fw.write(getSourceArguments());
             
             // write end script argument. ' -B' + path 
             fw.write(Constants.SPACE);
@@ -165,6 +187,24 @@ public class MachineLinux extends Machine {
                 fw.write(Constants.getFilenameFromPath(errStreamFile));
             }
             
+            // write ship script argument. ' -G' + path
+            if(shipResults) {
+                fw.write(Constants.SPACE);
+                fw.write(Constants.DASH);
+                fw.write(Constants.SHIP_SCRIPT_OPTION_KEY);
+                fw.write(installDir);
+                fw.write(Constants.SLASH);
+                fw.write(Constants.FILE_NAME_SHIP_LINUX);
+            }
+
+            // write progress heartbeat argument. ' -T' + path
+            if(progress) {
+                fw.write(Constants.SPACE);
+                fw.write(Constants.DASH);
+                fw.write(Constants.PROGRESS_OPTION_KEY);
+                fw.write(getProgressFile());
+            }
+
             // write recursive sub-directories argument. ' -R'
             if(subDir) {
                 fw.write(Constants.SPACE);
@@ -210,8 +250,8 @@ public class MachineLinux extends Machine {
                     Constants.FILE_NAME_SEND_LINUX);
             FileWriter fw = new FileWriter(sendScript);
 
-            // handle output file.
-            if(outStreamFile != null) {
+            // handle output file, unless it has been shipped.
+            if(outStreamFile != null && !shipResults) {
                 // 'scp outFileName hostLogin:outFilePath_machineName
                 fw.write(Constants.SCP);
                 fw.write(Constants.SPACE);
@@ -225,8 +265,8 @@ public class MachineLinux extends Machine {
                 fw.write(Constants.NEWLINE);
             }
             
-            // handle error file.
-            if(errStreamFile != null) {
+            // handle error file, unless it has been shipped.
+            if(errStreamFile != null && !shipResults) {
                 // 'scp errorFileName hostLogin:errorFilePath_machineName
                 fw.write(Constants.SCP);
                 fw.write(Constants.SPACE);
@@ -247,6 +287,68 @@ public class MachineLinux extends Machine {
         }
     }
 
+    /**
+     * Method for creating the ship script, which cuts the copy of a result
+     * file on the host to the given offset, and appends its input.
+     * 
+     * case "$1" in
+     * outFileName) ssh hostLogin "truncate -s $3 outFilePath_machineName$2 
+     *     && cat >> outFilePath_machineName$2" ;;
+     * errorFileName) ssh hostLogin "truncate -s $3 errorFilePath_machineName$2 
+     *     && cat >> errorFilePath_machineName$2" ;;
+     * *) exit 1 ;;
+     * esac
+     * 
+     * @param outputDir The directory where the ship script is created.
+     */
+    @Override
+    protected void createShipScript(File outputDir) {
+        try {
+            File shipScript = new File(outputDir, 
+                    Constants.FILE_NAME_SHIP_LINUX);
+            FileWriter fw = new FileWriter(shipScript);
+            fw.write("case \"$1\" in");
+            fw.write(Constants.NEWLINE);
+            for(String resultFile : new String[] {outStreamFile, 
+                    errStreamFile}) {
+                if(resultFile == null) {
+                    continue;
+                }
+                // 'fileName) ssh hostLogin "rm -f filePath_machineName.done
+                //     && truncate -s $3 filePath_machineName$2
+                //     && cat >> filePath_machineName$2" ;;'
+                // the marker of an earlier run is removed, while shipping.
+                String hostBase = resultFile + Constants.UNDERSCORE + name;
+                String hostFile = hostBase + "$2";
+                fw.write(Constants.getFilenameFromPath(resultFile));
+                fw.write(") ");
+                fw.write(Constants.SSH);
+                fw.write(Constants.SPACE);
+                fw.write(getHostLogin());
+                fw.write(Constants.SPACE);
+                fw.write(Constants.QUOTATION_MARK);
+                fw.write(Constants.REMOVE_FORCED);
+                fw.write(Constants.SPACE);
+                fw.write(hostBase);
+                fw.write(Constants.SHIP_DONE_SUFFIX);
+                fw.write(" && truncate -s $3 ");
+                fw.write(hostFile);
+                fw.write(" && cat >> ");
+                fw.write(hostFile);
+                fw.write(Constants.QUOTATION_MARK);
+                fw.write(" ;;");
+                fw.write(Constants.NEWLINE);
+            }
+            fw.write("*) exit 1 ;;");
+            fw.write(Constants.NEWLINE);
+            fw.write("esac");
+            fw.write(Constants.NEWLINE);
+            fw.close();
+        } catch (IOException e) {
+            throw new IOFailure(Constants.ERROR_MSG_SHIP_SCRIPT + name, e);
+        }
+    }
+
     /**
      * Method for making the commands to install this machine.
      * This is called from the BatchConfig instance, and is put into the 
@@ -265,47 +367,58 @@ public class MachineLinux extends Machine {
         res.append(getName());
         res.append(Constants.NEWLINE);
         
+        PackageCache cache = getPackageCache();
+
         // ssh user@machine "mkdir installDir"
         res.append(Constants.SSH);
         res.append(Constants.SPACE);
         res.append(getLogin());
         res.append(Constants.SPACE);
         res.append(Constants.QUOTATION_MARK);
-        res.append(createDirectoryCommand(getInstallDir()));
+        res.append(getCreateDirectoriesCommand(cache));
         res.append(Constants.QUOTATION_MARK);
         res.append(Constants.NEWLINE);
         
-        // scp batchpack user@machine:installDir
-        res.append(Constants.SCP);
-        res.append(Constants.SPACE);
-        res.append(batchPack.getAbsolutePath());
-        res.append(Constants.SPACE);
-        res.append(getLogin());
-        res.append(Constants.COLON);
-        res.append(getInstallDir());
-        res.append(Constants.SLASH);
-        res.append(Constants.DOT);
-        res.append(Constants.SPACE);
-        res.append(Constants.NEWLINE);
-        
-        // scp BatchJobFile user@machine:installDir
-        res.append(Constants.SCP);
-        res.append(Constants.SPACE);
-        if(jarFile == null || jarFile.isEmpty()) {
-            // class file
-            res.append(classFile);
+        // use the cached packages, or else copy them to the cache.
+        if(cache != null) {
+            RemoteShell shell = new RemoteShell(Constants.SSH, Constants.SCP);
+            for(File pack : getPackageFiles()) {
+                res.append(cache.getInstallStep(shell, getLogin(), pack)
+                        .toScript());
+            }
         } else {
-            // jar file
-            res.append(jarFile);
+            // scp batchpack user@machine:installDir
+            res.append(Constants.SCP);
+            res.append(Constants.SPACE);
+            res.append(batchPack.getAbsolutePath());
+            res.append(Constants.SPACE);
+            res.append(getLogin());
+            res.append(Constants.COLON);
+            res.append(getInstallDir());
+            res.append(Constants.SLASH);
+            res.append(Constants.DOT);
+            res.append(Constants.SPACE);
+            res.append(Constants.NEWLINE);
+        
+            // scp BatchJobFile user@machine:installDir
+            res.append(Constants.SCP);
+            res.append(Constants.SPACE);
+            if(jarFile == null || jarFile.isEmpty()) {
+                // class file
+                res.append(classFile);
+            } else {
+                // jar file
+                res.append(jarFile);
+            }
+            res.append(Constants.SPACE);
+            res.append(getLogin());
+            res.append(Constants.COLON);
+            res.append(getInstallDir());
+            res.append(Constants.SLASH);
+            res.append(Constants.DOT);
+            res.append(Constants.SPACE);
+            res.append(Constants.NEWLINE);
         }
-        res.append(Constants.SPACE);
-        res.append(getLogin());
-        res.append(Constants.COLON);
-        res.append(getInstallDir());
-        res.append(Constants.SLASH);
-        res.append(Constants.DOT);
-        res.append(Constants.SPACE);
-        res.append(Constants.NEWLINE);
         
         // scp machineDir/* user@machine:installDir
         res.append(Constants.SCP);
@@ -339,6 +452,12 @@ public class MachineLinux extends Machine {
         res.append(Constants.SPACE);
         res.append(Constants.QUOTATION_MARK);
         res.append(Constants.NEWLINE);
+
+        // remove the least recently used packages from the cache.
+        if(cache != null) {
+            res.append(cache.getPruneStep(new RemoteShell(Constants.SSH, 
+                    Constants.SCP), getLogin()).toScript());
+        }
         // end!
 
         return res.toString();
@@ -360,6 +479,128 @@ public class MachineLinux extends Machine {
         res.append(getLogin());
         res.append(Constants.SPACE);
         res.append(Constants.QUOTATION_MARK);
+        res.append(getRemoteStartCommand(false));
+        res.append(Constants.QUOTATION_MARK);
+        res.append(Constants.NEWLINE);
+        return res.toString();
+    }
+
+    /**
+     * Method for retrieving the commands for installing this machine.
+     * The same steps as the install script, except that all the files, 
+     * which are not cached, are copied by a single scp.
+     * 
+     * @param outputDir The directory where the scripts for the machines 
+     * have been created.
+     * @param shell The commands for reaching the machine.
+     * @return The steps to install this machine.
+     */
+    @Override
+    protected List<RemoteStep> getInstallCommands(File outputDir,
+            RemoteShell shell) {
+        List<RemoteStep> res = new ArrayList<RemoteStep>();
+        PackageCache cache = getPackageCache();
+
+        // ssh user@machine "mkdir installDir"
+        res.add(new RemoteStep(shell.ssh(getLogin(), 
+                getCreateDirectoriesCommand(cache))));
+
+        // use the cached packages, or else copy them to the cache.
+        List<String> files = new ArrayList<String>();
+        for(File pack : getPackageFiles()) {
+            if(cache != null) {
+                res.add(cache.getInstallStep(shell, getLogin(), pack));
+            } else {
+                files.add(pack.getAbsolutePath());
+            }
+        }
+
+        // scp [batchpack BatchJobFile] machineDir/* user@machine:installDir/.
+        files.addAll(getScriptFiles(outputDir));
+        res.add(new RemoteStep(shell.scp(files, getLogin(),
+                getInstallDir() + Constants.SLASH + Constants.DOT)));
+
+        // ssh user@machine "chmod 764 installDir/*.sh"
+        res.add(new RemoteStep(shell.ssh(getLogin(), Constants.CHMOD_764 
+                + Constants.SPACE + getInstallDir() + Constants.SLASH 
+                + Constants.STAR + Constants.FILE_EXTENSION_LINUX)));
+
+        // remove the least recently used packages from the cache.
+        if(cache != null) {
+            res.add(cache.getPruneStep(shell, getLogin()));
+        }
+        return res;
+    }
+
+    /**
+     * Method for retrieving the command for calling the start script on 
+     * this machine. The start script is detached from the ssh session, so
+     * the command returns at once, however long the batch job runs.
+     * 
+     * ssh login ". /etc/profile; cd installDir; nohup ./start.sh 
+     * < /dev/null > start.log 2>&1 &"
+     * 
+     * @param shell The commands for reaching the machine.
+     * @return The command to call the start script on this machine.
+     */
+    @Override
+    protected List<String> getStartCommand(RemoteShell shell) {
+        return shell.ssh(getLogin(), getRemoteStartCommand(true));
+    }
+
+    /**
+     * Method for retrieving the command for reading the progress heartbeat
+     * on this machine.
+     * 
+     * ssh login "cat installDir/progress.txt"
+     * 
+     * @param shell The commands for reaching the machine.
+     * @return The command for reading the heartbeat.
+     */
+    @Override
+    protected List<String> getProgressCommand(RemoteShell shell) {
+        return shell.ssh(getLogin(), Constants.CAT + Constants.SPACE 
+                + getProgressFile());
+    }
+
+    /**
+     * @return The path of the progress heartbeat on this machine.
+     */
+    private String getProgressFile() {
+        return getInstallDir() + Constants.SLASH + Constants.FILE_NAME_PROGRESS;
+    }
+
+    /**
+     * The command to run on this machine for creating the installation 
+     * directory, and the package cache directory if the packages are cached.
+     * 
+     * @param cache The package cache, or null.
+     * @return The command for creating the directories.
+     */
+    private String getCreateDirectoriesCommand(PackageCache cache) {
+        String res = createDirectoryCommand(getInstallDir());
+        if(cache != null) {
+            res += Constants.SPACE + createDirectoryCommand(
+                    cache.getCacheDir());
+        }
+        return res;
+    }
+
+    /**
+     * The command to run on this machine for calling the start script.
+     * 
+     * . /etc/profile; cd installDir; ./start.sh
+     * 
+     * or detached from the session:
+     * 
+     * . /etc/profile; cd installDir; nohup ./start.sh < /dev/null 
+     * > start.log 2>&1 &
+     * 
+     * @param detached Whether the start script is detached.
+     * @return The command for calling the start script.
+     */
+    private String getRemoteStartCommand(boolean detached) {
+        StringBuilder res = new StringBuilder();
         res.append(Constants.DOT);
         res.append(Constants.SPACE);
         res.append(Constants.ETC_PROFILE);
@@ -370,11 +611,16 @@ public class MachineLinux extends Machine {
         res.append(getInstallDir());
         res.append(Constants.SEMICOLON);
         res.append(Constants.SPACE);
+        if(detached) {
+            res.append(Constants.NOHUP);
+            res.append(Constants.SPACE);
+        }
         res.append(Constants.DOT);
         res.append(Constants.SLASH);
         res.append(Constants.FILE_NAME_START_LINUX);
-        res.append(Constants.QUOTATION_MARK);
-        res.append(Constants.NEWLINE);
+        if(detached) {
+            res.append(Constants.DETACHED_CALL_LINUX_SUFFIX);
+        }
         return res.toString();
     }
     
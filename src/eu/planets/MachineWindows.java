@@ -26,11 +26,12 @@ package eu.planets;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.dom4j.Element;
 
 import dk.netarkivet.common.exceptions.IOFailure;
-import dk.netarkivet.common.utils.StringUtils;
 import dk.netarkivet.deploy.XmlStructure;
 
 /**
@@ -81,10 +82,6 @@ public class MachineWindows extends Machine {
     @Override
     protected void createStartScript(File outputDir) {
         try {
-            // make the list of directories into a string, where they are
-            // separated by '#'.
-            String d = StringUtils.conjoin(Constants.DIRECTORY_SEPARATOR, dirs);
-
             // initialise the file.
             File startScript = new File(outputDir, 
                     Constants.FILE_NAME_START_WINDOWS);
@@ -130,11 +127,9 @@ public class MachineWindows extends Machine {
                 fw.write(className);
             }
 
-            // write directory argument. ' -D' + dir
-            fw.write(Constants.SPACE);
-            fw.write(Constants.DASH);
-            fw.write(Constants.DIRECTORY_OPTION_KEY);
-            fw.write(d);
+            // write directory argument ' -D' + dirs, or the coordinator
+            // arguments ' -U' + host:port + ' -M' + name.
+            fw.write(getSourceArguments());
 
             // write end script argument. ' -B' + path 
             fw.write(Constants.SPACE);
@@ -160,6 +155,16 @@ public class MachineWindows extends Machine {
                 fw.write(Constants.getFilenameFromPath(errStreamFile));
             }
 
+            // write progress heartbeat argument. ' -T' + path
+            if(progress) {
+                fw.write(Constants.SPACE);
+                fw.write(Constants.DASH);
+                fw.write(Constants.PROGRESS_OPTION_KEY);
+                fw.write(installDir);
+                fw.write(Constants.BACKSLASH);
+                fw.write(Constants.FILE_NAME_PROGRESS);
+            }
+
             // write recursive sub-directories argument. ' -R'
             if(subDir) {
                 fw.write(Constants.SPACE);
@@ -244,6 +249,17 @@ public class MachineWindows extends Machine {
         }
     }
 
+    /**
+     * The result files cannot be shipped from a windows machine while 
+     * running, thus they are sent by the send script afterwards.
+     * 
+     * @param outputDir The directory where the ship script would be placed.
+     */
+    @Override
+    protected void createShipScript(File outputDir) {
+        System.out.println(Constants.WARN_MSG_NO_SHIPPING + name);
+    }
+
     /**
      * Method for creating the commands to the installation script, to make
      * the installation upon machine.
@@ -322,6 +338,58 @@ public class MachineWindows extends Machine {
         return res.toString();
     }
 
+    /**
+     * Method for retrieving the commands for installing this machine.
+     * The packages are not cached on a windows machine.
+     * 
+     * @param outputDir The directory where the scripts for the machines 
+     * have been created.
+     * @param shell The commands for reaching the machine.
+     * @return The steps to install this machine.
+     */
+    @Override
+    protected List<RemoteStep> getInstallCommands(File outputDir,
+            RemoteShell shell) {
+        List<RemoteStep> res = new ArrayList<RemoteStep>();
+
+        // ssh login makedir
+        res.add(new RemoteStep(shell.ssh(login, 
+                createDirectoryCommand(installDir))));
+
+        // scp batchpack BatchJobFile machineDir/* user@machine:installDir
+        List<String> files = new ArrayList<String>();
+        for(File pack : getPackageFiles()) {
+            files.add(pack.getAbsolutePath());
+        }
+        files.addAll(getScriptFiles(outputDir));
+        res.add(new RemoteStep(shell.scp(files, login, installDir)));
+        return res;
+    }
+
+    /**
+     * The batch job is not started remotely on a windows machine, as with
+     * the start-all script.
+     * 
+     * @param shell The commands for reaching the machine.
+     * @return null.
+     */
+    @Override
+    protected List<String> getStartCommand(RemoteShell shell) {
+        return null;
+    }
+
+    /**
+     * The progress heartbeat cannot be read remotely from a windows 
+     * machine, it can only be read on the machine.
+     * 
+     * @param shell The commands for reaching the machine.
+     * @return null.
+     */
+    @Override
+    protected List<String> getProgressCommand(RemoteShell shell) {
+        return null;
+    }
+
     /**
      * Writes the command for creating a directory, 'dir', through
      * shell script, and check whether the directory already exists.
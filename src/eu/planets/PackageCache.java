@@ -0,0 +1,179 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * The cache of packages on a Linux machine, where the packages are kept
+ * under the digest of their content in a directory within the installation
+ * directory.
+ *
+ * A package is only copied to the machine when its digest is not in the
+ * cache, otherwise the cached copy is used. Using a cached copy touches it,
+ * and after the installation only the most recently used packages are kept.
+ */
+public class PackageCache {
+    /** The digests computed so far, by the path, length and time of the 
+     * file. Thus a package is only read once for all the machines.*/
+    private static final Map<String, String> DIGESTS = 
+        new HashMap<String, String>();
+
+    /** The installation directory on the machine.*/
+    private final String installDir;
+    /** The cache directory on the machine.*/
+    private final String cacheDir;
+    /** The number of packages to keep in the cache.*/
+    private final int size;
+
+    /**
+     * Constructor.
+     *
+     * @param installDir The installation directory on the machine.
+     * @param size The number of packages to keep in the cache.
+     */
+    public PackageCache(String installDir, int size) {
+        ArgumentNotValid.checkNotNullOrEmpty(installDir, "String installDir");
+        ArgumentNotValid.checkPositive(size, "int size");
+
+        this.installDir = installDir;
+        this.cacheDir = installDir + Constants.SLASH 
+                + Constants.PACKAGE_CACHE_DIR;
+        this.size = size;
+    }
+
+    /**
+     * @return The cache directory on the machine.
+     */
+    public String getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * Makes the step for installing a package from the cache, or else 
+     * copying it to the cache first.
+     *
+     * [ -f cache/digest ] && touch cache/digest && cp cache/digest installDir/name
+     *  || { scp package login:cache/digest.part 
+     *  && ssh login "mv cache/digest.part cache/digest && cp ..."; }
+     *
+     * @param shell The commands for reaching the machine.
+     * @param login The login for the machine.
+     * @param pack The package.
+     * @return The step for installing the package.
+     */
+    public RemoteStep getInstallStep(RemoteShell shell, String login, 
+            File pack) {
+        String cached = cacheDir + Constants.SLASH + digest(pack);
+        String part = cached + Constants.PART_SUFFIX;
+        String copy = "cp " + cached + Constants.SPACE + installDir 
+                + Constants.SLASH + pack.getName();
+
+        List<String> check = shell.ssh(login, "[ -f " + cached + " ] && touch "
+                + cached + " && " + copy);
+        List<List<String>> transfer = new ArrayList<List<String>>(2);
+        List<String> files = new ArrayList<String>(1);
+        files.add(pack.getAbsolutePath());
+        transfer.add(shell.scp(files, login, part));
+        transfer.add(shell.ssh(login, "mv " + part + Constants.SPACE + cached 
+                + " && " + copy));
+        return new RemoteStep(check, transfer);
+    }
+
+    /**
+     * Makes the step for removing all but the most recently used packages
+     * from the cache.
+     *
+     * cd cache && ls -t | sed 1,sized | xargs rm -f
+     *
+     * @param shell The commands for reaching the machine.
+     * @param login The login for the machine.
+     * @return The step for removing the old packages.
+     */
+    public RemoteStep getPruneStep(RemoteShell shell, String login) {
+        return new RemoteStep(shell.ssh(login, Constants.CD + Constants.SPACE
+                + cacheDir + " && ls -t | sed 1," + size + "d | xargs rm -f"));
+    }
+
+    /**
+     * Computes the digest of the content of a file, or finds it if it has
+     * already been computed.
+     *
+     * @param fil The file.
+     * @return The SHA-1 digest of the content, as hex.
+     */
+    public static String digest(File fil) {
+        ArgumentNotValid.checkExistsNormalFile(fil, "File fil");
+        String key = fil.getAbsolutePath() + Constants.COLON + fil.length()
+                + Constants.COLON + fil.lastModified();
+        synchronized(DIGESTS) {
+            String res = DIGESTS.get(key);
+            if(res == null) {
+                res = computeDigest(fil);
+                DIGESTS.put(key, res);
+            }
+            return res;
+        }
+    }
+
+    /**
+     * @param fil The file.
+     * @return The SHA-1 digest of the content of the file, as hex.
+     */
+    private static String computeDigest(File fil) {
+        try {
+            MessageDigest md = MessageDigest.getInstance(
+                    Constants.PACKAGE_DIGEST_ALGORITHM);
+            InputStream in = new FileInputStream(fil);
+            try {
+                byte[] buffer = new byte[Constants.PACKAGE_DIGEST_BUFFER_SIZE];
+                int n;
+                while((n = in.read(buffer)) != -1) {
+                    md.update(buffer, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+            StringBuilder res = new StringBuilder();
+            for(byte b : md.digest()) {
+                res.append(Character.forDigit((b >> 4) & 0xf, 16));
+                res.append(Character.forDigit(b & 0xf, 16));
+            }
+            return res.toString();
+        } catch (IOException e) {
+            throw new IOFailure(Constants.ERROR_MSG_PACKAGE_DIGEST 
+                    + fil.getAbsolutePath(), e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOFailure(Constants.ERROR_MSG_PACKAGE_DIGEST 
+                    + fil.getAbsolutePath(), e);
+        }
+    }
+}
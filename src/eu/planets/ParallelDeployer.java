@@ -0,0 +1,425 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * Installs and starts the batch job on the machines in parallel, instead of
+ * one machine after the other as the install and start-all scripts.
+ *
+ * At most a given number of machines are deployed to at the same time. Each
+ * machine has a deadline for the whole of its installation, and the remote
+ * command running at the deadline is killed. The start command is detached
+ * from the batch job it starts, thus it has its own short deadline, and the
+ * run of the batch job is not limited by the deployment. The output of the 
+ * commands for
+ * a machine is put in a log in the script directory. A step with a
+ * fallback, such as a package which may be cached on the machine, only runs
+ * its fallback commands when its first command fails.
+ *
+ * While deploying, a table with the status of every machine is printed
+ * whenever a machine has changed status.
+ */
+public class ParallelDeployer {
+    /** The phases of the deployment of a machine.*/
+    public enum Phase {
+        /** Waiting for a free deploy thread.*/
+        WAITING,
+        /** Running the install commands.*/
+        INSTALLING,
+        /** Running the start command.*/
+        STARTING,
+        /** Installed and started.*/
+        DONE,
+        /** A command failed.*/
+        FAILED,
+        /** The deadline was reached.*/
+        TIMEOUT
+    }
+
+    /** The machines to deploy to.*/
+    private final List<Machine> machines;
+    /** The directory where the scripts for the machines have been created.*/
+    private final File scriptDir;
+    /** The commands for reaching the machines.*/
+    private final RemoteShell shell;
+    /** The maximum number of machines to deploy to at the same time.*/
+    private final int fanOut;
+    /** The number of milliseconds for installing on a single machine.*/
+    private final long timeout;
+    /** The stream for the status table.*/
+    private final PrintStream statusOut;
+    /** The status of every machine, in the same order as the machines.*/
+    private final List<MachineStatus> statuses;
+    /** The number of status changes so far.*/
+    private final AtomicInteger changes = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param macs The machines to deploy to. The scripts for the machines
+     * must have been created.
+     * @param scriptDir The directory where the scripts have been created.
+     * @param shell The commands for reaching the machines.
+     * @param fanOut The maximum number of machines to deploy to at the same
+     * time.
+     * @param timeoutSeconds The number of seconds for installing on a single
+     * machine.
+     * @param statusOut The stream for the status table.
+     */
+    public ParallelDeployer(List<Machine> macs, File scriptDir,
+            RemoteShell shell, int fanOut, long timeoutSeconds,
+            PrintStream statusOut) {
+        ArgumentNotValid.checkNotNull(macs, "List<Machine> macs");
+        ArgumentNotValid.checkNotNull(scriptDir, "File scriptDir");
+        ArgumentNotValid.checkNotNull(shell, "RemoteShell shell");
+        ArgumentNotValid.checkPositive(fanOut, "int fanOut");
+        ArgumentNotValid.checkPositive(timeoutSeconds, "long timeoutSeconds");
+        ArgumentNotValid.checkNotNull(statusOut, "PrintStream statusOut");
+
+        this.machines = macs;
+        this.scriptDir = scriptDir;
+        this.shell = shell;
+        this.fanOut = fanOut;
+        this.timeout = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        this.statusOut = statusOut;
+        this.statuses = new ArrayList<MachineStatus>(macs.size());
+        for(Machine mac : macs) {
+            statuses.add(new MachineStatus(mac.getName()));
+        }
+    }
+
+    /**
+     * Installs and starts the batch job on all the machines, and waits for
+     * the deployment to finish.
+     *
+     * @return Whether the deployment succeeded on every machine.
+     */
+    public boolean deploy() {
+        if(machines.isEmpty()) {
+            return true;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(fanOut, machines.size()), new DeployThreadFactory());
+        for(int i = 0; i < machines.size(); i++) {
+            executor.execute(new Deployment(machines.get(i), 
+                    statuses.get(i)));
+        }
+        executor.shutdown();
+
+        // print the table, whenever a machine has changed status.
+        int printed = -1;
+        try {
+            while(!executor.awaitTermination(Constants.DEPLOY_STATUS_INTERVAL,
+                    TimeUnit.MILLISECONDS)) {
+                int current = changes.get();
+                if(current != printed) {
+                    statusOut.print(getStatusTable());
+                    printed = current;
+                }
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOFailure(Constants.ERROR_MSG_DEPLOY_INTERRUPTED, e);
+        }
+        statusOut.print(getStatusTable());
+
+        for(MachineStatus status : statuses) {
+            if(status.phase != Phase.DONE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method for retrieving the status of the deployment.
+     *
+     * @return The table with a line for every machine: the name, the phase,
+     * the number of finished commands, the seconds used and the reason for
+     * a failure, if any.
+     */
+    public String getStatusTable() {
+        StringBuilder res = new StringBuilder();
+        res.append(String.format("%-24s %-10s %5s %8s %s", "machine", "phase",
+                "step", "seconds", "message"));
+        res.append(Constants.NEWLINE);
+        for(MachineStatus status : statuses) {
+            res.append(status.toString());
+            res.append(Constants.NEWLINE);
+        }
+        return res.toString();
+    }
+
+    /**
+     * The status of the deployment of a single machine.
+     */
+    private class MachineStatus {
+        /** The name of the machine.*/
+        private final String name;
+        /** The current phase.*/
+        private Phase phase = Phase.WAITING;
+        /** The number of finished commands.*/
+        private int step = 0;
+        /** The number of commands.*/
+        private int steps = 0;
+        /** The time when the deployment began, or 0 when waiting.*/
+        private long begin = 0L;
+        /** The time when the deployment ended, or 0 when not ended.*/
+        private long end = 0L;
+        /** The reason for a failure.*/
+        private String message = "";
+
+        /**
+         * Constructor.
+         *
+         * @param name The name of the machine.
+         */
+        MachineStatus(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Begins the deployment.
+         *
+         * @param commands The number of commands to run.
+         */
+        synchronized void begin(int commands) {
+            begin = System.currentTimeMillis();
+            steps = commands;
+            phase = Phase.INSTALLING;
+            changes.incrementAndGet();
+        }
+
+        /**
+         * Sets the phase and the number of finished commands.
+         *
+         * @param newPhase The current phase.
+         * @param finished The number of finished commands.
+         */
+        synchronized void update(Phase newPhase, int finished) {
+            phase = newPhase;
+            step = finished;
+            changes.incrementAndGet();
+        }
+
+        /**
+         * Ends the deployment.
+         *
+         * @param newPhase The final phase.
+         * @param msg The reason for a failure, or an empty string.
+         */
+        synchronized void end(Phase newPhase, String msg) {
+            if(begin == 0L) {
+                begin = System.currentTimeMillis();
+            }
+            end = System.currentTimeMillis();
+            phase = newPhase;
+            message = msg;
+            changes.incrementAndGet();
+        }
+
+        @Override
+        public synchronized String toString() {
+            double seconds = 0.0;
+            if(begin != 0L) {
+                long stop = end == 0L ? System.currentTimeMillis() : end;
+                seconds = (stop - begin) / 1000.0;
+            }
+            return String.format("%-24s %-10s %2d/%-2d %8.1f %s", name, phase,
+                    step, steps, seconds, message);
+        }
+    }
+
+    /**
+     * The task for installing and starting the batch job on a machine.
+     */
+    private class Deployment implements Runnable {
+        /** The machine to deploy to.*/
+        private final Machine mac;
+        /** The status of the machine.*/
+        private final MachineStatus status;
+
+        /**
+         * Constructor.
+         *
+         * @param mac The machine to deploy to.
+         * @param status The status of the machine.
+         */
+        Deployment(Machine mac, MachineStatus status) {
+            this.mac = mac;
+            this.status = status;
+        }
+
+        @Override
+        public void run() {
+            long deadline = System.currentTimeMillis() + timeout;
+            // the deadline, which was reached.
+            long limit = timeout;
+            File log = new File(scriptDir, mac.getName() 
+                    + Constants.FILE_SUFFIX_DEPLOY_LOG);
+            int step = 0;
+            // the number of steps, which had to use their fallback.
+            int fallbacks = 0;
+            // the number of steps, which did not need their fallback.
+            int skipped = 0;
+            try {
+                List<RemoteStep> steps = new ArrayList<RemoteStep>(
+                        mac.getInstallCommands(scriptDir, shell));
+                List<String> start = mac.getStartCommand(shell);
+                RemoteStep startStep = null;
+                if(start != null) {
+                    startStep = new RemoteStep(start);
+                    steps.add(startStep);
+                }
+                status.begin(steps.size());
+                if(log.exists() && !log.delete()) {
+                    throw new IOException("Cannot delete old log: " + log);
+                }
+
+                Phase phase = Phase.INSTALLING;
+                for(RemoteStep remoteStep : steps) {
+                    if(remoteStep == startStep) {
+                        phase = Phase.STARTING;
+                        status.update(phase, step);
+                        limit = TimeUnit.SECONDS.toMillis(
+                                Constants.DEPLOY_START_TIMEOUT);
+                        deadline = System.currentTimeMillis() + limit;
+                    }
+                    List<String> command = remoteStep.getCommand();
+                    int exit = run(command, log, deadline);
+                    if(exit != 0 && remoteStep.hasFallback()) {
+                        fallbacks++;
+                        for(List<String> fallback 
+                                : remoteStep.getFallback()) {
+                            command = fallback;
+                            exit = run(command, log, deadline);
+                            if(exit != 0) {
+                                break;
+                            }
+                        }
+                    } else if(remoteStep.hasFallback()) {
+                        skipped++;
+                    }
+                    if(exit != 0) {
+                        status.end(Phase.FAILED, "exit code " + exit 
+                                + " from '" + command.get(0) + "', see "
+                                + log.getName());
+                        return;
+                    }
+                    step++;
+                    status.update(phase, step);
+                }
+
+                StringBuilder msg = new StringBuilder();
+                if(skipped + fallbacks > 0) {
+                    msg.append("packages cached: " + skipped + ", sent: " 
+                            + fallbacks);
+                }
+                if(startStep == null) {
+                    msg.append(msg.length() > 0 ? ", not started" 
+                            : "not started");
+                }
+                status.end(Phase.DONE, msg.toString());
+            } catch (DeadlineException e) {
+                status.end(Phase.TIMEOUT, "killed after " 
+                        + TimeUnit.MILLISECONDS.toSeconds(limit) 
+                        + " seconds");
+            } catch (InterruptedException e) {
+                status.end(Phase.FAILED, "interrupted");
+            } catch (Exception e) {
+                status.end(Phase.FAILED, e.toString());
+            }
+        }
+
+        /**
+         * Runs a command, and waits for it to finish.
+         *
+         * @param command The command with its arguments.
+         * @param log The file to append the output of the command to.
+         * @param deadline The time when the command is killed.
+         * @return The exit code of the command.
+         * @throws IOException If the command cannot be started.
+         * @throws InterruptedException If interrupted while waiting.
+         * @throws DeadlineException If the deadline was reached.
+         */
+        private int run(List<String> command, File log, long deadline) 
+                throws IOException, InterruptedException, DeadlineException {
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.redirectErrorStream(true);
+            pb.redirectOutput(Redirect.appendTo(log));
+            Process process = pb.start();
+            try {
+                // the commands are given nothing on their input.
+                process.getOutputStream().close();
+                while(true) {
+                    try {
+                        return process.exitValue();
+                    } catch (IllegalThreadStateException e) {
+                        // still running.
+                    }
+                    if(System.currentTimeMillis() >= deadline) {
+                        throw new DeadlineException();
+                    }
+                    Thread.sleep(Constants.DEPLOY_POLL_INTERVAL);
+                }
+            } finally {
+                process.destroy();
+            }
+        }
+    }
+
+    /**
+     * Thrown when the deadline for a machine is reached.
+     */
+    @SuppressWarnings("serial")
+    private static class DeadlineException extends Exception {
+    }
+
+    /**
+     * Makes daemon deploy threads, so a hanging command cannot keep the
+     * process alive.
+     */
+    private static class DeployThreadFactory implements ThreadFactory {
+        /** The number of threads made so far.*/
+        private int count = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+            Thread t = new Thread(r, Constants.DEPLOY_THREAD_NAME + (++count));
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
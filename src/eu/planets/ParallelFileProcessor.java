@@ -0,0 +1,338 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+package eu.planets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+
+/**
+ * Runs a batch job upon several files at the same time.
+ *
+ * The files are handed to a fixed pool of worker threads. Each file is
+ * processed into its own output buffer, and the buffers are written to the
+ * output stream in the order the files were submitted, thus the output is
+ * the same as when the files are processed one at a time.
+ *
+ * At most two files per worker are waiting to be written, so the memory
+ * used for buffers is bounded by the output of those files.
+ *
+ * The workers run copies of the batch job made by a BatchJobCopier, thus
+ * the batch job does not have to handle more than one file at the same time.
+ * A worker takes an idle copy for each file, and gives it back afterwards, 
+ * so no more copies are made than there are workers. The copies write 
+ * their endings, when they are finished by 'finish'.
+ */
+public class ParallelFileProcessor {
+    /** The amount of pending files per worker.*/
+    private static final int PENDING_PER_WORKER = 2;
+
+    /** Makes the copies of the batch job for the workers.*/
+    private final BatchJobCopier copier;
+    /** The copies of the batch job, which are not processing a file.*/
+    private final Queue<FileBatchJob> idle;
+    /** The output stream, where the results are merged.*/
+    private final OutputStream outStream;
+    /** The error stream, where the errors are merged.*/
+    private final OutputStream errorStream;
+    /** The worker threads.*/
+    private final ExecutorService executor;
+    /** The files being processed, in the order they were submitted.*/
+    private final Deque<Future<FileResult>> pending;
+    /** The maximum number of files being processed or waiting to be merged.*/
+    private final int maxPending;
+    /** Is told when the results of a file have been written, if any.*/
+    private final Listener listener;
+    /** Counts the records processed by the copies.*/
+    private final RecordCounter counter;
+    /** Makes the workers wait while the disc is full, if any.*/
+    private final SpaceMonitor spaceMonitor;
+
+    /**
+     * Constructor.
+     *
+     * @param fbj The batch job to run upon the files.
+     * @param workers The number of worker threads.
+     * @param out The stream for the output of the batch job.
+     * @param err The stream for the errors from the batch job.
+     */
+    public ParallelFileProcessor(FileBatchJob fbj, int workers,
+            OutputStream out, OutputStream err) {
+        this(fbj, workers, out, err, null);
+    }
+
+    /**
+     * Constructor with a listener for the written files.
+     *
+     * @param fbj The batch job to run upon the files.
+     * @param workers The number of worker threads.
+     * @param out The stream for the output of the batch job.
+     * @param err The stream for the errors from the batch job.
+     * @param fileListener Is told every time the results of a file have 
+     * been written. May be null.
+     * @throws IOFailure If the batch job cannot be serialized.
+     */
+    public ParallelFileProcessor(FileBatchJob fbj, int workers,
+            OutputStream out, OutputStream err, Listener fileListener) {
+        this(fbj, workers, out, err, fileListener, new RecordCounter(), 
+                null);
+    }
+
+    /**
+     * Constructor with a listener for the written files, a counter for
+     * the processed records, and a monitor of the free space.
+     *
+     * @param fbj The batch job to run upon the files.
+     * @param workers The number of worker threads.
+     * @param out The stream for the output of the batch job.
+     * @param err The stream for the errors from the batch job.
+     * @param fileListener Is told every time the results of a file have 
+     * been written. May be null.
+     * @param recordCounter Counts the records processed by the copies.
+     * @param monitor Every worker waits for space before each file, 
+     * since the batch job may write elsewhere than to the output. May be 
+     * null.
+     * @throws IOFailure If the batch job cannot be serialized.
+     */
+    public ParallelFileProcessor(FileBatchJob fbj, int workers,
+            OutputStream out, OutputStream err, Listener fileListener,
+            RecordCounter recordCounter, SpaceMonitor monitor) {
+        ArgumentNotValid.checkNotNull(fbj, "FileBatchJob fbj");
+        ArgumentNotValid.checkPositive(workers, "int workers");
+        ArgumentNotValid.checkNotNull(out, "OutputStream out");
+        ArgumentNotValid.checkNotNull(err, "OutputStream err");
+        ArgumentNotValid.checkNotNull(recordCounter, 
+                "RecordCounter recordCounter");
+
+        this.copier = new BatchJobCopier(fbj);
+        this.idle = new ConcurrentLinkedQueue<FileBatchJob>();
+        this.outStream = out;
+        this.errorStream = err;
+        this.maxPending = workers * PENDING_PER_WORKER;
+        this.listener = fileListener;
+        this.counter = recordCounter;
+        this.spaceMonitor = monitor;
+        this.pending = new ArrayDeque<Future<FileResult>>(maxPending);
+        this.executor = Executors.newFixedThreadPool(workers,
+                new WorkerThreadFactory());
+    }
+
+    /**
+     * Hands a file to the workers. If too many files are waiting, then the
+     * results of the oldest files are written first.
+     *
+     * @param fil The file to process.
+     * @throws IOException When writing to the output streams.
+     */
+    public void submit(File fil) throws IOException {
+        ArgumentNotValid.checkNotNull(fil, "File fil");
+
+        pending.addLast(executor.submit(new FileTask(fil)));
+        while(pending.size() >= maxPending) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Waits for all the submitted files to be processed, and writes their
+     * results.
+     *
+     * @throws IOException When writing to the output streams.
+     */
+    public void drain() throws IOException {
+        while(!pending.isEmpty()) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Stops the worker threads. Files which have not been written by
+     * 'drain' are discarded.
+     */
+    public void shutdown() {
+        for(Future<FileResult> f : pending) {
+            f.cancel(true);
+        }
+        pending.clear();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Finishes the copies of the batch job made by the workers, which each
+     * write their ending to the output stream. Must be called after 'drain',
+     * when the copies are idle. The workers make new copies for the files
+     * submitted afterwards.
+     * 
+     * @param out The stream for the endings of the copies.
+     * @return Whether any copies were finished. Otherwise no files have 
+     * been processed by the workers since the last time.
+     */
+    public boolean finish(OutputStream out) {
+        ArgumentNotValid.checkNotNull(out, "OutputStream out");
+        boolean finished = false;
+        FileBatchJob copy;
+        while((copy = idle.poll()) != null) {
+            copier.finish(copy, out);
+            finished = true;
+        }
+        return finished;
+    }
+
+    /**
+     * Waits for the oldest file and writes its results to the streams.
+     *
+     * @throws IOException When writing to the output streams.
+     */
+    private void writeNext() throws IOException {
+        Future<FileResult> next = pending.removeFirst();
+        FileResult res;
+        try {
+            res = next.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure(Constants.ERROR_MSG_PARALLEL_INTERRUPTED, e);
+        } catch (ExecutionException e) {
+            // cannot happen, the task catches everything.
+            throw new IOFailure(Constants.ERROR_MSG_PARALLEL_INTERRUPTED,
+                    e.getCause());
+        }
+
+        res.output.writeTo(outStream);
+        if(res.error != null) {
+            errorStream.write(res.error);
+        }
+        if(listener != null) {
+            listener.fileWritten(res.fil);
+        }
+    }
+
+    /**
+     * Listener for the files, whose results have been written to the streams.
+     */
+    public interface Listener {
+        /**
+         * Called from the thread merging the results, after the results of 
+         * a file have been written to the streams.
+         * 
+         * @param fil The file.
+         * @throws IOException If the listener fails writing.
+         */
+        void fileWritten(File fil) throws IOException;
+    }
+
+    /**
+     * The result of processing a single file.
+     */
+    private static class FileResult {
+        /** The processed file.*/
+        private final File fil;
+        /** The output of the batch job on the file.*/
+        private final ByteArrayOutputStream output;
+        /** The error message, or null if the file was processed.*/
+        private final byte[] error;
+
+        /**
+         * Constructor.
+         *
+         * @param fil The processed file.
+         * @param output The output of the batch job.
+         * @param error The error message, if any.
+         */
+        FileResult(File fil, ByteArrayOutputStream output, byte[] error) {
+            this.fil = fil;
+            this.output = output;
+            this.error = error;
+        }
+    }
+
+    /**
+     * The task for running the batch job upon a single file.
+     */
+    private class FileTask implements Callable<FileResult> {
+        /** The file to process.*/
+        private final File fil;
+
+        /**
+         * Constructor.
+         *
+         * @param fil The file to process.
+         */
+        FileTask(File fil) {
+            this.fil = fil;
+        }
+
+        @Override
+        public FileResult call() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            FileBatchJob copy = null;
+            try {
+                if(spaceMonitor != null) {
+                    spaceMonitor.awaitSpace();
+                }
+                copy = idle.poll();
+                if(copy == null) {
+                    copy = copier.newCopy();
+                }
+                counter.processFile(copy, fil, out);
+                return new FileResult(fil, out, null);
+            } catch (Throwable e) {
+                String msg = Constants.ERROR_MSG_PROCESS_FILE
+                + fil.getAbsolutePath() + Constants.NEWLINE
+                + e + Constants.NEWLINE;
+                return new FileResult(fil, out, msg.getBytes());
+            } finally {
+                if(copy != null) {
+                    idle.add(copy);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes daemon worker threads, so a failing batch job cannot keep the
+     * process alive.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+        /** The number of threads made so far.*/
+        private int count = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+            Thread t = new Thread(r, Constants.WORKER_THREAD_NAME + (++count));
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
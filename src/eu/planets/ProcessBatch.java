@@ -30,10 +30,23 @@ import java.io.FilePermission;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.AccessControlException;
 import java.security.Permission;
 import java.security.PermissionCollection;
 import java.security.Policy;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.regex.Pattern;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
@@ -47,6 +60,8 @@ import dk.netarkivet.common.utils.batch.FileBatchJob;
 public class ProcessBatch {
     /** The regular expression for the file names.*/
     private String regexPattern;
+    /** The compiled regular expression for the file names.*/
+    private Pattern filePattern;
     /** The output stream.*/
     private OutputStream outStream;
     /** The error stream.*/
@@ -60,12 +75,43 @@ public class ProcessBatch {
     private boolean subDir;
     /** The batch job to run.*/
     private FileBatchJob job;
+    /** The number of worker threads for processing the files.*/
+    private int workers;
     
     // local variables.
     /** Whether this instance already has been initialised.*/
     private boolean initialised = false;
-    /** The amount of free space on the disc.*/
-    private long discFree;
+    /** The usable space in bytes, below which the processing is paused.*/
+    private long lowWater = Constants.DEFAULT_LOW_WATER_MARK;
+    /** The usable space in bytes, above which the processing is resumed.*/
+    private long highWater = Constants.DEFAULT_HIGH_WATER_MARK;
+    /** The monitor of the free space for the output.*/
+    private SpaceMonitor spaceMonitor;
+    /** The workers processing the files, when more than one worker.*/
+    private ParallelFileProcessor parallel;
+    /** The journal of finished files, if the run can be resumed.*/
+    private CheckpointJournal journal;
+    /** Whether the journal is due to be written at the next file.*/
+    private boolean checkpointDue;
+    /** Makes the copies of the batch job, which process the files between
+     * the checkpoints, when a single worker and a journal.*/
+    private BatchJobCopier copier;
+    /** The batch job processing the files, when a single worker. This is a
+     * copy of the batch job when there is a journal. Null when the copy has 
+     * written its ending at a checkpoint, or has not yet been made.*/
+    private FileBatchJob current;
+    /** Whether any batch job has written its ending during the run.*/
+    private boolean ended;
+    /** The progress heartbeat, if any.*/
+    private ProgressHeartbeat progress;
+    /** Counts the records processed by the batch job and its copies.*/
+    private final RecordCounter recordCounter = new RecordCounter();
+    /** The connection to the coordinator, when running on work units.*/
+    private WorkClient workClient;
+    /** The channel of the output file, if the output is written to a file.*/
+    private FileChannel outChannel;
+    /** The buffered output file, if the output is written to a file.*/
+    private AsyncOutputStream asyncOut;
     
     // old values, to be stored.
     /** Original output stream.*/
@@ -85,12 +131,93 @@ public class ProcessBatch {
      */
     public ProcessBatch(FileBatchJob fbj, File outputFile, File errorFile, 
             String pattern, boolean recursively) {
+        this(fbj, outputFile, errorFile, pattern, recursively, 
+                Constants.DEFAULT_WORKERS);
+    }
+
+    /**
+     * Constructor for processing several files at the same time.
+     * 
+     * @param fbj The FileBatchJob to run. Must be able to handle more than 
+     * one file at the same time, if more than one worker.
+     * @param outputFile The output file. If null then std.out is used.
+     * @param errorFile The error file. If null then std.err is used.
+     * @param pattern The pattern for the regular expression for the files.
+     * @param recursively Whether the batch job should recursively run upon
+     * the sub-directories. 
+     * @param workers The number of worker threads processing the files.
+     */
+    public ProcessBatch(FileBatchJob fbj, File outputFile, File errorFile, 
+            String pattern, boolean recursively, int workers) {
         ArgumentNotValid.checkNotNull(fbj, "FileBatchJob fbj");
+        ArgumentNotValid.checkPositive(workers, "int workers");
         this.job = fbj;
         this.outFile = outputFile;
         this.errFile = errorFile;
         this.regexPattern = pattern;
         this.subDir = recursively;
+        this.workers = workers;
+    }
+
+    /**
+     * Makes the run resumable through a journal of the finished files.
+     * If the journal exists, the files in the journal are skipped, and the 
+     * output file is truncated to the offset after the last file in the 
+     * journal, and then appended to.
+     * 
+     * The files between the checkpoints are processed by copies of the 
+     * batch job. At every checkpoint, the copies write their endings, before
+     * the output and the journal are written to the disc, and new copies 
+     * process the following files. Thus the output contains an ending for every 
+     * checkpoint, as when the batch job is run on several machines, and the 
+     * endings for the skipped files are kept when resuming.
+     * Must be called before the instance is initialised.
+     * 
+     * @param journalFile The journal file. Created if it does not exist.
+     */
+    public void setCheckpointJournal(File journalFile) {
+        ArgumentNotValid.checkNotNull(journalFile, "File journalFile");
+        if(initialised) {
+            throw new IllegalState(Constants.ERROR_MSG_JOURNAL_OPEN);
+        }
+        journal = new CheckpointJournal(journalFile, 
+                Constants.CHECKPOINT_SYNC_INTERVAL);
+    }
+
+    /**
+     * Reports the progress of the run through a heartbeat. The heartbeat 
+     * is told about every file, and reads the records counted by this 
+     * instance, but is not started or finished here.
+     * 
+     * @param heartbeat The progress heartbeat.
+     */
+    public void setProgressHeartbeat(ProgressHeartbeat heartbeat) {
+        ArgumentNotValid.checkNotNull(heartbeat, 
+                "ProgressHeartbeat heartbeat");
+        progress = heartbeat;
+        progress.setRecordCounter(recordCounter);
+    }
+
+    /**
+     * Sets the limits for the free space on the discs of the output and 
+     * error files. The processing is paused when the free space drops below 
+     * the low-water mark, and is resumed when above the high-water mark. 
+     * Must be called before the instance is initialised.
+     * 
+     * @param low The low-water mark in bytes.
+     * @param high The high-water mark in bytes. Must not be less than low.
+     */
+    public void setSpaceMarks(long low, long high) {
+        ArgumentNotValid.checkNotNegative(low, "long low");
+        if(high < low) {
+            throw new ArgumentNotValid(Constants.ERROR_MSG_WATER_MARKS
+                    + low + " > " + high);
+        }
+        if(initialised) {
+            throw new IllegalState(Constants.ERROR_MSG_SPACE_MARKS_LATE);
+        }
+        lowWater = low;
+        highWater = high;
     }
 
     /**
@@ -105,16 +232,25 @@ public class ProcessBatch {
         }
         initialised = true;
         
-        // Get space free.
-        discFree = (new File(Constants.DEFAULT_TMPDIR)).getFreeSpace();
+        // handle the journal. When resuming, the output is appended to.
+        boolean resume = false;
+        if(journal != null) {
+            resume = journal.open();
+        }
 
         // handle output stream.
         try {
             if(outFile == null || !outFile.canWrite()) {
                 outStream = System.out;
             } else {
-                outStream = new DataOutputStream(
-                        new FileOutputStream(outFile));
+                if(resume) {
+                    truncateOutput(journal.getOffset());
+                }
+                FileOutputStream fos = new FileOutputStream(outFile, resume);
+                outChannel = fos.getChannel();
+                asyncOut = new AsyncOutputStream(outChannel, 
+                        Constants.OUTPUT_BUFFER_SIZE);
+                outStream = asyncOut;
             }
         } catch (IOException e) {
             throw new IOFailure(Constants.ERROR_MSG_OUTPUT_STREAM, e);
@@ -126,7 +262,7 @@ public class ProcessBatch {
                 errorStream = System.err;
             } else {
                 errorStream = new DataOutputStream(
-                        new FileOutputStream(errFile));
+                        new FileOutputStream(errFile, resume));
             }
         } catch (IOException e) {
             throw new IOFailure(Constants.ERROR_MSG_ERROR_STREAM, e);
@@ -136,12 +272,28 @@ public class ProcessBatch {
         if(regexPattern == null || regexPattern.isEmpty()) {
             regexPattern = Constants.DEFAULT_REGEXP;
         }
+        filePattern = Pattern.compile(regexPattern);
+        
+        // monitor the space of the discs, where the output is written. 
+        // Nothing is monitored for the standard streams.
+        List<File> targets = new ArrayList<File>(2);
+        if(outStream != System.out) {
+            targets.add(outFile);
+        }
+        if(errorStream != System.err) {
+            targets.add(errFile);
+        }
+        spaceMonitor = new SpaceMonitor(targets, lowWater, highWater);
+        spaceMonitor.start();
     }
 
     /**
-     * Set the stream back to the original.
+     * Set the stream back to the original, and close the output file.
      */
     public void finalize() {
+        if(!initialised) {
+            return;
+        }
         try {
             // Set the out stream back.
             outStream.flush();
@@ -155,6 +307,23 @@ public class ProcessBatch {
                 System.setErr(origErrorStream);
             }
 
+            // write the last finished files to the journal.
+            if(journal != null) {
+                syncOutput();
+                journal.close();
+            }
+            
+            // stop monitoring the space.
+            spaceMonitor.stop();
+            spaceMonitor = null;
+            
+            // stop the writing of the output file.
+            if(asyncOut != null) {
+                asyncOut.close();
+                asyncOut = null;
+                outChannel = null;
+            }
+
             // go back to not initialised.
             initialised = false;
 
@@ -163,6 +332,103 @@ public class ProcessBatch {
         }
     }
     
+    /**
+     * Truncates the output file to the given offset, thus removing the 
+     * output of the files, which were not finished in an earlier run.
+     * 
+     * @param offset The length of the consistent part of the output file.
+     * @throws IOException If the output file cannot be truncated.
+     */
+    private void truncateOutput(long offset) throws IOException {
+        if(outFile.length() < offset) {
+            throw new IllegalState(Constants.ERROR_MSG_JOURNAL_BEYOND_OUTPUT
+                    + outFile.getAbsolutePath());
+        }
+        RandomAccessFile raf = new RandomAccessFile(outFile, "rw");
+        try {
+            raf.getChannel().truncate(offset);
+        } finally {
+            raf.close();
+        }
+    }
+    
+    /**
+     * Writes the buffered output and forces the content of the output file 
+     * to the disc, so the journal can be written afterwards.
+     * 
+     * @throws IOException If the output cannot be written.
+     */
+    private void syncOutput() throws IOException {
+        outStream.flush();
+        if(outChannel != null) {
+            outChannel.force(false);
+        }
+    }
+    
+    /**
+     * @return The offset in the output file after the output written so far.
+     */
+    private long getOutputOffset() {
+        return (asyncOut == null) ? 0L : asyncOut.getPosition();
+    }
+    
+    /**
+     * Makes a checkpoint. The files handed to the workers are finished, the
+     * batch jobs write their endings, and the output file and then the 
+     * journal are written to the disc.
+     * 
+     * @throws IOException If the output or the journal cannot be written.
+     */
+    private void checkpoint() throws IOException {
+        if(parallel != null) {
+            parallel.drain();
+        }
+        writeEndings();
+        syncOutput();
+        journal.checkpoint(getOutputOffset());
+        checkpointDue = false;
+    }
+    
+    /**
+     * Lets the batch jobs, which have processed files since the last 
+     * checkpoint, write their endings. When more than one worker, these are
+     * the copies of the workers. Otherwise it is the current batch job.
+     */
+    private void writeEndings() {
+        if(parallel != null) {
+            ended |= parallel.finish(outStream);
+        } else if(current != null) {
+            if(current == job) {
+                job.finish(outStream);
+            } else {
+                copier.finish(current, outStream);
+            }
+            current = null;
+            ended = true;
+        }
+    }
+    
+    /**
+     * Adds a finished file to the journal, if any, and reports it to the 
+     * coordinator, if any. 
+     * A checkpoint is made before the next file, when enough files have 
+     * been finished since the last checkpoint.
+     * 
+     * @param fil The finished file.
+     * @throws IOException If the output or the journal cannot be written.
+     */
+    private void fileFinished(File fil) throws IOException {
+        if(progress != null) {
+            progress.fileDone(fil);
+        }
+        if(journal != null && journal.add(fil, getOutputOffset())) {
+            checkpointDue = true;
+        }
+        if(workClient != null) {
+            workClient.fileFinished(fil);
+        }
+    }
+    
     /**
      * Method for running the batch job.
      * 
@@ -170,7 +436,43 @@ public class ProcessBatch {
      */
     public void process(File dir) {
         ArgumentNotValid.checkNotNull(dir, "File dir");
-
+        process(dir, null);
+    }
+    
+    /**
+     * Method for running the batch job upon the files of the work units 
+     * handed out by the coordinator. The files are not matched against the
+     * pattern, but the files finished by an earlier run are skipped. Every
+     * file is reported to the client, when its results have been written, 
+     * and the results of the files handed to the workers are written 
+     * before waiting for the coordinator.
+     * 
+     * @param client The connection to the coordinator.
+     */
+    public void process(WorkClient client) {
+        ArgumentNotValid.checkNotNull(client, "WorkClient client");
+        workClient = client;
+        try {
+            process(null, client.files(new WorkClient.Listener() {
+        	@Override
+        	public void waiting() throws IOException {
+        	    if(parallel != null) {
+        		parallel.drain();
+        	    }
+        	}
+            }));
+        } finally {
+            workClient = null;
+        }
+    }
+    
+    /**
+     * Runs the batch job upon either a directory or a sequence of files.
+     * 
+     * @param dir The directory, or null.
+     * @param files The files, when no directory.
+     */
+    private void process(File dir, Iterator<File> files) {
         // this has to be initialised before use.
         if(!initialised) {
             throw new IllegalState(Constants
@@ -181,95 +483,153 @@ public class ProcessBatch {
         try {
             try {
         	job.initialize(outStream);
-        	processDir(dir);
-        	job.finish(outStream);
+        	ended = false;
+        	checkpointDue = false;
+        	current = job;
+        	if(journal != null && workers == 1) {
+        	    // the batch job is kept unused, for making the copies.
+        	    if(copier == null) {
+        		copier = new BatchJobCopier(job);
+        	    }
+        	    current = null;
+        	}
+        	if(workers > 1) {
+        	    parallel = new ParallelFileProcessor(job, workers, 
+        		    outStream, errorStream, 
+        		    new ParallelFileProcessor.Listener() {
+        		@Override
+        		public void fileWritten(File fil) throws IOException {
+        		    fileFinished(fil);
+        		}
+        	    }, recordCounter, spaceMonitor);
+        	}
+        	try {
+        	    if(dir != null) {
+        		processDir(dir);
+        	    } else {
+        		processFiles(files);
+        	    }
+        	    if(parallel != null) {
+        		parallel.drain();
+        	    }
+        	} finally {
+        	    if(parallel != null) {
+        		parallel.shutdown();
+        	    }
+        	}
+        	// the copies of the batch job write their own endings. The batch
+        	// job writes the ending, if no files were processed.
+        	writeEndings();
+        	if(!ended) {
+        	    job.finish(outStream);
+        	}
+        	parallel = null;
+        	// the endings are kept when the run is resumed.
+        	if(journal != null) {
+        	    syncOutput();
+        	    journal.checkpoint(getOutputOffset());
+        	}
             } catch (AccessControlException e) {
         	String msg = Constants.ERROR_MSG_NO_DIR_ACCESS 
-        	+ dir.getAbsolutePath() + Constants.NEWLINE;
+        	+ getName(dir) + Constants.NEWLINE;
         	errorStream.write(msg.getBytes());
         	e.printStackTrace();
             }
         } catch(IOException e) {
             throw new IOFailure(Constants.ERROR_MSG_PROCESS_DIR 
-        	    + dir.getAbsolutePath(), e);
+        	    + getName(dir), e);
         }
     }
     
+    /**
+     * @param dir The directory, or null for the files of the work units.
+     * @return The name for the error messages.
+     */
+    private String getName(File dir) {
+        return dir == null ? Constants.WORK_UNITS_NAME : dir.getAbsolutePath();
+    }
+    
     /**
      * Method for running the batch job on every file within a directory.
-     * If the batch job should run upon sub-directories, then this method
-     * calls it self recursively upon these directories.
+     * If the batch job should run upon sub-directories, then these are 
+     * walked through as well.
+     * 
+     * The directory is read lazily through the file tree walker, thus the 
+     * entries of large directories are never kept in memory at the same 
+     * time, and the attributes read for an entry are reused to tell files 
+     * and directories apart. Symbolic links are followed, as when listing
+     * the directories, and a link back to a parent directory is skipped.
      * 
      * @param dir The directory to run the batch job on.
      * @throws IOException When writing to the output streams.
      */
     private void processDir(File dir) throws IOException {
-        // Get all the files in the directory.
-        File[] files = dir.listFiles();
-        for(File fil : files) {
-            // Check if disc is full, before running batch
-            if(discFull()) {
-        	System.err.println("The disc is full!");
-                return;
+        int depth = subDir ? Integer.MAX_VALUE : 1;
+        Files.walkFileTree(dir.toPath(), EnumSet.of(
+                FileVisitOption.FOLLOW_LINKS), depth, new BatchFileVisitor());
+    }
+    
+    /**
+     * Method for running the batch job on every file in a sequence, which 
+     * was not finished by an earlier run.
+     * 
+     * @param files The files to run the batch job on.
+     * @throws IOException When writing to the output streams.
+     */
+    private void processFiles(Iterator<File> files) throws IOException {
+        while(files.hasNext()) {
+            File fil = files.next();
+            if(journal == null || !journal.isDone(fil)) {
+                processFile(fil);
+                continue;
             }
-            // Handle the file accordingly if it is a sub-directory
-            if(fil.isDirectory()) {
-        	// Either go through the sub-directory, or write warning.
-        	if(subDir) {
-        	    processDir(fil);
-        	} else {
-        	    System.out.println(Constants.WARN_MSG_FILE_IS_A_DIRECTORY(
-        		    fil.getAbsolutePath()));
-        	}
-            } else {
-        	try {
-        	    // process file, if it validates through the 
-        	    // regular expression.
-        	    if(Pattern.matches(regexPattern, fil.getName())) {
-/*        		if(!job.processFile(fil, outStream)) {
-        		    System.out.println("Cannot process file " + fil.getName());
-        		}
-*/
-        		job.processFile(fil, outStream);
-        	    }
-        	} catch (Throwable e) {
-        	    String msg = Constants.ERROR_MSG_PROCESS_FILE 
-        	    + fil.getAbsolutePath() + Constants.NEWLINE 
-        	    + e + Constants.NEWLINE;
-        	    errorStream.write(msg.getBytes());
-        	}
+            if(progress != null) {
+                progress.fileSkipped(fil);
+            }
+            if(workClient != null) {
+                workClient.fileFinished(fil);
             }
-            // */
         }
     }
     
     /**
-     * Method for checking whether the disc is full.
-     * Checks actually whether the streams uses more space than was left, when
-     * the this instance was initialised.
+     * Method for running the batch job on a single file. 
+     * The file is either processed directly, or handed to the workers when
+     * more than one worker.
      * 
-     * @return Whether the disc is full.
+     * @param fil The file to run the batch job on.
+     * @throws IOException When writing to the output streams.
      */
-    private boolean discFull() {
-        // Calculate used space.
-        long sizeUsed = 0;
-        if(outStream.getClass().getName() == DataOutputStream.class.getName()) {
-            sizeUsed += ((DataOutputStream) outStream).size();
+    private void processFile(File fil) throws IOException {
+        if(checkpointDue) {
+            checkpoint();
+        }
+        
+        // wait while the disc is full, thus no more files are handed to the
+        // workers, and no output is written. Each worker also waits before
+        // its next file.
+        spaceMonitor.awaitSpace();
+        
+        if(progress != null) {
+            progress.fileStarted(fil);
         }
-        if(errorStream.getClass().getName() == DataOutputStream
-                .class.getName()) {
-            sizeUsed += ((DataOutputStream) errorStream).size();
+        if(parallel != null) {
+            parallel.submit(fil);
+            return;
         }
-
-        // handle consequences when more space used than free
-        if(sizeUsed > discFree) {
-            System.err.println(Constants.ERROR_MSG_DISC_FULL);
-            System.out.println(Constants.WARN_MSG_DISC_FULL_FREE_SPACE
-                    + discFree);
-            System.out.println(Constants.WARN_MSG_DISC_FULL_USAGE + sizeUsed);
-            return true;
+        
+        try {
+            if(current == null) {
+                current = copier.newCopy();
+            }
+            recordCounter.processFile(current, fil, outStream);
+        } catch (Throwable e) {
+            String msg = Constants.ERROR_MSG_PROCESS_FILE 
+            + fil.getAbsolutePath() + Constants.NEWLINE 
+            + e + Constants.NEWLINE;
+            errorStream.write(msg.getBytes());
         }
-        return false;
+        fileFinished(fil);
     }
     
     /**
@@ -375,4 +735,48 @@ public class ProcessBatch {
 	Permission fp = new FilePermission(f.getAbsolutePath(), "read");
 	System.out.println(fp.toString());
     }
+    
+    /**
+     * Visitor for walking through the directories. 
+     * Runs the batch job upon every regular file, which matches the pattern.
+     */
+    private class BatchFileVisitor extends SimpleFileVisitor<Path> {
+        @Override
+        public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) 
+                throws IOException {
+            // Only reached by directories, when not going through the 
+            // sub-directories.
+            if(attrs.isDirectory()) {
+                System.out.println(Constants.WARN_MSG_FILE_IS_A_DIRECTORY(
+                        p.toAbsolutePath().toString()));
+            } else if(filePattern.matcher(p.getFileName().toString())
+                    .matches()) {
+                // process file, if it validates through the 
+                // regular expression, and was not finished by an earlier run.
+                File fil = p.toFile();
+                if(journal == null || !journal.isDone(fil)) {
+                    processFile(fil);
+                } else if(progress != null) {
+                    progress.fileSkipped(fil);
+                }
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path p, IOException e) 
+                throws IOException {
+            if(e instanceof FileSystemLoopException) {
+                String msg = Constants.WARN_MSG_DIRECTORY_LOOP(
+                        p.toAbsolutePath().toString()) + Constants.NEWLINE;
+                errorStream.write(msg.getBytes());
+                return FileVisitResult.CONTINUE;
+            }
+            String msg = Constants.ERROR_MSG_PROCESS_FILE 
+            + p.toAbsolutePath() + Constants.NEWLINE 
+            + e + Constants.NEWLINE;
+            errorStream.write(msg.getBytes());
+            return FileVisitResult.CONTINUE;
+        }
+    }
 }
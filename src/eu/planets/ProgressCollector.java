@@ -0,0 +1,517 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * Collects the progress heartbeats of the batch job on the machines, and 
+ * shows the progress of every machine and of the whole run.
+ * 
+ * The heartbeat of every machine is read regularly through its progress 
+ * command, and a table is printed with the state, the files and megabytes 
+ * done, the megabytes and records per second since the last poll, the 
+ * estimated time left and the file being processed. The estimate for a 
+ * machine needs the bytes it has to process, which the machine counts 
+ * itself when it runs upon its directories. The machines, which get 
+ * their files as work units, share the estimate for the remaining units.
+ * The estimate for the whole run is the longest of these estimates.
+ * 
+ * A machine, which has not written a new heartbeat for five minutes, is 
+ * regarded as lost. The collecting ends when every machine has finished 
+ * or is lost.
+ */
+public class ProgressCollector {
+    /** The states of a machine.*/
+    public enum State {
+        /** No heartbeat has been read yet.*/
+        WAITING,
+        /** The batch job is running.*/
+        RUNNING,
+        /** The batch job has finished.*/
+        FINISHED,
+        /** No new heartbeat for too long.*/
+        LOST
+    }
+
+    /** The progress of every machine, which writes a heartbeat.*/
+    private final List<MachineProgress> machines = 
+        new ArrayList<MachineProgress>();
+    /** The directory for the logs of the progress commands.*/
+    private final File logDir;
+    /** The number of milliseconds between the polls.*/
+    private final long interval;
+    /** The total size of the work units, or -1 if no work units.*/
+    private final long unitBytes;
+    /** The stream for the progress table.*/
+    private final PrintStream statusOut;
+    /** The thread polling the machines.*/
+    private Thread poller;
+
+    /**
+     * Constructor.
+     * 
+     * @param macs The machines. Only the machines, which write a heartbeat
+     * that can be read remotely, are polled.
+     * @param shell The commands for reaching the machines.
+     * @param scriptDir The directory for the logs of the progress commands.
+     * @param intervalSeconds The number of seconds between the polls.
+     * @param workUnitBytes The total size of the work units, or -1 if no 
+     * work units.
+     * @param statusOut The stream for the progress table.
+     */
+    public ProgressCollector(List<Machine> macs, RemoteShell shell, 
+            File scriptDir, long intervalSeconds, long workUnitBytes, 
+            PrintStream statusOut) {
+        ArgumentNotValid.checkNotNull(macs, "List<Machine> macs");
+        ArgumentNotValid.checkNotNull(shell, "RemoteShell shell");
+        ArgumentNotValid.checkNotNull(scriptDir, "File scriptDir");
+        ArgumentNotValid.checkPositive(intervalSeconds, "long intervalSeconds");
+        ArgumentNotValid.checkNotNull(statusOut, "PrintStream statusOut");
+
+        for(Machine mac : macs) {
+            List<String> command = mac.getProgressCommand(shell);
+            if(mac.hasProgress() && command != null) {
+                machines.add(new MachineProgress(mac.getName(), command, 
+                        mac.getWorkUnitSize() > 0L));
+            }
+        }
+        this.logDir = scriptDir;
+        this.interval = TimeUnit.SECONDS.toMillis(intervalSeconds);
+        this.unitBytes = workUnitBytes;
+        this.statusOut = statusOut;
+    }
+
+    /**
+     * @return Whether any machine can be polled for its progress.
+     */
+    public boolean hasMachines() {
+        return !machines.isEmpty();
+    }
+
+    /**
+     * Starts polling the machines in the background.
+     */
+    public synchronized void start() {
+        poller = new Thread(new Poller(), Constants.PROGRESS_THREAD_NAME 
+                + "collector");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    /**
+     * Waits until every machine has finished or is lost.
+     */
+    public void await() {
+        try {
+            if(poller != null) {
+                poller.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure(Constants.ERROR_MSG_PROGRESS_INTERRUPTED, e);
+        }
+    }
+
+    /**
+     * Method for retrieving the progress of the run.
+     * 
+     * @return The table with a line for every machine and a line for the 
+     * whole run: the state, the files done, the megabytes done, the 
+     * megabytes and records per second, the estimated time left and the 
+     * file being processed.
+     */
+    public synchronized String getProgressTable() {
+        StringBuilder res = new StringBuilder();
+        res.append(String.format("%-24s %-9s %13s %10s %7s %9s %9s %s", 
+                "machine", "state", "files", "MB", "MB/s", "rec/s", "ETA", 
+                "current file"));
+        res.append(Constants.NEWLINE);
+
+        long files = 0L;
+        long bytes = 0L;
+        double bytesRate = 0.0;
+        double recordsRate = 0.0;
+        boolean recordsKnown = false;
+        long unitsDone = 0L;
+        double unitsRate = 0.0;
+        // the longest estimate, or -1 if any estimate is unknown.
+        long eta = 0L;
+        for(MachineProgress mp : machines) {
+            res.append(mp.toString());
+            res.append(Constants.NEWLINE);
+            files += mp.get(Constants.PROGRESS_KEY_FILES_DONE);
+            bytes += mp.get(Constants.PROGRESS_KEY_BYTES_DONE);
+            if(mp.isActive()) {
+                bytesRate += mp.bytesRate;
+                if(mp.recordsRate >= 0.0) {
+                    recordsRate += mp.recordsRate;
+                    recordsKnown = true;
+                }
+            }
+            if(mp.units) {
+                unitsDone += mp.get(Constants.PROGRESS_KEY_BYTES_DONE);
+                if(mp.isActive()) {
+                    unitsRate += mp.bytesRate;
+                }
+            } else {
+                eta = longest(eta, mp.getEta());
+            }
+        }
+        if(unitBytes >= 0L) {
+            long remaining = Math.max(0L, unitBytes - unitsDone);
+            eta = longest(eta, remaining == 0L ? 0L 
+                    : unitsRate > 0.0 ? (long) (remaining / unitsRate) : -1L);
+        }
+        res.append(String.format(Locale.ROOT, 
+                "%-24s %-9s %13d %10d %7.1f %9s %9s", "total", "", files, 
+                bytes / Constants.MEGABYTE, bytesRate / Constants.MEGABYTE,
+                recordsKnown ? String.format(Locale.ROOT, "%.1f", 
+                        recordsRate) : "?", formatSeconds(eta)));
+        res.append(Constants.NEWLINE);
+        return res.toString();
+    }
+
+    /**
+     * @param a An estimate in seconds, or -1 if unknown.
+     * @param b An estimate in seconds, or -1 if unknown.
+     * @return The longest estimate, or -1 if either is unknown.
+     */
+    private static long longest(long a, long b) {
+        if(a < 0L || b < 0L) {
+            return -1L;
+        }
+        return Math.max(a, b);
+    }
+
+    /**
+     * @param seconds A number of seconds, or -1 if unknown.
+     * @return The seconds as 'h:mm:ss', or '?' if unknown.
+     */
+    private static String formatSeconds(long seconds) {
+        if(seconds < 0L) {
+            return "?";
+        }
+        return String.format("%d:%02d:%02d", seconds / 3600L, 
+                (seconds / 60L) % 60L, seconds % 60L);
+    }
+
+    /**
+     * Polls every machine once, at most a fixed number at the same time. 
+     * A poll, which has not finished within the interval, is killed.
+     */
+    private void pollAll() {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(Constants.PROGRESS_POLL_THREADS, machines.size()), 
+                new PollThreadFactory());
+        final long deadline = System.currentTimeMillis() + interval;
+        for(final MachineProgress mp : machines) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mp.update(poll(mp, deadline));
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(interval * 2L, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads the heartbeat of a machine.
+     * 
+     * @param mp The machine.
+     * @param deadline The time when the command is killed.
+     * @return The heartbeat, or null if it could not be read.
+     */
+    private Properties poll(MachineProgress mp, long deadline) {
+        File output = null;
+        Process process = null;
+        try {
+            output = File.createTempFile(Constants.FILE_NAME_PROGRESS, null);
+            ProcessBuilder pb = new ProcessBuilder(mp.command);
+            pb.redirectOutput(Redirect.to(output));
+            pb.redirectError(Redirect.appendTo(new File(logDir, mp.name 
+                    + Constants.FILE_SUFFIX_PROGRESS_LOG)));
+            process = pb.start();
+            process.getOutputStream().close();
+            while(true) {
+                try {
+                    if(process.exitValue() != 0) {
+                        return null;
+                    }
+                    break;
+                } catch (IllegalThreadStateException e) {
+                    // still running.
+                }
+                if(System.currentTimeMillis() >= deadline) {
+                    return null;
+                }
+                Thread.sleep(Constants.DEPLOY_POLL_INTERVAL);
+            }
+
+            Properties res = new Properties();
+            InputStream in = new FileInputStream(output);
+            try {
+                res.load(in);
+            } finally {
+                in.close();
+            }
+            return res.containsKey(Constants.PROGRESS_KEY_SEQUENCE) ? res 
+                    : null;
+        } catch (IOException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            if(process != null) {
+                process.destroy();
+            }
+            if(output != null && !output.delete()) {
+                output.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Polls the machines, until every machine has finished or is lost.
+     */
+    private class Poller implements Runnable {
+        @Override
+        public void run() {
+            while(true) {
+                long begin = System.currentTimeMillis();
+                pollAll();
+                statusOut.print(getProgressTable());
+                if(isEnded()) {
+                    return;
+                }
+                long wait = begin + interval - System.currentTimeMillis();
+                if(wait > 0L) {
+                    try {
+                        Thread.sleep(wait);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return Whether every machine has finished or is lost.
+         */
+        private boolean isEnded() {
+            synchronized(ProgressCollector.this) {
+                for(MachineProgress mp : machines) {
+                    if(mp.state != State.FINISHED && mp.state != State.LOST) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * The progress of a single machine.
+     */
+    private class MachineProgress {
+        /** The name of the machine.*/
+        private final String name;
+        /** The command for reading the heartbeat.*/
+        private final List<String> command;
+        /** Whether the machine gets its files as work units.*/
+        private final boolean units;
+        /** The current state.*/
+        private State state = State.WAITING;
+        /** The last heartbeat, or null.*/
+        private Properties heartbeat;
+        /** The time on the host, when a new heartbeat was last read.*/
+        private long lastChange = System.currentTimeMillis();
+        /** The bytes per second since the previous heartbeat.*/
+        private double bytesRate = 0.0;
+        /** The records per second since the previous heartbeat, or -1.*/
+        private double recordsRate = -1.0;
+
+        /**
+         * Constructor.
+         * 
+         * @param name The name of the machine.
+         * @param command The command for reading the heartbeat.
+         * @param units Whether the machine gets its files as work units.
+         */
+        MachineProgress(String name, List<String> command, boolean units) {
+            this.name = name;
+            this.command = command;
+            this.units = units;
+        }
+
+        /**
+         * Updates the progress with a new reading of the heartbeat. The 
+         * rates are computed from the previous heartbeat, and the time 
+         * on the machine, thus the clocks need not agree.
+         * 
+         * @param next The heartbeat, or null if it could not be read.
+         */
+        void update(Properties next) {
+            synchronized(ProgressCollector.this) {
+                long now = System.currentTimeMillis();
+                if(next == null || (heartbeat != null 
+                        && getLong(next, Constants.PROGRESS_KEY_SEQUENCE) 
+                        == get(Constants.PROGRESS_KEY_SEQUENCE))) {
+                    if(state != State.FINISHED && now - lastChange 
+                            >= Constants.PROGRESS_LOST_TIME) {
+                        state = State.LOST;
+                    }
+                    return;
+                }
+
+                long millis = getLong(next, Constants.PROGRESS_KEY_ELAPSED);
+                long bytes = getLong(next, Constants.PROGRESS_KEY_BYTES_DONE);
+                long records = getLong(next, Constants.PROGRESS_KEY_RECORDS);
+                long prevMillis = 0L;
+                long prevBytes = 0L;
+                long prevRecords = 0L;
+                if(heartbeat != null 
+                        && millis > get(Constants.PROGRESS_KEY_ELAPSED)) {
+                    prevMillis = get(Constants.PROGRESS_KEY_ELAPSED);
+                    prevBytes = get(Constants.PROGRESS_KEY_BYTES_DONE);
+                    prevRecords = get(Constants.PROGRESS_KEY_RECORDS);
+                }
+                double seconds = Math.max(1L, millis - prevMillis) / 1000.0;
+                bytesRate = Math.max(0L, bytes - prevBytes) / seconds;
+                recordsRate = records < 0L ? -1.0 
+                        : Math.max(0L, records - prevRecords) / seconds;
+
+                heartbeat = next;
+                lastChange = now;
+                state = Constants.PROGRESS_STATE_FINISHED.equals(
+                        next.getProperty(Constants.PROGRESS_KEY_STATE)) 
+                        ? State.FINISHED : State.RUNNING;
+            }
+        }
+
+        /**
+         * @return Whether the machine is running.
+         */
+        boolean isActive() {
+            return state == State.RUNNING;
+        }
+
+        /**
+         * @param key The key of a number in the heartbeat.
+         * @return The number in the last heartbeat, or 0 if no heartbeat.
+         */
+        long get(String key) {
+            return heartbeat == null ? 0L : getLong(heartbeat, key);
+        }
+
+        /**
+         * @return The estimated seconds left for the machine, or -1 if 
+         * unknown.
+         */
+        long getEta() {
+            if(state == State.FINISHED) {
+                return 0L;
+            }
+            long total = heartbeat == null ? -1L 
+                    : get(Constants.PROGRESS_KEY_BYTES_TOTAL);
+            if(state != State.RUNNING || total < 0L || bytesRate <= 0.0) {
+                return -1L;
+            }
+            long remaining = total - get(Constants.PROGRESS_KEY_BYTES_DONE)
+                    - get(Constants.PROGRESS_KEY_BYTES_SKIPPED);
+            return (long) (Math.max(0L, remaining) / bytesRate);
+        }
+
+        @Override
+        public String toString() {
+            long filesTotal = heartbeat == null ? -1L 
+                    : get(Constants.PROGRESS_KEY_FILES_TOTAL);
+            if(filesTotal >= 0L) {
+                filesTotal -= get(Constants.PROGRESS_KEY_FILES_SKIPPED);
+            }
+            String files = get(Constants.PROGRESS_KEY_FILES_DONE) 
+                    + Constants.SLASH + (filesTotal < 0L ? "?" 
+                            : Long.toString(filesTotal));
+            String current = heartbeat == null ? "" : heartbeat.getProperty(
+                    Constants.PROGRESS_KEY_CURRENT_FILE, "");
+            return String.format(Locale.ROOT, 
+                    "%-24s %-9s %13s %10d %7.1f %9s %9s %s", name, state, 
+                    files, get(Constants.PROGRESS_KEY_BYTES_DONE) 
+                    / Constants.MEGABYTE, 
+                    isActive() ? bytesRate / Constants.MEGABYTE : 0.0,
+                    recordsRate < 0.0 ? "?" : String.format(Locale.ROOT, 
+                            "%.1f", isActive() ? recordsRate : 0.0), 
+                    formatSeconds(getEta()), current);
+        }
+    }
+
+    /**
+     * @param props A heartbeat.
+     * @param key The key of a number.
+     * @return The number, or 0 if missing or not a number.
+     */
+    private static long getLong(Properties props, String key) {
+        try {
+            return Long.parseLong(props.getProperty(key, "0").trim());
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * Makes daemon threads for polling the machines, so a hanging command 
+     * cannot keep the process alive.
+     */
+    private static class PollThreadFactory implements ThreadFactory {
+        /** The number of threads made so far.*/
+        private int count = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+            Thread t = new Thread(r, Constants.PROGRESS_THREAD_NAME 
+                    + (++count));
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * Writes the progress of a batch job to a small heartbeat file, which the 
+ * host polls for showing the progress of all the machines.
+ * 
+ * The heartbeat is written regularly as properties: the number of the 
+ * heartbeat, the state, the milliseconds since the start, the files and 
+ * bytes processed, the files and bytes skipped since an earlier run 
+ * finished them, the files and bytes to process when known, the records 
+ * processed and the recent records and bytes per second, and the file 
+ * being processed. A new heartbeat replaces the old through a rename, thus
+ * the file is never seen half written. The file is written outside the 
+ * lock, thus the files being processed are not reported late while the 
+ * disc is slow.
+ * 
+ * The records are read from the record counter of the run, and are only 
+ * known for batch jobs on arc- and warc-records, otherwise they are -1. The files and bytes to process are counted in the
+ * background when the directories are given, and are -1 until counted or 
+ * when the files are handed out as work units.
+ */
+public class ProgressHeartbeat {
+    /** The heartbeat file.*/
+    private final File file;
+    /** Counts the records processed by the batch job, if set.*/
+    private RecordCounter recordCounter;
+    /** The time of the start.*/
+    private final long startTime = System.currentTimeMillis();
+    /** The number of heartbeats written so far.*/
+    private long sequence = 0L;
+    /** The number of processed files.*/
+    private long filesDone = 0L;
+    /** The number of bytes in the processed files.*/
+    private long bytesDone = 0L;
+    /** The number of files skipped since finished by an earlier run.*/
+    private long filesSkipped = 0L;
+    /** The number of bytes in the skipped files.*/
+    private long bytesSkipped = 0L;
+    /** The number of files to process, or -1 if not known.*/
+    private long filesTotal = -1L;
+    /** The number of bytes to process, or -1 if not known.*/
+    private long bytesTotal = -1L;
+    /** The file being processed, or an empty string.*/
+    private String currentFile = "";
+    /** The time of the last heartbeat.*/
+    private long lastTime = startTime;
+    /** The records at the last heartbeat.*/
+    private long lastRecords = 0L;
+    /** The bytes at the last heartbeat.*/
+    private long lastBytes = 0L;
+    /** Whether the batch job has finished.*/
+    private boolean finished = false;
+    /** The thread writing the heartbeats.*/
+    private Thread writer;
+
+    /**
+     * Constructor.
+     * 
+     * @param heartbeatFile The heartbeat file.
+     */
+    public ProgressHeartbeat(File heartbeatFile) {
+        ArgumentNotValid.checkNotNull(heartbeatFile, "File heartbeatFile");
+        this.file = heartbeatFile;
+    }
+
+    /**
+     * @param counter Counts the records processed by the batch job.
+     */
+    public synchronized void setRecordCounter(RecordCounter counter) {
+        ArgumentNotValid.checkNotNull(counter, "RecordCounter counter");
+        recordCounter = counter;
+    }
+
+    /**
+     * Starts writing the heartbeats in the background.
+     */
+    public void start() {
+        write();
+        writer = new Thread(new Writer(), Constants.HEARTBEAT_THREAD_NAME);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Counts the files and bytes to process in the background, as the 
+     * batch job would find them in the directories.
+     * 
+     * @param dirs The directories.
+     * @param regexPattern The pattern for the names of the files.
+     * @param recursively Whether the sub-directories are run upon.
+     */
+    public void countTotals(final List<File> dirs, String regexPattern, 
+            final boolean recursively) {
+        ArgumentNotValid.checkNotNull(dirs, "List<File> dirs");
+        final Pattern pattern = Pattern.compile(regexPattern);
+        Thread scanner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final long[] totals = new long[2];
+                int depth = recursively ? Integer.MAX_VALUE : 1;
+                for(File dir : dirs) {
+                    try {
+                        Files.walkFileTree(dir.toPath(), EnumSet.of(
+                                FileVisitOption.FOLLOW_LINKS), depth, 
+                                new SimpleFileVisitor<Path>() {
+                            @Override
+                            public FileVisitResult visitFile(Path p, 
+                                    BasicFileAttributes attrs) {
+                                if(attrs.isRegularFile() && pattern.matcher(
+                                        p.getFileName().toString())
+                                        .matches()) {
+                                    totals[0]++;
+                                    totals[1] += attrs.size();
+                                }
+                                return FileVisitResult.CONTINUE;
+                            }
+
+                            @Override
+                            public FileVisitResult visitFileFailed(Path p, 
+                                    IOException e) {
+                                return FileVisitResult.CONTINUE;
+                            }
+                        });
+                    } catch (IOException e) {
+                        // the totals remain unknown.
+                        return;
+                    }
+                }
+                synchronized(ProgressHeartbeat.this) {
+                    filesTotal = totals[0];
+                    bytesTotal = totals[1];
+                }
+            }
+        }, Constants.HEARTBEAT_SCAN_THREAD_NAME);
+        scanner.setDaemon(true);
+        scanner.start();
+    }
+
+    /**
+     * @param fil The file, which is now being processed.
+     */
+    public synchronized void fileStarted(File fil) {
+        currentFile = fil.getAbsolutePath();
+    }
+
+    /**
+     * @param fil The file, which has been processed.
+     */
+    public synchronized void fileDone(File fil) {
+        filesDone++;
+        bytesDone += fil.length();
+    }
+
+    /**
+     * @param fil The file, which was skipped since it was finished by an 
+     * earlier run.
+     */
+    public synchronized void fileSkipped(File fil) {
+        filesSkipped++;
+        bytesSkipped += fil.length();
+    }
+
+    /**
+     * Stops the heartbeats, and writes the last heartbeat with the state 
+     * finished.
+     */
+    public void finish() {
+        synchronized(this) {
+            finished = true;
+            currentFile = "";
+            notifyAll();
+        }
+        if(writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        write();
+    }
+
+    /**
+     * Writes a heartbeat. A heartbeat, which cannot be written, is 
+     * reported and skipped. Only a single thread writes at a time: first 
+     * the starting thread, then the background thread, and then the 
+     * finishing thread.
+     */
+    private void write() {
+        Properties props = nextHeartbeat();
+        File tmp = new File(file.getPath() + Constants.PROGRESS_TMP_SUFFIX);
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                props.store(out, null);
+            } finally {
+                out.close();
+            }
+            if(!tmp.renameTo(file) 
+                    && !(file.delete() && tmp.renameTo(file))) {
+                throw new IOException("Cannot rename " + tmp.getName());
+            }
+        } catch (IOException e) {
+            System.err.println(Constants.ERROR_MSG_HEARTBEAT 
+                    + file.getAbsolutePath() + Constants.NEWLINE + e);
+        }
+    }
+
+    /**
+     * Takes the progress for the next heartbeat.
+     * 
+     * @return The properties of the heartbeat.
+     */
+    private synchronized Properties nextHeartbeat() {
+        long now = System.currentTimeMillis();
+        long records = recordCounter == null ? -1L 
+                : recordCounter.getRecords();
+        double seconds = Math.max(1L, now - lastTime) / 1000.0;
+
+        Properties props = new Properties();
+        props.setProperty(Constants.PROGRESS_KEY_SEQUENCE, 
+                Long.toString(++sequence));
+        props.setProperty(Constants.PROGRESS_KEY_STATE, finished 
+                ? Constants.PROGRESS_STATE_FINISHED 
+                : Constants.PROGRESS_STATE_RUNNING);
+        props.setProperty(Constants.PROGRESS_KEY_ELAPSED, 
+                Long.toString(now - startTime));
+        props.setProperty(Constants.PROGRESS_KEY_FILES_DONE, 
+                Long.toString(filesDone));
+        props.setProperty(Constants.PROGRESS_KEY_BYTES_DONE, 
+                Long.toString(bytesDone));
+        props.setProperty(Constants.PROGRESS_KEY_FILES_SKIPPED, 
+                Long.toString(filesSkipped));
+        props.setProperty(Constants.PROGRESS_KEY_BYTES_SKIPPED, 
+                Long.toString(bytesSkipped));
+        props.setProperty(Constants.PROGRESS_KEY_FILES_TOTAL, 
+                Long.toString(filesTotal));
+        props.setProperty(Constants.PROGRESS_KEY_BYTES_TOTAL, 
+                Long.toString(bytesTotal));
+        props.setProperty(Constants.PROGRESS_KEY_RECORDS, 
+                Long.toString(records));
+        props.setProperty(Constants.PROGRESS_KEY_RECORDS_PER_SECOND, 
+                String.format(Locale.ROOT, "%.1f", records < 0L ? -1.0 
+                        : (records - lastRecords) / seconds));
+        props.setProperty(Constants.PROGRESS_KEY_BYTES_PER_SECOND, 
+                String.format(Locale.ROOT, "%.0f", 
+                        (bytesDone - lastBytes) / seconds));
+        props.setProperty(Constants.PROGRESS_KEY_CURRENT_FILE, currentFile);
+        lastTime = now;
+        lastRecords = records;
+        lastBytes = bytesDone;
+        return props;
+    }
+
+    /**
+     * Writes the heartbeats, until the batch job has finished.
+     */
+    private class Writer implements Runnable {
+        @Override
+        public void run() {
+            while(true) {
+                synchronized(ProgressHeartbeat.this) {
+                    if(finished) {
+                        return;
+                    }
+                    try {
+                        ProgressHeartbeat.this.wait(
+                                Constants.HEARTBEAT_INTERVAL);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if(finished) {
+                        return;
+                    }
+                }
+                write();
+            }
+        }
+    }
+}
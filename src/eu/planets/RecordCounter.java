@@ -0,0 +1,129 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+package eu.planets;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dk.netarkivet.common.utils.archive.ArchiveBatchJobBase;
+import dk.netarkivet.common.utils.arc.ARCBatchJob;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+import dk.netarkivet.common.utils.batch.LoadableFileBatchJob;
+import dk.netarkivet.common.utils.batch.LoadableJarBatchJob;
+
+/**
+ * Counts the records processed by the batch job and its copies, for the 
+ * progress heartbeat.
+ * 
+ * The files are processed through the counter, which adds the records 
+ * processed by a batch job in a file, when the file is finished. Thus the
+ * count of a batch job is only read by the thread processing with it, 
+ * and the total can be read by any thread.
+ * 
+ * The records are only known for batch jobs on arc- and warc-records. The
+ * loadable batch jobs do not tell the records of the batch job they have 
+ * loaded, thus the loaded batch job is taken from their field.
+ */
+public class RecordCounter {
+    /** The field with the loaded batch job in LoadableFileBatchJob.*/
+    private static final Field FILE_LOADED_JOB = 
+        loadedJobField(LoadableFileBatchJob.class);
+    /** The field with the loaded batch job in LoadableJarBatchJob.*/
+    private static final Field JAR_LOADED_JOB = 
+        loadedJobField(LoadableJarBatchJob.class);
+
+    /** The number of records processed in the finished files.*/
+    private final AtomicLong records = new AtomicLong(0L);
+    /** Whether any batch job has told its records.*/
+    private volatile boolean known = false;
+
+    /**
+     * Runs a batch job upon a file, and counts the records it processed.
+     * 
+     * @param fbj The batch job, which must only be used by this thread 
+     * while processing.
+     * @param fil The file.
+     * @param out The stream for the output of the batch job.
+     * @return Whether the batch job processed the file.
+     */
+    public boolean processFile(FileBatchJob fbj, File fil, OutputStream out) {
+        long before = recordsOf(fbj);
+        try {
+            return fbj.processFile(fil, out);
+        } finally {
+            long after = recordsOf(fbj);
+            if(after >= 0L) {
+                records.addAndGet(after - Math.max(0L, before));
+                known = true;
+            }
+        }
+    }
+
+    /**
+     * @return The number of records processed in the finished files, or -1
+     * if the batch job does not count records.
+     */
+    public long getRecords() {
+        return known ? records.get() : -1L;
+    }
+
+    /**
+     * @param fbj A batch job.
+     * @return The number of records processed by the batch job so far, or 
+     * -1 if the batch job does not count records.
+     */
+    private static long recordsOf(FileBatchJob fbj) {
+        Object loaded = fbj;
+        try {
+            if(fbj instanceof LoadableFileBatchJob && FILE_LOADED_JOB != null) {
+                loaded = FILE_LOADED_JOB.get(fbj);
+            } else if(fbj instanceof LoadableJarBatchJob 
+                    && JAR_LOADED_JOB != null) {
+                loaded = JAR_LOADED_JOB.get(fbj);
+            }
+        } catch (IllegalAccessException e) {
+            return -1L;
+        }
+        if(loaded instanceof ArchiveBatchJobBase) {
+            return ((ArchiveBatchJobBase) loaded).noOfRecordsProcessed();
+        }
+        if(loaded instanceof ARCBatchJob) {
+            return ((ARCBatchJob) loaded).noOfRecordsProcessed();
+        }
+        return -1L;
+    }
+
+    /**
+     * @param loadable The class of a loadable batch job.
+     * @return The field with the loaded batch job, or null if it is not 
+     * found in this version of NetarchiveSuite.
+     */
+    private static Field loadedJobField(Class<?> loadable) {
+        try {
+            Field res = loadable.getDeclaredField(Constants.LOADED_JOB_FIELD);
+            res.setAccessible(true);
+            return res;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * The commands for reaching the machines: 'ssh' for running a command on a
+ * machine, and 'scp' for copying files to a machine.
+ *
+ * Each command is given as a program with its own arguments, separated by
+ * white space, e.g. 'ssh -o BatchMode=yes'. Thus a local stand-in for ssh
+ * and scp can be used instead, when the deployment is tested without any
+ * real machines.
+ */
+public class RemoteShell {
+    /** The ssh program and its own arguments.*/
+    private final List<String> sshCommand;
+    /** The scp program and its own arguments.*/
+    private final List<String> scpCommand;
+
+    /**
+     * Constructor.
+     *
+     * @param ssh The ssh command, e.g. 'ssh'.
+     * @param scp The scp command, e.g. 'scp'.
+     */
+    public RemoteShell(String ssh, String scp) {
+        ArgumentNotValid.checkNotNullOrEmpty(ssh, "String ssh");
+        ArgumentNotValid.checkNotNullOrEmpty(scp, "String scp");
+
+        sshCommand = split(ssh);
+        scpCommand = split(scp);
+    }
+
+    /**
+     * Makes the command for running a shell command on a machine.
+     * 'ssh login "command"'.
+     *
+     * @param login The login for the machine.
+     * @param command The command to run on the machine.
+     * @return The command with its arguments.
+     */
+    public List<String> ssh(String login, String command) {
+        List<String> res = new ArrayList<String>(sshCommand);
+        res.add(login);
+        res.add(command);
+        return res;
+    }
+
+    /**
+     * Makes the command for copying files into a directory on a machine.
+     * 'scp files login:dir'.
+     *
+     * @param files The paths of the local files.
+     * @param login The login for the machine.
+     * @param dir The directory on the machine.
+     * @return The command with its arguments.
+     */
+    public List<String> scp(List<String> files, String login, String dir) {
+        List<String> res = new ArrayList<String>(scpCommand);
+        res.addAll(files);
+        res.add(login + Constants.COLON + dir);
+        return res;
+    }
+
+    /**
+     * @param command A command with its arguments, separated by white space.
+     * @return The program and its arguments.
+     */
+    private static List<String> split(String command) {
+        return new ArrayList<String>(Arrays.asList(command.trim().split(
+                "\\s+")));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * A step in the installation of a machine: a command, and the commands to
+ * run instead if the command fails. E.g. use the cached copy of a package,
+ * or else copy the package to the machine.
+ *
+ * A step without any fallback fails when its command fails. A step with a
+ * fallback fails when one of the fallback commands fails.
+ */
+public class RemoteStep {
+    /** The command with its arguments.*/
+    private final List<String> command;
+    /** The commands to run in order when the command fails, or null.*/
+    private final List<List<String>> fallback;
+
+    /**
+     * Constructor for a step without any fallback.
+     *
+     * @param command The command with its arguments.
+     */
+    public RemoteStep(List<String> command) {
+        ArgumentNotValid.checkNotNullOrEmpty(command, "List<String> command");
+        this.command = command;
+        this.fallback = null;
+    }
+
+    /**
+     * Constructor for a step with a fallback.
+     *
+     * @param command The command with its arguments.
+     * @param fallback The commands to run in order when the command fails.
+     */
+    public RemoteStep(List<String> command, List<List<String>> fallback) {
+        ArgumentNotValid.checkNotNullOrEmpty(command, "List<String> command");
+        ArgumentNotValid.checkNotNullOrEmpty(fallback,
+                "List<List<String>> fallback");
+        this.command = command;
+        this.fallback = new ArrayList<List<String>>(fallback);
+    }
+
+    /**
+     * @return The command with its arguments.
+     */
+    public List<String> getCommand() {
+        return command;
+    }
+
+    /**
+     * @return The commands to run when the command fails. Empty if the
+     * step has no fallback.
+     */
+    public List<List<String>> getFallback() {
+        if(fallback == null) {
+            return Collections.emptyList();
+        }
+        return fallback;
+    }
+
+    /**
+     * @return Whether the step has a fallback.
+     */
+    public boolean hasFallback() {
+        return fallback != null;
+    }
+
+    /**
+     * Writes the step as a line in a bash script.
+     * 'command || { fallback1 && fallback2; }'.
+     *
+     * @return The line for the script.
+     */
+    public String toScript() {
+        StringBuilder res = new StringBuilder();
+        appendCommand(res, command);
+        if(fallback != null) {
+            res.append(" || { ");
+            for(int i = 0; i < fallback.size(); i++) {
+                if(i > 0) {
+                    res.append(" && ");
+                }
+                appendCommand(res, fallback.get(i));
+            }
+            res.append("; }");
+        }
+        res.append(Constants.NEWLINE);
+        return res.toString();
+    }
+
+    /**
+     * Appends a command to a script, where the arguments with other
+     * characters than letters, digits and '_-.,/:@=+' are quoted.
+     *
+     * @param res The script.
+     * @param cmd The command with its arguments.
+     */
+    private static void appendCommand(StringBuilder res, List<String> cmd) {
+        for(int i = 0; i < cmd.size(); i++) {
+            if(i > 0) {
+                res.append(Constants.SPACE);
+            }
+            String arg = cmd.get(i);
+            if(arg.matches("[\\w\\-.,/:@=+]+")) {
+                res.append(arg);
+            } else {
+                res.append('\'');
+                res.append(arg.replace("'", "'\\''"));
+                res.append('\'');
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toScript().trim();
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * Ships a result file to the host while the batch job is running, instead of
+ * copying the whole file after the batch job has finished.
+ *
+ * The bytes added to the file since the last shipment are compressed as a
+ * gzip member, and given to the ship script on its input:
+ * <br/> bash ship-script file-name .gz host-offset
+ * <br/>The script cuts the copy of the file on the host to the host-offset,
+ * which is the compressed size of the earlier shipments, and then appends 
+ * its input. Thus whatever a failed shipment appended is removed again, 
+ * and the copy is a valid gzip file with all the shipped bytes. A shipment
+ * ends at the last newline, so the host does not see half lines, unless a
+ * single line is longer than a whole shipment.
+ *
+ * The bytes are shipped when enough bytes have been added, or when some
+ * bytes have waited long enough. When the batch job has finished, the rest
+ * of the file is shipped, and the script is called with an empty input:
+ * <br/> bash ship-script file-name .done 0
+ * <br/>to mark the copy on the host as complete.
+ *
+ * The end of every shipment in the file and in the copy on the host are kept
+ * as a line in a file next to the result file, so a resumed run does not 
+ * ship the same bytes twice. When the result file has become shorter than
+ * the shipped bytes, e.g. cut to the checkpoint journal by a resumed run or 
+ * re-created by a new run, the shipping continues from the last shipment 
+ * within the file, and the copy on the host is cut back to the end of that 
+ * shipment. A failed shipment is retried later.
+ */
+public class ResultShipper {
+    /** The result file to ship.*/
+    private final File file;
+    /** The script, which appends its input to the copy on the host.*/
+    private final File script;
+    /** The file with the ends of the shipments in the result file and on 
+     * the host.*/
+    private final File offsetFile;
+    /** The number of bytes shipped so far.*/
+    private long shipped = 0L;
+    /** The compressed size of the shipments, thus of the copy on the host.*/
+    private long hostOffset = 0L;
+    /** The time of the last shipment.*/
+    private long lastShipment;
+    /** The thread shipping while the batch job is running.*/
+    private Thread shipper;
+    /** Whether the shipping in the background should stop.*/
+    private boolean stopping = false;
+
+    /**
+     * Constructor.
+     *
+     * @param resultFile The result file to ship.
+     * @param shipScript The script, which appends its input to the copy of
+     * the result file on the host.
+     */
+    public ResultShipper(File resultFile, File shipScript) {
+        ArgumentNotValid.checkNotNull(resultFile, "File resultFile");
+        ArgumentNotValid.checkNotNull(shipScript, "File shipScript");
+
+        this.file = resultFile;
+        this.script = shipScript;
+        this.offsetFile = new File(resultFile.getPath() 
+                + Constants.SHIPPED_SUFFIX);
+    }
+
+    /**
+     * @return The result file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Starts shipping the result file in the background. Continues from 
+     * the last shipment of an earlier run within the file, if any.
+     */
+    public synchronized void start() {
+        if(offsetFile.exists()) {
+            try {
+                resume();
+            } catch (Exception e) {
+                throw new IOFailure(Constants.ERROR_MSG_SHIPPED_OFFSET
+                        + offsetFile.getAbsolutePath(), e);
+            }
+        }
+        lastShipment = System.currentTimeMillis();
+        shipper = new Thread(new Shipper(), Constants.SHIP_THREAD_NAME 
+                + file.getName());
+        shipper.setDaemon(true);
+        shipper.start();
+    }
+
+    /**
+     * Stops the shipping in the background, ships the rest of the file and
+     * marks the copy on the host as complete. Must be called when nothing
+     * more is written to the result file.
+     *
+     * @return Whether the whole file was shipped.
+     */
+    public boolean finish() {
+        if(shipper != null) {
+            // a shipment in progress is completed before the thread stops.
+            synchronized(this) {
+                stopping = true;
+                notifyAll();
+            }
+            try {
+                shipper.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOFailure(Constants.ERROR_MSG_SHIP_INTERRUPTED, e);
+            }
+        }
+
+        try {
+            synchronized(this) {
+                ship(true);
+                if(shipped < file.length()) {
+                    return false;
+                }
+                Process p = startScript(Constants.SHIP_DONE_SUFFIX, 0L);
+                p.getOutputStream().close();
+                return p.waitFor() == 0;
+            }
+        } catch (IOException e) {
+            System.err.println(Constants.ERROR_MSG_SHIP + file.getName() 
+                    + Constants.NEWLINE + e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure(Constants.ERROR_MSG_SHIP_INTERRUPTED, e);
+        }
+    }
+
+    /**
+     * Ships the bytes added to the file, if enough bytes have been added or
+     * some bytes have waited long enough.
+     *
+     * @param last Whether all the rest of the file should be shipped now.
+     * @throws IOException If the file cannot be read, or the shipment 
+     * failed.
+     * @throws InterruptedException If interrupted while shipping.
+     */
+    private synchronized void ship(boolean last) throws IOException, 
+            InterruptedException {
+        long end = file.length();
+        long pending = end - shipped;
+        if(pending <= 0L || (!last && pending < Constants.SHIP_CHUNK_SIZE 
+                && System.currentTimeMillis() - lastShipment 
+                < Constants.SHIP_INTERVAL)) {
+            return;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if(!last) {
+                end = lastLineEnd(raf, shipped, end);
+                if(end <= shipped) {
+                    return;
+                }
+            }
+
+            Process p = startScript(Constants.SHIP_CHUNK_SUFFIX, hostOffset);
+            CountingOutputStream counter = new CountingOutputStream(
+                    p.getOutputStream());
+            int exit = -1;
+            try {
+                OutputStream out = new GZIPOutputStream(counter, 
+                        Constants.SHIP_BUFFER_SIZE);
+                try {
+                    byte[] buffer = new byte[Constants.SHIP_BUFFER_SIZE];
+                    raf.seek(shipped);
+                    long remaining = end - shipped;
+                    while(remaining > 0) {
+                        int n = raf.read(buffer, 0, 
+                                (int) Math.min(buffer.length, remaining));
+                        if(n < 0) {
+                            throw new IOException("The file was truncated "
+                                    + "while shipping.");
+                        }
+                        out.write(buffer, 0, n);
+                        remaining -= n;
+                    }
+                } finally {
+                    out.close();
+                }
+                exit = p.waitFor();
+            } finally {
+                if(exit == -1) {
+                    p.destroy();
+                }
+            }
+            if(exit != 0) {
+                throw new IOException("The ship script ended with exit code "
+                        + exit);
+            }
+            hostOffset += counter.count;
+        } finally {
+            raf.close();
+        }
+
+        shipped = end;
+        lastShipment = System.currentTimeMillis();
+        appendOffset();
+    }
+
+    /**
+     * Continues from the last shipment of an earlier run, which ends within
+     * the result file. The later shipments are forgotten, thus the next
+     * shipment cuts the copy on the host back to the end of that shipment.
+     * 
+     * @throws IOException If the shipments cannot be read or written.
+     */
+    private void resume() throws IOException {
+        String content = new String(readAll(offsetFile), 
+                Constants.SHIPPED_ENCODING);
+        // a line without its newline was being written, when interrupted.
+        String[] lines = content.substring(0, content.lastIndexOf(
+                Constants.NEWLINE) + 1).split(Constants.NEWLINE);
+        List<String> kept = new ArrayList<String>(lines.length);
+        long length = file.length();
+        boolean cut = false;
+        for(String line : lines) {
+            if(line.isEmpty()) {
+                continue;
+            }
+            String[] offsets = line.split(Constants.SPACE);
+            long end = Long.parseLong(offsets[0]);
+            if(end > length) {
+                cut = true;
+                break;
+            }
+            shipped = end;
+            hostOffset = Long.parseLong(offsets[1]);
+            kept.add(line);
+        }
+        if(cut) {
+            System.err.println(Constants.WARN_MSG_SHIPPED_BEYOND_FILE
+                    + file.getAbsolutePath());
+        }
+        writeOffsets(kept);
+    }
+
+    /**
+     * Finds the end of the last complete line within a part of the file.
+     * If the part has no newline, then the whole part is used when it has
+     * reached the size of a shipment.
+     *
+     * @param raf The file.
+     * @param start The beginning of the part.
+     * @param end The end of the part.
+     * @return The position after the last newline, or the start if there
+     * is no newline and the part is small.
+     * @throws IOException If the file cannot be read.
+     */
+    private static long lastLineEnd(RandomAccessFile raf, long start, 
+            long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Constants.SHIP_BUFFER_SIZE);
+        long pos = end;
+        while(pos > start) {
+            long from = Math.max(start, pos - buffer.capacity());
+            buffer.clear();
+            buffer.limit((int) (pos - from));
+            while(buffer.hasRemaining()) {
+                if(raf.getChannel().read(buffer, from + buffer.position()) 
+                        < 0) {
+                    throw new IOException("The file was truncated while "
+                            + "shipping.");
+                }
+            }
+            for(int i = buffer.limit() - 1; i >= 0; i--) {
+                if(buffer.get(i) == '\n') {
+                    return from + i + 1;
+                }
+            }
+            pos = from;
+        }
+        return end - start >= Constants.SHIP_CHUNK_SIZE ? end : start;
+    }
+
+    /**
+     * Starts the ship script for the result file.
+     *
+     * @param suffix The suffix for the copy on the host.
+     * @param offset The size to cut the copy on the host to, before the 
+     * input is appended.
+     * @return The process of the script.
+     * @throws IOException If the script cannot be started.
+     */
+    private Process startScript(String suffix, long offset) 
+            throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(Constants.BASH, 
+                script.getAbsolutePath(), file.getName(), suffix, 
+                Long.toString(offset));
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(Redirect.INHERIT);
+        return pb.start();
+    }
+
+    /**
+     * Appends the end of the last shipment in the file and in the copy on 
+     * the host to the file with the shipments.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    private void appendOffset() throws IOException {
+        FileOutputStream fos = new FileOutputStream(offsetFile, true);
+        try {
+            fos.write((shipped + Constants.SPACE + hostOffset 
+                    + Constants.NEWLINE).getBytes(Constants.SHIPPED_ENCODING));
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Replaces the shipments through a temporary file.
+     *
+     * @param lines The lines of the shipments to keep.
+     * @throws IOException If the file cannot be written.
+     */
+    private void writeOffsets(List<String> lines) throws IOException {
+        File tmp = new File(offsetFile.getPath() + Constants.PART_SUFFIX);
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            raf.setLength(0L);
+            for(String line : lines) {
+                raf.write((line + Constants.NEWLINE).getBytes(
+                        Constants.SHIPPED_ENCODING));
+            }
+        } finally {
+            raf.close();
+        }
+        if(!tmp.renameTo(offsetFile) 
+                && !(offsetFile.delete() && tmp.renameTo(offsetFile))) {
+            throw new IOException("Cannot write the shipped offset to: "
+                    + offsetFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * @param f A small file.
+     * @return The content of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    private static byte[] readAll(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            byte[] res = new byte[(int) raf.length()];
+            raf.readFully(res);
+            return res;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Counts the bytes written to the ship script, which are the bytes 
+     * appended to the copy on the host.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        /** The number of bytes written.*/
+        private long count = 0L;
+
+        /**
+         * @param out The stream to count the bytes of.
+         */
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Ships the result file regularly, until stopped.
+     */
+    private class Shipper implements Runnable {
+        @Override
+        public void run() {
+            synchronized(ResultShipper.this) {
+                try {
+                    while(!stopping) {
+                        ResultShipper.this.wait(Constants.SHIP_POLL_INTERVAL);
+                        if(stopping) {
+                            return;
+                        }
+                        try {
+                            ship(false);
+                        } catch (IOException e) {
+                            // retried at the next shipment.
+                            System.err.println(Constants.ERROR_MSG_SHIP 
+                                    + file.getName() + Constants.NEWLINE + e);
+                            lastShipment = System.currentTimeMillis();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
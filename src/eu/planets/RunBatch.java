@@ -60,6 +60,14 @@ import dk.netarkivet.common.utils.batch.LoadableJarBatchJob;
 -E Error file.
 -R (none. Either exists or not).
 -P The pattern.
+-W The number of worker threads (default 1).
+-K The checkpoint journal, for resuming an interrupted run.
+-L The free space in MB, below which the processing pauses (default 100).
+-H The free space in MB, above which the processing resumes (default 200).
+-G The ship script, for shipping the output and error files while running.
+-U The work coordinator (host:port), for getting the files instead of -D.
+-M The name of this machine, for asking the work coordinator.
+-T The progress heartbeat file.
  */
 public final class RunBatch {
 /*
@@ -91,6 +99,21 @@ public final class RunBatch {
     private static String pattern;
     /** Whether sub-directories should be run recursively.*/
     private static boolean recursively; 
+    /** The number of worker threads processing the files.*/
+    private static int workers;
+    /** The checkpoint journal, if any.*/
+    private static File journalFile;
+    /** The free space in bytes, below which the processing pauses.*/
+    private static long lowWater;
+    /** The free space in bytes, above which the processing resumes.*/
+    private static long highWater;
+    /** The script for shipping the result files while running, if any.*/
+    private static File shipScript;
+    /** The connection to the work coordinator, if the files are handed 
+     * out by the coordinator instead of the directories.*/
+    private static WorkClient workClient;
+    /** The file for the progress heartbeat, if any.*/
+    private static File progressFile;
     
     /**
      * Dummy Constructor.
@@ -150,11 +173,26 @@ public final class RunBatch {
      */
     private static void initialise() {
         initJob();
+        initCoordinator();
         initDirectory();
         initEndScript();
         initOutputFiles();
         initPattern();
         initRecursively();
+        initWorkers();
+        initCheckpointJournal();
+        initShipScript();
+        initProgress();
+        lowWater = initWaterMark(Constants.LOW_WATER_OPTION_KEY, 
+                Constants.DEFAULT_LOW_WATER_MARK);
+        highWater = initWaterMark(Constants.HIGH_WATER_OPTION_KEY, 
+                Constants.DEFAULT_HIGH_WATER_MARK);
+        if(highWater < lowWater) {
+            System.err.println(Constants.ERROR_MSG_WATER_MARKS + lowWater 
+                    + " > " + highWater);
+            System.out.println(batchParms.listArguments());
+            System.exit(0);
+        }
     }
     
     /**
@@ -162,6 +200,12 @@ public final class RunBatch {
      * Exits if wrong argument.
      */
     private static void initDirectory() {
+        // the files are handed out by the coordinator.
+        if(workClient != null) {
+            dirs = new ArrayList<File>(0);
+            return;
+        }
+        
         String option = batchParms.getCommandLine()
             .getOptionValue(Constants.DIRECTORY_OPTION_KEY);
         
@@ -190,6 +234,39 @@ public final class RunBatch {
         }
     }
     
+    /**
+     * Initialises the connection to the work coordinator, when given 
+     * together with the name of this machine.
+     * Exits if wrong argument.
+     */
+    private static void initCoordinator() {
+        String option = batchParms.getCommandLine()
+            .getOptionValue(Constants.COORDINATOR_OPTION_KEY);
+        if(option == null || option.isEmpty()) {
+            workClient = null;
+            return;
+        }
+        
+        String machine = batchParms.getCommandLine()
+            .getOptionValue(Constants.MACHINE_NAME_OPTION_KEY);
+        int separator = option.lastIndexOf(Constants.COLON);
+        int port;
+        try {
+            port = Integer.parseInt(option.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            port = 0;
+        }
+        if(separator < 1 || port <= 0 || machine == null 
+                || machine.isEmpty()) {
+            System.err.println(Constants.ERROR_MSG_COORDINATOR_ARGUMENT 
+                    + option);
+            System.out.println(batchParms.listArguments());
+            System.exit(0);
+        }
+        workClient = new WorkClient(option.substring(0, separator), port, 
+                machine);
+    }
+    
     /**
      * This method retrieves the arguments, and finds the corresponding 
      * batch job.
@@ -337,17 +414,178 @@ public final class RunBatch {
                 Constants.RECURSIVE_OPTION_KEY);
     }
     
+    /**
+     * Method for extracting the number of worker threads, which should 
+     * process the files at the same time.
+     * Exits if the argument is not a positive number.
+     */
+    private static void initWorkers() {
+        String option = batchParms.getCommandLine().getOptionValue(
+                Constants.WORKERS_OPTION_KEY);
+
+        if(option == null || option.isEmpty()) {
+            workers = Constants.DEFAULT_WORKERS;
+            return;
+        }
+        
+        try {
+            workers = Integer.parseInt(option);
+        } catch (NumberFormatException e) {
+            workers = 0;
+        }
+        if(workers < 1) {
+            System.err.println(Constants.ERROR_MSG_WORKERS_ARGUMENT + option);
+            System.out.println(batchParms.listArguments());
+            System.exit(0);
+        }
+    }
+    
+    /**
+     * Method for extracting the checkpoint journal. When the journal exists, 
+     * the run continues from where the earlier run was interrupted.
+     */
+    private static void initCheckpointJournal() {
+        String option = batchParms.getCommandLine().getOptionValue(
+                Constants.CHECKPOINT_OPTION_KEY);
+
+        if(option == null || option.isEmpty()) {
+            journalFile = null;
+        } else {
+            journalFile = new File(option);
+        }
+    }
+    
+    /**
+     * Method for extracting the ship script. When given, the output and
+     * error files are shipped to the host while the batch job is running.
+     * Exits if the script does not exist.
+     */
+    private static void initShipScript() {
+        String option = batchParms.getCommandLine().getOptionValue(
+                Constants.SHIP_SCRIPT_OPTION_KEY);
+
+        if(option == null || option.isEmpty()) {
+            shipScript = null;
+            return;
+        }
+
+        shipScript = new File(option);
+        if(!shipScript.isFile()) {
+            System.err.println(Constants.ERROR_MSG_ARGUMENTS + ": "
+                    + shipScript.getAbsolutePath());
+            System.out.println(batchParms.listArguments());
+            System.exit(0);
+        }
+    }
+    
+    /**
+     * Method for extracting the progress heartbeat file. When given, the 
+     * progress is written regularly to the file.
+     */
+    private static void initProgress() {
+        String option = batchParms.getCommandLine().getOptionValue(
+                Constants.PROGRESS_OPTION_KEY);
+
+        if(option == null || option.isEmpty()) {
+            progressFile = null;
+        } else {
+            progressFile = new File(option);
+        }
+    }
+    
+    /**
+     * Method for extracting a water mark for the free space. 
+     * The argument is in megabytes.
+     * Exits if wrong argument.
+     * 
+     * @param key The option key of the water mark.
+     * @param defaultMark The water mark in bytes, if not given.
+     * @return The water mark in bytes.
+     */
+    private static long initWaterMark(String key, long defaultMark) {
+        String option = batchParms.getCommandLine().getOptionValue(key);
+
+        if(option == null || option.isEmpty()) {
+            return defaultMark;
+        }
+        
+        long mark;
+        try {
+            mark = Long.parseLong(option);
+        } catch (NumberFormatException e) {
+            mark = -1L;
+        }
+        if(mark < 0L) {
+            System.err.println(Constants.ERROR_MSG_WATER_MARK_ARGUMENT 
+                    + option);
+            System.out.println(batchParms.listArguments());
+            System.exit(0);
+        }
+        return mark * Constants.MEGABYTE;
+    }
+    
     /**
      * Runs the given batch job upon the given directory.
      */
     private static void run() {
         ProcessBatch pb = new ProcessBatch(job, outputFile, errorFile, pattern,
-                recursively);
+                recursively, workers);
+        if(journalFile != null) {
+            pb.setCheckpointJournal(journalFile);
+        }
+        pb.setSpaceMarks(lowWater, highWater);
+        ProgressHeartbeat heartbeat = null;
+        if(progressFile != null) {
+            heartbeat = new ProgressHeartbeat(progressFile);
+            pb.setProgressHeartbeat(heartbeat);
+        }
         pb.initialise();
+
+        // write the progress while running.
+        if(heartbeat != null) {
+            heartbeat.start();
+            if(workClient == null) {
+                heartbeat.countTotals(dirs, pattern, recursively);
+            }
+        }
+
+        // ship the result files while running.
+        List<ResultShipper> shippers = new ArrayList<ResultShipper>(2);
+        if(shipScript != null) {
+            for(File resultFile : new File[] {outputFile, errorFile}) {
+                if(resultFile != null) {
+                    ResultShipper shipper = new ResultShipper(resultFile, 
+                            shipScript);
+                    shipper.start();
+                    shippers.add(shipper);
+                }
+            }
+        }
+
+        if(workClient != null) {
+            try {
+                pb.process(workClient);
+            } finally {
+                workClient.close();
+            }
+        }
         for(File dir : dirs) {
             pb.process(dir);
         }
         pb.finalize();
+
+        // ship the rest of the result files.
+        for(ResultShipper shipper : shippers) {
+            if(!shipper.finish()) {
+                System.err.println(Constants.ERROR_MSG_SHIP_INCOMPLETE
+                        + shipper.getFile().getAbsolutePath());
+            }
+        }
+        
+        // the results have been shipped, thus the run is finished.
+        if(heartbeat != null) {
+            heartbeat.finish();
+        }
     }
     
     /**
@@ -404,6 +642,32 @@ public final class RunBatch {
                     "The regular expressions for the files in the directory.");
             options.addOption(Constants.RECURSIVE_OPTION_KEY, hasNoArg, 
                     "Whether to go through sub-directories.");
+            options.addOption(Constants.WORKERS_OPTION_KEY, hasArg, 
+                    "The number of worker threads processing files in "
+                            + "parallel. Every worker runs its own copy of the "
+                            + "batch job.");
+            options.addOption(Constants.CHECKPOINT_OPTION_KEY, hasArg, 
+                    "The checkpoint journal. Resumes an interrupted run, "
+                            + "if the journal exists.");
+            options.addOption(Constants.LOW_WATER_OPTION_KEY, hasArg, 
+                    "The free space in MB, below which the processing "
+                            + "pauses.");
+            options.addOption(Constants.HIGH_WATER_OPTION_KEY, hasArg, 
+                    "The free space in MB, above which the processing "
+                            + "resumes.");
+            options.addOption(Constants.SHIP_SCRIPT_OPTION_KEY, hasArg, 
+                    "The script for shipping the output and error files "
+                            + "to the host while running.");
+            options.addOption(Constants.COORDINATOR_OPTION_KEY, hasArg, 
+                    "The work coordinator as host:port. The files are "
+                            + "handed out by the coordinator instead of "
+                            + "the directories.");
+            options.addOption(Constants.MACHINE_NAME_OPTION_KEY, hasArg, 
+                    "The name of this machine, when asking the work "
+                            + "coordinator.");
+            options.addOption(Constants.PROGRESS_OPTION_KEY, hasArg, 
+                    "The file for the progress heartbeat, which is written "
+                            + "regularly while running.");
         }
         
         /**
@@ -0,0 +1,185 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+package eu.planets;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * Monitors the free space of the discs, where the output is written.
+ *
+ * A background thread samples the usable space of the file stores every few
+ * seconds. When the space of any of the stores drops below the low-water
+ * mark, the processing is paused until the space of every store is above
+ * the high-water mark again. Thus the space taken by other programs on the
+ * same disc is also taken into account. Without any stores, the processing
+ * is never paused.
+ */
+public class SpaceMonitor {
+    /** The file stores to monitor.*/
+    private final List<FileStore> stores = new ArrayList<FileStore>();
+    /** The usable space, below which the processing is paused.*/
+    private final long lowWater;
+    /** The usable space, above which the processing is resumed.*/
+    private final long highWater;
+    /** Whether the processing is paused.*/
+    private boolean paused = false;
+    /** The least usable space of the stores at the latest sample.*/
+    private long lastFree = Long.MAX_VALUE;
+    /** The sampling thread.*/
+    private Thread sampler;
+
+    /**
+     * Constructor.
+     *
+     * @param targets The files or directories where the output is written.
+     * Files, which do not exist, are monitored through their directory.
+     * @param low The usable space in bytes, below which to pause.
+     * @param high The usable space in bytes, above which to resume.
+     */
+    public SpaceMonitor(List<File> targets, long low, long high) {
+        ArgumentNotValid.checkNotNull(targets, "List<File> targets");
+        ArgumentNotValid.checkNotNegative(low, "long low");
+        if(high < low) {
+            throw new ArgumentNotValid(Constants.ERROR_MSG_WATER_MARKS
+                    + low + " > " + high);
+        }
+        this.lowWater = low;
+        this.highWater = high;
+
+        for(File target : targets) {
+            File existing = target.getAbsoluteFile();
+            while(!existing.exists() && existing.getParentFile() != null) {
+                existing = existing.getParentFile();
+            }
+            try {
+                FileStore store = Files.getFileStore(existing.toPath());
+                if(!stores.contains(store)) {
+                    stores.add(store);
+                }
+            } catch (IOException e) {
+                throw new IOFailure(Constants.ERROR_MSG_FILE_STORE
+                        + target.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    /**
+     * Takes the first sample, and starts the sampling thread, unless there
+     * are no stores to monitor.
+     */
+    public synchronized void start() {
+        if(stores.isEmpty()) {
+            return;
+        }
+        sample();
+        sampler = new Thread(new Sampler(), Constants.SPACE_THREAD_NAME);
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    /**
+     * Stops the sampling thread, and releases anyone waiting for space.
+     */
+    public synchronized void stop() {
+        if(sampler != null) {
+            sampler.interrupt();
+            sampler = null;
+        }
+        paused = false;
+        notifyAll();
+    }
+
+    /**
+     * Waits until there is enough space to continue the processing.
+     * Returns at once, unless the processing is paused.
+     */
+    public synchronized void awaitSpace() {
+        while(paused) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOFailure(Constants.ERROR_MSG_DISC_FULL, e);
+            }
+        }
+    }
+
+    /**
+     * Samples the usable space of the stores, and pauses or resumes the
+     * processing accordingly.
+     */
+    private synchronized void sample() {
+        long free = Long.MAX_VALUE;
+        for(FileStore store : stores) {
+            try {
+                free = Math.min(free, store.getUsableSpace());
+            } catch (IOException e) {
+                System.err.println(Constants.ERROR_MSG_FILE_STORE + store
+                        + Constants.NEWLINE + e);
+            }
+        }
+        lastFree = free;
+
+        if(!paused && free < lowWater) {
+            paused = true;
+            System.err.println(Constants.ERROR_MSG_DISC_FULL);
+            System.out.println(Constants.WARN_MSG_DISC_FULL_FREE_SPACE + free);
+        } else if(paused && free >= highWater) {
+            paused = false;
+            System.out.println(Constants.WARN_MSG_DISC_SPACE_RECOVERED
+                    + free);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Method for retrieving the least usable space at the latest sample.
+     *
+     * @return The least usable space of the monitored stores.
+     */
+    public synchronized long getLastFree() {
+        return lastFree;
+    }
+
+    /**
+     * Samples the space until stopped.
+     */
+    private class Sampler implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while(!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(Constants.SPACE_SAMPLE_INTERVAL);
+                    sample();
+                }
+            } catch (InterruptedException e) {
+                // stopped.
+            }
+        }
+    }
+}
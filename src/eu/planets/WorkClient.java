@@ -0,0 +1,310 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * The connection from a machine to the work coordinator on the host. 
+ * Asks for the work units one at the time, and hands out their files.
+ * Every file is reported to the coordinator, when it is reported as 
+ * finished through fileFinished, and the unit, when every one of its files
+ * has been finished, thus only the files of a unit, which are still being
+ * processed when the machine dies, are handed out again. See 
+ * WorkCoordinator for the protocol.
+ * 
+ * The connection must only be used by one thread.
+ */
+public class WorkClient {
+    /** The name of the host running the coordinator.*/
+    private final String host;
+    /** The port of the coordinator.*/
+    private final int port;
+    /** The name of this machine in the configuration.*/
+    private final String machine;
+    /** The connection, when open.*/
+    private Socket socket;
+    /** The stream from the coordinator.*/
+    private BufferedReader in;
+    /** The stream to the coordinator.*/
+    private Writer out;
+    /** The number of the unit of every unfinished file by path.*/
+    private final Map<String, String> unitOfFile = 
+        new HashMap<String, String>();
+    /** The number of unfinished files of every unfinished unit.*/
+    private final Map<String, Integer> unfinished = 
+        new HashMap<String, Integer>();
+
+    /**
+     * Constructor. The connection is opened, when the first unit is asked
+     * for.
+     * 
+     * @param host The name of the host running the coordinator.
+     * @param port The port of the coordinator.
+     * @param machine The name of this machine in the configuration.
+     */
+    public WorkClient(String host, int port, String machine) {
+        ArgumentNotValid.checkNotNullOrEmpty(host, "String host");
+        ArgumentNotValid.checkPositive(port, "int port");
+        ArgumentNotValid.checkNotNullOrEmpty(machine, "String machine");
+        this.host = host;
+        this.port = port;
+        this.machine = machine;
+    }
+
+    /**
+     * Asks the coordinator for the next unit. Waits while other machines 
+     * still are processing units, since their units are handed out again 
+     * if they lose their connection.
+     * 
+     * @param listener Is told before waiting. May be null.
+     * @return The files of the unit, and the number of the unit as the 
+     * first element, or null when every unit has been finished.
+     * @throws IOException If the coordinator cannot be reached.
+     */
+    private List<String> takeUnit(Listener listener) throws IOException {
+        if(socket == null) {
+            socket = new Socket(host, port);
+            in = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), 
+                    Constants.WORK_PROTOCOL_ENCODING));
+            out = new BufferedWriter(new OutputStreamWriter(
+                    socket.getOutputStream(), 
+                    Constants.WORK_PROTOCOL_ENCODING));
+        }
+        while(true) {
+            String reply = request(Constants.WORK_REQUEST_NEXT, machine);
+            if(reply.equals(Constants.WORK_REPLY_NONE)) {
+                return null;
+            }
+            if(reply.equals(Constants.WORK_REPLY_WAIT)) {
+                if(listener != null) {
+                    listener.waiting();
+                }
+                try {
+                    Thread.sleep(Constants.WORK_WAIT_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(
+                            Constants.ERROR_MSG_COORDINATOR_INTERRUPTED, e);
+                }
+                continue;
+            }
+
+            // 'UNIT id count', followed by the files.
+            String[] unit = reply.split(Constants.SPACE);
+            if(unit.length != 3 
+                    || !unit[0].equals(Constants.WORK_REPLY_UNIT)) {
+                throw new IOException(Constants.ERROR_MSG_WORK_PROTOCOL 
+                        + reply);
+            }
+            int count = Integer.parseInt(unit[2]);
+            List<String> res = new ArrayList<String>(count + 1);
+            res.add(unit[1]);
+            for(int i = 0; i < count; i++) {
+                String path = in.readLine();
+                if(path == null) {
+                    throw new IOException(Constants.ERROR_MSG_WORK_PROTOCOL 
+                            + reply);
+                }
+                res.add(path);
+            }
+            return res;
+        }
+    }
+
+    /**
+     * Reports a unit as finished.
+     * 
+     * @param id The number of the unit.
+     * @throws IOException If the coordinator cannot be reached.
+     */
+    private void finishUnit(String id) throws IOException {
+        String reply = request(Constants.WORK_REQUEST_DONE, id);
+        if(!reply.equals(Constants.WORK_REPLY_OK)) {
+            throw new IOException(Constants.ERROR_MSG_WORK_PROTOCOL + reply);
+        }
+    }
+
+    /**
+     * Reports a single file of a unit as finished.
+     * 
+     * @param id The number of the unit.
+     * @param path The path of the file, as handed out.
+     * @throws IOException If the coordinator cannot be reached.
+     */
+    private void finishFile(String id, String path) throws IOException {
+        String reply = request(Constants.WORK_REQUEST_FILE, 
+                id + Constants.SPACE + path);
+        if(!reply.equals(Constants.WORK_REPLY_OK)) {
+            throw new IOException(Constants.ERROR_MSG_WORK_PROTOCOL + reply);
+        }
+    }
+
+    /**
+     * Sends a request, and reads the first line of the reply.
+     * 
+     * @param request The request.
+     * @param argument The argument of the request.
+     * @return The first line of the reply.
+     * @throws IOException If the coordinator cannot be reached.
+     */
+    private String request(String request, String argument) 
+            throws IOException {
+        out.write(request);
+        out.write(Constants.SPACE);
+        out.write(argument);
+        out.write(Constants.NEWLINE);
+        out.flush();
+        String reply = in.readLine();
+        if(reply == null) {
+            throw new IOException(Constants.ERROR_MSG_WORK_PROTOCOL 
+                    + "connection closed");
+        }
+        return reply;
+    }
+
+    /**
+     * Closes the connection to the coordinator.
+     */
+    public void close() {
+        if(socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // the connection is gone anyway.
+        }
+        socket = null;
+    }
+
+    /**
+     * Reports a file as finished to the coordinator. When it is the last 
+     * unfinished file of its unit, the unit is reported as finished instead.
+     * 
+     * @param fil The finished file, as handed out by the files.
+     * @throws IOFailure If the coordinator cannot be reached.
+     */
+    public void fileFinished(File fil) {
+        String unit = unitOfFile.remove(fil.getPath());
+        if(unit == null) {
+            return;
+        }
+        int left = unfinished.get(unit) - 1;
+        try {
+            if(left > 0) {
+                unfinished.put(unit, left);
+                finishFile(unit, fil.getPath());
+                return;
+            }
+            unfinished.remove(unit);
+            finishUnit(unit);
+        } catch (IOException e) {
+            throw new IOFailure(Constants.ERROR_MSG_COORDINATOR_CONNECTION 
+                    + host + Constants.COLON + port, e);
+        }
+    }
+
+    /**
+     * Is told, when the coordinator has no unit for the machine yet.
+     */
+    public interface Listener {
+        /**
+         * Called before waiting for the next unit. The files, which have 
+         * been handed out, should be finished now, since the coordinator 
+         * may be waiting for the units of this machine.
+         * 
+         * @throws IOException If the files cannot be finished.
+         */
+        void waiting() throws IOException;
+    }
+
+    /**
+     * Method for retrieving the files of the units. The next unit is asked
+     * for, when every file of the current unit has been handed out.
+     * 
+     * @param listener Is told before waiting for a unit. May be null.
+     * @return The files of every unit handed to this machine.
+     * @throws IOFailure If the coordinator cannot be reached while 
+     * iterating.
+     */
+    public Iterator<File> files(final Listener listener) {
+        return new Iterator<File>() {
+            /** The files of the current unit.*/
+            private Iterator<String> current;
+            /** Whether every unit has been finished.*/
+            private boolean ended = false;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while(!ended && (current == null || !current.hasNext())) {
+                        List<String> next = takeUnit(listener);
+                        if(next == null) {
+                            ended = true;
+                        } else {
+                            String unit = next.get(0);
+                            List<String> paths = next.subList(1, next.size());
+                            for(String path : paths) {
+                                unitOfFile.put(path, unit);
+                            }
+                            unfinished.put(unit, paths.size());
+                            current = paths.iterator();
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new IOFailure(
+                            Constants.ERROR_MSG_COORDINATOR_CONNECTION 
+                            + host + Constants.COLON + port, e);
+                }
+                return !ended;
+            }
+
+            @Override
+            public File next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return new File(current.next());
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
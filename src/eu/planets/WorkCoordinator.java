@@ -0,0 +1,561 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.IllegalState;
+
+/**
+ * Hands the work units to the machines, while they are running the batch 
+ * job. Instead of a fixed list of directories for each machine, each 
+ * machine asks the coordinator for its next unit when it has finished the 
+ * previous one, thus the machines finish at about the same time, even 
+ * when the directories of one machine are much larger than the others.
+ * 
+ * Every machine has a queue with the units cut from its own directories, 
+ * and takes the units from the front of its own queue. When its queue is 
+ * empty, it steals a unit from the back of the queue with the most bytes 
+ * left. Thus the files of a machine must be reachable by the same path 
+ * from every machine, e.g. on a shared file system.
+ * 
+ * The machines talk to the coordinator through a line based protocol over 
+ * a connection, which is kept open for the whole run:
+ * 'NEXT machine' is answered by 'UNIT id count' followed by a line for 
+ * each file, by 'WAIT' when no unit is left but some units are still 
+ * being processed, or by 'NONE' when every unit has been finished. A 
+ * machine may ask for the next unit before it has finished the previous.
+ * 'FILE id path' reports a single finished file of a unit, and 'DONE id' 
+ * the whole unit, and both are answered by 'OK'.
+ * The units, which a machine has not reported as done, are put back in 
+ * front of their queue when its connection is lost, but only with the 
+ * files, which it has not reported as finished, since their results have
+ * already been written by the lost machine.
+ * 
+ * The coordinator keeps listening after the last unit has been finished,
+ * until every machine with units of its own has asked for work, or for at
+ * most a minute, thus a machine started late is told that no work is left
+ * instead of failing to connect.
+ */
+public class WorkCoordinator {
+    /** The port to listen upon.*/
+    private final int port;
+    /** The stream for the status table.*/
+    private final PrintStream statusOut;
+    /** The share of the units for every machine, in order of the machines.*/
+    private final Map<String, Share> shares = 
+        new LinkedHashMap<String, Share>();
+    /** The machines with units of their own.*/
+    private final Set<String> expected = new HashSet<String>();
+    /** The machines, which have asked for work.*/
+    private final Set<String> seen = new HashSet<String>();
+    /** The number of units.*/
+    private final int total;
+    /** The number of finished units.*/
+    private int finished = 0;
+    /** The number of open connections from the machines.*/
+    private int connections = 0;
+    /** The time when the last unit was finished, or 0.*/
+    private long finishedAt = 0L;
+    /** The number of changes to the status so far.*/
+    private int changes = 0;
+    /** The socket accepting the connections, when started.*/
+    private ServerSocket server;
+    /** The threads serving the connections.*/
+    private ExecutorService executor;
+
+    /**
+     * Constructor.
+     * 
+     * @param units The work units. Each unit is put in the queue of its 
+     * machine.
+     * @param port The port to listen upon.
+     * @param statusOut The stream for the status table.
+     */
+    public WorkCoordinator(List<WorkUnit> units, int port, 
+            PrintStream statusOut) {
+        ArgumentNotValid.checkNotNull(units, "List<WorkUnit> units");
+        ArgumentNotValid.checkPositive(port, "int port");
+        ArgumentNotValid.checkNotNull(statusOut, "PrintStream statusOut");
+
+        this.port = port;
+        this.statusOut = statusOut;
+        this.total = units.size();
+        for(WorkUnit unit : units) {
+            getShare(unit.getMachine()).add(unit);
+            expected.add(unit.getMachine());
+        }
+    }
+
+    /**
+     * Starts listening for the machines. Must be called before the batch 
+     * job is started on the machines.
+     */
+    public synchronized void start() {
+        if(server != null) {
+            throw new IllegalState(Constants.ERROR_MSG_COORDINATOR_START 
+                    + port);
+        }
+        try {
+            server = new ServerSocket(port);
+        } catch (IOException e) {
+            throw new IOFailure(Constants.ERROR_MSG_COORDINATOR_START + port, 
+                    e);
+        }
+        executor = Executors.newCachedThreadPool(
+                new CoordinatorThreadFactory());
+        Thread acceptor = new Thread(new Acceptor(server), 
+                Constants.COORDINATOR_THREAD_NAME);
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Waits until every unit has been finished, and the machines have been
+     * told so, and then stops listening. The status table is printed 
+     * regularly while waiting, when it has changed.
+     */
+    public synchronized void await() {
+        int printed = -1;
+        try {
+            while(!isCompleted()) {
+                if(changes != printed) {
+                    statusOut.print(getStatusTable());
+                    printed = changes;
+                }
+                wait(Constants.WORK_STATUS_INTERVAL);
+            }
+            if(changes != printed) {
+                statusOut.print(getStatusTable());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure(
+                    Constants.ERROR_MSG_COORDINATOR_INTERRUPTED, e);
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * Method for retrieving the status of the work units.
+     * 
+     * @return The table with a line for every machine: the name, the units 
+     * in its queue, the units and megabytes it has finished, and the number 
+     * of the units it stole from the other machines.
+     */
+    public synchronized String getStatusTable() {
+        StringBuilder res = new StringBuilder();
+        res.append(String.format("%-24s %8s %8s %10s %8s", "machine", 
+                "queued", "done", "MB done", "stolen"));
+        res.append(Constants.NEWLINE);
+        for(Map.Entry<String, Share> entry : shares.entrySet()) {
+            Share share = entry.getValue();
+            res.append(String.format("%-24s %8d %8d %10d %8d", 
+                    entry.getKey(), share.queue.size(), share.unitsDone, 
+                    share.bytesDone / Constants.MEGABYTE, share.stolen));
+            res.append(Constants.NEWLINE);
+        }
+        res.append(String.format("%-24s %8d/%d units finished", "total", 
+                finished, total));
+        res.append(Constants.NEWLINE);
+        return res.toString();
+    }
+
+    /**
+     * Takes the next unit for a machine: the first unit in its own queue, 
+     * or else the last unit in the queue with the most bytes left.
+     * 
+     * @param machine The name of the machine.
+     * @return The unit, or null if every queue is empty.
+     */
+    private synchronized WorkUnit next(String machine) {
+        seen.add(machine);
+        Share own = getShare(machine);
+        WorkUnit unit = own.pollFirst();
+        if(unit == null) {
+            Share victim = null;
+            for(Share share : shares.values()) {
+                if(!share.queue.isEmpty() && (victim == null 
+                        || share.queuedBytes > victim.queuedBytes)) {
+                    victim = share;
+                }
+            }
+            if(victim == null) {
+                return null;
+            }
+            unit = victim.pollLast();
+            own.stolen++;
+        }
+        changes++;
+        return unit;
+    }
+
+    /**
+     * Registers a unit as finished.
+     * 
+     * @param machine The name of the machine, which finished the unit.
+     * @param unit The unit.
+     */
+    private synchronized void done(String machine, WorkUnit unit) {
+        Share share = getShare(machine);
+        share.unitsDone++;
+        share.bytesDone += unit.getBytes();
+        finished++;
+        if(finished >= total) {
+            finishedAt = System.currentTimeMillis();
+        }
+        changes++;
+        notifyAll();
+    }
+
+    /**
+     * Puts the rest of the units back in front of their queues, when the 
+     * machine processing them has lost its connection. A unit, which has 
+     * every file finished, is registered as finished instead.
+     * 
+     * @param machine The name of the machine, which lost its connection.
+     * @param units The units, which were not finished, and the paths of 
+     * their finished files.
+     */
+    private synchronized void requeue(String machine, 
+            Map<WorkUnit, Set<String>> units) {
+        for(Map.Entry<WorkUnit, Set<String>> entry : units.entrySet()) {
+            WorkUnit unit = entry.getKey();
+            WorkUnit rest = unit.without(entry.getValue());
+            if(rest.getFiles().isEmpty()) {
+                done(machine, unit);
+                continue;
+            }
+            statusOut.println(Constants.WARN_MSG_WORK_UNIT_REQUEUED 
+                    + unit.getId());
+            getShare(machine).bytesDone += unit.getBytes() - rest.getBytes();
+            getShare(unit.getMachine()).addFirst(rest);
+        }
+        changes++;
+    }
+
+    /**
+     * @return Whether every unit has been finished, no machine is 
+     * connected, and every machine with units of its own has asked for 
+     * work, unless the coordinator has lingered long enough.
+     */
+    private synchronized boolean isCompleted() {
+        if(finished < total || connections > 0) {
+            return false;
+        }
+        return seen.containsAll(expected) || System.currentTimeMillis() 
+                - finishedAt >= Constants.COORDINATOR_LINGER;
+    }
+
+    /**
+     * @return Whether every unit has been finished.
+     */
+    private synchronized boolean isFinished() {
+        return finished >= total;
+    }
+
+    /**
+     * Counts a connection as opened or closed.
+     * 
+     * @param delta 1 for an opened connection, -1 for a closed.
+     */
+    private synchronized void countConnection(int delta) {
+        connections += delta;
+        notifyAll();
+    }
+
+    /**
+     * @param machine The name of a machine.
+     * @return The share of the machine, which is created for a machine 
+     * without units of its own.
+     */
+    private synchronized Share getShare(String machine) {
+        Share share = shares.get(machine);
+        if(share == null) {
+            share = new Share();
+            shares.put(machine, share);
+        }
+        return share;
+    }
+
+    /**
+     * Stops listening, and closes the connections.
+     */
+    private synchronized void stop() {
+        try {
+            if(server != null) {
+                server.close();
+            }
+        } catch (IOException e) {
+            statusOut.println(e.toString());
+        }
+        if(executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The queue of units cut from the directories of a machine, and the 
+     * units finished by the machine.
+     */
+    private static class Share {
+        /** The units, which have not been handed out.*/
+        private final Deque<WorkUnit> queue = new ArrayDeque<WorkUnit>();
+        /** The total size of the units in the queue.*/
+        private long queuedBytes = 0L;
+        /** The number of units finished by the machine.*/
+        private int unitsDone = 0;
+        /** The total size of the units finished by the machine.*/
+        private long bytesDone = 0L;
+        /** The number of units the machine took from other queues.*/
+        private int stolen = 0;
+
+        /** @param unit The unit to put at the back of the queue.*/
+        void add(WorkUnit unit) {
+            queue.addLast(unit);
+            queuedBytes += unit.getBytes();
+        }
+
+        /** @param unit The unit to put in front of the queue.*/
+        void addFirst(WorkUnit unit) {
+            queue.addFirst(unit);
+            queuedBytes += unit.getBytes();
+        }
+
+        /** @return The unit in front of the queue, or null.*/
+        WorkUnit pollFirst() {
+            return taken(queue.pollFirst());
+        }
+
+        /** @return The unit at the back of the queue, or null.*/
+        WorkUnit pollLast() {
+            return taken(queue.pollLast());
+        }
+
+        /**
+         * @param unit The unit taken from the queue, or null.
+         * @return The unit.
+         */
+        private WorkUnit taken(WorkUnit unit) {
+            if(unit != null) {
+                queuedBytes -= unit.getBytes();
+            }
+            return unit;
+        }
+    }
+
+    /**
+     * Accepts the connections from the machines, until the socket is 
+     * closed.
+     */
+    private class Acceptor implements Runnable {
+        /** The socket to accept connections from.*/
+        private final ServerSocket socket;
+
+        /**
+         * Constructor.
+         * 
+         * @param socket The socket to accept connections from.
+         */
+        Acceptor(ServerSocket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            while(!socket.isClosed()) {
+                try {
+                    Socket client = socket.accept();
+                    countConnection(1);
+                    executor.execute(new Connection(client));
+                } catch (IOException e) {
+                    // closed when all units are finished.
+                    if(!socket.isClosed()) {
+                        statusOut.println(e.toString());
+                    }
+                } catch (RuntimeException e) {
+                    // rejected when stopped.
+                    countConnection(-1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves the requests from a single machine.
+     */
+    private class Connection implements Runnable {
+        /** The connection to the machine.*/
+        private final Socket socket;
+        /** The units handed to the machine, and not reported as done, 
+         * with the paths of their files reported as finished.*/
+        private final Map<WorkUnit, Set<String>> held = 
+            new HashMap<WorkUnit, Set<String>>();
+
+        /**
+         * Constructor.
+         * 
+         * @param socket The connection to the machine.
+         */
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            String machine = null;
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        socket.getInputStream(), 
+                        Constants.WORK_PROTOCOL_ENCODING));
+                Writer out = new BufferedWriter(new OutputStreamWriter(
+                        socket.getOutputStream(), 
+                        Constants.WORK_PROTOCOL_ENCODING));
+                String line;
+                while((line = in.readLine()) != null) {
+                    String[] request = line.split(Constants.SPACE, 2);
+                    if(request.length < 2) {
+                        break;
+                    }
+                    if(request[0].equals(Constants.WORK_REQUEST_NEXT)) {
+                        machine = request[1];
+                        writeNext(out, machine);
+                    } else if(request[0].equals(Constants.WORK_REQUEST_DONE)
+                            && machine != null) {
+                        WorkUnit unit = find(Integer.parseInt(request[1]));
+                        if(unit != null) {
+                            held.remove(unit);
+                            done(machine, unit);
+                        }
+                        out.write(Constants.WORK_REPLY_OK);
+                        out.write(Constants.NEWLINE);
+                    } else if(request[0].equals(Constants.WORK_REQUEST_FILE)
+                            && machine != null) {
+                        // 'FILE id path', the path may contain spaces.
+                        String[] file = request[1].split(Constants.SPACE, 2);
+                        if(file.length < 2) {
+                            break;
+                        }
+                        WorkUnit unit = find(Integer.parseInt(file[0]));
+                        if(unit != null) {
+                            held.get(unit).add(file[1]);
+                        }
+                        out.write(Constants.WORK_REPLY_OK);
+                        out.write(Constants.NEWLINE);
+                    } else {
+                        break;
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // the connection is lost, the units are handed out again.
+            } catch (NumberFormatException e) {
+                statusOut.println(e.toString());
+            } finally {
+                if(!held.isEmpty()) {
+                    requeue(machine, held);
+                }
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // the connection is closed anyway.
+                }
+                countConnection(-1);
+            }
+        }
+
+        /**
+         * Writes the reply to a request for the next unit.
+         * 
+         * @param out The stream to the machine.
+         * @param machine The name of the machine.
+         * @throws IOException If the reply cannot be written.
+         */
+        private void writeNext(Writer out, String machine) 
+                throws IOException {
+            WorkUnit unit = next(machine);
+            if(unit == null) {
+                out.write(isFinished() ? Constants.WORK_REPLY_NONE 
+                        : Constants.WORK_REPLY_WAIT);
+                out.write(Constants.NEWLINE);
+                return;
+            }
+            held.put(unit, new HashSet<String>());
+            out.write(Constants.WORK_REPLY_UNIT + Constants.SPACE 
+                    + unit.getId() + Constants.SPACE 
+                    + unit.getFiles().size());
+            out.write(Constants.NEWLINE);
+            for(String path : unit.getFiles()) {
+                out.write(path);
+                out.write(Constants.NEWLINE);
+            }
+        }
+
+        /**
+         * @param id The number of a unit.
+         * @return The unit held by this machine with the number, or null.
+         */
+        private WorkUnit find(int id) {
+            for(WorkUnit unit : held.keySet()) {
+                if(unit.getId() == id) {
+                    return unit;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Makes daemon threads for serving the machines.
+     */
+    private static class CoordinatorThreadFactory implements ThreadFactory {
+        /** The number of threads made so far.*/
+        private int count = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+            Thread t = new Thread(r, 
+                    Constants.COORDINATOR_CONNECTION_THREAD_NAME + (++count));
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
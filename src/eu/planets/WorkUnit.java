@@ -0,0 +1,161 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * A work unit. The files of a part of the directories of a machine, 
+ * which are handed to a machine by the work coordinator, and processed 
+ * as a whole.
+ */
+public class WorkUnit {
+    /** The number of the unit, unique within a run.*/
+    private final int id;
+    /** The name of the machine, which the directories belong to.*/
+    private final String machine;
+    /** The absolute paths of the files in the unit.*/
+    private final List<String> files;
+    /** The total size of the files in bytes.*/
+    private final long bytes;
+
+    /**
+     * Constructor.
+     * 
+     * @param id The number of the unit.
+     * @param machine The name of the machine, which the unit belongs to.
+     * @param files The absolute paths of the files.
+     * @param bytes The total size of the files in bytes.
+     */
+    public WorkUnit(int id, String machine, List<String> files, long bytes) {
+        ArgumentNotValid.checkNotNegative(id, "int id");
+        ArgumentNotValid.checkNotNullOrEmpty(machine, "String machine");
+        ArgumentNotValid.checkNotNull(files, "List<String> files");
+        ArgumentNotValid.checkNotNegative(bytes, "long bytes");
+        this.id = id;
+        this.machine = machine;
+        this.files = Collections.unmodifiableList(
+                new ArrayList<String>(files));
+        this.bytes = bytes;
+    }
+
+    /**
+     * Cuts the files of a machine into work units of about the same size.
+     * The files are kept in the order they are given, thus the files of a 
+     * directory stay together, and each unit is cut when it reaches the 
+     * average size, which is at most the given size. A file larger than 
+     * the size becomes a unit on its own.
+     * 
+     * @param firstId The number of the first unit.
+     * @param machine The name of the machine, which the files belong to.
+     * @param files The files.
+     * @param unitSize The largest wanted size of a unit in bytes.
+     * @return The units.
+     */
+    public static List<WorkUnit> cut(int firstId, String machine, 
+            List<File> files, long unitSize) {
+        ArgumentNotValid.checkNotNull(files, "List<File> files");
+        ArgumentNotValid.checkPositive(unitSize, "long unitSize");
+
+        long[] sizes = new long[files.size()];
+        long total = 0L;
+        for(int i = 0; i < sizes.length; i++) {
+            sizes[i] = files.get(i).length();
+            total += sizes[i];
+        }
+
+        // the number of units decides the target, thus the units are 
+        // balanced instead of a small remainder at the end.
+        long count = Math.max(1L, (total + unitSize - 1L) / unitSize);
+        long target = Math.max(1L, total / count);
+
+        List<WorkUnit> res = new ArrayList<WorkUnit>();
+        List<String> unitFiles = new ArrayList<String>();
+        long unitBytes = 0L;
+        for(int i = 0; i < sizes.length; i++) {
+            unitFiles.add(files.get(i).getAbsolutePath());
+            unitBytes += sizes[i];
+            if(unitBytes >= target 
+                    || unitFiles.size() >= Constants.WORK_UNIT_MAX_FILES) {
+                res.add(new WorkUnit(firstId + res.size(), machine, 
+                        unitFiles, unitBytes));
+                unitFiles.clear();
+                unitBytes = 0L;
+            }
+        }
+        if(!unitFiles.isEmpty()) {
+            res.add(new WorkUnit(firstId + res.size(), machine, unitFiles, 
+                    unitBytes));
+        }
+        return res;
+    }
+
+    /**
+     * Makes the rest of the unit, when some of its files have been 
+     * finished. The rest keeps the number of the unit, and its size is 
+     * estimated from the share of the files left, since the sizes of the 
+     * single files are not kept.
+     * 
+     * @param finished The paths of the finished files.
+     * @return The unit with the files, which are not finished.
+     */
+    public WorkUnit without(Collection<String> finished) {
+        ArgumentNotValid.checkNotNull(finished, 
+                "Collection<String> finished");
+        List<String> rest = new ArrayList<String>(files);
+        rest.removeAll(finished);
+        long restBytes = files.isEmpty() ? 0L 
+                : bytes * rest.size() / files.size();
+        return new WorkUnit(id, machine, rest, restBytes);
+    }
+
+    /**
+     * @return The number of the unit.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return The name of the machine, which the unit belongs to.
+     */
+    public String getMachine() {
+        return machine;
+    }
+
+    /**
+     * @return The absolute paths of the files.
+     */
+    public List<String> getFiles() {
+        return files;
+    }
+
+    /**
+     * @return The total size of the files in bytes.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets.batchprogs;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the results written by BinaryResultWriter.
+ *
+ * The records are read one at the time with next(), and the fields of the
+ * current record are retrieved with getString and getNumber. The strings
+ * are taken from the dictionary, thus the same string is always the same
+ * instance within an output.
+ *
+ * The records read can be limited to a range of positions in the stream,
+ * e.g. for skipping the records handled by an earlier run. The headers and
+ * definitions before the range are still read, since the records refer to
+ * them.
+ */
+public class BinaryResultReader {
+    /** The charset of the strings.*/
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /** The size of the buffer for reading the stream.*/
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The stream, which is read.*/
+    private final InputStream in;
+    /** The dictionary of the current output.*/
+    private final List<String> dictionary = new ArrayList<String>();
+    /** The types of the fields of the current output.*/
+    private String types;
+    /** The strings of the fields of the current record.*/
+    private String[] strings = new String[0];
+    /** The numbers of the fields of the current record.*/
+    private long[] numbers = new long[0];
+    /** The buffer for the bytes of the strings.*/
+    private byte[] bytes = new byte[256];
+    /** The number of bytes read from the stream.*/
+    private long position = 0L;
+    /** The position of the first record to read.*/
+    private long from = 0L;
+    /** The position after the last record to read.*/
+    private long to = Long.MAX_VALUE;
+
+    /**
+     * @param in The stream to read. It must start with a header.
+     */
+    public BinaryResultReader(InputStream in) {
+        this.in = in instanceof BufferedInputStream ? in
+                : new BufferedInputStream(in, BUFFER_SIZE);
+    }
+
+    /**
+     * Checks whether a file starts with the header of the binary format.
+     * @param f The file.
+     * @return Whether the file contains binary results.
+     * @throws IOException If the file cannot be read.
+     */
+    public static boolean isBinary(File f) throws IOException {
+        InputStream is = new BufferedInputStream(new FileInputStream(f));
+        try {
+            return isBinary(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Checks whether a stream starts with the header of the binary format,
+     * without consuming the header.
+     * @param is The stream, which must support mark and reset.
+     * @return Whether the stream contains binary results.
+     * @throws IOException If the stream cannot be read.
+     */
+    public static boolean isBinary(InputStream is) throws IOException {
+        byte[] start = new byte[1 + BinaryResultWriter.MAGIC.length];
+        is.mark(start.length);
+        int n = 0;
+        int read;
+        while (n < start.length
+                && (read = is.read(start, n, start.length - n)) != -1) {
+            n += read;
+        }
+        is.reset();
+        return n == start.length
+                && (start[0] & 0xff) == BinaryResultWriter.HEADER
+                && Arrays.equals(Arrays.copyOfRange(start, 1, n),
+                        BinaryResultWriter.MAGIC);
+    }
+
+    /**
+     * Limits the records to read to a range of positions in the stream.
+     * @param first The position of the first record to read. The records 
+     * before it are skipped.
+     * @param end The position after the last record to read.
+     */
+    public void setRange(long first, long end) {
+        if (first < 0L || end < first) {
+            throw new IllegalArgumentException("Invalid range [" + first
+                    + ", " + end + ") of the binary results.");
+        }
+        this.from = first;
+        this.to = end;
+    }
+
+    /**
+     * @return The position in the stream after what has been read, e.g.
+     * after the current record.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Reads the next record.
+     * @return False, if there are no more records.
+     * @throws IOException If the stream cannot be read, or is not in the
+     * binary format.
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (position >= to) {
+                return false;
+            }
+            long start = position;
+            int tag = read();
+            switch (tag) {
+            case -1:
+                return false;
+            case BinaryResultWriter.HEADER:
+                readHeader();
+                break;
+            case BinaryResultWriter.DEFINE:
+                int length = readVarint();
+                if (bytes.length < length) {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+                readFully(bytes, length);
+                dictionary.add(new String(bytes, 0, length, UTF8));
+                break;
+            case BinaryResultWriter.RECORD:
+                readRecord();
+                if (start < from) {
+                    break;
+                }
+                return true;
+            default:
+                throw new IOException("Unknown tag " + tag
+                        + " in the binary results.");
+            }
+        }
+    }
+
+    /**
+     * @return The types of the fields of the current output, e.g. "SSL".
+     */
+    public String getTypes() {
+        return types;
+    }
+
+    /**
+     * @param field The number of a string field.
+     * @return The string of the field in the current record.
+     */
+    public String getString(int field) {
+        return strings[field];
+    }
+
+    /**
+     * @param field The number of a number field.
+     * @return The number of the field in the current record.
+     */
+    public long getNumber(int field) {
+        return numbers[field];
+    }
+
+    /**
+     * @param field The number of a number field, which may be unknown.
+     * @return The number of the field in the current record as text, or
+     * 'null' if the number was unknown, as in the text output.
+     */
+    public String getNumberText(int field) {
+        if (numbers[field] == BinaryResultWriter.UNKNOWN_NUMBER) {
+            return "null";
+        }
+        return Long.toString(numbers[field]);
+    }
+
+    /**
+     * Closes the stream.
+     * @throws IOException If the stream cannot be closed.
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Reads the rest of a header, and starts a new dictionary.
+     */
+    private void readHeader() throws IOException {
+        byte[] magic = new byte[BinaryResultWriter.MAGIC.length];
+        readFully(magic, magic.length);
+        if (!Arrays.equals(magic, BinaryResultWriter.MAGIC)) {
+            throw new IOException("Not a header of binary results.");
+        }
+        int version = read();
+        if (version != BinaryResultWriter.VERSION) {
+            throw new IOException("Unknown version " + version
+                    + " of the binary results.");
+        }
+        int fields = readVarint();
+        StringBuilder res = new StringBuilder(fields);
+        for (int i = 0; i < fields; i++) {
+            int c = read();
+            if (c == -1) {
+                throw new EOFException("The header was cut off.");
+            }
+            res.append((char) c);
+        }
+        types = res.toString();
+        strings = new String[fields];
+        numbers = new long[fields];
+        dictionary.clear();
+    }
+
+    /**
+     * Reads the fields of a record.
+     */
+    private void readRecord() throws IOException {
+        if (types == null) {
+            throw new IOException("A record before the header.");
+        }
+        for (int i = 0; i < types.length(); i++) {
+            if (types.charAt(i) == BinaryResultWriter.STRING) {
+                int id = readVarint();
+                if (id >= dictionary.size()) {
+                    throw new IOException("Undefined string " + id
+                            + " in the binary results.");
+                }
+                strings[i] = dictionary.get(id);
+            } else {
+                long zigzag = readVarlong();
+                numbers[i] = (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+    }
+
+    private int readVarint() throws IOException {
+        return (int) readVarlong();
+    }
+
+    private long readVarlong() throws IOException {
+        long res = 0L;
+        int shift = 0;
+        int b;
+        do {
+            b = read();
+            if (b == -1) {
+                throw new EOFException("A number was cut off.");
+            }
+            res |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return res;
+    }
+
+    private void readFully(byte[] buf, int length) throws IOException {
+        int n = 0;
+        while (n < length) {
+            int read = in.read(buf, n, length - n);
+            if (read == -1) {
+                throw new EOFException("The binary results were cut off.");
+            }
+            n += read;
+            position += read;
+        }
+    }
+
+    private int read() throws IOException {
+        int b = in.read();
+        if (b != -1) {
+            position++;
+        }
+        return b;
+    }
+}
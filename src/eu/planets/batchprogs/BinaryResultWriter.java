@@ -0,0 +1,284 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets.batchprogs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the results of a batch job in a compact binary format, instead of
+ * '##'-separated text lines.
+ *
+ * The output starts with a header with the types of the fields of the
+ * records: 'S' for a string and 'L' for a number. Each string is written
+ * only once, as a definition in the dictionary of the output, and the
+ * records refer to the strings by their number in the dictionary. The
+ * numbers are written as variable length integers.
+ * <br/>
+ * <br/> header: HEADER 'B' 'R' 'F' VERSION varint(field count) types
+ * <br/> definition: DEFINE varint(length) UTF-8 bytes
+ * <br/> record: RECORD (varint(string id) | zigzag varint(number))*
+ * <br/>
+ * <br/>An output may consist of several concatenated outputs, each starting
+ * with a header and having its own dictionary. See BinaryResultReader.
+ *
+ * A writer is not thread-safe, and must only write to one stream. Use
+ * BinaryResultWriter.Local for having a writer for each thread and stream.
+ */
+public class BinaryResultWriter {
+    /** The tag of the header.*/
+    public static final int HEADER = 0xB1;
+    /** The tag of a definition of a string.*/
+    public static final int DEFINE = 0xB2;
+    /** The tag of a record.*/
+    public static final int RECORD = 0xB3;
+    /** The bytes after the header tag.*/
+    public static final byte[] MAGIC = {'B', 'R', 'F'};
+    /** The version of the format.*/
+    public static final int VERSION = 1;
+    /** The type of a string field.*/
+    public static final char STRING = 'S';
+    /** The type of a number field.*/
+    public static final char NUMBER = 'L';
+    /** The number written for a value, which is missing or not a number.*/
+    public static final long UNKNOWN_NUMBER = -1L;
+
+    /** The charset of the strings.*/
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The stream, which is written to.*/
+    private final OutputStream out;
+    /** The types of the fields of the records.*/
+    private final String types;
+    /** The numbers of the strings, which have been defined.*/
+    private final Map<String, Integer> dictionary =
+            new HashMap<String, Integer>();
+    /** The bytes to write: the definitions and then the record.*/
+    private byte[] buffer = new byte[256];
+    /** The number of bytes in the buffer.*/
+    private int length = 0;
+    /** The record, which is being made after the definitions.*/
+    private byte[] record = new byte[64];
+    /** The number of bytes of the current record.*/
+    private int recordLength = 0;
+    /** The number of fields of the current record.*/
+    private int field = 0;
+
+    /**
+     * Writes the header to the stream.
+     * @param out The stream to write to.
+     * @param types The types of the fields, e.g. "SSL" for two strings and
+     * a number.
+     * @throws IOException If the header cannot be written.
+     */
+    public BinaryResultWriter(OutputStream out, String types)
+            throws IOException {
+        for (int i = 0; i < types.length(); i++) {
+            char c = types.charAt(i);
+            if (c != STRING && c != NUMBER) {
+                throw new IllegalArgumentException("Unknown type '" + c
+                        + "' in the types: " + types);
+            }
+        }
+        this.out = out;
+        this.types = types;
+        put(HEADER);
+        for (byte b : MAGIC) {
+            put(b);
+        }
+        put(VERSION);
+        putVarint(types.length());
+        for (int i = 0; i < types.length(); i++) {
+            put(types.charAt(i));
+        }
+        out.write(buffer, 0, length);
+        length = 0;
+    }
+
+    /**
+     * @param stream A stream.
+     * @return Whether this writer writes to the stream.
+     */
+    public boolean writesTo(OutputStream stream) {
+        return out == stream;
+    }
+
+    /**
+     * Adds a string field to the current record.
+     * @param s The string. Null is written as "null", as in the text output.
+     * @return This writer.
+     */
+    public BinaryResultWriter string(String s) {
+        checkType(STRING);
+        if (s == null) {
+            s = "null";
+        }
+        Integer id = dictionary.get(s);
+        if (id == null) {
+            id = dictionary.size();
+            dictionary.put(s, id);
+            byte[] bytes = s.getBytes(UTF8);
+            put(DEFINE);
+            putVarint(bytes.length);
+            for (byte b : bytes) {
+                put(b);
+            }
+        }
+        addVarint(id);
+        return this;
+    }
+
+    /**
+     * Adds a number field to the current record.
+     * @param value The number.
+     * @return This writer.
+     */
+    public BinaryResultWriter number(long value) {
+        checkType(NUMBER);
+        // zigzag, so small negative numbers are also short.
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            addByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        addByte((int) zigzag);
+        return this;
+    }
+
+    /**
+     * Adds a number field from the text of a number, e.g. a date from the
+     * archive header.
+     * @param value The text of the number. May be null.
+     * @return This writer.
+     */
+    public BinaryResultWriter number(String value) {
+        long res = UNKNOWN_NUMBER;
+        if (value != null) {
+            try {
+                res = Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                // written as unknown, like a missing value.
+            }
+        }
+        return number(res);
+    }
+
+    /**
+     * Writes the current record, after the definitions of its new strings.
+     * @throws IOException If the record cannot be written.
+     */
+    public void end() throws IOException {
+        if (field != types.length()) {
+            throw new IllegalStateException("The record has " + field
+                    + " fields, but should have " + types.length());
+        }
+        put(RECORD);
+        for (int i = 0; i < recordLength; i++) {
+            put(record[i]);
+        }
+        out.write(buffer, 0, length);
+        length = 0;
+        recordLength = 0;
+        field = 0;
+    }
+
+    /**
+     * Checks the type of the next field.
+     */
+    private void checkType(char type) {
+        if (field >= types.length() || types.charAt(field) != type) {
+            throw new IllegalStateException("Field " + field + " should not"
+                    + " be of the type '" + type + "', the types are: "
+                    + types);
+        }
+        field++;
+    }
+
+    /** Puts a byte into the buffer.*/
+    private void put(int b) {
+        if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[length++] = (byte) b;
+    }
+
+    /** Puts an unsigned variable length integer into the buffer.*/
+    private void putVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            put((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        put(value);
+    }
+
+    /** Adds a byte to the current record.*/
+    private void addByte(int b) {
+        if (recordLength == record.length) {
+            record = Arrays.copyOf(record, record.length * 2);
+        }
+        record[recordLength++] = (byte) b;
+    }
+
+    /** Adds an unsigned variable length integer to the current record.*/
+    private void addVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            addByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        addByte(value);
+    }
+
+    /**
+     * Gives each thread its own writer for the stream it writes to. A new
+     * writer, with a new header and dictionary, is made whenever a thread
+     * writes to another stream, e.g. for the next file of a parallel batch.
+     */
+    public static class Local {
+        /** The types of the fields of the records.*/
+        private final String types;
+        /** The latest writer of each thread.*/
+        private final ThreadLocal<BinaryResultWriter> writers =
+                new ThreadLocal<BinaryResultWriter>();
+
+        /**
+         * @param types The types of the fields of the records.
+         */
+        public Local(String types) {
+            this.types = types;
+        }
+
+        /**
+         * @param out The stream to write to.
+         * @return The writer of the current thread for the stream.
+         * @throws IOException If the header cannot be written.
+         */
+        public BinaryResultWriter get(OutputStream out) throws IOException {
+            BinaryResultWriter res = writers.get();
+            if (res == null || !res.writesTo(out)) {
+                res = new BinaryResultWriter(out, types);
+                writers.set(res);
+            }
+            return res;
+        }
+    }
+}
@@ -3,4 +3,12 @@ package eu.planets.batchprogs;
 public class Constants {
     public static final String STREAM_SEPARATOR = "##";
     public static final String STREAM_DONE = "\n";
+    /** The size of the in-memory window for the DROID identification of
+     * records. The same as the buffer of the DROID stream readers.*/
+    public static final int DROID_WINDOW_SIZE = 131072;
+    /** The number of bytes peeked for choosing the JHOVE module.*/
+    public static final int JHOVE_PEEK_SIZE = 4096;
+    /** The maximum total size of the temporary files for the records,
+     * which must be parsed from a file (2 GB).*/
+    public static final long SCRATCH_LIMIT = 2L * 1024L * 1024L * 1024L;
 }
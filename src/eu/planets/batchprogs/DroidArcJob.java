@@ -13,8 +13,6 @@ import org.archive.util.FileUtils;
 import uk.gov.nationalarchives.droid.AnalysisController;
 import uk.gov.nationalarchives.droid.FileFormatHit;
 import uk.gov.nationalarchives.droid.IdentificationFile;
-import uk.gov.nationalarchives.droid.binFileReader.AbstractByteReader;
-import uk.gov.nationalarchives.droid.binFileReader.ByteReader;
 import uk.gov.nationalarchives.droid.signatureFile.FFSignatureFile;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
@@ -27,32 +25,32 @@ import dk.netarkivet.common.utils.arc.ARCBatchJob;
  * ClassificationText + number of hits + first file format hit + 
  * first file format version + mimetype + date \n
  * 
- * For DROID to classify arc records, it has to load the record into an 
- * InputStreamByteReader. The ByteReader reads from the System.in stream, which
- * means that the arc record has to be directed over to the system input stream.
+ * The records are given to DROID through a RecordByteReader, which reads the
+ * record directly, and only keeps the start and the end of a large record,
+ * unless the signature file may look anywhere in the records.
+ * Each thread has its own signature file and reader, since
+ * the identification of a signature file is synchronized, thus the records
+ * can be identified concurrently.
  * 
  */
+@SuppressWarnings("serial")
 public class DroidArcJob extends ARCBatchJob {
     // Retrieve the constant values for separation and finish of output.
     private final String STREAM_SEPARATOR = Constants.STREAM_SEPARATOR;
     private final String STREAM_DONE = Constants.STREAM_DONE;
 
-    // The signature file, which is used for the classification.
-    private FFSignatureFile sigFile;
+    // The path to the signature file, which is used for the classification.
+    private String sigFilePath;
     // The analysis controller, used for parsing the signature file.
-    private AnalysisController ac;
-
-    // The original system input stream. Used for resetting during finish.
-    private InputStream origSysIn;
+    private transient AnalysisController ac;
+    // The parsed signature file for each thread.
+    private transient ThreadLocal<FFSignatureFile> sigFiles;
+    // The byte reader for each thread.
+    private transient ThreadLocal<RecordByteReader> readers;
 
     @Override
     public void finish(OutputStream os) {
-	try {
-	    // reset the system input stream.
-	    System.setIn(origSysIn);
-	} catch (Exception e) {
-	    System.err.println(e);
-	}
+	// do nothing at finish.
     }
 
     @Override
@@ -66,8 +64,6 @@ public class DroidArcJob extends ARCBatchJob {
      */
     public void initialize(OutputStream os) {
 	try {
-	    // save the original system input stream.
-	    origSysIn = System.in;
 	    // create the log4j.properties file, if it does not already exists.
 	    File log4jProperties = new File("log4j.properties");
 	    if (!log4jProperties.exists()) {
@@ -80,8 +76,23 @@ public class DroidArcJob extends ARCBatchJob {
 	    ac = new AnalysisController();
 	    File signatureFile = getResourceFileFromClassPath(
 		    "DROID_SignatureFile_V18.xml");
-	    // parse the signature file
-	    sigFile = ac.parseSigFile(signatureFile.getAbsolutePath());
+	    sigFilePath = signatureFile.getAbsolutePath();
+	    sigFiles = new ThreadLocal<FFSignatureFile>() {
+		@Override
+		protected FFSignatureFile initialValue() {
+		    return parseSigFile();
+		}
+	    };
+	    readers = new ThreadLocal<RecordByteReader>() {
+		@Override
+		protected RecordByteReader initialValue() {
+		    return new RecordByteReader(Constants.DROID_WINDOW_SIZE,
+			    RecordByteReader.needsWholeRecord(sigFiles.get(),
+				    Constants.DROID_WINDOW_SIZE));
+		}
+	    };
+	    // parse the signature file now, so errors are found at once.
+	    sigFiles.get();
 
 	} catch (Exception e) {
 	    throw new IOFailure("Cannot invoke the AnalysisController.", e);
@@ -93,56 +104,82 @@ public class DroidArcJob extends ARCBatchJob {
 	try {
 	    // Extract the metadata
 	    ARCRecordMetaData arcRMD = record.getMetaData();
-	    // Send the record to the system input stream, since the
-	    // InputStreamByteReader only reads the System.in stream.
-	    System.setIn(record);
-	    // Identify the file. Must be "-" for stream.
-	    IdentificationFile idFile = new IdentificationFile("-");
-	    // Extract the byte reader, which should be a InputStreamByteReader.
-	    ByteReader br = AbstractByteReader.newByteReader(idFile);
-	    // Set the path of the file to the url of the record. This must be 
-	    // done after the bytestream reader is initialised, otherwise a
-	    // URLbytestream reader is initialised and the online object is
-	    // attempted to be validated instead of the one in the record.
-	    idFile.setFilePath(arcRMD.getUrl());
-
-	    // Run the identification on the file.
-	    sigFile.runFileIdentification(br);
-
-	    // Write the classification text.
-	    String res = idFile.getClassificationText() + STREAM_SEPARATOR;
-	    // Write the number of hits.
-	    res += idFile.getNumHits() + STREAM_SEPARATOR;
+	    // Identify the file by the url of the record.
+	    IdentificationFile idFile = new IdentificationFile(arcRMD.getUrl());
+	    // Read the record into the byte reader of this thread.
+	    RecordByteReader br = readers.get();
+	    try {
+		br.read(idFile, record);
+
+		// Run the identification on the file.
+		sigFiles.get().runFileIdentification(br);
+	    } finally {
+		// release the content, and any temporary file.
+		br.close();
+	    }
 
 	    // Write the specific output (format and version) or nulls.
 	    if (idFile.getNumHits() > 0) {
 		FileFormatHit ffh = idFile.getHit(0);
-		// write the fileformat
-		res += ffh.getFileFormatName() + STREAM_SEPARATOR;
-		// write the file format version
-		res += ffh.getFileFormatVersion() + STREAM_SEPARATOR;
-		// write the file format mimetype
-		res += ffh.getMimeType() + STREAM_SEPARATOR;
-	    } else { 
-		// Write null for the file format name.
-		res += "null" + STREAM_SEPARATOR;
-		// write null for the file format version.
-		res += "null" + STREAM_SEPARATOR;
-		// write the arc record mimetype.
-		res += arcRMD.getMimetype() + STREAM_SEPARATOR;
+		writeResult(os, idFile.getClassificationText(),
+			idFile.getNumHits(), ffh.getFileFormatName(),
+			ffh.getFileFormatVersion(), ffh.getMimeType(),
+			arcRMD.getDate());
+	    } else {
+		// no format or version, but the arc record mimetype.
+		writeResult(os, idFile.getClassificationText(),
+			idFile.getNumHits(), "null", "null",
+			arcRMD.getMimetype(), arcRMD.getDate());
 	    }
-
-	    // Write the date of harvest and end the result string with done!
-	    res += arcRMD.getDate() + STREAM_DONE;
-
-	    // Write to output stream.
-	    os.write(res.getBytes());
 	} catch (Exception e) {
 	    // write out any error to the system error stream.
 	    System.err.println(e.getMessage());
 	}
     }
 
+    /**
+     * Writes the result for a record in the format:
+     * ClassificationText + ## + number of hits + ## + first file format hit 
+     * + ## + first file format version + ## + mimetype + ## + date \n
+     * 
+     * @param os The output stream.
+     * @param classification The classification text.
+     * @param hits The number of hits.
+     * @param format The file format of the first hit.
+     * @param version The file format version of the first hit.
+     * @param mimetype The mimetype.
+     * @param date The harvest date of the record.
+     * @throws IOException If the result cannot be written.
+     */
+    protected void writeResult(OutputStream os, String classification,
+	    int hits, String format, String version, String mimetype,
+	    String date) throws IOException {
+	os.write((classification + STREAM_SEPARATOR + hits + STREAM_SEPARATOR
+		+ format + STREAM_SEPARATOR + version + STREAM_SEPARATOR
+		+ mimetype + STREAM_SEPARATOR + date + STREAM_DONE).getBytes());
+    }
+
+    /**
+     * Parses the signature file and prepares it for identification.
+     * 
+     * @return The signature file.
+     * @throws IOFailure
+     *             If the signature file cannot be parsed.
+     */
+    private FFSignatureFile parseSigFile() throws IOFailure {
+	try {
+	    FFSignatureFile res;
+	    synchronized (ac) {
+		res = ac.parseSigFile(sigFilePath);
+	    }
+	    res.prepareForUse();
+	    return res;
+	} catch (Exception e) {
+	    throw new IOFailure("Cannot parse the signature file '"
+		    + sigFilePath + "'.", e);
+	}
+    }
+
     /**
      * Loads an file from the class path (for retrieving a file from '.jar').
      * 
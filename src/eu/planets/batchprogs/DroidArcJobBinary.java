@@ -0,0 +1,36 @@
+package eu.planets.batchprogs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * DroidArcJob with the results written in the binary format of
+ * BinaryResultWriter, instead of text lines. The fields are the same as the
+ * text output:
+ * ClassificationText (string), number of hits (number), first file format
+ * hit, first file format version, mimetype (strings) and date (number). A
+ * date, which is missing or not a number, is written as -1, and is read
+ * back as 'null'.
+ */
+@SuppressWarnings("serial")
+public class DroidArcJobBinary extends DroidArcJob {
+    /** The types of the fields.*/
+    public static final String TYPES = "SLSSSL";
+
+    // The binary writer of each thread.
+    private transient BinaryResultWriter.Local writers;
+
+    @Override
+    public void initialize(OutputStream os) {
+	super.initialize(os);
+	writers = new BinaryResultWriter.Local(TYPES);
+    }
+
+    @Override
+    protected void writeResult(OutputStream os, String classification,
+	    int hits, String format, String version, String mimetype,
+	    String date) throws IOException {
+	writers.get(os).string(classification).number(hits).string(format)
+		.string(version).string(mimetype).number(date).end();
+    }
+}
@@ -22,23 +22,18 @@
  */
 package eu.planets.batchprogs;
 
+import java.io.IOException;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.RandomAccessFile;
 
 import org.archive.io.arc.ARCRecord;
 import org.archive.io.arc.ARCRecordMetaData;
 
 import dk.netarkivet.common.utils.arc.ARCBatchJob;
+import eu.planets.batchprogs.ScratchSpace.ScratchFile;
 import edu.harvard.hul.ois.jhove.Module;
 import edu.harvard.hul.ois.jhove.RepInfo;
-import edu.harvard.hul.ois.jhove.module.AiffModule;
-import edu.harvard.hul.ois.jhove.module.GifModule;
-import edu.harvard.hul.ois.jhove.module.HtmlModule;
-import edu.harvard.hul.ois.jhove.module.Jpeg2000Module;
-import edu.harvard.hul.ois.jhove.module.JpegModule;
-import edu.harvard.hul.ois.jhove.module.PdfModule;
-import edu.harvard.hul.ois.jhove.module.TiffModule;
-import edu.harvard.hul.ois.jhove.module.WaveModule;
-import edu.harvard.hul.ois.jhove.module.XmlModule;
 
 /**
  * 
@@ -46,23 +41,26 @@ import edu.harvard.hul.ois.jhove.module.XmlModule;
  * valid + ## + wellformed + ## + mod-name + ## + Jhove-mimetype + ## 
  * + Heritrix-mimetype + ## + size + ## + harvest-date \n
  *
+ * The module is chosen by the magic bytes at the start of the record, and
+ * only by the extension of the url or the mimetype, when the magic bytes are
+ * not recognised (see JhoveModuleRouter). Each thread validates with its
+ * own modules, thus the records can be validated concurrently.
+ *
+ * The random access modules (PDF and TIFF) can only parse a file, thus
+ * these records are spilled to a temporary file in the ScratchSpace and
+ * parsed as in JhoveBatchJob, which also handles the records larger than
+ * 100 MB. Other records larger than 100 MB are not validated.
  */
+@SuppressWarnings("serial")
 public class JhoveArcJob2 extends ARCBatchJob {
     private static final String STREAM_SEPARATOR = "##";
     private static final String STREAM_DONE = "\n";
     
-    // max 100 MB (to avoid using too much memory).
+    // max 100 MB for the streamed modules (to avoid using too much memory).
     private static final Long MAX_RECORD_SIZE = 100000000L;
 
-    private static Module aifMod;
-    private static Module gifMod;
-    private static Module htmlMod;
-    private static Module jpegMod;
-    private static Module jpeg2000Mod;
-    private static Module pdfMod;
-    private static Module tiffMod;
-    private static Module waveMod;
-    private static Module xmlMod;
+    // The JHOVE modules of each thread.
+    private transient JhoveModulePool modules;
 
     @Override
     public void finish(OutputStream os) {
@@ -71,16 +69,8 @@ public class JhoveArcJob2 extends ARCBatchJob {
 
     @Override
     public void initialize(OutputStream os) {
-        // Initialise the JHOVE modules.
-        aifMod = new AiffModule();
-        gifMod = new GifModule();
-        htmlMod = new HtmlModule();
-        jpegMod = new JpegModule();
-        jpeg2000Mod = new Jpeg2000Module();
-        pdfMod = new PdfModule();
-        tiffMod = new TiffModule();
-        waveMod = new WaveModule();
-        xmlMod = new XmlModule();
+        // The JHOVE modules are made, when they are first used.
+        modules = new JhoveModulePool();
     }
 
     @Override
@@ -89,68 +79,65 @@ public class JhoveArcJob2 extends ARCBatchJob {
             ARCRecordMetaData arcRMD = record.getMetaData();
             long size = arcRMD.getLength();
 
-            // ignore records larger than 100 MB
-            if(size > MAX_RECORD_SIZE) {
-                // valid + ## + wellformed + ## + mod-name + ## 
-                // + Jhove-mimetype + ## + Heitrix-mimetype + ## 
-                // + size + ## + harvest-date \n
-                os.write(new String(
-                        "Too Big" + STREAM_SEPARATOR 
-                        + "Too Big" + STREAM_SEPARATOR 
-                        + "null" + STREAM_SEPARATOR
-                        + "null" + STREAM_SEPARATOR
-                        + arcRMD.getMimetype() + STREAM_SEPARATOR
-                        + size + STREAM_SEPARATOR + arcRMD.getDate() 
-                        + STREAM_DONE).getBytes());
-                return;
-            }
-
             // RepInfo = the representation information. 
             // E.g. the results of an identification.
             RepInfo repinfo = new RepInfo(arcRMD.getUrl().toLowerCase());
 
-            // find file format from url-extension.
-            Module mod = FindModuleFromUrl(arcRMD.getUrl().toLowerCase());
-
-            // if no proper url-extension, try mimetype
-            if (mod == null) {
-                mod = FindModuleFromMimetype(
-                        arcRMD.getMimetype().toLowerCase());
-
-                if (mod == null) {
-                    // valid + ## + wellformed + ## + mod-name + ## 
-                    // + Jhove-mimetype + ## + Heitrix-mimetype + ## 
-                    // + size + ## + harvest-date \n
-                    os.write(new String(
-                            "null" + STREAM_SEPARATOR 
-                            + "null" + STREAM_SEPARATOR 
-                            + "null" + STREAM_SEPARATOR
-                            + "null" + STREAM_SEPARATOR
-                            + arcRMD.getMimetype() + STREAM_SEPARATOR
-                            + size + STREAM_SEPARATOR + arcRMD.getDate() 
-                            + STREAM_DONE).getBytes());
+            // skip the HTTP header, so only the payload is validated.
+            record.skipHttpHeader();
+            // find file format from the magic bytes, or else from the
+            // url-extension or the mimetype.
+            PushbackInputStream in = new PushbackInputStream(record,
+                    JhoveModuleRouter.PEEK_SIZE);
+            JhoveModuleType type = JhoveModuleRouter.route(in,
+                    arcRMD.getUrl(), arcRMD.getMimetype());
+
+            if (type == null) {
+                writeResult(os, "null", "null", "null", "null",
+                        arcRMD.getMimetype(), size, arcRMD.getDate());
+                return;
+            }
+            // the module of this thread, which has been reset.
+            Module mod = modules.get(type);
+            if (mod.isRandomAccess()) {
+                // the random access modules can only parse a file, thus
+                // the record is spilled to the scratch space. Checking
+                // the signatures only would leave the default RepInfo.
+                ScratchFile scratch = ScratchSpace.getInstance().spill(in,
+                        size);
+                if (scratch == null) {
+                    writeTooBig(arcRMD, os);
+                    return;
+                }
+                try {
+                    RandomAccessFile raf = new RandomAccessFile(
+                            scratch.getFile(), "r");
+                    try {
+                        mod.parse(raf, repinfo);
+                    } finally {
+                        raf.close();
+                    }
+                } finally {
+                    scratch.close();
+                }
+            } else {
+                // ignore records larger than 100 MB
+                if(size > MAX_RECORD_SIZE) {
+                    writeTooBig(arcRMD, os);
                     return;
                 }
+                // validate the arc-record
+                mod.checkSignatures(null, in, repinfo);
             }
 
-            // TODO find out whether this is necessary?
-            mod.resetParams();
-            // validate the arc-record
-            mod.checkSignatures(null, record, repinfo);
-
-            // write out results in the string format:
-            // + Jhove-mimetype + ## + Heitrix-mimetype + ## 
-            // + size + ## + harvest-date \n
-            os.write(new String((repinfo.getValid() == RepInfo.TRUE ? 
-                    "Valid" : "Invalid") + STREAM_SEPARATOR 
-                    + (repinfo.getWellFormed() == RepInfo.TRUE ? "Wellformed" 
-                            : "Not wellformed")
-                            + STREAM_SEPARATOR + mod.getName()
-                            + STREAM_SEPARATOR + repinfo.getMimeType()
-                            + STREAM_SEPARATOR + arcRMD.getMimetype()
-                            + STREAM_SEPARATOR + size
-                            + STREAM_SEPARATOR + arcRMD.getDate()
-                            + STREAM_DONE).getBytes());
+            // write out the results.
+            String valid = repinfo.getValid() == RepInfo.TRUE ? "Valid"
+                    : "Invalid";
+            String wellformed = repinfo.getWellFormed() == RepInfo.TRUE
+                    ? "Wellformed" : "Not wellformed";
+            writeResult(os, valid, wellformed, mod.getName(),
+                    repinfo.getMimeType(), arcRMD.getMimetype(), size,
+                    arcRMD.getDate());
         } catch (Exception e) {
             // Handle the exception. Send it to error stream.
             System.err.println("Error: " + e);
@@ -158,124 +145,44 @@ public class JhoveArcJob2 extends ARCBatchJob {
         }
     }
 
-
     /**
-     * This function finds a module corresponding to the extension of a url.
-     * If unknown extension, return null.
-     * 
-     * Modules | Extensions
-     * AiffModule: aiff, aif, aifc
-     * GifModule: gif, gfa
-     * HtmlModule: htm, html
-     * JpegModule: jpg, jpeg, jpe, jif, jfif, jfi
-     * Jpeg2000Module: jp2, j2c, jpc, j2k, jpx
-     * PdfModule: pdf, epdf
-     * TiffModule:tiff, tif
-     * WaveModule:wav
-     * XmlModule: xml
+     * Writes the result for a record, which is too big to be validated.
      * 
-     * @param url The url of the file (in lower case)
-     * @return The module corresponding to the extension of the filename
+     * @param arcRMD The metadata of the record.
+     * @param os The output stream.
+     * @throws IOException If the result cannot be written.
      */
-    private Module FindModuleFromUrl(String url) {
-
-        if (url.endsWith(".aiff") || url.endsWith(".aif")
-                || url.endsWith(".aifc")) {
-            return aifMod;
-        } 
-        if (url.endsWith(".gif") || url.endsWith(".gfa")) {
-            return gifMod;
-        } 
-        if (url.endsWith(".html") || url.endsWith(".htm")) {
-            return htmlMod;
-        } 
-        if (url.endsWith(".jpg") || url.endsWith(".jpeg")
-                || url.endsWith(".jpe") || url.endsWith(".jif")
-                || url.endsWith(".jfif") || url.endsWith(".jfi")) {
-            return jpegMod;
-        } 
-        if (url.endsWith(".jp2") || url.endsWith(".j2c")
-                || url.endsWith(".jpc") || url.endsWith(".j2k")
-                || url.endsWith(".jpx")) {
-            return jpeg2000Mod;
-        } 
-        if (url.endsWith(".pdf") || url.endsWith(".epdf")) {
-            return pdfMod;
-        } 
-        if (url.endsWith(".tiff") || url.endsWith(".tif")) {
-            return tiffMod;
-        } 
-        if (url.endsWith(".wav")) {
-            return waveMod;
-        } 
-        if (url.endsWith(".xml")) {
-            return xmlMod;
-        }
-
-        return null;
+    private void writeTooBig(ARCRecordMetaData arcRMD, OutputStream os)
+            throws IOException {
+        writeResult(os, "Too Big", "Too Big", "null", "null",
+                arcRMD.getMimetype(), arcRMD.getLength(), arcRMD.getDate());
     }
 
     /**
-     * This function finds a module corresponding to the mimetype.
-     * If unknown extension, return null.
+     * Writes the result for a record in the string format:
+     * valid + ## + wellformed + ## + mod-name + ## + Jhove-mimetype + ## 
+     * + Heritrix-mimetype + ## + size + ## + harvest-date \n
      * 
-     * Modules |        Mimetype
-     * AiffModule:      N/A
-     * GifModule:       image/gif
-     * HtmlModule:      text/html
-     * JpegModule:      image/jpeg
-     * Jpeg2000Module:  N/A
-     * PdfModule:       application/pdf
-     * TiffModule:      N/A
-     * WaveModule:      audio/x-wav
-     * XmlModule:       text/xml, application/xml
-     * 		suffix: '-xml'
-     * 		* (application/atom+xml, application/rss+xml, 
-     * 			application/xml...)
-     *          * XML mimetypes ends with 'xml'.
-     * 
-     * Mimetype found but not handled by individual module:
-     * text/plain
-     * text/dns
-     * text/css
-     * text/javascript
-     * image/png
-     * image/x-icon
-     * application/x-javascript
-     * application/vnd.ms-powerpoint
-     * application/x-cdx
-     * application/x-shockwave-flash
-     * application/x-component
-     * application/json
-     * application/x-gzip
-     * application/x-java-archive
-     * 
-     * @param name The name of the file (in lower case).
-     * @return The module corresponding to the extension of the filename.
-     * If no module was found, then null is returned.
+     * @param os The output stream.
+     * @param valid Whether the record is valid.
+     * @param wellformed Whether the record is wellformed.
+     * @param module The name of the module.
+     * @param jhoveMimetype The mimetype found by JHOVE.
+     * @param heritrixMimetype The mimetype of the record.
+     * @param size The size of the record.
+     * @param date The harvest date of the record.
+     * @throws IOException If the result cannot be written.
      */
-    private Module FindModuleFromMimetype(String mimetype){
-
-        if (mimetype.equals("text/html")) {
-            return htmlMod;
-        } 
-        if (mimetype.equals("image/jpeg")) {
-            return jpegMod;
-        } 
-        if (mimetype.equals("image/gif")) {
-            return gifMod;
-        } 
-        if (mimetype.equals("application/pdf")) {
-            return pdfMod;
-        } 
-        if (mimetype.equals("audio/x-wav")) {
-            return waveMod;
-        } 
-        // The mimetype of XML files ends with 'xml'.
-        if (mimetype.endsWith("xml")) {
-            return xmlMod;
-        }
-
-        return null;
+    protected void writeResult(OutputStream os, String valid,
+            String wellformed, String module, String jhoveMimetype,
+            String heritrixMimetype, long size, String date)
+            throws IOException {
+        os.write(new String(valid + STREAM_SEPARATOR 
+                + wellformed + STREAM_SEPARATOR 
+                + module + STREAM_SEPARATOR
+                + jhoveMimetype + STREAM_SEPARATOR
+                + heritrixMimetype + STREAM_SEPARATOR
+                + size + STREAM_SEPARATOR + date 
+                + STREAM_DONE).getBytes());
     }
 }
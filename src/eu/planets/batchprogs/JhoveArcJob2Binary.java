@@ -0,0 +1,55 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets.batchprogs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * JhoveArcJob2 with the results written in the binary format of
+ * BinaryResultWriter, instead of text lines. The fields are the same as the
+ * text output:
+ * valid, wellformed, mod-name, Jhove-mimetype, Heritrix-mimetype (strings),
+ * size and harvest-date (numbers). A harvest-date, which is missing or not
+ * a number, is written as -1, and is read back as 'null'.
+ */
+@SuppressWarnings("serial")
+public class JhoveArcJob2Binary extends JhoveArcJob2 {
+    /** The types of the fields.*/
+    public static final String TYPES = "SSSSSLL";
+
+    // The binary writer of each thread.
+    private transient BinaryResultWriter.Local writers;
+
+    @Override
+    public void initialize(OutputStream os) {
+        super.initialize(os);
+        writers = new BinaryResultWriter.Local(TYPES);
+    }
+
+    @Override
+    protected void writeResult(OutputStream os, String valid,
+            String wellformed, String module, String jhoveMimetype,
+            String heritrixMimetype, long size, String date)
+            throws IOException {
+        writers.get(os).string(valid).string(wellformed).string(module)
+                .string(jhoveMimetype).string(heritrixMimetype).number(size)
+                .number(date).end();
+    }
+}
@@ -27,19 +27,11 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 
 import dk.netarkivet.common.utils.batch.FileBatchJob;
 import edu.harvard.hul.ois.jhove.Module;
 import edu.harvard.hul.ois.jhove.RepInfo;
-import edu.harvard.hul.ois.jhove.module.AiffModule;
-import edu.harvard.hul.ois.jhove.module.GifModule;
-import edu.harvard.hul.ois.jhove.module.HtmlModule;
-import edu.harvard.hul.ois.jhove.module.Jpeg2000Module;
-import edu.harvard.hul.ois.jhove.module.JpegModule;
-import edu.harvard.hul.ois.jhove.module.PdfModule;
-import edu.harvard.hul.ois.jhove.module.TiffModule;
-import edu.harvard.hul.ois.jhove.module.WaveModule;
-import edu.harvard.hul.ois.jhove.module.XmlModule;
 
 /**
  * 
@@ -48,21 +40,19 @@ import edu.harvard.hul.ois.jhove.module.XmlModule;
  * Delivers the output in the format:
  * valid + ## + wellformed + ## + format + ## + version + ## + mod-name 
  * + ## + mimetype / extension + ## + harvest-date \n
+ *
+ * Each thread validates with its own modules, thus the files can be
+ * validated concurrently. The random access modules (PDF and TIFF) parse
+ * the file directly, and the other modules only parse files up to 100 MB.
  */
+@SuppressWarnings("serial")
 public class JhoveBatchJob extends FileBatchJob {
 
     private static final String STREAM_SEPARATOR = Constants.STREAM_SEPARATOR;
     private static final String STREAM_DONE = Constants.STREAM_DONE;
 
-    private static Module aifMod;
-    private static Module gifMod;
-    private static Module htmlMod;
-    private static Module jpegMod;
-    private static Module jpeg2000Mod;
-    private static Module pdfMod;
-    private static Module tiffMod;
-    private static Module waveMod;
-    private static Module xmlMod;
+    // The JHOVE modules of each thread.
+    private transient JhoveModulePool modules;
     
     @Override
     public void finish(OutputStream os) {
@@ -71,48 +61,25 @@ public class JhoveBatchJob extends FileBatchJob {
 
     @Override
     public void initialize(OutputStream os) {
-	aifMod = new AiffModule();
-	gifMod = new GifModule();
-	htmlMod = new HtmlModule();
-	jpegMod = new JpegModule();
-	jpeg2000Mod = new Jpeg2000Module();
-	pdfMod = new PdfModule();
-	tiffMod = new TiffModule();
-	waveMod = new WaveModule();
-	xmlMod = new XmlModule();
+	// The JHOVE modules are made, when they are first used.
+	modules = new JhoveModulePool();
     }
 
     @Override
     public boolean processFile(File file, OutputStream os) {
         try {
-            // ignore records larger than 100 MB
-            if(file.length() > 100000000) {
-                // valid + ## + wellformed + ## + format + ## + version + ## +  
-                // mod-name + ## + arc-mimetype + ## + harvest-date \n
-        	os.write(new String(
-        		"Too Big" + STREAM_SEPARATOR 
-            	    + "null" + STREAM_SEPARATOR 
-        	    + "null" + STREAM_SEPARATOR 
-        	    + "null" + STREAM_SEPARATOR
-        	    + "null" + STREAM_SEPARATOR
-                    + file.getName() + STREAM_SEPARATOR
-                    + file.lastModified() + STREAM_DONE).getBytes());
-        	return true;
-            }
-
-            // load file, initialize representation tool and an output handler
-            FileInputStream fis = new FileInputStream(file);
+            // initialize representation tool and an output handler
             RepInfo repinfo = new RepInfo(file.getName());
 
             // retrieve the extension of the file.
             String[] split = file.getName().split("[.]");
             String extension = split[ split.length - 1 ]; 
 
-            // find a module from the extension (in lower case)
-            Module mod = FindModule(extension.toLowerCase());
+            // find a module type from the extension
+            JhoveModuleType type = JhoveModuleRouter.fromUrl(file.getName());
             
             // check if a module was found
-            if (mod == null) {
+            if (type == null) {
                     os.write(new String(
                 	    "null" + STREAM_SEPARATOR 
                 	    + "null" + STREAM_SEPARATOR 
@@ -124,11 +91,32 @@ public class JhoveBatchJob extends FileBatchJob {
                     return true;
             }
 
-            // reset module.
-            mod.resetParams();
-
-            // parse file
-            mod.parse(fis, repinfo, 0);
+            // the module of this thread, which has been reset.
+            Module mod = modules.get(type);
+
+            if (mod.isRandomAccess()) {
+                // the random access modules read the file directly, thus
+                // the size does not matter.
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    mod.parse(raf, repinfo);
+                } finally {
+                    raf.close();
+                }
+            } else {
+                // ignore files larger than 100 MB
+                if(file.length() > 100000000) {
+                    writeTooBig(file, os);
+                    return true;
+                }
+                // load and parse file
+                FileInputStream fis = new FileInputStream(file);
+                try {
+                    mod.parse(fis, repinfo, 0);
+                } finally {
+                    fis.close();
+                }
+            }
 
             // write out results in the string format:
             // valid + ## + wellformed + ## + format + ## + version + ## +  
@@ -160,55 +148,22 @@ public class JhoveBatchJob extends FileBatchJob {
     }
 
     /**
-     * This function makes a module corresponding to the extension of a file.
-     * If unknown extension, return null.
-     * 
-     * Modules | Extensions
-     * AiffModule:  aiff, aif, aifc
-     * GifModule:   gif, gfa
-     * HtmlModule:  htm, html
-     * JpegModule:  jpg, jpeg, jpe, jif, jfif, jfi
-     * Jpeg2000Module: jp2, j2c, jpc, j2k, jpx
-     * PdfModule:  pdf, epdf
-     * TiffModule: tiff, tif
-     * WaveModule: wav
-     * XmlModule:  xml
+     * Writes the result for a file, which is too big to be validated.
      * 
-     * @param ext The extension to the name of the file.
-     * @return The module corresponding to the extension of the filename.
+     * @param file The file.
+     * @param os The output stream.
+     * @throws IOException If the result cannot be written.
      */
-    private Module FindModule(String ext) {
-        if (ext.equals("aiff") || ext.equals("aif") || ext.equals("aifc")) {
-            return aifMod;
-        } 
-        if (ext.equals("gif") || ext.equals("gfa")) {
-            return gifMod;
-        } 
-        if (ext.equals("html") || ext.equals("htm")) {
-            return htmlMod;
-        } 
-        if (ext.equals("jpg") || ext.equals("jpeg") || ext.equals("jpe") 
-        	|| ext.equals("jif") || ext.equals("jfif") 
-        	|| ext.equals("jfi")) {
-            return jpegMod;
-        } 
-        if (ext.equals("jp2") || ext.equals("j2c") || ext.equals("jpc") 
-        	|| ext.equals("j2k") || ext.equals("jpx")) {
-            return jpeg2000Mod;
-        } 
-        if (ext.equals("pdf") || ext.equals("epdf")) {
-            return pdfMod;
-        } 
-        if (ext.equals("tiff") || ext.equals("tif")) {
-            return tiffMod;
-        } 
-        if (ext.equals("wav")) {
-            return waveMod;
-        } 
-        if (ext.equals("xml")) {
-            return xmlMod;
-        }
-
-        return null;
+    private void writeTooBig(File file, OutputStream os) throws IOException {
+        // valid + ## + wellformed + ## + format + ## + version + ## +  
+        // mod-name + ## + arc-mimetype + ## + harvest-date \n
+        os.write(new String(
+                "Too Big" + STREAM_SEPARATOR 
+                + "null" + STREAM_SEPARATOR 
+                + "null" + STREAM_SEPARATOR 
+                + "null" + STREAM_SEPARATOR
+                + "null" + STREAM_SEPARATOR
+                + file.getName() + STREAM_SEPARATOR
+                + file.lastModified() + STREAM_DONE).getBytes());
     }
 }
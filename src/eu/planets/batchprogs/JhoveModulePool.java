@@ -0,0 +1,62 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets.batchprogs;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import edu.harvard.hul.ois.jhove.Module;
+
+/**
+ * Pool of JHOVE modules, where each thread has its own instances.
+ *
+ * The modules keep the state of the current validation, thus a module
+ * cannot be shared between threads. The modules of a thread are made the
+ * first time the thread asks for the type, and are reset every time they
+ * are handed out.
+ */
+public class JhoveModulePool {
+    /** The modules of each thread.*/
+    private final ThreadLocal<Map<JhoveModuleType, Module>> modules =
+            new ThreadLocal<Map<JhoveModuleType, Module>>() {
+        @Override
+        protected Map<JhoveModuleType, Module> initialValue() {
+            return new EnumMap<JhoveModuleType, Module>(
+                    JhoveModuleType.class);
+        }
+    };
+
+    /**
+     * Gives the module of the current thread for the type. The module is
+     * reset, and must only be used by the current thread.
+     * @param type The type of module.
+     * @return The module.
+     * @throws Exception If the module cannot be reset.
+     */
+    public Module get(JhoveModuleType type) throws Exception {
+        Map<JhoveModuleType, Module> mods = modules.get();
+        Module mod = mods.get(type);
+        if (mod == null) {
+            mod = type.newModule();
+            mods.put(type, mod);
+        }
+        mod.resetParams();
+        return mod;
+    }
+}
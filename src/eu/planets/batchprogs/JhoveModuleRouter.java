@@ -0,0 +1,247 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets.batchprogs;
+
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Chooses the JHOVE module for a record.
+ *
+ * The first bytes of the record are peeked through a push-back stream, and
+ * the module is chosen by the magic bytes of the format. Only when the
+ * bytes are not recognised, the module is looked up from the extension of
+ * the url, and then from the mimetype, in tables made once from the
+ * JhoveModuleType values.
+ */
+public final class JhoveModuleRouter {
+    /** The number of bytes, which are peeked.*/
+    public static final int PEEK_SIZE = Constants.JHOVE_PEEK_SIZE;
+
+    /** The charset for comparing the bytes with the text magics.*/
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+    /** The PDF header may be preceded by other bytes.*/
+    private static final int PDF_HEADER_LIMIT = 1024;
+    /** The start of the markup of a HTML document, in lower case.*/
+    private static final String[] HTML_MAGICS = {"<!doctype html", "<html",
+        "<head", "<body", "<title"};
+
+    /** The module types for the extensions.*/
+    private static final Map<String, JhoveModuleType> EXTENSIONS =
+            new HashMap<String, JhoveModuleType>();
+    /** The module types for the mimetypes.*/
+    private static final Map<String, JhoveModuleType> MIMETYPES =
+            new HashMap<String, JhoveModuleType>();
+    static {
+        for (JhoveModuleType type : JhoveModuleType.values()) {
+            for (String ext : type.getExtensions()) {
+                EXTENSIONS.put(ext, type);
+            }
+            for (String mime : type.getMimetypes()) {
+                MIMETYPES.put(mime, type);
+            }
+        }
+    }
+
+    /**
+     * Utility class. Should not be instantiated.
+     */
+    private JhoveModuleRouter() {}
+
+    /**
+     * Finds the module type for a record. The peeked bytes are pushed back
+     * to the stream, thus the whole record can still be read.
+     * @param in The content of the record. The push-back buffer must be at
+     * least PEEK_SIZE bytes.
+     * @param url The url of the record.
+     * @param mimetype The mimetype of the record.
+     * @return The module type, or null if the record is not recognised.
+     * @throws IOException If the record cannot be read.
+     */
+    public static JhoveModuleType route(PushbackInputStream in, String url,
+            String mimetype) throws IOException {
+        byte[] peek = new byte[PEEK_SIZE];
+        int length = 0;
+        int n;
+        while (length < peek.length
+                && (n = in.read(peek, length, peek.length - length)) != -1) {
+            length += n;
+        }
+        in.unread(peek, 0, length);
+
+        JhoveModuleType type = fromMagic(peek, length);
+        if (type == null) {
+            type = fromUrl(url);
+        }
+        if (type == null) {
+            type = fromMimetype(mimetype);
+        }
+        return type;
+    }
+
+    /**
+     * Finds the module type from the magic bytes at the start of the
+     * content.
+     * @param bytes The first bytes of the content.
+     * @param length The number of bytes.
+     * @return The module type, or null if the bytes are not recognised.
+     */
+    public static JhoveModuleType fromMagic(byte[] bytes, int length) {
+        if (startsWith(bytes, length, 0, 0xff, 0xd8, 0xff)) {
+            return JhoveModuleType.JPEG;
+        }
+        if (startsWith(bytes, length, 0, "GIF87a")
+                || startsWith(bytes, length, 0, "GIF89a")) {
+            return JhoveModuleType.GIF;
+        }
+        if (startsWith(bytes, length, 0, "II*\0")
+                || startsWith(bytes, length, 0, "MM\0*")) {
+            return JhoveModuleType.TIFF;
+        }
+        if (startsWith(bytes, length, 0, 0x00, 0x00, 0x00, 0x0c, 0x6a, 0x50,
+                0x20, 0x20, 0x0d, 0x0a, 0x87, 0x0a)
+                || startsWith(bytes, length, 0, 0xff, 0x4f, 0xff, 0x51)) {
+            return JhoveModuleType.JPEG2000;
+        }
+        if (startsWith(bytes, length, 0, "RIFF")
+                && startsWith(bytes, length, 8, "WAVE")) {
+            return JhoveModuleType.WAVE;
+        }
+        if (startsWith(bytes, length, 0, "FORM")
+                && (startsWith(bytes, length, 8, "AIFF")
+                        || startsWith(bytes, length, 8, "AIFC"))) {
+            return JhoveModuleType.AIFF;
+        }
+        if (indexOf(bytes, Math.min(length, PDF_HEADER_LIMIT), "%PDF-")
+                >= 0) {
+            return JhoveModuleType.PDF;
+        }
+        return fromMarkup(bytes, length);
+    }
+
+    /**
+     * Finds the module type for XML and HTML from the first markup, after
+     * any byte order mark and whitespace.
+     */
+    private static JhoveModuleType fromMarkup(byte[] bytes, int length) {
+        int start = startsWith(bytes, length, 0, 0xef, 0xbb, 0xbf) ? 3 : 0;
+        while (start < length && Character.isWhitespace(bytes[start])) {
+            start++;
+        }
+        if (startsWith(bytes, length, start, "<?xml")) {
+            return JhoveModuleType.XML;
+        }
+        String head = new String(bytes, start,
+                Math.min(length - start, 16), LATIN1).toLowerCase(Locale.ROOT);
+        for (String magic : HTML_MAGICS) {
+            if (head.startsWith(magic)) {
+                return JhoveModuleType.HTML;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the module type from the extension of the path of the url.
+     * @param url The url.
+     * @return The module type, or null if the extension is not known.
+     */
+    public static JhoveModuleType fromUrl(String url) {
+        if (url == null) {
+            return null;
+        }
+        // ignore the query and the fragment.
+        int end = url.length();
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            end = query;
+        }
+        int fragment = url.indexOf('#');
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+        int dot = url.lastIndexOf('.', end - 1);
+        if (dot < 0 || dot < url.lastIndexOf('/', end - 1)) {
+            return null;
+        }
+        return EXTENSIONS.get(url.substring(dot + 1, end).toLowerCase(
+                Locale.ROOT));
+    }
+
+    /**
+     * Finds the module type from a mimetype. Any parameters of the mimetype
+     * are ignored, and every mimetype ending with 'xml' is XML.
+     * @param mimetype The mimetype.
+     * @return The module type, or null if the mimetype is not known.
+     */
+    public static JhoveModuleType fromMimetype(String mimetype) {
+        if (mimetype == null) {
+            return null;
+        }
+        int params = mimetype.indexOf(';');
+        String mime = (params < 0 ? mimetype : mimetype.substring(0, params))
+                .trim().toLowerCase(Locale.ROOT);
+        JhoveModuleType type = MIMETYPES.get(mime);
+        if (type == null && mime.endsWith("xml")) {
+            type = JhoveModuleType.XML;
+        }
+        return type;
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, int offset,
+            String magic) {
+        return startsWith(bytes, length, offset, magic.getBytes(LATIN1));
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, int offset,
+            int... magic) {
+        byte[] res = new byte[magic.length];
+        for (int i = 0; i < magic.length; i++) {
+            res[i] = (byte) magic[i];
+        }
+        return startsWith(bytes, length, offset, res);
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, int offset,
+            byte[] magic) {
+        if (offset + magic.length > length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (bytes[offset + i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] bytes, int length, String magic) {
+        byte[] m = magic.getBytes(LATIN1);
+        for (int i = 0; i + m.length <= length; i++) {
+            if (startsWith(bytes, length, i, m)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
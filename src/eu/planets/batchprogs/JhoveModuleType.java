@@ -0,0 +1,129 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets.batchprogs;
+
+import edu.harvard.hul.ois.jhove.Module;
+import edu.harvard.hul.ois.jhove.module.AiffModule;
+import edu.harvard.hul.ois.jhove.module.GifModule;
+import edu.harvard.hul.ois.jhove.module.HtmlModule;
+import edu.harvard.hul.ois.jhove.module.Jpeg2000Module;
+import edu.harvard.hul.ois.jhove.module.JpegModule;
+import edu.harvard.hul.ois.jhove.module.PdfModule;
+import edu.harvard.hul.ois.jhove.module.TiffModule;
+import edu.harvard.hul.ois.jhove.module.WaveModule;
+import edu.harvard.hul.ois.jhove.module.XmlModule;
+
+/**
+ * The JHOVE modules used for validation, together with the extensions and
+ * mimetypes of the formats they handle.
+ */
+public enum JhoveModuleType {
+    AIFF(new String[] {"aiff", "aif", "aifc"},
+            new String[] {"audio/aiff", "audio/x-aiff"}) {
+        @Override
+        public Module newModule() {
+            return new AiffModule();
+        }
+    },
+    GIF(new String[] {"gif", "gfa"},
+            new String[] {"image/gif"}) {
+        @Override
+        public Module newModule() {
+            return new GifModule();
+        }
+    },
+    HTML(new String[] {"html", "htm"},
+            new String[] {"text/html"}) {
+        @Override
+        public Module newModule() {
+            return new HtmlModule();
+        }
+    },
+    JPEG(new String[] {"jpg", "jpeg", "jpe", "jif", "jfif", "jfi"},
+            new String[] {"image/jpeg", "image/pjpeg"}) {
+        @Override
+        public Module newModule() {
+            return new JpegModule();
+        }
+    },
+    JPEG2000(new String[] {"jp2", "j2c", "jpc", "j2k", "jpx"},
+            new String[] {"image/jp2", "image/jpx"}) {
+        @Override
+        public Module newModule() {
+            return new Jpeg2000Module();
+        }
+    },
+    PDF(new String[] {"pdf", "epdf"},
+            new String[] {"application/pdf", "application/x-pdf"}) {
+        @Override
+        public Module newModule() {
+            return new PdfModule();
+        }
+    },
+    TIFF(new String[] {"tiff", "tif"},
+            new String[] {"image/tiff"}) {
+        @Override
+        public Module newModule() {
+            return new TiffModule();
+        }
+    },
+    WAVE(new String[] {"wav"},
+            new String[] {"audio/x-wav", "audio/wav", "audio/wave"}) {
+        @Override
+        public Module newModule() {
+            return new WaveModule();
+        }
+    },
+    XML(new String[] {"xml"},
+            new String[] {"text/xml", "application/xml"}) {
+        @Override
+        public Module newModule() {
+            return new XmlModule();
+        }
+    };
+
+    /** The extensions of the format, in lower case.*/
+    private final String[] extensions;
+    /** The mimetypes of the format, in lower case.*/
+    private final String[] mimetypes;
+
+    private JhoveModuleType(String[] extensions, String[] mimetypes) {
+        this.extensions = extensions;
+        this.mimetypes = mimetypes;
+    }
+
+    /**
+     * @return The extensions of the format, in lower case.
+     */
+    public String[] getExtensions() {
+        return extensions.clone();
+    }
+
+    /**
+     * @return The mimetypes of the format, in lower case.
+     */
+    public String[] getMimetypes() {
+        return mimetypes.clone();
+    }
+
+    /**
+     * @return A new instance of the JHOVE module for the format.
+     */
+    public abstract Module newModule();
+}
@@ -0,0 +1,288 @@
+package eu.planets.batchprogs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import uk.gov.nationalarchives.droid.IdentificationFile;
+import uk.gov.nationalarchives.droid.binFileReader.AbstractByteReader;
+import uk.gov.nationalarchives.droid.signatureFile.ByteSequence;
+import uk.gov.nationalarchives.droid.signatureFile.FFSignatureFile;
+import uk.gov.nationalarchives.droid.signatureFile.InternalSignature;
+import uk.gov.nationalarchives.droid.signatureFile.SideFragment;
+import uk.gov.nationalarchives.droid.signatureFile.SubSequence;
+
+/**
+ * DROID byte reader for the content of a record, which is read directly from
+ * the record instead of through the System.in stream.
+ *
+ * The start of the content is read into an in-memory window, which is reused
+ * for every record. If a record is larger than the window, the rest of the
+ * record is read through a second window, which keeps the last bytes of the
+ * record, thus the signatures at the start and at the end of the record are
+ * found without writing the record anywhere. The bytes in between are not
+ * kept, and reading them gives an IndexOutOfBoundsException, which DROID
+ * takes as the end of the content.
+ *
+ * When the signatures may look anywhere in the content, the record is
+ * instead spilled to a temporary file, which is memory-mapped. At most 2 GB
+ * of a record is mapped. Whether the signatures of a signature file may look
+ * beyond the windows is found by needsWholeRecord.
+ *
+ * A reader must only be used by one thread at the time, but it can be used
+ * for any number of records.
+ */
+public class RecordByteReader extends AbstractByteReader {
+    /** The reference of the byte sequences anchored at the start.*/
+    private static final String BOF_REFERENCE = "BOFoffset";
+    /** The reference of the byte sequences anchored at the end.*/
+    private static final String EOF_REFERENCE = "EOFoffset";
+
+    /** The in-memory window for the start of the records.*/
+    private final ByteBuffer window;
+    /** The in-memory window for the end of the records, used as a ring.*/
+    private final byte[] tail;
+    /** Whether the whole record is needed by the signatures.*/
+    private final boolean wholeRecord;
+    /** The content of the current record, when the whole record is kept,
+     * either the window or mapped. Otherwise the start of the record.*/
+    private ByteBuffer buffer;
+    /** The number of bytes of the current record in the tail window.*/
+    private int tailLength;
+    /** The index in the tail window of the first byte kept there.*/
+    private int tailStart;
+    /** The length of the current record.*/
+    private long length;
+    /** The file marker within the current record.*/
+    private long marker;
+    /** The temporary file for the current record, if it was spilled.*/
+    private File spillFile;
+
+    /**
+     * @param windowSize The size of each of the in-memory windows in bytes.
+     * @param wholeRecord Whether the signatures may look anywhere in the
+     * records, thus the records larger than a window must be spilled.
+     */
+    public RecordByteReader(int windowSize, boolean wholeRecord) {
+        super(null);
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("The window size must be "
+                    + "positive, but was: " + windowSize);
+        }
+        this.window = ByteBuffer.allocate(windowSize);
+        this.tail = wholeRecord ? null : new byte[windowSize];
+        this.wholeRecord = wholeRecord;
+    }
+
+    /**
+     * Finds whether the signatures of a signature file may look beyond the
+     * first and the last bytes of the content. Only the byte sequences, which
+     * are anchored at the start or at the end by a single sub-sequence with
+     * its fragments within the window, are known to stay in the windows.
+     * The other sub-sequences are searched for until the end of the content.
+     *
+     * @param sigFile The signature file, prepared for use.
+     * @param windowSize The size of each of the in-memory windows in bytes.
+     * @return Whether the whole records are needed.
+     */
+    public static boolean needsWholeRecord(FFSignatureFile sigFile,
+            int windowSize) {
+        for (int i = 0; i < sigFile.getNumInternalSignatures(); i++) {
+            InternalSignature sig = sigFile.getInternalSignature(i);
+            for (int j = 0; j < sig.getNumByteSequences(); j++) {
+                ByteSequence seq = sig.getByteSequence(j);
+                String reference = seq.getReference();
+                if (!(BOF_REFERENCE.equals(reference)
+                        || EOF_REFERENCE.equals(reference))
+                        || seq.getNumSubSequences() != 1
+                        || reach(seq.getSubSequence(0)) > windowSize) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param subSeq A sub-sequence anchored at the start or the end.
+     * @return The largest distance from the anchor of the bytes compared
+     * with the sub-sequence and its fragments.
+     */
+    private static long reach(SubSequence subSeq) {
+        long res = (long) subSeq.getMaxSeqOffset() + subSeq.getNumBytes();
+        for (boolean left : new boolean[] {true, false}) {
+            for (int pos = 1; pos <= subSeq.getNumFragmentPositions(left);
+                    pos++) {
+                long longest = 0L;
+                for (int k = 0; k < subSeq.getNumAlternativeFragments(left,
+                        pos); k++) {
+                    SideFragment fragment = subSeq.getFragment(left, pos, k);
+                    longest = Math.max(longest, (long) fragment.getMaxOffset()
+                            + fragment.getNumBytes());
+                }
+                res += longest;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Reads the rest of the stream as the content to identify. The stream is
+     * not closed.
+     * @param idFile The identification of the content. The results of the
+     * identification are put here.
+     * @param in The stream with the content.
+     * @throws IOException If the stream cannot be read, or the content cannot
+     * be spilled to a temporary file.
+     */
+    public void read(IdentificationFile idFile, InputStream in)
+            throws IOException {
+        close();
+        myIDFile = idFile;
+        ReadableByteChannel channel = Channels.newChannel(in);
+        window.clear();
+        int n = 0;
+        while (n >= 0 && window.hasRemaining()) {
+            n = channel.read(window);
+        }
+        window.flip();
+        buffer = window;
+        length = window.limit();
+
+        if (window.limit() == 0) {
+            setErrorIdent();
+            setIdentificationWarning("Zero-length file");
+        } else if (n >= 0) {
+            // the window is full, thus there may be more.
+            if (wholeRecord) {
+                spill(channel);
+            } else {
+                readTail(channel);
+            }
+        }
+    }
+
+    /**
+     * Reads the rest of the channel through the tail window, which keeps the
+     * last bytes.
+     */
+    private void readTail(ReadableByteChannel channel) throws IOException {
+        ByteBuffer ring = ByteBuffer.wrap(tail);
+        long rest = 0L;
+        boolean wrapped = false;
+        while (true) {
+            if (!ring.hasRemaining()) {
+                ring.clear();
+                wrapped = true;
+            }
+            int n = channel.read(ring);
+            if (n < 0) {
+                break;
+            }
+            rest += n;
+        }
+        tailLength = (int) Math.min(rest, tail.length);
+        tailStart = wrapped ? ring.position() % tail.length : 0;
+        length += rest;
+    }
+
+    /**
+     * Writes the window and the rest of the channel to a temporary file,
+     * and maps the file instead of the window.
+     */
+    private void spill(ReadableByteChannel channel) throws IOException {
+        spillFile = File.createTempFile("droid", null);
+        RandomAccessFile raf = new RandomAccessFile(spillFile, "rw");
+        try {
+            FileChannel fc = raf.getChannel();
+            // the window is reused for copying the rest of the channel.
+            while (true) {
+                while (window.hasRemaining()) {
+                    fc.write(window);
+                }
+                window.clear();
+                if (channel.read(window) < 0) {
+                    break;
+                }
+                window.flip();
+            }
+            buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(fc.size(), Integer.MAX_VALUE));
+            length = buffer.limit();
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Override
+    public byte getByte(long fileIndex) {
+        if (fileIndex < buffer.limit()) {
+            return buffer.get((int) fileIndex);
+        }
+        long inTail = fileIndex - (length - tailLength);
+        if (inTail < 0L || inTail >= tailLength) {
+            throw new IndexOutOfBoundsException("The byte " + fileIndex
+                    + " of the record is not kept.");
+        }
+        return tail[(int) ((tailStart + inTail) % tail.length)];
+    }
+
+    @Override
+    public long getFileMarker() {
+        return marker;
+    }
+
+    @Override
+    public void setFileMarker(long markerPosition) {
+        marker = markerPosition;
+    }
+
+    @Override
+    public long getNumBytes() {
+        return buffer == null ? 0 : length;
+    }
+
+    /**
+     * @return The content of the current record, or only its start when the
+     * whole record is not kept.
+     */
+    @Override
+    public byte[] getbuffer() {
+        if (buffer == null) {
+            return new byte[0];
+        }
+        if (buffer.hasArray()) {
+            return buffer.array();
+        }
+        byte[] res = new byte[buffer.limit()];
+        ByteBuffer copy = buffer.duplicate();
+        copy.position(0);
+        copy.get(res);
+        return res;
+    }
+
+    /**
+     * Releases the content of the current record, and deletes the temporary
+     * file if the record was spilled.
+     */
+    @Override
+    public void close() {
+        buffer = null;
+        length = 0L;
+        marker = 0L;
+        tailLength = 0;
+        tailStart = 0;
+        if (spillFile != null) {
+            // the mapping may prevent the deletion on some systems.
+            if (!spillFile.delete()) {
+                spillFile.deleteOnExit();
+            }
+            spillFile = null;
+        }
+    }
+}
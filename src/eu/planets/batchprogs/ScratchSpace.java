@@ -0,0 +1,175 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets.batchprogs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * Scratch space for records, which must be parsed from a file.
+ *
+ * A record is streamed once into a temporary file in the temporary
+ * directory (java.io.tmpdir). The total size of the temporary files is
+ * capped across all the threads: a thread, which needs more than the
+ * remaining space, waits until other threads have released their files.
+ * Records larger than the whole cap are refused.
+ */
+public class ScratchSpace {
+    /** The scratch space shared by the jobs in this JVM.*/
+    private static ScratchSpace instance;
+
+    /** The maximum total size of the temporary files in bytes.*/
+    private final long limit;
+    /** The size reserved by the current temporary files in bytes.*/
+    private long used = 0L;
+
+    /**
+     * @param limit The maximum total size of the temporary files in bytes.
+     */
+    public ScratchSpace(long limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("The limit must be positive, "
+                    + "but was: " + limit);
+        }
+        this.limit = limit;
+    }
+
+    /**
+     * @return The scratch space shared by the jobs in this JVM, with the
+     * limit Constants.SCRATCH_LIMIT.
+     */
+    public static synchronized ScratchSpace getInstance() {
+        if (instance == null) {
+            instance = new ScratchSpace(Constants.SCRATCH_LIMIT);
+        }
+        return instance;
+    }
+
+    /**
+     * Streams the rest of a record into a temporary file. Waits until there
+     * is room for the record within the limit.
+     * @param in The content of the record. The stream is not closed.
+     * @param size The maximum size of the content.
+     * @return The temporary file, or null if the size is larger than the
+     * limit. The file must be closed, when it is no longer used.
+     * @throws IOException If the record cannot be written to the file.
+     */
+    public ScratchFile spill(InputStream in, long size) throws IOException {
+        if (size > limit) {
+            return null;
+        }
+        reserve(size);
+        ScratchFile res = null;
+        try {
+            res = new ScratchFile(File.createTempFile("scratch", null), size);
+            RandomAccessFile raf = new RandomAccessFile(res.getFile(), "rw");
+            try {
+                FileChannel fc = raf.getChannel();
+                ReadableByteChannel channel = Channels.newChannel(in);
+                long position = 0L;
+                long n;
+                // transfer at most the reserved size.
+                while (position < size && (n = fc.transferFrom(channel,
+                        position, size - position)) > 0) {
+                    position += n;
+                }
+            } finally {
+                raf.close();
+            }
+            return res;
+        } catch (IOException e) {
+            if (res != null) {
+                res.close();
+            } else {
+                release(size);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until the size can be reserved within the limit, and reserves
+     * it.
+     */
+    private synchronized void reserve(long size) {
+        while (used + size > limit) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOFailure("Interrupted while waiting for scratch "
+                        + "space.", e);
+            }
+        }
+        used += size;
+    }
+
+    /**
+     * Releases a reserved size, and wakes up the waiting threads.
+     */
+    private synchronized void release(long size) {
+        used -= size;
+        notifyAll();
+    }
+
+    /**
+     * A temporary file in the scratch space.
+     */
+    public class ScratchFile {
+        /** The temporary file.*/
+        private final File file;
+        /** The size reserved for the file.*/
+        private final long size;
+        /** Whether the file has been closed.*/
+        private boolean closed = false;
+
+        private ScratchFile(File file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+
+        /**
+         * @return The temporary file.
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Deletes the temporary file, and releases its space.
+         */
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+            release(size);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package eu.planets.outputHandler;
+
+import java.io.Serializable;
+
+/**
+ * Count-min sketch for estimating the counters of strings in a fixed 
+ * amount of memory.
+ * 
+ * The counters are kept in a table of depth rows and width columns, where
+ * each row has its own hash function. An estimate is the minimum of the 
+ * counters of the key in the rows, thus it is never below the real value,
+ * and with the probability 1 - delta it is at most epsilon times the total
+ * above it, where width = e / epsilon and depth = ln(1 / delta).
+ * Only non-negative values can be added.
+ */
+@SuppressWarnings("serial")
+public class CountMinSketch implements Serializable {
+    /** The relative error of the estimates.*/
+    private final double epsilon;
+    /** The number of columns.*/
+    private final int width;
+    /** The number of rows.*/
+    private final int depth;
+    /** The counters, row by row.*/
+    private final long[] table;
+    /** The total of all the values added.*/
+    private long total = 0L;
+    
+    /**
+     * Constructor.
+     * 
+     * @param epsilon The relative error of the estimates.
+     * @param delta The probability of an estimate exceeding the error.
+     */
+    public CountMinSketch(double epsilon, double delta) {
+	if(epsilon <= 0 || epsilon >= 1 || delta <= 0 || delta >= 1) {
+	    throw new IllegalArgumentException("The error '" + epsilon 
+		    + "' and the probability '" + delta + "' must be "
+		    + "between 0 and 1.");
+	}
+	this.epsilon = epsilon;
+	this.width = (int) Math.ceil(Math.E / epsilon);
+	this.depth = (int) Math.ceil(Math.log(1 / delta));
+	this.table = new long[width * depth];
+    }
+    
+    /**
+     * Adds the value to the counters of the key.
+     * 
+     * @param key The key.
+     * @param value The non-negative value to add.
+     */
+    public void add(String key, long value) {
+	int h1 = mix(key.hashCode());
+	int h2 = mix(h1) | 1;
+	for(int row = 0; row < depth; row++) {
+	    table[row * width + column(h1, h2, row)] += value;
+	}
+	total += value;
+    }
+    
+    /**
+     * Method for estimating the counter of a key.
+     * 
+     * @param key The key.
+     * @return The estimate, which is never below the real counter.
+     */
+    public long estimate(String key) {
+	int h1 = mix(key.hashCode());
+	int h2 = mix(h1) | 1;
+	long res = Long.MAX_VALUE;
+	for(int row = 0; row < depth; row++) {
+	    res = Math.min(res, table[row * width + column(h1, h2, row)]);
+	}
+	return res;
+    }
+    
+    /**
+     * @return The total of all the values added.
+     */
+    public long getTotal() {
+	return total;
+    }
+    
+    /**
+     * @return The error of an estimate, which is exceeded with at most the 
+     * probability delta.
+     */
+    public long getErrorBound() {
+	return (long) Math.ceil(epsilon * total);
+    }
+    
+    /**
+     * Adds all the counters of another sketch to this one. 
+     * 
+     * @param other The other sketch, which must have the same error and 
+     * probability.
+     */
+    public void addAll(CountMinSketch other) {
+	if(other.width != width || other.depth != depth) {
+	    throw new IllegalArgumentException("Cannot add a sketch of " 
+		    + other.depth + "x" + other.width + " to a sketch of " 
+		    + depth + "x" + width + ".");
+	}
+	for(int i = 0; i < table.length; i++) {
+	    table[i] += other.table[i];
+	}
+	total += other.total;
+    }
+    
+    /**
+     * @return The column of a row, by double hashing.
+     */
+    private int column(int h1, int h2, int row) {
+	return ((h1 + row * h2) & Integer.MAX_VALUE) % width;
+    }
+    
+    /**
+     * @return The bits of the hash code mixed, since the string hash codes 
+     * are poor in the low bits.
+     */
+    private static int mix(int h) {
+	h ^= h >>> 16;
+	h *= 0x85EBCA6B;
+	h ^= h >>> 13;
+	h *= 0xC2B2AE35;
+	h ^= h >>> 16;
+	return h;
+    }
+}
@@ -0,0 +1,59 @@
+package eu.planets.outputHandler;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The counters of a single thread for the maps of an output handler.
+ * The counters of a map are found by the identity of the map, thus the 
+ * handlers can count for their static maps without updating them.
+ */
+public class Counters {
+    /** The counting map of this thread for each of the handler maps.*/
+    private final Map<CountingMap, CountingMap> maps = 
+	new IdentityHashMap<CountingMap, CountingMap>();
+    /** The number of entries handled.*/
+    private long entries = 0L;
+    
+    /**
+     * Method for retrieving the counters of a map.
+     * 
+     * @param m The map, which is counted for.
+     * @return The counters of this thread for the map.
+     */
+    public CountingMap get(CountingMap m) {
+	CountingMap res = maps.get(m);
+	if(res == null) {
+	    res = m.newEmpty();
+	    maps.put(m, res);
+	}
+	return res;
+    }
+    
+    /**
+     * Counts an entry as handled.
+     */
+    public void countEntry() {
+	entries++;
+    }
+    
+    /**
+     * @return The number of entries handled.
+     */
+    public long getEntries() {
+	return entries;
+    }
+    
+    /**
+     * Adds all the counters of another thread to these.
+     * 
+     * @param other The counters of the other thread.
+     */
+    public void addAll(Counters other) {
+	entries += other.entries;
+	for(Map.Entry<CountingMap, CountingMap> entry 
+		: other.maps.entrySet()) {
+	    get(entry.getKey()).addAll(entry.getValue());
+	}
+    }
+}
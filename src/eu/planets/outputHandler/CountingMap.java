@@ -0,0 +1,304 @@
+package eu.planets.outputHandler;
+
+import java.io.Serializable;
+
+/**
+ * Map for counting strings, specialised for the output handlers.
+ * The keys and counters are kept in an open-addressing table with linear 
+ * probing, where the counters are primitive longs, thus an increment never
+ * allocates anything. Only the first instance of each key is kept, and it
+ * is returned by increment, so a handler can give the same instance to its 
+ * other maps instead of keeping duplicates of the key.
+ * 
+ * The toString is the same spreadsheet format as HandlerMap.toString.
+ * A null key is counted as the key "null", which is also how HandlerMap
+ * writes it.
+ * 
+ * A counting map can be limited to the top k keys, where the keys and 
+ * counters are summarised in a fixed amount of memory by a TopKSummary. 
+ * The counters are then estimates, and only the top k keys are written.
+ * A counting map of dates can instead count the dates in the buckets of a
+ * DateHistogram, where the keys are the days, months or years.
+ * 
+ * A counting map is not thread safe.
+ */
+@SuppressWarnings("serial")
+public class CountingMap implements Serializable {
+    /** The initial number of slots. Must be a power of two.*/
+    private static final int INITIAL_CAPACITY = 16;
+    /** The golden ratio for spreading the hash codes over the table.*/
+    private static final int PHI = 0x9E3779B9;
+    
+    /** The name of this map.*/
+    private final String name;
+    /** The keys in the table. An empty slot is null.*/
+    private String[] keys;
+    /** The hash codes of the keys in the table.*/
+    private int[] hashes;
+    /** The counters of the keys in the table.*/
+    private long[] counts;
+    /** The number of bits in an index of the table.*/
+    private int bits;
+    /** The number of keys.*/
+    private int size = 0;
+    /** The summary of the top keys, or null if all keys are counted.*/
+    private TopKSummary summary = null;
+    /** The histogram of the dates, or null if the keys are not dates.*/
+    private DateHistogram histogram = null;
+    
+    /**
+     * Constructor.
+     * 
+     * @param name The name of this map.
+     */
+    public CountingMap(String name) {
+	this.name = name;
+	allocate(INITIAL_CAPACITY);
+    }
+    
+    /**
+     * Method for retrieving the name of this map.
+     * 
+     * @return The name of this map.
+     */
+    public String getName() {
+	return name;
+    }
+    
+    /**
+     * Limits this map to the top k keys, with estimated counters.
+     * 
+     * @param k The number of keys.
+     * @param epsilon The relative error of the counters.
+     * @throws IllegalStateException If keys have already been counted.
+     */
+    public void setTopK(int k, double epsilon) {
+	if(!isEmpty()) {
+	    throw new IllegalStateException("The map '" + name + "' must be "
+		    + "empty, before it is limited to the top keys.");
+	}
+	summary = new TopKSummary(k, epsilon);
+    }
+    
+    /**
+     * Counts the keys of this map as dates in buckets of the granularity.
+     * 
+     * @param granularity The granularity of the buckets.
+     * @throws IllegalStateException If keys have already been counted.
+     */
+    public void setDateBuckets(DateHistogram.Granularity granularity) {
+	if(!isEmpty()) {
+	    throw new IllegalStateException("The map '" + name + "' must be "
+		    + "empty, before the dates are put into buckets.");
+	}
+	histogram = new DateHistogram(granularity);
+    }
+    
+    /**
+     * @return An empty map with the same name, and the same limit or 
+     * buckets.
+     */
+    public CountingMap newEmpty() {
+	CountingMap res = new CountingMap(name);
+	if(summary != null) {
+	    res.summary = summary.newEmpty();
+	}
+	if(histogram != null) {
+	    res.histogram = histogram.newEmpty();
+	}
+	return res;
+    }
+    
+    /**
+     * @return The number of keys.
+     */
+    public int size() {
+	if(summary != null) {
+	    return summary.size();
+	}
+	return histogram != null ? histogram.size() : size;
+    }
+    
+    /**
+     * @return Whether no key has been counted.
+     */
+    public boolean isEmpty() {
+	return size() == 0;
+    }
+    
+    /**
+     * Adds the delta to the counter for the key. A new key starts at 0.
+     * 
+     * @param key The key.
+     * @param delta The value to add.
+     * @return The instance of the key kept by this map.
+     */
+    public String increment(String key, long delta) {
+	if(key == null) {
+	    key = "null";
+	}
+	if(summary != null) {
+	    return summary.increment(key, delta);
+	}
+	if(histogram != null) {
+	    histogram.increment(key, delta);
+	    return key;
+	}
+	int hash = key.hashCode();
+	int mask = keys.length - 1;
+	int i = index(hash);
+	String k;
+	while((k = keys[i]) != null) {
+	    if(hashes[i] == hash && (k == key || k.equals(key))) {
+		counts[i] += delta;
+		return k;
+	    }
+	    i = (i + 1) & mask;
+	}
+	keys[i] = key;
+	hashes[i] = hash;
+	counts[i] = delta;
+	size++;
+	// keep the table at most 2/3 full.
+	if(size * 3 > keys.length * 2) {
+	    resize();
+	}
+	return key;
+    }
+    
+    /**
+     * Method for retrieving the counter for a key.
+     * 
+     * @param key The key.
+     * @return The counter, or 0 if the key has not been counted.
+     */
+    public long get(String key) {
+	if(key == null) {
+	    key = "null";
+	}
+	if(summary != null) {
+	    return summary.estimate(key);
+	}
+	if(histogram != null) {
+	    return histogram.get(key);
+	}
+	int hash = key.hashCode();
+	int mask = keys.length - 1;
+	for(int i = index(hash); keys[i] != null; i = (i + 1) & mask) {
+	    if(hashes[i] == hash && keys[i].equals(key)) {
+		return counts[i];
+	    }
+	}
+	return 0L;
+    }
+    
+    /**
+     * Adds all the counters of another counting map to this one.
+     * 
+     * @param other The other counting map. If it is limited to the top 
+     * keys, then this map must be limited in the same way.
+     */
+    public void addAll(CountingMap other) {
+	if(other.summary != null) {
+	    if(summary == null) {
+		throw new IllegalArgumentException("Cannot add the top keys "
+			+ "of '" + other.name + "' to all the keys of '" 
+			+ name + "'.");
+	    }
+	    summary.addAll(other.summary);
+	    return;
+	}
+	if(other.histogram != null) {
+	    if(histogram == null) {
+		throw new IllegalArgumentException("Cannot add the dates of '"
+			+ other.name + "' to the keys of '" + name + "'.");
+	    }
+	    histogram.addAll(other.histogram);
+	    return;
+	}
+	for(int i = 0; i < other.keys.length; i++) {
+	    if(other.keys[i] != null) {
+		increment(other.keys[i], other.counts[i]);
+	    }
+	}
+    }
+    
+    /**
+     * Parses this map into a spreadsheet readable format, which is the same
+     * as HandlerMap.toString.
+     * Two columns separated by semicolon, ';'.
+     * First line contains the name of the map, and an empty second column.
+     * Then each entry in the map is presented, key in first column and value
+     * in second column.
+     * When limited to the top keys, the second column of the first line has
+     * the number of keys and the error bound of the counters, and the 
+     * entries are the top keys with the largest first.
+     * When the keys are dates in buckets, the entries are every bucket from 
+     * the first to the last date.
+     * 
+     * @return The map parsed into a spreadsheet readable format.
+     */
+    public String toString() {
+	StringBuilder res = new StringBuilder();
+	if(summary != null) {
+	    res.append(name + ";" + "top " + summary.size() + ", error at most "
+		    + summary.getErrorBound() + "\n");
+	    summary.appendTo(res);
+	    return res.toString();
+	}
+	if(histogram != null) {
+	    res.append(name + ";" + " " + "\n");
+	    histogram.appendTo(res);
+	    return res.toString();
+	}
+	res.append(name + ";" + " " + "\n");
+	
+	for(int i = 0; i < keys.length; i++) {
+	    if(keys[i] != null) {
+		res.append(keys[i]).append(';').append(counts[i]).append('\n');
+	    }
+	}
+	
+	return res.toString();
+    }
+    
+    /**
+     * @return The slot of the table, where the search for a key with the 
+     * hash code starts.
+     */
+    private int index(int hash) {
+	return (hash * PHI) >>> (32 - bits);
+    }
+    
+    /**
+     * Makes an empty table.
+     */
+    private void allocate(int capacity) {
+	keys = new String[capacity];
+	hashes = new int[capacity];
+	counts = new long[capacity];
+	bits = Integer.numberOfTrailingZeros(capacity);
+    }
+    
+    /**
+     * Doubles the size of the table, and moves the keys into it.
+     */
+    private void resize() {
+	String[] oldKeys = keys;
+	int[] oldHashes = hashes;
+	long[] oldCounts = counts;
+	allocate(keys.length * 2);
+	int mask = keys.length - 1;
+	for(int j = 0; j < oldKeys.length; j++) {
+	    if(oldKeys[j] != null) {
+		int i = index(oldHashes[j]);
+		while(keys[i] != null) {
+		    i = (i + 1) & mask;
+		}
+		keys[i] = oldKeys[j];
+		hashes[i] = oldHashes[j];
+		counts[i] = oldCounts[j];
+	    }
+	}
+    }
+}
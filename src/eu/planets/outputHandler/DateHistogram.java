@@ -0,0 +1,299 @@
+package eu.planets.outputHandler;
+
+import java.io.Serializable;
+import java.util.Calendar;
+
+/**
+ * Histogram of dates in buckets of a day, a month or a year.
+ * 
+ * The dates are the harvest dates of the batch output, e.g. '20080101' or 
+ * the 14-digit '20080101123456', where only the digits of the granularity 
+ * are used. The counters are kept in an array indexed by the number of 
+ * buckets since the epoch (1970), which is grown to cover the buckets 
+ * counted. Dates, which cannot be parsed, are not a day of the calendar or 
+ * are outside the years of web archiving (1990 to next year), are counted 
+ * as unknown, so a bogus date cannot spread the buckets over centuries.
+ */
+@SuppressWarnings("serial")
+public class DateHistogram implements Serializable {
+    /**
+     * The granularities of the buckets.
+     */
+    public enum Granularity {
+	/** A bucket for each day, e.g. '20080101'.*/
+	DAY(8),
+	/** A bucket for each month, e.g. '200801'.*/
+	MONTH(6),
+	/** A bucket for each year, e.g. '2008'.*/
+	YEAR(4);
+	
+	/** The number of digits of the date used for a bucket.*/
+	private final int digits;
+	
+	private Granularity(int digits) {
+	    this.digits = digits;
+	}
+    }
+    
+    /** The key for the dates, which cannot be parsed.*/
+    public static final String UNKNOWN = "unknown";
+    /** The first year of a plausible harvest date.*/
+    private static final int MIN_YEAR = 1990;
+    /** The last year of a plausible harvest date, next year for skewed 
+     * clocks.*/
+    private static final int MAX_YEAR = 
+	    Calendar.getInstance().get(Calendar.YEAR) + 1;
+    /** The number of days in each month of a year, which is not a leap 
+     * year.*/
+    private static final int[] DAYS_IN_MONTH = 
+	    {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+    /** The number of extra buckets, when the array is grown.*/
+    private static final int GROWTH = 32;
+    
+    /** The granularity of the buckets.*/
+    private final Granularity granularity;
+    /** The counters of the buckets, starting at the first bucket.*/
+    private long[] counts = new long[0];
+    /** The bucket of the first counter.*/
+    private int first = 0;
+    /** The lowest and highest bucket counted.*/
+    private int low = Integer.MAX_VALUE;
+    private int high = Integer.MIN_VALUE;
+    /** The counter for the unknown dates.*/
+    private long unknown = 0L;
+    
+    /**
+     * Constructor.
+     * 
+     * @param granularity The granularity of the buckets.
+     */
+    public DateHistogram(Granularity granularity) {
+	this.granularity = granularity;
+    }
+    
+    /**
+     * @return An empty histogram with the same granularity.
+     */
+    public DateHistogram newEmpty() {
+	return new DateHistogram(granularity);
+    }
+    
+    /**
+     * @return The number of buckets from the first to the last date.
+     */
+    public int size() {
+	return high < low ? 0 : high - low + 1;
+    }
+    
+    /**
+     * Adds the value to the counter for the bucket of the date.
+     * 
+     * @param date The date.
+     * @param value The value to add.
+     */
+    public void increment(String date, long value) {
+	int bucket = bucket(date);
+	if(bucket == Integer.MIN_VALUE) {
+	    unknown += value;
+	    return;
+	}
+	ensure(bucket);
+	counts[bucket - first] += value;
+	low = Math.min(low, bucket);
+	high = Math.max(high, bucket);
+    }
+    
+    /**
+     * Method for retrieving the counter for the bucket of a date.
+     * 
+     * @param date The date, or UNKNOWN.
+     * @return The counter of the bucket.
+     */
+    public long get(String date) {
+	int bucket = bucket(date);
+	if(bucket == Integer.MIN_VALUE) {
+	    return UNKNOWN.equals(date) ? unknown : 0L;
+	}
+	if(bucket < first || bucket >= first + counts.length) {
+	    return 0L;
+	}
+	return counts[bucket - first];
+    }
+    
+    /**
+     * Adds all the counters of another histogram to this one.
+     * 
+     * @param other The other histogram, which must have the same 
+     * granularity.
+     */
+    public void addAll(DateHistogram other) {
+	if(other.granularity != granularity) {
+	    throw new IllegalArgumentException("Cannot add a histogram by " 
+		    + other.granularity + " to a histogram by " + granularity);
+	}
+	unknown += other.unknown;
+	if(other.size() == 0) {
+	    return;
+	}
+	ensure(other.low);
+	ensure(other.high);
+	for(int b = other.low; b <= other.high; b++) {
+	    counts[b - first] += other.counts[b - other.first];
+	}
+	low = Math.min(low, other.low);
+	high = Math.max(high, other.high);
+    }
+    
+    /**
+     * Appends every bucket from the first to the last date, also the empty
+     * buckets, and then the unknown dates, in the spreadsheet format of 
+     * HandlerMap.
+     * 
+     * @param res The builder to append to.
+     */
+    public void appendTo(StringBuilder res) {
+	for(int b = low; b <= high; b++) {
+	    appendLabel(res, b);
+	    res.append(';').append(counts[b - first]).append('\n');
+	}
+	if(unknown != 0L) {
+	    res.append(UNKNOWN).append(';').append(unknown).append('\n');
+	}
+    }
+    
+    /**
+     * Grows the array to cover the bucket.
+     */
+    private void ensure(int bucket) {
+	if(counts.length == 0) {
+	    counts = new long[GROWTH];
+	    first = bucket - GROWTH / 2;
+	    return;
+	}
+	if(bucket >= first && bucket < first + counts.length) {
+	    return;
+	}
+	int newFirst = Math.min(first, bucket - GROWTH);
+	int newEnd = Math.max(first + counts.length, bucket + GROWTH);
+	long[] res = new long[newEnd - newFirst];
+	System.arraycopy(counts, 0, res, first - newFirst, counts.length);
+	counts = res;
+	first = newFirst;
+    }
+    
+    /**
+     * @return The bucket of the date since the epoch, or Integer.MIN_VALUE
+     * if the date cannot be parsed.
+     */
+    private int bucket(String date) {
+	if(date == null || date.length() < granularity.digits) {
+	    return Integer.MIN_VALUE;
+	}
+	for(int i = 0; i < granularity.digits; i++) {
+	    char c = date.charAt(i);
+	    if(c < '0' || c > '9') {
+		return Integer.MIN_VALUE;
+	    }
+	}
+	int year = digits(date, 0, 4);
+	if(year < MIN_YEAR || year > MAX_YEAR) {
+	    return Integer.MIN_VALUE;
+	}
+	if(granularity == Granularity.YEAR) {
+	    return year - 1970;
+	}
+	int month = digits(date, 4, 6);
+	if(month < 1 || month > 12) {
+	    return Integer.MIN_VALUE;
+	}
+	if(granularity == Granularity.MONTH) {
+	    return (year - 1970) * 12 + month - 1;
+	}
+	int day = digits(date, 6, 8);
+	if(day < 1 || day > daysInMonth(year, month)) {
+	    return Integer.MIN_VALUE;
+	}
+	return daysFromCivil(year, month, day);
+    }
+    
+    /**
+     * Appends the date of the bucket in the digits of the granularity.
+     */
+    private void appendLabel(StringBuilder res, int bucket) {
+	switch(granularity) {
+	case YEAR:
+	    appendDigits(res, bucket + 1970, 4);
+	    break;
+	case MONTH:
+	    appendDigits(res, floorDiv(bucket, 12) + 1970, 4);
+	    appendDigits(res, bucket - floorDiv(bucket, 12) * 12 + 1, 2);
+	    break;
+	default:
+	    // civil from days, the inverse of daysFromCivil.
+	    int z = bucket + 719468;
+	    int era = floorDiv(z, 146097);
+	    int doe = z - era * 146097;
+	    int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+	    int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+	    int mp = (5 * doy + 2) / 153;
+	    int day = doy - (153 * mp + 2) / 5 + 1;
+	    int month = mp < 10 ? mp + 3 : mp - 9;
+	    int year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+	    appendDigits(res, year, 4);
+	    appendDigits(res, month, 2);
+	    appendDigits(res, day, 2);
+	}
+    }
+    
+    /**
+     * @return The number of days in the month of the year.
+     */
+    private static int daysInMonth(int year, int month) {
+	if(month == 2 && year % 4 == 0 
+		&& (year % 100 != 0 || year % 400 == 0)) {
+	    return 29;
+	}
+	return DAYS_IN_MONTH[month - 1];
+    }
+    
+    /**
+     * @return The number of days since 1970-01-01 of a date in the 
+     * proleptic Gregorian calendar.
+     */
+    private static int daysFromCivil(int year, int month, int day) {
+	int y = month <= 2 ? year - 1 : year;
+	int era = floorDiv(y, 400);
+	int yoe = y - era * 400;
+	int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+	int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+	return era * 146097 + doe - 719468;
+    }
+    
+    /**
+     * @return The quotient rounded towards negative infinity.
+     */
+    private static int floorDiv(int a, int b) {
+	int res = a / b;
+	if((a % b != 0) && ((a < 0) != (b < 0))) {
+	    res--;
+	}
+	return res;
+    }
+    
+    private static int digits(String s, int from, int to) {
+	int res = 0;
+	for(int i = from; i < to; i++) {
+	    res = res * 10 + (s.charAt(i) - '0');
+	}
+	return res;
+    }
+    
+    private static void appendDigits(StringBuilder res, int value, 
+	    int width) {
+	String s = Integer.toString(value);
+	for(int i = s.length(); i < width; i++) {
+	    res.append('0');
+	}
+	res.append(s);
+    }
+}
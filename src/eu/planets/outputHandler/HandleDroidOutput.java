@@ -1,19 +1,25 @@
 package eu.planets.outputHandler;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.LineNumberReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import eu.planets.batchprogs.BinaryResultReader;
+
 /**
  * Class for handling the output file from the Jhove batch jobs, whether it is
  * JhoveArcJob or JhoveBatchJob.
  * 
  * It requires at least two arguments: the output file and an input file. As
  * many input files as wanted can be handled
+ * The arguments can be preceded by the options of HandlerOptions, e.g. for
+ * handling the input files concurrently.
  */
 public class HandleDroidOutput {
     public static final String SEPARATOR = "##";
@@ -24,54 +30,54 @@ public class HandleDroidOutput {
     private static long lineEntryCount = 0;
 
     // Make the maps for each output argument.
-    private static HandlerMap<String, Integer> classificationMap = new HandlerMap<String, Integer>(
+    private static CountingMap classificationMap = new CountingMap(
 	    "classification");
-    private static HandlerMap<String, Integer> hitsMap = new HandlerMap<String, Integer>(
+    private static CountingMap hitsMap = new CountingMap(
 	    "hits");
-    private static HandlerMap<String, Integer> formatMap = new HandlerMap<String, Integer>(
+    private static CountingMap formatMap = new CountingMap(
 	    "format");
-    private static HandlerMap<String, Integer> versionMap = new HandlerMap<String, Integer>(
+    private static CountingMap versionMap = new CountingMap(
 	    "version");
-    private static HandlerMap<String, Integer> mimetypeMap = new HandlerMap<String, Integer>(
+    private static CountingMap mimetypeMap = new CountingMap(
 	    "mimetype");
-    private static HandlerMap<String, Integer> dateMap = new HandlerMap<String, Integer>(
+    private static CountingMap dateMap = new CountingMap(
 	    "date");
 
     // Make other maps
     // Map for correlation between validity and format.
-    private static HandlerMap<String, Integer> positiveHitsMap = new HandlerMap<String, Integer>(
+    private static CountingMap positiveHitsMap = new CountingMap(
 	    "positive-hits");
-    private static HandlerMap<String, Integer> positiveFormatMap = new HandlerMap<String, Integer>(
+    private static CountingMap positiveFormatMap = new CountingMap(
 	    "positive-format");
-    private static HandlerMap<String, Integer> positiveMimetypeMap = new HandlerMap<String, Integer>(
+    private static CountingMap positiveMimetypeMap = new CountingMap(
 	    "positive-mimetype");
-    private static HandlerMap<String, Integer> positiveDateMap = new HandlerMap<String, Integer>(
+    private static CountingMap positiveDateMap = new CountingMap(
 	    "positive-date");
     
     // statictics on tentative hits.
-    private static HandlerMap<String, Integer> tentativeHitsMap = new HandlerMap<String, Integer>(
+    private static CountingMap tentativeHitsMap = new CountingMap(
 	    "tentative-hits");
-    private static HandlerMap<String, Integer> tentativeFormatMap = new HandlerMap<String, Integer>(
+    private static CountingMap tentativeFormatMap = new CountingMap(
 	    "tentative-format");
-    private static HandlerMap<String, Integer> tentativeMimetypeMap = new HandlerMap<String, Integer>(
+    private static CountingMap tentativeMimetypeMap = new CountingMap(
 	    "tentative-mimetype");
-    private static HandlerMap<String, Integer> tentativeDateMap = new HandlerMap<String, Integer>(
+    private static CountingMap tentativeDateMap = new CountingMap(
 	    "tentative-date");
     
     // statistics on not identified stuff
-    private static HandlerMap<String, Integer> unknownMimetypeMap = new HandlerMap<String, Integer>(
+    private static CountingMap unknownMimetypeMap = new CountingMap(
 	    "unknown-mimetype");
-    private static HandlerMap<String, Integer> unknownDateMap = new HandlerMap<String, Integer>(
+    private static CountingMap unknownDateMap = new CountingMap(
 	    "unknown-date");
 
     // statistics on version
-    private static HandlerMap<String, Integer> versionFormatMap = new HandlerMap<String, Integer>(
+    private static CountingMap versionFormatMap = new CountingMap(
 	    "version-format");
-    private static HandlerMap<String, Integer> versionMimetypeMap = new HandlerMap<String, Integer>(
+    private static CountingMap versionMimetypeMap = new CountingMap(
 	    "version-mimetype");
 
     // List for containing the maps.
-    private static List<HandlerMap<String, Integer>> mapList = new ArrayList<HandlerMap<String, Integer>>();
+    private static List<CountingMap> mapList = new ArrayList<CountingMap>();
 
     /**
      * The main method.
@@ -81,17 +87,21 @@ public class HandleDroidOutput {
      */
     public static void main(String... args) {
 	try {
+	    // handle the options
+	    HandlerOptions options = new HandlerOptions(args);
+	    args = options.getArguments();
+
 	    // handle the input arguments
 	    if (args.length < 2) {
 		System.err.println("Please give at least two arguments: "
 			+ "the path to the output file and the batch result "
-			+ " file.");
+			+ " file.\n" + HandlerOptions.usage());
 		System.exit(0);
 	    }
 
 	    // Create the output file and ensure that it does not exist.
 	    outFile = new File(args[0]);
-	    if (outFile.exists()) {
+	    if (outFile.exists() && !options.isIncremental()) {
 		System.err.println("The output file at '" + outFile.getPath()
 			+ "' already exists.");
 		System.exit(0);
@@ -107,7 +117,7 @@ public class HandleDroidOutput {
 	     * outFile.getCanonicalPath() + "'."); System.exit(0); }
 	     */
 	    // initialise the map list.
-	    init();
+	    init(options);
 
 	    // create the list of input files.
 	    inFiles = new ArrayList<File>(args.length - 1);
@@ -130,10 +140,23 @@ public class HandleDroidOutput {
 		inFiles.add(inputFile);
 	    }
 
+	    // fold the input files into the saved aggregates, if incremental.
+	    File stateFile = options.getStateFile(outFile);
+	    HandlerState state = options.isIncremental() 
+		? HandlerState.load(stateFile, HandleDroidOutput.class.getName())
+		: new HandlerState(HandleDroidOutput.class.getName());
+	    inFiles = state.selectNew(inFiles);
+	    state.restore(mapList);
+	    lineEntryCount = state.getEntries();
+
 	    // Handle the input files.
-	    for (File inputFile : inFiles) {
-		handleFile(inputFile);
-	    }
+	    handleFiles(options.getThreads());
+
+	    // save the aggregates for the next incremental run.
+	    state.store(mapList);
+	    state.setEntries(lineEntryCount);
+	    state.markHandled(inFiles);
+	    state.save(stateFile);
 
 	    // write the output.
 	    writeOutput();
@@ -144,7 +167,7 @@ public class HandleDroidOutput {
 	}
     }
 
-    private static void init() {
+    private static void init(HandlerOptions options) {
 	mapList.add(classificationMap);
 	mapList.add(hitsMap);
 	mapList.add(formatMap);
@@ -171,6 +194,18 @@ public class HandleDroidOutput {
 	// other statistics
 	mapList.add(versionFormatMap);
 	mapList.add(versionMimetypeMap);
+
+	// put the dates into buckets, and limit the maps to the top keys, if
+	// requested.
+	List<CountingMap> dateMaps = Arrays.asList(dateMap, positiveDateMap,
+		tentativeDateMap, unknownDateMap);
+	for (CountingMap map : mapList) {
+	    if (dateMaps.contains(map)) {
+		options.configureDates(map);
+	    } else {
+		options.configure(map);
+	    }
+	}
     }
 
     /**
@@ -178,7 +213,7 @@ public class HandleDroidOutput {
      */
     private static void writeOutput() throws IOException {
 	FileWriter fw = new FileWriter(outFile);
-	for(HandlerMap<String, Integer> map : mapList) {
+	for (CountingMap map : mapList) {
 	    fw.append(map.toString());
 	    fw.append('\n');
 	    fw.append('\n');
@@ -187,22 +222,62 @@ public class HandleDroidOutput {
 	fw.close();
     }
 
+    /**
+     * Method for handling the input files. With more than one thread, the
+     * input files are handled concurrently into the counters of each thread,
+     * which are added to the maps at the end.
+     * 
+     * @param threads
+     *            The number of threads.
+     */
+    private static void handleFiles(int threads) throws Exception {
+	if (threads <= 1) {
+	    for (File inputFile : inFiles) {
+		handleFile(inputFile);
+	    }
+	    return;
+	}
+
+	Counters counters = ParallelAggregation.run(inFiles, threads,
+		new ParallelAggregation.FileHandler() {
+		    @Override
+		    public void handleFile(File f) {
+			HandleDroidOutput.handleFile(f);
+		    }
+		});
+
+	lineEntryCount += counters.getEntries();
+	for (CountingMap map : mapList) {
+	    map.addAll(counters.get(map));
+	}
+    }
+
     /**
      * Method for handling a file. Each line in the file is read and handled.
+     * If the file contains the binary output of DroidArcJobBinary, then each
+     * record is handled instead.
      * 
      * @param f
      *            The file to handle.
      */
     private static void handleFile(File f) {
 	try {
-	    FileReader fr = new FileReader(f);
-	    LineNumberReader lnr = new LineNumberReader(fr);
-
-	    String line = lnr.readLine();
+	    InputStream in = ResultInput.open(f);
+	    LineNumberReader lnr = new LineNumberReader(
+		    new InputStreamReader(in));
+	    try {
+		if (BinaryResultReader.isBinary(in)) {
+		    handleBinaryFile(f, in);
+		    return;
+		}
+		String line = lnr.readLine();
 
-	    while (line != null) {
-		handleLine(line);
-		line = lnr.readLine();
+		while (line != null) {
+		    handleLine(line);
+		    line = lnr.readLine();
+		}
+	    } finally {
+		lnr.close();
 	    }
 	} catch (IOException e) {
 	    System.err.println("The file '" + f.getPath()
@@ -210,6 +285,33 @@ public class HandleDroidOutput {
 	}
     }
 
+    /**
+     * Method for handling a file with binary output. Each record in the file
+     * is read and handled, without any parsing of text.
+     * 
+     * @param f
+     *            The file, or the part of it to handle.
+     * @param in
+     *            The stream with the binary output of the file.
+     * @throws IOException
+     *             If the file cannot be read.
+     */
+    private static void handleBinaryFile(File f, InputStream in)
+	    throws IOException {
+	BinaryResultReader reader = ResultInput.openBinary(f, in);
+	try {
+	    while (reader.next()) {
+		handleEntry(reader.getString(0),
+			Long.toString(reader.getNumber(1)),
+			reader.getString(2), reader.getString(3),
+			reader.getString(4),
+			reader.getNumberText(5));
+	    }
+	} finally {
+	    reader.close();
+	}
+    }
+
     /**
      * Method for handling a line. Each of the seven arguments are retrieved and
      * put into their corresponding map.
@@ -231,14 +333,25 @@ public class HandleDroidOutput {
 	    return;
 	}
 
-	lineEntryCount++;
+	handleEntry(lineContent[0], lineContent[1], lineContent[2],
+		lineContent[3], lineContent[4], lineContent[5]);
+    }
+
+    /**
+     * Method for handling the arguments of an entry, either from a line or
+     * from a binary record. Each of the arguments are put into their
+     * corresponding map.
+     */
+    private static void handleEntry(String classification, String hits,
+	    String format, String version, String mimetype, String date) {
+	Counters counters = ParallelAggregation.current();
+	if (counters != null) {
+	    counters.countEntry();
+	} else {
+	    lineEntryCount++;
+	}
 	
-	String classification = lineContent[0];
-	String hits = lineContent[1];
-	String format = lineContent[2];
-	String version = lineContent[3];
-	String mimetype = lineContent[4];
-	String usedDate = lineContent[5];
+	String usedDate = date;
 	if(usedDate.length() > 8) {
 	    usedDate = usedDate.substring(0, 8);
 	}
@@ -248,13 +361,14 @@ public class HandleDroidOutput {
 	    mimetype = "null";
 	}
 	
-	// handle the maps
-	handleMap(classification, classificationMap);
-	handleMap(hits, hitsMap);
-	handleMap(format, formatMap);
-	handleMap(version, versionMap);
-	handleMap(mimetype, mimetypeMap);
-	handleMap(usedDate, dateMap);
+	// handle the maps, and use the kept instances of the keys for the
+	// other maps.
+	classification = handleMap(classification, classificationMap);
+	hits = handleMap(hits, hitsMap);
+	format = handleMap(format, formatMap);
+	version = handleMap(version, versionMap);
+	mimetype = handleMap(mimetype, mimetypeMap);
+	usedDate = handleMap(usedDate, dateMap);
 	
 	if(classification.equalsIgnoreCase("positive")) {
 	    // ??
@@ -281,21 +395,20 @@ public class HandleDroidOutput {
     }
 
     /**
-     * If the map contains the string as a key, then the integer is increased.
-     * Else the key is added to the map.
+     * Increments the count for the string in the map, or in the counters of
+     * the current thread for the map, when handling in parallel.
      * 
      * @param s
      *            The string, which is key in the map.
      * @param m
      *            The map.
+     * @return The instance of the string kept by the map.
      */
-    private static void handleMap(String s, HandlerMap<String, Integer> m) {
-	if (m.containsKey(s)) {
-	    // Extract the integer and increment it and put it back in.
-	    Integer i = m.get(s);
-	    m.put(s, i + 1);
-	} else {
-	    m.put(s, 1);
+    private static String handleMap(String s, CountingMap m) {
+	Counters counters = ParallelAggregation.current();
+	if (counters != null) {
+	    m = counters.get(m);
 	}
+	return m.increment(s, 1L);
     }
 }
@@ -1,11 +1,12 @@
 package eu.planets.outputHandler;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.LineNumberReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -14,6 +15,8 @@ import java.util.List;
  * 
  * It requires at least two arguments: the output file and an input file.
  * As many input files as wanted can be handled
+ * The arguments can be preceded by the options of HandlerOptions, e.g. for
+ * folding the input files into the aggregates of the previous run.
  */
 public class HandleJhoveOutput {
     public static final String SEPARATOR = "##";
@@ -24,33 +27,33 @@ public class HandleJhoveOutput {
     private static long lineEntryCount = 0;
 
     // Make the maps for each output argument.
-    private static HandlerMap<String, Integer> validMap = new HandlerMap<String, Integer>("valid");
-    private static HandlerMap<String, Integer> wellformedMap = new HandlerMap<String, Integer>("wellformed");
-    private static HandlerMap<String, Integer> formatMap = new HandlerMap<String, Integer>("format");
-    private static HandlerMap<String, Integer> versionMap = new HandlerMap<String, Integer>("version");
-    private static HandlerMap<String, Integer> moduleMap = new HandlerMap<String, Integer>("module");
-    private static HandlerMap<String, Integer> mimetypeMap = new HandlerMap<String, Integer>("mimetype");
-    private static HandlerMap<String, Integer> dateMap = new HandlerMap<String, Integer>("date");
+    private static CountingMap validMap = new CountingMap("valid");
+    private static CountingMap wellformedMap = new CountingMap("wellformed");
+    private static CountingMap formatMap = new CountingMap("format");
+    private static CountingMap versionMap = new CountingMap("version");
+    private static CountingMap moduleMap = new CountingMap("module");
+    private static CountingMap mimetypeMap = new CountingMap("mimetype");
+    private static CountingMap dateMap = new CountingMap("date");
     
     // Make other maps
     // Map for correlation between validity and format.
-    private static HandlerMap<String, Integer> validFormatMap = new HandlerMap<String, Integer>("valid-format");
-    private static HandlerMap<String, Integer> validMimetypeMap = new HandlerMap<String, Integer>("valid-mimetype");
-    private static HandlerMap<String, Integer> validModuleMap = new HandlerMap<String, Integer>("valid-module");
-    private static HandlerMap<String, Integer> validDateMap = new HandlerMap<String, Integer>("valid-date");
-    private static HandlerMap<String, Integer> validWellformedMap = new HandlerMap<String, Integer>("valid-wellformed");
-    private static HandlerMap<String, Integer> wellformedFormatMap = new HandlerMap<String, Integer>("wellformed-format");
-    private static HandlerMap<String, Integer> wellformedMimetypeMap = new HandlerMap<String, Integer>("wellformed-mimetype");
-    private static HandlerMap<String, Integer> wellformedModuleMap = new HandlerMap<String, Integer>("wellformed-module");
-    private static HandlerMap<String, Integer> wellformedDateMap = new HandlerMap<String, Integer>("wellformed-date");
-    private static HandlerMap<String, Integer> wellformedValidMap = new HandlerMap<String, Integer>("wellformed-valid");
+    private static CountingMap validFormatMap = new CountingMap("valid-format");
+    private static CountingMap validMimetypeMap = new CountingMap("valid-mimetype");
+    private static CountingMap validModuleMap = new CountingMap("valid-module");
+    private static CountingMap validDateMap = new CountingMap("valid-date");
+    private static CountingMap validWellformedMap = new CountingMap("valid-wellformed");
+    private static CountingMap wellformedFormatMap = new CountingMap("wellformed-format");
+    private static CountingMap wellformedMimetypeMap = new CountingMap("wellformed-mimetype");
+    private static CountingMap wellformedModuleMap = new CountingMap("wellformed-module");
+    private static CountingMap wellformedDateMap = new CountingMap("wellformed-date");
+    private static CountingMap wellformedValidMap = new CountingMap("wellformed-valid");
     
     // map for statistics on not-handled stuff.
-    private static HandlerMap<String, Integer> invalidMimetypeMap = new HandlerMap<String, Integer>("invalid-mimetype");
-    private static HandlerMap<String, Integer> unhandledMimetypeMap = new HandlerMap<String, Integer>("unhandled-mimetype");
+    private static CountingMap invalidMimetypeMap = new CountingMap("invalid-mimetype");
+    private static CountingMap unhandledMimetypeMap = new CountingMap("unhandled-mimetype");
     
     // List for containing the maps.
-    private static List<HandlerMap<String, Integer>> mapList = new ArrayList<HandlerMap<String, Integer>>();
+    private static List<CountingMap> mapList = new ArrayList<CountingMap>();
     
     /**
      * The main method.
@@ -59,24 +62,28 @@ public class HandleJhoveOutput {
      */
     public static void main(String ... args) {
 	try {
+	    // handle the options
+	    HandlerOptions options = new HandlerOptions(args);
+	    args = options.getArguments();
+	    
 	    // handle the input arguments
 	    if(args.length < 2) {
 		System.err.println("Please give at least two arguments: "
 			+ "the path to the output file and the batch result "
-			+ " file.");
+			+ " file.\n" + HandlerOptions.usage());
 		System.exit(0);
 	    }
 
 	    // Create the output file and ensure that it does not exist.
 	    outFile = new File(args[0]);
-	    if(outFile.exists()) {
+	    if(outFile.exists() && !options.isIncremental()) {
 		System.err.println("The output file at '" + outFile.getPath() 
 			+ "' already exists.");
 		System.exit(0);
 	    }
 	    
 	    // Create the file and ensure that it is writable.
-	    if(!outFile.createNewFile()) {
+	    if(!outFile.exists() && !outFile.createNewFile()) {
 		System.err.println("Could not create the output file at '"
 			+ outFile.getCanonicalPath() + "'.");
 		System.exit(0);
@@ -88,7 +95,7 @@ public class HandleJhoveOutput {
 	    }
 
 	    // initialise the map list.
-	    init();
+	    init(options);
 
 	    // create the list of input files.
 	    inFiles = new ArrayList<File>(args.length - 1);
@@ -111,10 +118,24 @@ public class HandleJhoveOutput {
 		inFiles.add(inputFile);
 	    }
 	    
+	    // fold the input files into the saved aggregates, if incremental.
+	    File stateFile = options.getStateFile(outFile);
+	    HandlerState state = options.isIncremental() 
+		    ? HandlerState.load(stateFile, 
+			    HandleJhoveOutput.class.getName())
+		    : new HandlerState(HandleJhoveOutput.class.getName());
+	    inFiles = state.selectNew(inFiles);
+	    state.restore(mapList);
+	    lineEntryCount = state.getEntries();
+	    
 	    // Handle the input files.
-	    for(File inputFile : inFiles) {
-		handleFile(inputFile);
-	    }
+	    handleFiles(options.getThreads());
+	    
+	    // save the aggregates for the next incremental run.
+	    state.store(mapList);
+	    state.setEntries(lineEntryCount);
+	    state.markHandled(inFiles);
+	    state.save(stateFile);
 
 	    // write the output.
 	    writeOutput();
@@ -125,7 +146,7 @@ public class HandleJhoveOutput {
 	}
     }
     
-    private static void init() {
+    private static void init(HandlerOptions options) {
 	    mapList.add(validMap);
 	    mapList.add(wellformedMap);
 	    mapList.add(formatMap);
@@ -146,6 +167,18 @@ public class HandleJhoveOutput {
 	    
 	    mapList.add(invalidMimetypeMap);
 	    mapList.add(unhandledMimetypeMap);
+
+	    // put the dates into buckets, and limit the maps to the top keys, if
+	    // requested.
+	    List<CountingMap> dateMaps = Arrays.asList(dateMap, validDateMap, 
+		    wellformedDateMap);
+	    for(CountingMap map : mapList) {
+		if(dateMaps.contains(map)) {
+		    options.configureDates(map);
+		} else {
+		    options.configure(map);
+		}
+	    }
     }
     
     /**
@@ -153,7 +186,7 @@ public class HandleJhoveOutput {
      */
     private static void writeOutput() throws IOException {
 	FileWriter fw = new FileWriter(outFile);
-	for(HandlerMap<String, Integer> map : mapList) {
+	for(CountingMap map : mapList) {
 	    fw.append(map.toString());
 	    fw.append('\n');
 	    fw.append('\n');
@@ -162,6 +195,36 @@ public class HandleJhoveOutput {
 	fw.close();
     }
     
+    /**
+     * Method for handling the input files.
+     * With more than one thread, the input files are handled concurrently 
+     * into the counters of each thread, which are added to the maps at the 
+     * end.
+     * 
+     * @param threads The number of threads.
+     */
+    private static void handleFiles(int threads) throws Exception {
+	if(threads <= 1) {
+	    for(File inputFile : inFiles) {
+		handleFile(inputFile);
+	    }
+	    return;
+	}
+	
+	Counters counters = ParallelAggregation.run(inFiles, threads, 
+		new ParallelAggregation.FileHandler() {
+	    @Override
+	    public void handleFile(File f) {
+		HandleJhoveOutput.handleFile(f);
+	    }
+	});
+	
+	lineEntryCount += counters.getEntries();
+	for(CountingMap map : mapList) {
+	    map.addAll(counters.get(map));
+	}
+    }
+    
     /**
      * Method for handling a file.
      * Each line in the file is read and handled. 
@@ -170,16 +233,18 @@ public class HandleJhoveOutput {
      */
     private static void handleFile(File f) {
 	try {
-	    FileReader fr = new FileReader(f);
-	    LineNumberReader lnr = new LineNumberReader(fr);
-	    
-	    String line = lnr.readLine();
-	    
-	    while(line != null) {
-		handleLine(line);
-		line = lnr.readLine();
+	    LineNumberReader lnr = new LineNumberReader(
+		    new InputStreamReader(ResultInput.open(f)));
+	    try {
+		String line = lnr.readLine();
+
+		while(line != null) {
+		    handleLine(line);
+		    line = lnr.readLine();
+		}
+	    } finally {
+		lnr.close();
 	    }
-	    	    
 	} catch (IOException e) {
 	    System.err.println("The file '" + f.getPath() 
 		    + "' could not be handled.");
@@ -202,7 +267,12 @@ public class HandleJhoveOutput {
 	    return;
 	}
 	
-	lineEntryCount++;
+	Counters counters = ParallelAggregation.current();
+	if(counters != null) {
+	    counters.countEntry();
+	} else {
+	    lineEntryCount++;
+	}
 	
 	// extract the arguments from the line.
 	String valid = lineContent[0];
@@ -218,14 +288,15 @@ public class HandleJhoveOutput {
 	    usedDate = usedDate.substring(0, 8);
 	}
 	
-	// extract the data and put it into relative maps.
-	handleMap(valid, validMap);
-	handleMap(wellformed, wellformedMap);
-	handleMap(format, formatMap);
-	handleMap(version, versionMap);
-	handleMap(module, moduleMap);
-	handleMap(mimetype, mimetypeMap);
-	handleMap(usedDate, dateMap);
+	// extract the data and put it into relative maps, and use the kept
+	// instances of the keys for the other maps.
+	valid = handleMap(valid, validMap);
+	wellformed = handleMap(wellformed, wellformedMap);
+	format = handleMap(format, formatMap);
+	version = handleMap(version, versionMap);
+	module = handleMap(module, moduleMap);
+	mimetype = handleMap(mimetype, mimetypeMap);
+	usedDate = handleMap(usedDate, dateMap);
 	
 	// -----------------------
 	// Handle other maps
@@ -254,19 +325,18 @@ public class HandleJhoveOutput {
     }
     
     /**
-     * If the map contains the string as a key, then the integer is increased.
-     * Else the key is added to the map.
+     * Increments the count for the string in the map, or in the counters of
+     * the current thread for the map, when handling in parallel.
      * 
      * @param s The string, which is key in the map.
      * @param m The map.
+     * @return The instance of the string kept by the map.
      */
-    private static void handleMap(String s, HandlerMap<String, Integer> m) {
-	if(m.containsKey(s)) {
-	    // Extract the integer and increment it and put it back in.
-	    Integer i = m.get(s);
-	    m.put(s, i + 1);
-	} else {
-	    m.put(s, 1);
+    private static String handleMap(String s, CountingMap m) {
+	Counters counters = ParallelAggregation.current();
+	if(counters != null) {
+	    m = counters.get(m);
 	}
+	return m.increment(s, 1L);
     }
 }
@@ -1,19 +1,25 @@
 package eu.planets.outputHandler;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.LineNumberReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import eu.planets.batchprogs.BinaryResultReader;
+
 /**
  * Class for handling the output file from the Jhove batch jobs,
  * whether it is JhoveArcJob or JhoveBatchJob.
  * 
  * It requires at least two arguments: the output file and an input file.
  * As many input files as wanted can be handled
+ * The arguments can be preceded by the options of HandlerOptions, e.g. for
+ * handling the input files concurrently.
  */
 public class HandleJhoveOutput2 {
     public static final String SEPARATOR = "##";
@@ -24,35 +30,39 @@ public class HandleJhoveOutput2 {
     private static long lineEntryCount = 0;
 
     // Make the maps for each output argument.
-    private static HandlerMap<String, Integer> validMap = new HandlerMap<String, Integer>("valid");
-    private static HandlerMap<String, Integer> wellformedMap = new HandlerMap<String, Integer>("wellformed");
-    private static HandlerMap<String, Integer> moduleMap = new HandlerMap<String, Integer>("module");
-    private static HandlerMap<String, Integer> jhoveMimetypeMap = new HandlerMap<String, Integer>("jhove-mimetype");
-    private static HandlerMap<String, Integer> heritrixMimetypeMap = new HandlerMap<String, Integer>("heritrix-mimetype");
-    private static HandlerMap<Integer, Long> sizeMap = new HandlerMap<Integer, Long>("size");
-    private static HandlerMap<String, Integer> dateMap = new HandlerMap<String, Integer>("date");
+    private static CountingMap validMap = new CountingMap("valid");
+    private static CountingMap wellformedMap = new CountingMap("wellformed");
+    private static CountingMap moduleMap = new CountingMap("module");
+    private static CountingMap jhoveMimetypeMap = new CountingMap("jhove-mimetype");
+    private static CountingMap heritrixMimetypeMap = new CountingMap("heritrix-mimetype");
+    // The size map has the number of entries and their total size, which 
+    // is counted in the size total map.
+    private static CountingMap sizeMap = new CountingMap("size");
+    private static CountingMap sizeTotalMap = new CountingMap("size-total");
+    private static final String SIZE_TOTAL = "total";
+    private static CountingMap dateMap = new CountingMap("date");
     
     // Make other maps
     // Map for correlation between validity and format.
-    private static HandlerMap<String, Integer> validJhoveMimetypeMap = new HandlerMap<String, Integer>("valid-Jhove-mimetype");
-    private static HandlerMap<String, Integer> validHeritrixMimetypeMap = new HandlerMap<String, Integer>("valid-Heritrix-mimetype");
-    private static HandlerMap<String, Integer> validModuleMap = new HandlerMap<String, Integer>("valid-module");
-    private static HandlerMap<String, Integer> validDateMap = new HandlerMap<String, Integer>("valid-date");
-    private static HandlerMap<String, Integer> validWellformedMap = new HandlerMap<String, Integer>("valid-wellformed");
-    private static HandlerMap<String, Integer> wellformedJhoveMimetypeMap = new HandlerMap<String, Integer>("wellformed-Jhove-mimetype");
-    private static HandlerMap<String, Integer> wellformedHeritrixMimetypeMap = new HandlerMap<String, Integer>("wellformed-Heritrix-mimetype");
-    private static HandlerMap<String, Integer> wellformedModuleMap = new HandlerMap<String, Integer>("wellformed-module");
-    private static HandlerMap<String, Integer> wellformedDateMap = new HandlerMap<String, Integer>("wellformed-date");
-    private static HandlerMap<String, Integer> wellformedValidMap = new HandlerMap<String, Integer>("wellformed-valid");
+    private static CountingMap validJhoveMimetypeMap = new CountingMap("valid-Jhove-mimetype");
+    private static CountingMap validHeritrixMimetypeMap = new CountingMap("valid-Heritrix-mimetype");
+    private static CountingMap validModuleMap = new CountingMap("valid-module");
+    private static CountingMap validDateMap = new CountingMap("valid-date");
+    private static CountingMap validWellformedMap = new CountingMap("valid-wellformed");
+    private static CountingMap wellformedJhoveMimetypeMap = new CountingMap("wellformed-Jhove-mimetype");
+    private static CountingMap wellformedHeritrixMimetypeMap = new CountingMap("wellformed-Heritrix-mimetype");
+    private static CountingMap wellformedModuleMap = new CountingMap("wellformed-module");
+    private static CountingMap wellformedDateMap = new CountingMap("wellformed-date");
+    private static CountingMap wellformedValidMap = new CountingMap("wellformed-valid");
     
-    private static HandlerMap<String, Long> sizeHeritrixMimetypeMap = new HandlerMap<String, Long>("heritrixMimetype-size");
-    private static HandlerMap<String, Long> sizeDateMap = new HandlerMap<String, Long>("date-size");
+    private static CountingMap sizeHeritrixMimetypeMap = new CountingMap("heritrixMimetype-size");
+    private static CountingMap sizeDateMap = new CountingMap("date-size");
     
     // map for statistics on not-handled stuff.
-    private static HandlerMap<String, Integer> mimetypeCorrelationMap = new HandlerMap<String, Integer>("mimetype_jhove-heritrix");
+    private static CountingMap mimetypeCorrelationMap = new CountingMap("mimetype_jhove-heritrix");
     
     // List for containing the maps.
-    private static List<HandlerMap> mapList = new ArrayList<HandlerMap>();
+    private static List<CountingMap> mapList = new ArrayList<CountingMap>();
     
     /**
      * The main method.
@@ -61,24 +71,28 @@ public class HandleJhoveOutput2 {
      */
     public static void main(String ... args) {
 	try {
+	    // handle the options
+	    HandlerOptions options = new HandlerOptions(args);
+	    args = options.getArguments();
+	    
 	    // handle the input arguments
 	    if(args.length < 2) {
 		System.err.println("Please give at least two arguments: "
 			+ "the path to the output file and the batch result "
-			+ " file.");
+			+ " file.\n" + HandlerOptions.usage());
 		System.exit(0);
 	    }
 
 	    // Create the output file and ensure that it does not exist.
 	    outFile = new File(args[0]);
-	    if(outFile.exists()) {
+	    if(outFile.exists() && !options.isIncremental()) {
 		System.err.println("The output file at '" + outFile.getPath() 
 			+ "' already exists.");
 		System.exit(0);
 	    }
 	    
 	    // Create the file and ensure that it is writable.
-	    if(!outFile.createNewFile()) {
+	    if(!outFile.exists() && !outFile.createNewFile()) {
 		System.err.println("Could not create the output file at '"
 			+ outFile.getCanonicalPath() + "'.");
 		System.exit(0);
@@ -90,7 +104,7 @@ public class HandleJhoveOutput2 {
 	    }
 
 	    // initialise the map list.
-	    init();
+	    init(options);
 
 	    // create the list of input files.
 	    inFiles = new ArrayList<File>(args.length - 1);
@@ -113,9 +127,33 @@ public class HandleJhoveOutput2 {
 		inFiles.add(inputFile);
 	    }
 	    
+	    // fold the input files into the saved aggregates, if incremental.
+	    // The size map is not saved, since it is made from the number of 
+	    // entries and the size total.
+	    List<CountingMap> stateMaps = new ArrayList<CountingMap>(mapList);
+	    stateMaps.remove(sizeMap);
+	    stateMaps.add(sizeTotalMap);
+	    File stateFile = options.getStateFile(outFile);
+	    HandlerState state = options.isIncremental() 
+		    ? HandlerState.load(stateFile, 
+			    HandleJhoveOutput2.class.getName())
+		    : new HandlerState(HandleJhoveOutput2.class.getName());
+	    inFiles = state.selectNew(inFiles);
+	    state.restore(stateMaps);
+	    lineEntryCount = state.getEntries();
+	    
 	    // Handle the input files.
-	    for(File inputFile : inFiles) {
-		handleFile(inputFile);
+	    handleFiles(options.getThreads());
+	    
+	    // save the aggregates for the next incremental run.
+	    state.store(stateMaps);
+	    state.setEntries(lineEntryCount);
+	    state.markHandled(inFiles);
+	    state.save(stateFile);
+	    
+	    if(lineEntryCount > 0) {
+		sizeMap.increment(Long.toString(lineEntryCount), 
+			sizeTotalMap.get(SIZE_TOTAL));
 	    }
 
 	    // write the output.
@@ -127,7 +165,7 @@ public class HandleJhoveOutput2 {
 	}
     }
     
-    private static void init() {
+    private static void init(HandlerOptions options) {
 	    mapList.add(validMap);
 	    mapList.add(wellformedMap);
 	    mapList.add(moduleMap);
@@ -150,6 +188,18 @@ public class HandleJhoveOutput2 {
 	    mapList.add(sizeDateMap);
 	    
 	    mapList.add(mimetypeCorrelationMap);
+
+	    // put the dates into buckets, and limit the maps to the top keys, if
+	    // requested.
+	    List<CountingMap> dateMaps = Arrays.asList(dateMap, validDateMap, 
+		    wellformedDateMap, sizeDateMap);
+	    for(CountingMap map : mapList) {
+		if(dateMaps.contains(map)) {
+		    options.configureDates(map);
+		} else {
+		    options.configure(map);
+		}
+	    }
     }
     
     /**
@@ -157,7 +207,7 @@ public class HandleJhoveOutput2 {
      */
     private static void writeOutput() throws IOException {
 	FileWriter fw = new FileWriter(outFile);
-	for(HandlerMap<String, Integer> map : mapList) {
+	for(CountingMap map : mapList) {
 	    fw.append(map.toString());
 	    fw.append('\n');
 	    fw.append('\n');
@@ -166,36 +216,100 @@ public class HandleJhoveOutput2 {
 	fw.close();
     }
     
+    /**
+     * Method for handling the input files.
+     * With more than one thread, the input files are handled concurrently 
+     * into the counters of each thread, which are added to the maps at the 
+     * end.
+     * 
+     * @param threads The number of threads.
+     */
+    private static void handleFiles(int threads) throws Exception {
+	if(threads <= 1) {
+	    for(File inputFile : inFiles) {
+		handleFile(inputFile);
+	    }
+	    return;
+	}
+	
+	Counters counters = ParallelAggregation.run(inFiles, threads, 
+		new ParallelAggregation.FileHandler() {
+	    @Override
+	    public void handleFile(File f) {
+		HandleJhoveOutput2.handleFile(f);
+	    }
+	});
+	
+	lineEntryCount += counters.getEntries();
+	for(CountingMap map : mapList) {
+	    map.addAll(counters.get(map));
+	}
+	sizeTotalMap.addAll(counters.get(sizeTotalMap));
+    }
+    
     /**
      * Method for handling a file.
      * Each line in the file is read and handled. 
+     * If the file contains the binary output of JhoveArcJob2Binary, then
+     * each record is handled instead.
      * 
      * @param f The file to handle.
      */
     private static void handleFile(File f) {
 	try {
-	    FileReader fr = new FileReader(f);
-	    LineNumberReader lnr = new LineNumberReader(fr);
-	    
-	    String line = lnr.readLine();
-	    
-	    while(line != null) {
-	        try {
-	            handleLine(line);
-	        } catch (Throwable e) {
-	            System.err.println("Bad line: \n" + line 
-	                    + "\n Gave error:\n" + e.getMessage());
-	            e.printStackTrace();
-	        }
-		line = lnr.readLine();
+	    InputStream in = ResultInput.open(f);
+	    LineNumberReader lnr = new LineNumberReader(
+		    new InputStreamReader(in));
+	    try {
+		if(BinaryResultReader.isBinary(in)) {
+		    handleBinaryFile(f, in);
+		    return;
+		}
+		String line = lnr.readLine();
+
+		while(line != null) {
+		    try {
+			handleLine(line);
+		    } catch (Throwable e) {
+			System.err.println("Bad line: \n" + line 
+				+ "\n Gave error:\n" + e.getMessage());
+			e.printStackTrace();
+		    }
+		    line = lnr.readLine();
+		}
+	    } finally {
+		lnr.close();
 	    }
-	    	    
 	} catch (IOException e) {
 	    System.err.println("The file '" + f.getPath() 
 		    + "' could not be handled.");
 	}
     }
     
+    /**
+     * Method for handling a file with binary output.
+     * Each record in the file is read and handled, without any parsing of
+     * text.
+     * 
+     * @param f The file, or the part of it to handle.
+     * @param in The stream with the binary output of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    private static void handleBinaryFile(File f, InputStream in) 
+	    throws IOException {
+	BinaryResultReader reader = ResultInput.openBinary(f, in);
+	try {
+	    while(reader.next()) {
+		handleEntry(reader.getString(0), reader.getString(1), 
+			reader.getString(2), reader.getString(3), 
+			reader.getString(4), reader.getNumber(5), 
+			usedDate(reader.getNumberText(6)));
+	    }
+	} finally {
+	    reader.close();
+	}
+    }
+    
     /**
      * Method for handling a line.
      * Each of the seven arguments are retrieved and put into their 
@@ -212,30 +326,50 @@ public class HandleJhoveOutput2 {
 	    return;
 	}
 	
-	lineEntryCount++;
-	
 	// extract the arguments from the line.
-	String valid = lineContent[0];
-	String wellformed = lineContent[1];
-	String module = lineContent[2];
-	String jhoveMimetype = lineContent[3];
-	String heritrixMimetype = lineContent[4];
-	String size = lineContent[5];
-	// retrieve only the year, month and day part of the date (ignore the
-	// hour and minute etc.).
-	String usedDate = lineContent[6];
-	if(usedDate.length() > 8) {
-	    usedDate = usedDate.substring(0, 8);
+	handleEntry(lineContent[0], lineContent[1], lineContent[2], 
+		lineContent[3], lineContent[4], Long.parseLong(lineContent[5]), 
+		usedDate(lineContent[6]));
+    }
+    
+    /**
+     * Retrieves only the year, month and day part of the date (ignore the
+     * hour and minute etc.).
+     * 
+     * @param date The date from the output.
+     * @return The used part of the date.
+     */
+    private static String usedDate(String date) {
+	if(date.length() > 8) {
+	    return date.substring(0, 8);
+	}
+	return date;
+    }
+    
+    /**
+     * Method for handling the arguments of an entry, either from a line or
+     * from a binary record.
+     * Each of the seven arguments are put into their corresponding map.
+     */
+    private static void handleEntry(String valid, String wellformed, 
+	    String module, String jhoveMimetype, String heritrixMimetype, 
+	    long size, String usedDate) {
+	Counters counters = ParallelAggregation.current();
+	if(counters != null) {
+	    counters.countEntry();
+	} else {
+	    lineEntryCount++;
 	}
 	
-	// extract the data and put it into relative maps.
-	handleMap(valid, validMap);
-	handleMap(wellformed, wellformedMap);
-	handleMap(module, moduleMap);
-        handleMap(jhoveMimetype, jhoveMimetypeMap);
-	handleMap(heritrixMimetype, heritrixMimetypeMap);
-	handleMap(Long.parseLong(size), sizeMap);
-	handleMap(usedDate, dateMap);
+	// extract the data and put it into relative maps, and use the kept
+	// instances of the keys for the other maps.
+	valid = handleMap(valid, validMap);
+	wellformed = handleMap(wellformed, wellformedMap);
+	module = handleMap(module, moduleMap);
+        jhoveMimetype = handleMap(jhoveMimetype, jhoveMimetypeMap);
+	heritrixMimetype = handleMap(heritrixMimetype, heritrixMimetypeMap);
+	handleMap(SIZE_TOTAL, size, sizeTotalMap);
+	usedDate = handleMap(usedDate, dateMap);
 	
 	// -----------------------
 	// Handle other maps
@@ -259,8 +393,8 @@ public class HandleJhoveOutput2 {
 	}
 	
 	// handle size
-	handleMap(heritrixMimetype, Long.parseLong(size), sizeHeritrixMimetypeMap);
-	handleMap(usedDate, Long.parseLong(size), sizeDateMap);
+	handleMap(heritrixMimetype, size, sizeHeritrixMimetypeMap);
+	handleMap(usedDate, size, sizeDateMap);
 
 	if(!jhoveMimetype.equalsIgnoreCase("null")) {
 	    handleMap(jhoveMimetype + " : " + heritrixMimetype, mimetypeCorrelationMap);	    
@@ -269,45 +403,31 @@ public class HandleJhoveOutput2 {
     }
     
     /**
-     * If the map contains the string as a key, then the integer is increased.
-     * Else the key is added to the map.
+     * Increments the count for the string in the map, or in the counters of
+     * the current thread for the map, when handling in parallel.
      * 
      * @param s The string, which is key in the map.
      * @param m The map.
+     * @return The instance of the string kept by the map.
      */
-    private static void handleMap(String s, HandlerMap<String, Integer> m) {
-	if(m.containsKey(s)) {
-	    // Extract the integer and increment it and put it back in.
-	    Integer i = m.get(s);
-	    m.put(s, i + 1);
-	} else {
-	    m.put(s, 1);
-	}
-    }
-    
-    private static void handleMap(Long l, HandlerMap<Integer, Long> m) {
-        if(m.isEmpty()) {
-            m.put(1, l);
-        } else {
-            boolean first = true;
-            for(Integer i : m.keySet()) {
-                if(!first) {
-                    first = false;
-                    continue;
-                }
-                Long res = m.remove(i);
-                m.put(i+1, res+l);
-            }
-        }
+    private static String handleMap(String s, CountingMap m) {
+	return handleMap(s, 1L, m);
     }
     
-    private static void handleMap(String s, Long l, 
-            HandlerMap<String, Long> m) {
-        if(m.containsKey(s)) {
-            Long res = m.get(s);
-            m.put(s, res + l);
-        } else {
-            m.put(s, l);
+    /**
+     * Adds the value to the total for the string in the map, or in the 
+     * counters of the current thread for the map, when handling in parallel.
+     * 
+     * @param s The string, which is key in the map.
+     * @param l The value to add.
+     * @param m The map.
+     * @return The instance of the string kept by the map.
+     */
+    private static String handleMap(String s, long l, CountingMap m) {
+        Counters counters = ParallelAggregation.current();
+        if(counters != null) {
+            m = counters.get(m);
         }
+        return m.increment(s, l);
     }
 }
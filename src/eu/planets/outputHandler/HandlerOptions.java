@@ -0,0 +1,231 @@
+package eu.planets.outputHandler;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Class for the options of the output handlers.
+ * The options are given before the other arguments, e.g.:
+ * <br/> "--threads=4 output.csv result1 result2"
+ * <br/>
+ * <br/> The options are:
+ * <br/> --threads=N : The number of input files handled concurrently.
+ * Default is 1, where the input files are handled one at the time.
+ * <br/> --top=K : Only keep the top K keys of each map, in a fixed amount 
+ * of memory. The counters are then estimates. Default is all keys.
+ * <br/> --error=E : The relative error of the estimated counters for the
+ * top keys, e.g. 0.001 for at most 0.1% of the total of a map.
+ * <br/> --dates=day|month|year : Count the dates in buckets of a day, a 
+ * month or a year, instead of as keys. The top keys do not apply to the 
+ * dates then.
+ * <br/> --incremental : Fold the input files into the aggregates saved by 
+ * the previous run, instead of making the aggregates from scratch. The 
+ * input files, which have already been handled, are skipped. 
+ * <br/> --state=FILE : The file for the saved aggregates. Default is the 
+ * output file with the suffix '.state'.
+ */
+public class HandlerOptions {
+    /** The option for the number of threads.*/
+    public static final String THREADS_OPTION = "--threads=";
+    /** The option for the number of top keys.*/
+    public static final String TOP_OPTION = "--top=";
+    /** The option for the error of the top keys.*/
+    public static final String ERROR_OPTION = "--error=";
+    /** The default error of the top keys.*/
+    public static final double DEFAULT_ERROR = 0.001;
+    /** The option for the buckets of the dates.*/
+    public static final String DATES_OPTION = "--dates=";
+    /** The option for the incremental mode.*/
+    public static final String INCREMENTAL_OPTION = "--incremental";
+    /** The option for the state file.*/
+    public static final String STATE_OPTION = "--state=";
+    
+    /** The number of threads.*/
+    private int threads = 1;
+    /** The number of top keys, or 0 for all keys.*/
+    private int top = 0;
+    /** The error of the top keys.*/
+    private double error = DEFAULT_ERROR;
+    /** The granularity of the dates, or null if not in buckets.*/
+    private DateHistogram.Granularity dates = null;
+    /** Whether the input files are folded into the saved aggregates.*/
+    private boolean incremental = false;
+    /** The state file, or null for the default.*/
+    private File stateFile = null;
+    /** The arguments after the options.*/
+    private String[] arguments;
+    
+    /**
+     * Constructor.
+     * 
+     * @param args The arguments for the handler, starting with the options.
+     * @throws IllegalArgumentException If an option is unknown or has a bad
+     * value.
+     */
+    public HandlerOptions(String ... args) {
+	int i = 0;
+	for(; i < args.length && args[i].startsWith("--"); i++) {
+	    String option = args[i];
+	    if(option.startsWith(THREADS_OPTION)) {
+		threads = parsePositive(option, THREADS_OPTION);
+	    } else if(option.startsWith(TOP_OPTION)) {
+		top = parsePositive(option, TOP_OPTION);
+	    } else if(option.startsWith(ERROR_OPTION)) {
+		error = parseFraction(option, ERROR_OPTION);
+	    } else if(option.startsWith(DATES_OPTION)) {
+		dates = parseGranularity(option, DATES_OPTION);
+	    } else if(option.equals(INCREMENTAL_OPTION)) {
+		incremental = true;
+	    } else if(option.startsWith(STATE_OPTION) 
+		    && option.length() > STATE_OPTION.length()) {
+		stateFile = new File(option.substring(STATE_OPTION.length()));
+	    } else {
+		throw new IllegalArgumentException("Unknown option '" + option
+			+ "'.");
+	    }
+	}
+	arguments = Arrays.copyOfRange(args, i, args.length);
+    }
+    
+    /**
+     * Method for retrieving the number of threads.
+     * 
+     * @return The number of input files handled concurrently.
+     */
+    public int getThreads() {
+	return threads;
+    }
+    
+    /**
+     * @return Whether the input files are folded into the saved aggregates.
+     */
+    public boolean isIncremental() {
+	return incremental;
+    }
+    
+    /**
+     * @return Whether the state file is given.
+     */
+    public boolean hasStateFile() {
+	return stateFile != null;
+    }
+    
+    /**
+     * Method for retrieving the state file for the saved aggregates.
+     * 
+     * @param outFile The output file of the handler, or null if it has none.
+     * @return The state file.
+     * @throws IllegalArgumentException If the handler has no output file, 
+     * and the state file is not given.
+     */
+    public File getStateFile(File outFile) {
+	if(stateFile != null) {
+	    return stateFile;
+	}
+	if(outFile == null) {
+	    throw new IllegalArgumentException("The option " + STATE_OPTION 
+		    + "FILE is required for the incremental mode.");
+	}
+	return new File(outFile.getPath() + HandlerState.STATE_SUFFIX);
+    }
+    
+    /**
+     * Limits the map to the top keys, if the option is given.
+     * 
+     * @param m The map, which must be empty.
+     */
+    public void configure(CountingMap m) {
+	if(top > 0) {
+	    m.setTopK(top, error);
+	}
+    }
+    
+    /**
+     * Puts the dates of the map into buckets, if the option is given. 
+     * Otherwise the map is configured as the other maps.
+     * 
+     * @param m The map of dates, which must be empty.
+     */
+    public void configureDates(CountingMap m) {
+	if(dates != null) {
+	    m.setDateBuckets(dates);
+	} else {
+	    configure(m);
+	}
+    }
+    
+    /**
+     * Method for retrieving the arguments after the options.
+     * 
+     * @return The arguments, which are not options.
+     */
+    public String[] getArguments() {
+	return arguments.clone();
+    }
+    
+    /**
+     * Method for describing the options, for the usage of the handlers.
+     * 
+     * @return The description of the options.
+     */
+    public static String usage() {
+	return "Options:\n"
+		+ "  " + THREADS_OPTION + "N : handle N input files concurrently.\n"
+		+ "  " + TOP_OPTION + "K : only keep the top K keys of each map.\n"
+		+ "  " + ERROR_OPTION + "E : the relative error of the top keys "
+		+ "(default " + DEFAULT_ERROR + ").\n"
+		+ "  " + DATES_OPTION + "day|month|year : count the dates in "
+		+ "buckets.\n"
+		+ "  " + INCREMENTAL_OPTION + " : fold the input files into the "
+		+ "saved aggregates.\n"
+		+ "  " + STATE_OPTION + "FILE : the file for the saved aggregates "
+		+ "(default: the output file + '" + HandlerState.STATE_SUFFIX 
+		+ "').";
+    }
+    
+    /**
+     * @return The positive integer value of the option.
+     */
+    private static int parsePositive(String option, String prefix) {
+	try {
+	    int res = Integer.parseInt(option.substring(prefix.length()));
+	    if(res > 0) {
+		return res;
+	    }
+	} catch (NumberFormatException e) {
+	    // handled below.
+	}
+	throw new IllegalArgumentException("The option '" + option 
+		+ "' must have a positive number.");
+    }
+    
+    /**
+     * @return The value of the option between 0 and 1.
+     */
+    private static double parseFraction(String option, String prefix) {
+	try {
+	    double res = Double.parseDouble(option.substring(prefix.length()));
+	    if(res > 0 && res < 1) {
+		return res;
+	    }
+	} catch (NumberFormatException e) {
+	    // handled below.
+	}
+	throw new IllegalArgumentException("The option '" + option 
+		+ "' must have a number between 0 and 1.");
+    }
+    
+    /**
+     * @return The granularity named by the value of the option.
+     */
+    private static DateHistogram.Granularity parseGranularity(String option,
+	    String prefix) {
+	try {
+	    return DateHistogram.Granularity.valueOf(
+		    option.substring(prefix.length()).toUpperCase());
+	} catch (IllegalArgumentException e) {
+	    throw new IllegalArgumentException("The option '" + option 
+		    + "' must be day, month or year.");
+	}
+    }
+}
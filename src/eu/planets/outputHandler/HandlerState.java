@@ -0,0 +1,324 @@
+package eu.planets.outputHandler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The saved aggregates of an output handler, for handling the new result 
+ * files incrementally instead of handling all of them again.
+ * 
+ * The state has the counting maps of the handler by name, the number of 
+ * entries handled, and the input files which have been handled, with their
+ * size and time of modification when they were selected for handling. It 
+ * is saved as a binary file, normally next to the output file of the 
+ * handler.
+ * 
+ * A gzip input file, such as a copy of the results shipped from a machine,
+ * may still be growing by appended gzip members. For such a file the state
+ * has the offset after the members, which have been handled. Only its 
+ * complete members after that offset are handled, as a ResultPart, thus a 
+ * member still being shipped is left for a later run. A gzip file with 
+ * binary results is read from the start, since the records refer to the 
+ * header and dictionary at the start, and only its complete records after 
+ * the decompressed offset of the handled records are handled.
+ * 
+ * The incremental handling is:
+ * <br/> 1. load the state, and only keep the new input files. Without the 
+ * incremental mode, the state is new and empty instead.
+ * <br/> 2. restore the maps of the handler from the state.
+ * <br/> 3. handle the new input files.
+ * <br/> 4. store the maps in the state, mark the new files as handled, and 
+ * save the state.
+ */
+@SuppressWarnings("serial")
+public class HandlerState implements Serializable {
+    /** The suffix of the state file next to the output file.*/
+    public static final String STATE_SUFFIX = ".state";
+    
+    /** The name of the handler, which made the state.*/
+    private final String handler;
+    /** The maps by name.*/
+    private final Map<String, CountingMap> maps = 
+	new LinkedHashMap<String, CountingMap>();
+    /** The size and time of modification of the handled files by path.*/
+    private final Map<String, String> handledFiles = 
+	new HashMap<String, String>();
+    /** The offset after the handled members of the gzip files by path.*/
+    private final Map<String, Long> handledOffsets = 
+	new HashMap<String, Long>();
+    /** The decompressed offset after the handled records of the gzip files
+     * with binary results by path.*/
+    private final Map<String, Long> handledRecords = 
+	new HashMap<String, Long>();
+    /** 
+     * The size and time of modification of the selected files by path, 
+     * taken before they are handled.
+     */
+    private transient Map<String, String> selectedFiles;
+    /** The number of entries handled.*/
+    private long entries = 0L;
+    
+    /**
+     * Constructor for an empty state.
+     * 
+     * @param handler The name of the handler.
+     */
+    public HandlerState(String handler) {
+	this.handler = handler;
+    }
+    
+    /**
+     * Loads the state from the file. If the file does not exist, the state 
+     * is empty.
+     * 
+     * @param f The state file.
+     * @param handler The name of the handler, which must have made the 
+     * state.
+     * @return The state.
+     * @throws IOException If the file cannot be read, or is not a state of 
+     * the handler.
+     */
+    public static HandlerState load(File f, String handler) 
+	    throws IOException {
+	if(!f.exists()) {
+	    return new HandlerState(handler);
+	}
+	ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(
+		new FileInputStream(f)));
+	try {
+	    HandlerState res = (HandlerState) ois.readObject();
+	    if(!handler.equals(res.handler)) {
+		throw new IOException("The state file '" + f.getPath() 
+			+ "' was made by '" + res.handler + "', not by '" 
+			+ handler + "'.");
+	    }
+	    return res;
+	} catch (ClassNotFoundException e) {
+	    throw new IOException("The state file '" + f.getPath() 
+		    + "' is not a state of an output handler.", e);
+	} catch (ClassCastException e) {
+	    throw new IOException("The state file '" + f.getPath() 
+		    + "' is not a state of an output handler.", e);
+	} finally {
+	    ois.close();
+	}
+    }
+    
+    /**
+     * Saves the state to the file. The state is written to a temporary file
+     * first, thus the old state is kept if the saving fails.
+     * 
+     * @param f The state file.
+     * @throws IOException If the state cannot be saved.
+     */
+    public void save(File f) throws IOException {
+	File tmp = new File(f.getPath() + ".tmp");
+	ObjectOutputStream oos = new ObjectOutputStream(
+		new BufferedOutputStream(new FileOutputStream(tmp)));
+	try {
+	    oos.writeObject(this);
+	} finally {
+	    oos.close();
+	}
+	if(f.exists() && !f.delete()) {
+	    throw new IOException("Could not replace the state file '" 
+		    + f.getPath() + "'.");
+	}
+	if(!tmp.renameTo(f)) {
+	    throw new IOException("Could not move the state file '" 
+		    + tmp.getPath() + "' to '" + f.getPath() + "'.");
+	}
+    }
+    
+    /**
+     * Method for finding the input files, which have not been handled. The 
+     * size and time of modification of the new files are taken now, so a 
+     * file, which grows while it is handled, is not taken as handled.
+     * 
+     * @param files The input files.
+     * @return The input files, which are new, and the parts of the gzip 
+     * files with new complete members.
+     * @throws IllegalStateException If a handled file has changed since it 
+     * was handled, since it cannot be handled again without counting its 
+     * old entries twice.
+     * @throws IOException If the path of a file cannot be resolved, or a 
+     * gzip file cannot be read.
+     */
+    public List<File> selectNew(List<File> files) throws IOException {
+	List<File> res = new ArrayList<File>(files.size());
+	selectedFiles = new HashMap<String, String>();
+	for(File f : files) {
+	    String path = f.getCanonicalPath();
+	    String handled = handledFiles.get(path);
+	    if(handled == null && ResultInput.isGzip(f)) {
+		File part = selectPart(f, path);
+		if(part != null) {
+		    res.add(part);
+		}
+	    } else if(handled == null) {
+		selectedFiles.put(path, fingerprint(f));
+		res.add(f);
+	    } else if(handled.equals(fingerprint(f))) {
+		System.out.println("The input file '" + f.getPath() 
+			+ "' has already been handled.");
+	    } else {
+		throw new IllegalStateException("The input file '" 
+			+ f.getPath() + "' has changed since it was handled. "
+			+ "The aggregates must be made from scratch.");
+	    }
+	}
+	return res;
+    }
+    
+    /**
+     * Finds the complete members of a gzip file, which have not been 
+     * handled.
+     * 
+     * @param f The gzip file.
+     * @param path The canonical path of the file.
+     * @return The part with the new complete members, or the new complete 
+     * records for binary results, or null if there are none.
+     * @throws IllegalStateException If the file is shorter than the 
+     * members, which have been handled.
+     * @throws IOException If the file cannot be read.
+     */
+    private File selectPart(File f, String path) throws IOException {
+	Long offset = handledOffsets.get(path);
+	long start = offset == null ? 0L : offset.longValue();
+	if(f.length() < start) {
+	    throw new IllegalStateException("The input file '" 
+		    + f.getPath() + "' has changed since it was handled. "
+		    + "The aggregates must be made from scratch.");
+	}
+	long end = ResultInput.completeEnd(f, start);
+	if(end < f.length()) {
+	    System.out.println("The input file '" + f.getPath() + "' ends "
+		    + "within a shipment, which is handled in a later run.");
+	}
+	if(end == start) {
+	    System.out.println("The input file '" + f.getPath() 
+		    + "' has no new shipments to handle.");
+	    return null;
+	}
+	ResultPart all = new ResultPart(f, 0L, end);
+	if(ResultInput.isBinary(all)) {
+	    return selectRecords(f, path, all);
+	}
+	if(start > 0L) {
+	    System.out.println("Only the shipments to the input file '" 
+		    + f.getPath() + "' since the last run are handled.");
+	}
+	return new ResultPart(f, start, end);
+    }
+    
+    /**
+     * Finds the complete records of binary results in the complete members
+     * of a gzip file, which have not been handled.
+     * 
+     * @param f The gzip file.
+     * @param path The canonical path of the file.
+     * @param all The part with all the complete members of the file.
+     * @return The part with the new complete records, or null if there are 
+     * none.
+     * @throws IOException If the file cannot be read.
+     */
+    private ResultPart selectRecords(File f, String path, ResultPart all) 
+	    throws IOException {
+	Long handled = handledRecords.get(path);
+	long from = handled == null ? 0L : handled.longValue();
+	long to = ResultInput.completeRecordsEnd(all);
+	if(to <= from) {
+	    System.out.println("The input file '" + f.getPath() 
+		    + "' has no new records to handle.");
+	    return null;
+	}
+	if(from > 0L) {
+	    System.out.println("Only the records shipped to the input file '" 
+		    + f.getPath() + "' since the last run are handled.");
+	}
+	return new ResultPart(f, all.getEnd(), from, to);
+    }
+    
+    /**
+     * Marks the input files as handled, with the size and time of 
+     * modification taken when they were selected.
+     * 
+     * @param files The handled input files, as given by selectNew.
+     * @throws IOException If the path of a file cannot be resolved.
+     */
+    public void markHandled(List<File> files) throws IOException {
+	for(File f : files) {
+	    String path = f.getCanonicalPath();
+	    if(f instanceof ResultPart) {
+		ResultPart part = (ResultPart) f;
+		handledOffsets.put(path, part.getEnd());
+		if(part.isBinary()) {
+		    handledRecords.put(path, part.getRecordEnd());
+		}
+		continue;
+	    }
+	    String selected = selectedFiles == null ? null 
+		    : selectedFiles.get(path);
+	    handledFiles.put(path, selected == null ? fingerprint(f) 
+		    : selected);
+	}
+    }
+    
+    /**
+     * Adds the saved counters of the maps to them.
+     * 
+     * @param list The maps of the handler.
+     */
+    public void restore(List<CountingMap> list) {
+	for(CountingMap m : list) {
+	    CountingMap saved = maps.get(m.getName());
+	    if(saved != null) {
+		m.addAll(saved);
+	    }
+	}
+    }
+    
+    /**
+     * Stores the counters of the maps in the state.
+     * 
+     * @param list The maps of the handler, with all their counters.
+     */
+    public void store(List<CountingMap> list) {
+	for(CountingMap m : list) {
+	    maps.put(m.getName(), m);
+	}
+    }
+    
+    /**
+     * @return The number of entries handled.
+     */
+    public long getEntries() {
+	return entries;
+    }
+    
+    /**
+     * @param entries The number of entries handled.
+     */
+    public void setEntries(long entries) {
+	this.entries = entries;
+    }
+    
+    /**
+     * @return The size and time of modification of the file.
+     */
+    private static String fingerprint(File f) {
+	return f.length() + ":" + f.lastModified();
+    }
+}
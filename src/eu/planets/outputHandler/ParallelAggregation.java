@@ -0,0 +1,96 @@
+package eu.planets.outputHandler;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class for handling the input files of an output handler concurrently.
+ * 
+ * Each thread counts into its own Counters, which the handlers retrieve 
+ * with current(). When all the files have been handled, the counters of 
+ * the threads are merged, and the handler adds them to its maps.
+ * Outside the threads current() returns null, and the handlers update 
+ * their maps directly.
+ */
+public class ParallelAggregation {
+    /**
+     * Interface for the handling of a single input file.
+     */
+    public interface FileHandler {
+	/**
+	 * Handles the file.
+	 * 
+	 * @param f The file to handle.
+	 */
+	void handleFile(File f);
+    }
+    
+    /** The counters of the current thread, if it is aggregating.*/
+    private static final ThreadLocal<Counters> CURRENT = 
+	new ThreadLocal<Counters>();
+    
+    /**
+     * Method for retrieving the counters of the current thread.
+     * 
+     * @return The counters, or null if the thread is not aggregating in
+     * parallel.
+     */
+    public static Counters current() {
+	return CURRENT.get();
+    }
+    
+    /**
+     * Handles the files concurrently, and merges the counters of the 
+     * threads.
+     * 
+     * @param files The files to handle.
+     * @param threads The number of threads.
+     * @param handler The handler for each file.
+     * @return The merged counters.
+     * @throws InterruptedException If interrupted while waiting for the
+     * files to be handled.
+     * @throws ExecutionException If the handling of a file failed.
+     */
+    public static Counters run(List<File> files, int threads, 
+	    final FileHandler handler) 
+	    throws InterruptedException, ExecutionException {
+	final List<Counters> all = new ArrayList<Counters>();
+	ExecutorService pool = Executors.newFixedThreadPool(threads);
+	try {
+	    List<Future<?>> futures = new ArrayList<Future<?>>(files.size());
+	    for(final File f : files) {
+		futures.add(pool.submit(new Runnable() {
+		    @Override
+		    public void run() {
+			if(CURRENT.get() == null) {
+			    Counters counters = new Counters();
+			    synchronized(all) {
+				all.add(counters);
+			    }
+			    CURRENT.set(counters);
+			}
+			handler.handleFile(f);
+		    }
+		}));
+	    }
+	    for(Future<?> future : futures) {
+		future.get();
+	    }
+	} finally {
+	    pool.shutdownNow();
+	}
+	
+	Counters res = new Counters();
+	synchronized(all) {
+	    for(Counters counters : all) {
+		res.addAll(counters);
+	    }
+	}
+	return res;
+    }
+}
@@ -0,0 +1,496 @@
+package eu.planets.outputHandler;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import eu.planets.batchprogs.BinaryResultReader;
+
+/**
+ * Class for opening the input files of the output handlers.
+ * 
+ * A gzip file, such as the results shipped from a machine while the batch 
+ * job is running, is decompressed. Such a file may still be growing, thus 
+ * a truncated last gzip member is taken as the end of the file. The lines 
+ * of the truncated member, which were completely decompressed, are handled,
+ * but the half line at the end is dropped.
+ * 
+ * A ResultPart is opened as only its complete gzip members, and the binary 
+ * results of a part are read as only its range of records.
+ */
+public class ResultInput {
+    /** The size of the buffers for reading the files.*/
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** The first byte of a gzip file.*/
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    /** The second byte of a gzip file.*/
+    private static final int GZIP_MAGIC_2 = 0x8b;
+    /** The compression method of a gzip member: deflate.*/
+    private static final int GZIP_DEFLATE = 8;
+    /** The size of the fixed part of a gzip header.*/
+    private static final int GZIP_HEADER_SIZE = 10;
+    /** The size of a gzip trailer.*/
+    private static final int GZIP_TRAILER_SIZE = 8;
+    /** The gzip header flag for a header CRC.*/
+    private static final int FHCRC = 2;
+    /** The gzip header flag for extra fields.*/
+    private static final int FEXTRA = 4;
+    /** The gzip header flag for a file name.*/
+    private static final int FNAME = 8;
+    /** The gzip header flag for a comment.*/
+    private static final int FCOMMENT = 16;
+    
+    /**
+     * Opens a file for reading. The stream supports mark and reset.
+     * 
+     * @param f The file to open.
+     * @return The content of the file, decompressed if it is a gzip file.
+     * @throws IOException If the file cannot be opened.
+     */
+    public static InputStream open(File f) throws IOException {
+	if(f instanceof ResultPart) {
+	    return new BufferedInputStream(openPart((ResultPart) f), 
+		    BUFFER_SIZE);
+	}
+	InputStream in = new BufferedInputStream(new FileInputStream(f), 
+		BUFFER_SIZE);
+	if(!isGzip(in)) {
+	    return in;
+	}
+	return new BufferedInputStream(new PartialGZIPInputStream(in, f), 
+		BUFFER_SIZE);
+    }
+    
+    /**
+     * Opens a file for reading through a channel. A file, which is not a 
+     * gzip file, is read directly from its file channel.
+     * 
+     * @param f The file to open.
+     * @return The content of the file, decompressed if it is a gzip file.
+     * @throws IOException If the file cannot be opened.
+     */
+    public static ReadableByteChannel openChannel(File f) throws IOException {
+	if(f instanceof ResultPart) {
+	    return Channels.newChannel(openPart((ResultPart) f));
+	}
+	InputStream in = new BufferedInputStream(new FileInputStream(f), 
+		BUFFER_SIZE);
+	try {
+	    if(isGzip(in)) {
+		return Channels.newChannel(new PartialGZIPInputStream(in, f));
+	    }
+	} catch (IOException e) {
+	    in.close();
+	    throw e;
+	}
+	in.close();
+	return new FileInputStream(f).getChannel();
+    }
+    
+    /**
+     * Opens the complete gzip members of a part of a file.
+     * 
+     * @param part The part.
+     * @return The decompressed members.
+     * @throws IOException If the file cannot be opened.
+     */
+    private static InputStream openPart(ResultPart part) throws IOException {
+	FileInputStream fis = new FileInputStream(part);
+	try {
+	    fis.getChannel().position(part.getStart());
+	    return new GZIPInputStream(new LimitedInputStream(
+		    new BufferedInputStream(fis, BUFFER_SIZE), 
+		    part.getEnd() - part.getStart()), BUFFER_SIZE);
+	} catch (IOException e) {
+	    fis.close();
+	    throw e;
+	}
+    }
+    
+    /**
+     * Checks whether a file is a gzip file.
+     * 
+     * @param f The file.
+     * @return Whether the file starts with the gzip magic bytes.
+     * @throws IOException If the file cannot be read.
+     */
+    public static boolean isGzip(File f) throws IOException {
+	InputStream in = new BufferedInputStream(new FileInputStream(f), 2);
+	try {
+	    return isGzip(in);
+	} finally {
+	    in.close();
+	}
+    }
+    
+    /**
+     * Makes a reader for the binary results of an input file. For a part 
+     * of binary results only the records in its range are read.
+     * 
+     * @param f The input file, or part.
+     * @param in The stream opened for the file.
+     * @return The reader.
+     */
+    public static BinaryResultReader openBinary(File f, InputStream in) {
+	BinaryResultReader res = new BinaryResultReader(in);
+	if(f instanceof ResultPart && ((ResultPart) f).isBinary()) {
+	    ResultPart part = (ResultPart) f;
+	    res.setRange(part.getRecordStart(), part.getRecordEnd());
+	}
+	return res;
+    }
+    
+    /**
+     * Checks whether an input file, or part, contains binary results.
+     * 
+     * @param f The input file.
+     * @return Whether the decompressed content starts with the header of 
+     * the binary results.
+     * @throws IOException If the file cannot be read.
+     */
+    public static boolean isBinary(File f) throws IOException {
+	InputStream in = open(f);
+	try {
+	    return BinaryResultReader.isBinary(in);
+	} finally {
+	    in.close();
+	}
+    }
+    
+    /**
+     * Finds the end of the last complete record of the binary results in 
+     * an input file, or part, where the last record may be cut off.
+     * 
+     * @param f The input file.
+     * @return The decompressed offset after the last complete record.
+     * @throws IOException If the file cannot be read, or is not binary 
+     * results.
+     */
+    public static long completeRecordsEnd(File f) throws IOException {
+	BinaryResultReader reader = new BinaryResultReader(open(f));
+	long res = 0L;
+	try {
+	    while(reader.next()) {
+		res = reader.getPosition();
+	    }
+	} catch (EOFException e) {
+	    // the rest of the record has not been shipped yet.
+	} finally {
+	    reader.close();
+	}
+	return res;
+    }
+    
+    /**
+     * Finds the end of the last complete gzip member of a file, which may 
+     * be growing. The members are decompressed without keeping the output.
+     * 
+     * @param f The gzip file.
+     * @param start The offset of a member, where the search starts.
+     * @return The offset after the last complete member, or the start if 
+     * there is no complete member after it.
+     * @throws IOException If the file cannot be read, or is not a gzip 
+     * file at the start.
+     */
+    public static long completeEnd(File f, long start) throws IOException {
+	FileInputStream fis = new FileInputStream(f);
+	Inflater inflater = new Inflater(true);
+	try {
+	    fis.getChannel().position(start);
+	    PushbackInputStream in = new PushbackInputStream(fis, BUFFER_SIZE);
+	    byte[] buf = new byte[BUFFER_SIZE];
+	    byte[] out = new byte[BUFFER_SIZE];
+	    long res = start;
+	    while(true) {
+		long pos = res;
+		// the header.
+		if(!readFully(in, buf, GZIP_HEADER_SIZE)) {
+		    return res;
+		}
+		if((buf[0] & 0xff) != GZIP_MAGIC_1 
+			|| (buf[1] & 0xff) != GZIP_MAGIC_2 
+			|| buf[2] != GZIP_DEFLATE) {
+		    throw new IOException("The file '" + f.getPath() 
+			    + "' has no gzip member at offset " + pos + ".");
+		}
+		int flags = buf[3] & 0xff;
+		pos += GZIP_HEADER_SIZE;
+		if((flags & FEXTRA) != 0) {
+		    if(!readFully(in, buf, 2)) {
+			return res;
+		    }
+		    int extra = (buf[0] & 0xff) | ((buf[1] & 0xff) << 8);
+		    if(!readFully(in, buf, extra)) {
+			return res;
+		    }
+		    pos += 2 + extra;
+		}
+		for(int flag : new int[] {FNAME, FCOMMENT}) {
+		    if((flags & flag) != 0) {
+			int b;
+			do {
+			    b = in.read();
+			    if(b < 0) {
+				return res;
+			    }
+			    pos++;
+			} while(b != 0);
+		    }
+		}
+		if((flags & FHCRC) != 0) {
+		    if(!readFully(in, buf, 2)) {
+			return res;
+		    }
+		    pos += 2;
+		}
+		
+		// the deflated data.
+		inflater.reset();
+		int last = 0;
+		while(!inflater.finished()) {
+		    if(inflater.needsInput()) {
+			last = in.read(buf);
+			if(last < 0) {
+			    return res;
+			}
+			inflater.setInput(buf, 0, last);
+			pos += last;
+		    }
+		    try {
+			inflater.inflate(out);
+		    } catch (DataFormatException e) {
+			throw new IOException("The file '" + f.getPath() 
+				+ "' has a broken gzip member at offset " 
+				+ res + ".", e);
+		    }
+		}
+		// the input after the member belongs to the trailer.
+		int remaining = inflater.getRemaining();
+		in.unread(buf, last - remaining, remaining);
+		pos -= remaining;
+		
+		// the trailer.
+		if(!readFully(in, buf, GZIP_TRAILER_SIZE)) {
+		    return res;
+		}
+		res = pos + GZIP_TRAILER_SIZE;
+	    }
+	} finally {
+	    inflater.end();
+	    fis.close();
+	}
+    }
+    
+    /**
+     * Reads a number of bytes from a stream.
+     * 
+     * @param in The stream.
+     * @param buf The buffer for the bytes.
+     * @param len The number of bytes to read.
+     * @return Whether all the bytes could be read before the end of the 
+     * stream.
+     * @throws IOException If the stream cannot be read.
+     */
+    private static boolean readFully(InputStream in, byte[] buf, int len) 
+	    throws IOException {
+	int off = 0;
+	while(off < len) {
+	    int n = in.read(buf, off, len - off);
+	    if(n < 0) {
+		return false;
+	    }
+	    off += n;
+	}
+	return true;
+    }
+    
+    /**
+     * Checks whether a stream starts with the gzip magic bytes, without 
+     * consuming them.
+     * 
+     * @param in The stream, which must support mark and reset.
+     * @return Whether the stream is gzip compressed.
+     * @throws IOException If the stream cannot be read.
+     */
+    private static boolean isGzip(InputStream in) throws IOException {
+	in.mark(2);
+	int b1 = in.read();
+	int b2 = in.read();
+	in.reset();
+	return b1 == GZIP_MAGIC_1 && b2 == GZIP_MAGIC_2;
+    }
+    
+    /**
+     * Decompresses a gzip stream with any number of members, where the last
+     * member may be truncated. The bytes after the last newline are held 
+     * back until the next newline or the end of the stream, so they can be 
+     * dropped if the stream turns out to be truncated. A line, which is 
+     * longer than the buffer, is handed out without waiting for its end.
+     */
+    private static class PartialGZIPInputStream extends InputStream {
+	/** The decompressed stream.*/
+	private final GZIPInputStream gzip;
+	/** The file, for the warning of a truncated member.*/
+	private final File file;
+	/** The decompressed bytes, which have not been handed out yet.*/
+	private final byte[] pending = new byte[BUFFER_SIZE];
+	/** The position of the next byte to hand out.*/
+	private int start = 0;
+	/** The end of the bytes, which may be handed out.*/
+	private int limit = 0;
+	/** The end of the decompressed bytes.*/
+	private int end = 0;
+	/** Whether the end of the stream, or of its complete part, is reached.*/
+	private boolean ended = false;
+	
+	/**
+	 * @param in The compressed stream.
+	 * @param f The file of the stream.
+	 * @throws IOException If the gzip header cannot be read.
+	 */
+	PartialGZIPInputStream(InputStream in, File f) throws IOException {
+	    this.gzip = new GZIPInputStream(in, BUFFER_SIZE);
+	    this.file = f;
+	}
+	
+	@Override
+	public int read() throws IOException {
+	    byte[] b = new byte[1];
+	    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+	}
+	
+	@Override
+	public int read(byte[] buf, int off, int len) throws IOException {
+	    if(len == 0) {
+		return 0;
+	    }
+	    while(start == limit) {
+		if(ended) {
+		    return -1;
+		}
+		decompress();
+	    }
+	    int n = Math.min(len, limit - start);
+	    System.arraycopy(pending, start, buf, off, n);
+	    start += n;
+	    return n;
+	}
+	
+	/**
+	 * Decompresses more bytes into the buffer, and moves the limit to the
+	 * last newline. At the end of the stream all the bytes are released, 
+	 * but at a truncated member the bytes after the last newline are 
+	 * dropped.
+	 * 
+	 * @throws IOException If the stream cannot be decompressed.
+	 */
+	private void decompress() throws IOException {
+	    if(start > 0) {
+		System.arraycopy(pending, start, pending, 0, end - start);
+		end -= start;
+		limit -= start;
+		start = 0;
+	    }
+	    int n;
+	    try {
+		n = gzip.read(pending, end, pending.length - end);
+	    } catch (EOFException e) {
+		System.err.println("The file '" + file.getPath() + "' ends "
+			+ "within a shipment. The incomplete line at the end "
+			+ "is not handled.");
+		end = limit;
+		ended = true;
+		return;
+	    }
+	    if(n < 0) {
+		limit = end;
+		ended = true;
+		return;
+	    }
+	    for(int i = end + n - 1; i >= end; i--) {
+		if(pending[i] == '\n') {
+		    limit = i + 1;
+		    break;
+		}
+	    }
+	    end += n;
+	    if(end == pending.length && limit == 0) {
+		// a line longer than the buffer.
+		limit = end;
+	    }
+	}
+	
+	@Override
+	public void close() throws IOException {
+	    gzip.close();
+	}
+    }
+    
+    /**
+     * Limits a stream to a number of bytes.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+	/** The number of bytes left.*/
+	private long remaining;
+	
+	/**
+	 * @param in The stream.
+	 * @param limit The number of bytes to read from the stream.
+	 */
+	LimitedInputStream(InputStream in, long limit) {
+	    super(in);
+	    this.remaining = limit;
+	}
+	
+	@Override
+	public int read() throws IOException {
+	    if(remaining <= 0L) {
+		return -1;
+	    }
+	    int b = in.read();
+	    if(b >= 0) {
+		remaining--;
+	    }
+	    return b;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+	    if(remaining <= 0L) {
+		return -1;
+	    }
+	    int n = in.read(b, off, (int) Math.min(len, remaining));
+	    if(n > 0) {
+		remaining -= n;
+	    }
+	    return n;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+	    long res = in.skip(Math.min(n, remaining));
+	    remaining -= res;
+	    return res;
+	}
+	
+	@Override
+	public int available() throws IOException {
+	    return (int) Math.min(in.available(), remaining);
+	}
+	
+	@Override
+	public boolean markSupported() {
+	    return false;
+	}
+    }
+}
@@ -0,0 +1,110 @@
+package eu.planets.outputHandler;
+
+import java.io.File;
+
+/**
+ * A part of a gzip input file, which is handled instead of the whole file:
+ * the complete gzip members between two offsets in the compressed file.
+ * 
+ * The parts are made by the incremental handling, so only the members 
+ * shipped since the last run are handled, and a member, which is still 
+ * being shipped, is left for a later run. A part is given to the handlers 
+ * in place of the file, and is opened by ResultInput.
+ * 
+ * The binary results of BinaryResultWriter refer to the header and the 
+ * dictionary at the start of the file, and a record may be cut between two
+ * shipments. A part of binary results therefore starts with the first 
+ * member, and has the range of the decompressed records to handle: the 
+ * complete records after those handled by an earlier run.
+ */
+@SuppressWarnings("serial")
+public class ResultPart extends File {
+    /** The offset of the first member of the part.*/
+    private final long start;
+    /** The offset after the last member of the part.*/
+    private final long end;
+    /** The decompressed offset of the first record to handle, or -1 if the
+     * part is not binary results.*/
+    private final long recordStart;
+    /** The decompressed offset after the last record to handle, or -1 if 
+     * the part is not binary results.*/
+    private final long recordEnd;
+    
+    /**
+     * Constructor.
+     * 
+     * @param f The gzip file.
+     * @param start The offset of the first member of the part.
+     * @param end The offset after the last member of the part.
+     */
+    public ResultPart(File f, long start, long end) {
+	super(f.getPath());
+	if(start < 0L || end < start) {
+	    throw new IllegalArgumentException("Invalid part [" + start 
+		    + ", " + end + ") of '" + f.getPath() + "'.");
+	}
+	this.start = start;
+	this.end = end;
+	this.recordStart = -1L;
+	this.recordEnd = -1L;
+    }
+    
+    /**
+     * Constructor for a part of binary results, which starts with the first
+     * member.
+     * 
+     * @param f The gzip file.
+     * @param end The offset after the last member of the part.
+     * @param recordStart The decompressed offset of the first record to 
+     * handle.
+     * @param recordEnd The decompressed offset after the last record to 
+     * handle.
+     */
+    public ResultPart(File f, long end, long recordStart, long recordEnd) {
+	super(f.getPath());
+	if(end < 0L || recordStart < 0L || recordEnd < recordStart) {
+	    throw new IllegalArgumentException("Invalid records [" 
+		    + recordStart + ", " + recordEnd + ") of '" + f.getPath() 
+		    + "'.");
+	}
+	this.start = 0L;
+	this.end = end;
+	this.recordStart = recordStart;
+	this.recordEnd = recordEnd;
+    }
+    
+    /**
+     * @return The offset of the first member of the part.
+     */
+    public long getStart() {
+	return start;
+    }
+    
+    /**
+     * @return The offset after the last member of the part.
+     */
+    public long getEnd() {
+	return end;
+    }
+    
+    /**
+     * @return Whether the part has a range of binary records.
+     */
+    public boolean isBinary() {
+	return recordEnd >= 0L;
+    }
+    
+    /**
+     * @return The decompressed offset of the first record to handle.
+     */
+    public long getRecordStart() {
+	return recordStart;
+    }
+    
+    /**
+     * @return The decompressed offset after the last record to handle.
+     */
+    public long getRecordEnd() {
+	return recordEnd;
+    }
+}
@@ -0,0 +1,280 @@
+package eu.planets.outputHandler;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summary of the largest counters of strings in a fixed amount of memory.
+ * 
+ * The keys are monitored with the space-saving algorithm: a new key
+ * replaces the monitored key with the smallest counter, and takes over its
+ * counter. Twice as many keys as the top k are monitored, thus every key 
+ * with more than 1/2k of the total is monitored.
+ * The counters of all keys are also added to a count-min sketch, and the
+ * estimate of a key is the smallest of its two counters.
+ * Only non-negative values can be counted.
+ * 
+ * The counter of a monitored key is never below its real counter, and when
+ * every slot is taken, the smallest counter is never below the real counter
+ * of a key, which is not monitored. Two summaries are merged by adding the
+ * counters of each key on both sides, where the smallest counter of a side 
+ * is used for a key not monitored on that side, and keeping the largest 
+ * counters. Thus the counters stay above the real counters after a merge.
+ */
+@SuppressWarnings("serial")
+public class TopKSummary implements Serializable {
+    /** The probability of an estimate exceeding the error bound.*/
+    public static final double DELTA = 0.01;
+    /** The number of monitored keys for each of the top keys.*/
+    private static final int MONITORED_PER_KEY = 2;
+    
+    /** The number of top keys.*/
+    private final int k;
+    /** The relative error of the sketch.*/
+    private final double epsilon;
+    /** The sketch of the counters of all the keys.*/
+    private final CountMinSketch sketch;
+    /** The slot of each monitored key.*/
+    private final Map<String, Integer> slots;
+    /** The monitored keys.*/
+    private final String[] keys;
+    /** The counters of the monitored keys.*/
+    private final long[] counts;
+    /** Min-heap of the slots ordered by their counters.*/
+    private final int[] heap;
+    /** The position in the heap of each slot.*/
+    private final int[] positions;
+    /** The number of monitored keys.*/
+    private int size = 0;
+    
+    /**
+     * Constructor.
+     * 
+     * @param k The number of top keys.
+     * @param epsilon The relative error of the estimates.
+     */
+    public TopKSummary(int k, double epsilon) {
+	if(k <= 0) {
+	    throw new IllegalArgumentException("The number of keys must be "
+		    + "positive, but was: " + k);
+	}
+	this.k = k;
+	this.epsilon = epsilon;
+	this.sketch = new CountMinSketch(epsilon, DELTA);
+	int capacity = k * MONITORED_PER_KEY;
+	this.slots = new HashMap<String, Integer>(capacity * 2);
+	this.keys = new String[capacity];
+	this.counts = new long[capacity];
+	this.heap = new int[capacity];
+	this.positions = new int[capacity];
+    }
+    
+    /**
+     * @return An empty summary with the same size and error.
+     */
+    public TopKSummary newEmpty() {
+	return new TopKSummary(k, epsilon);
+    }
+    
+    /**
+     * @return The number of top keys, which is at most k.
+     */
+    public int size() {
+	return Math.min(size, k);
+    }
+    
+    /**
+     * Adds the value to the counter for the key.
+     * 
+     * @param key The key.
+     * @param value The non-negative value to add.
+     * @return The instance of the key kept by this summary, or the key if 
+     * it is not monitored.
+     */
+    public String increment(String key, long value) {
+	sketch.add(key, value);
+	return offer(key, value);
+    }
+    
+    /**
+     * Method for estimating the counter of a key.
+     * 
+     * @param key The key.
+     * @return The estimate, which is never below the real counter.
+     */
+    public long estimate(String key) {
+	long res = sketch.estimate(key);
+	Integer slot = slots.get(key);
+	if(slot != null) {
+	    res = Math.min(res, counts[slot]);
+	}
+	return res;
+    }
+    
+    /**
+     * @return The error of an estimate, which is exceeded with at most the
+     * probability DELTA.
+     */
+    public long getErrorBound() {
+	return sketch.getErrorBound();
+    }
+    
+    /**
+     * Adds all the counters of another summary to this one.
+     * Each key monitored on either side gets the sum of its counters on the
+     * two sides, where a side, which does not monitor the key, adds its 
+     * smallest counter, and then the keys with the largest sums are 
+     * monitored. Thus the errors of the two summaries add up.
+     * 
+     * @param other The other summary, which must have the same error.
+     */
+    public void addAll(TopKSummary other) {
+	sketch.addAll(other.sketch);
+	long thisMin = minUnmonitored();
+	long otherMin = other.minUnmonitored();
+	Map<String, Long> sums = new HashMap<String, Long>(
+		(size + other.size) * 2);
+	for(int i = 0; i < size; i++) {
+	    Integer slot = other.slots.get(keys[i]);
+	    sums.put(keys[i], counts[i] 
+		    + (slot == null ? otherMin : other.counts[slot]));
+	}
+	for(int i = 0; i < other.size; i++) {
+	    if(!slots.containsKey(other.keys[i])) {
+		sums.put(other.keys[i], other.counts[i] + thisMin);
+	    }
+	}
+	
+	// monitor the keys with the largest sums.
+	List<Map.Entry<String, Long>> largest = 
+	    new ArrayList<Map.Entry<String, Long>>(sums.entrySet());
+	Collections.sort(largest, new Comparator<Map.Entry<String, Long>>() {
+	    @Override
+	    public int compare(Map.Entry<String, Long> a, 
+		    Map.Entry<String, Long> b) {
+		return b.getValue().compareTo(a.getValue());
+	    }
+	});
+	slots.clear();
+	size = Math.min(largest.size(), keys.length);
+	for(int s = 0; s < size; s++) {
+	    keys[s] = largest.get(s).getKey();
+	    counts[s] = largest.get(s).getValue();
+	    slots.put(keys[s], s);
+	    place(s, s);
+	}
+	for(int s = size; s < keys.length; s++) {
+	    keys[s] = null;
+	}
+	for(int i = size / 2 - 1; i >= 0; i--) {
+	    siftDown(i);
+	}
+    }
+    
+    /**
+     * Appends the top keys with their estimates, with the largest first, in
+     * the spreadsheet format of HandlerMap.
+     * 
+     * @param res The builder to append to.
+     */
+    public void appendTo(StringBuilder res) {
+	final long[] estimates = new long[size];
+	Integer[] order = new Integer[size];
+	for(int i = 0; i < size; i++) {
+	    estimates[i] = estimate(keys[i]);
+	    order[i] = i;
+	}
+	Arrays.sort(order, new Comparator<Integer>() {
+	    @Override
+	    public int compare(Integer a, Integer b) {
+		return Long.valueOf(estimates[b]).compareTo(estimates[a]);
+	    }
+	});
+	for(int j = 0; j < size(); j++) {
+	    int i = order[j];
+	    res.append(keys[i]).append(';').append(estimates[i]).append('\n');
+	}
+    }
+    
+    /**
+     * @return The upper bound of the counter of a key, which is not 
+     * monitored: the smallest counter when every slot is taken, otherwise 0.
+     */
+    private long minUnmonitored() {
+	return size < keys.length ? 0L : counts[heap[0]];
+    }
+    
+    /**
+     * Adds the value to the monitored counter of the key, and starts 
+     * monitoring the key if it is not.
+     */
+    private String offer(String key, long value) {
+	Integer slot = slots.get(key);
+	if(slot != null) {
+	    counts[slot] += value;
+	    siftDown(positions[slot]);
+	    return keys[slot];
+	}
+	
+	int s;
+	if(size < keys.length) {
+	    s = size++;
+	    heap[s] = s;
+	    positions[s] = s;
+	    counts[s] = value;
+	    siftUp(s);
+	} else {
+	    // replace the key with the smallest counter.
+	    s = heap[0];
+	    slots.remove(keys[s]);
+	    counts[s] += value;
+	    siftDown(0);
+	}
+	keys[s] = key;
+	slots.put(key, s);
+	return key;
+    }
+    
+    private void siftUp(int i) {
+	int slot = heap[i];
+	while(i > 0) {
+	    int parent = (i - 1) >>> 1;
+	    if(counts[heap[parent]] <= counts[slot]) {
+		break;
+	    }
+	    place(heap[parent], i);
+	    i = parent;
+	}
+	place(slot, i);
+    }
+    
+    private void siftDown(int i) {
+	int slot = heap[i];
+	while(true) {
+	    int child = 2 * i + 1;
+	    if(child >= size) {
+		break;
+	    }
+	    if(child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+		child++;
+	    }
+	    if(counts[slot] <= counts[heap[child]]) {
+		break;
+	    }
+	    place(heap[child], i);
+	    i = child;
+	}
+	place(slot, i);
+    }
+    
+    private void place(int slot, int i) {
+	heap[i] = slot;
+	positions[slot] = i;
+    }
+}
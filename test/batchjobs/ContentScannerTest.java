@@ -0,0 +1,79 @@
+package batchjobs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+import org.junit.Test;
+
+/**
+ * Tests scanning content for literals and regular expressions.
+ */
+public class ContentScannerTest {
+    /** Content with a word beyond ASCII on its own line.*/
+    private static final String CONTENT = "<html>\n<p>Der var engang en "
+            + "rødgrød, som fløde over.</p>\n</html>\n";
+
+    /**
+     * The literals are found in both UTF-8 and ISO-8859-1 content.
+     */
+    @Test
+    public void testLiterals() throws IOException {
+        ContentScanner scanner = new ContentScanner("engang",
+                "literal:rødgrød", "literal:not there");
+        for (String charset : new String[] {"UTF-8", "ISO-8859-1"}) {
+            BitSet found = scan(scanner, CONTENT, charset);
+            assertTrue(charset, found.get(0));
+            assertTrue(charset, found.get(1));
+            assertFalse(charset, found.get(2));
+        }
+    }
+
+    /**
+     * The regular expressions, which match characters beyond ASCII through
+     * escapes, classes and flags, are found in UTF-8 content, though the
+     * expressions themselves are ASCII.
+     */
+    @Test
+    public void testRegexesBeyondAscii() throws IOException {
+        String[] regexes = {"r\\u00f8dgr", "fl\\xf8de", "r\\p{L}dgr\\p{L}d",
+                "(?iu)R\\u00d8DGR", "fl.de", "\\bfl\\w+de\\b",
+                "(?U)\\bfl\\w+de\\b"};
+        ContentScanner scanner = new ContentScanner(regexes);
+        BitSet found = scan(scanner, CONTENT, "UTF-8");
+        for (int i = 0; i < regexes.length; i++) {
+            // '\w' only matches ASCII letters without the UNICODE flag.
+            assertEquals(regexes[i], i != 5, found.get(i));
+        }
+    }
+
+    /**
+     * The regular expressions are matched against ISO-8859-1 content, when 
+     * the charset is given, and ASCII lines are matched without decoding.
+     */
+    @Test
+    public void testCharsets() throws IOException {
+        ContentScanner scanner = new ContentScanner("r\\u00f8dgr",
+                "<p>[A-Z]\\w+", "^</html>$");
+        BitSet found = scan(scanner, CONTENT, "ISO-8859-1");
+        assertEquals(3, found.cardinality());
+        // every line is decoded, since ASCII is not single bytes.
+        found = scan(scanner, CONTENT, "UTF-16BE");
+        assertTrue(found.get(0));
+        assertTrue(found.get(1));
+        found = scan(scanner, "<html>\n</html>", "UTF-8");
+        assertFalse(found.get(0));
+        assertFalse(found.get(1));
+        assertTrue(found.get(2));
+    }
+
+    private static BitSet scan(ContentScanner scanner, String content,
+            String charset) throws IOException {
+        return scanner.scan(new ByteArrayInputStream(
+                content.getBytes(charset)), charset);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests reading the checkpoint journal of an interrupted run.
+ */
+public class CheckpointJournalTest {
+    /** The journal file.*/
+    private File journalFile;
+
+    @Before
+    public void setUp() throws IOException {
+        journalFile = File.createTempFile("journal", ".txt");
+        journalFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        journalFile.delete();
+    }
+
+    /**
+     * A new journal does not resume anything, and an existing journal 
+     * resumes the files and the offset written to it.
+     */
+    @Test
+    public void testResume() throws IOException {
+        CheckpointJournal journal = new CheckpointJournal(journalFile, 2);
+        assertFalse(journal.open());
+        assertFalse(journal.add(new File("a"), 10L));
+        assertTrue(journal.add(new File("b"), 20L));
+        journal.sync();
+        // not written to the journal, since not synchronised.
+        journal.add(new File("c"), 30L);
+
+        CheckpointJournal resumed = new CheckpointJournal(journalFile, 2);
+        assertTrue(resumed.open());
+        assertTrue(resumed.isDone(new File("a")));
+        assertTrue(resumed.isDone(new File("b")));
+        assertFalse(resumed.isDone(new File("c")));
+        assertEquals(20L, resumed.getOffset());
+        resumed.close();
+    }
+
+    /**
+     * The offset of a checkpoint includes the endings written after the 
+     * last file.
+     */
+    @Test
+    public void testCheckpoint() throws IOException {
+        CheckpointJournal journal = new CheckpointJournal(journalFile, 100);
+        journal.open();
+        journal.add(new File("a"), 10L);
+        journal.checkpoint(15L);
+        journal.add(new File("b"), 20L);
+        journal.close();
+
+        CheckpointJournal resumed = new CheckpointJournal(journalFile, 100);
+        assertTrue(resumed.open());
+        assertTrue(resumed.isDone(new File("b")));
+        assertEquals(20L, resumed.getOffset());
+        resumed.close();
+
+        journalFile.delete();
+        journal = new CheckpointJournal(journalFile, 100);
+        journal.open();
+        journal.add(new File("a"), 10L);
+        journal.checkpoint(15L);
+        journal.close();
+        resumed = new CheckpointJournal(journalFile, 100);
+        resumed.open();
+        assertEquals(15L, resumed.getOffset());
+        resumed.close();
+    }
+
+    /**
+     * A line cut by an interrupted write is ignored, and is cut away before
+     * the new entries are written.
+     */
+    @Test
+    public void testPartialLine() throws IOException {
+        File a = new File("a");
+        FileWriter fw = new FileWriter(journalFile);
+        try {
+            fw.write("10\t" + a.getAbsolutePath() + "\n15\n20\t/b");
+        } finally {
+            fw.close();
+        }
+
+        CheckpointJournal resumed = new CheckpointJournal(journalFile, 100);
+        assertTrue(resumed.open());
+        assertTrue(resumed.isDone(a));
+        assertFalse(resumed.isDone(new File("/b")));
+        assertEquals(15L, resumed.getOffset());
+        resumed.add(new File("c"), 30L);
+        resumed.close();
+
+        resumed = new CheckpointJournal(journalFile, 100);
+        resumed.open();
+        assertFalse(resumed.isDone(new File("/b")));
+        assertTrue(resumed.isDone(new File("c")));
+        assertEquals(30L, resumed.getOffset());
+        resumed.close();
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.deploy.XmlStructure;
+
+/**
+ * Tests the parallel deployment through local stand-ins for ssh and scp
+ * (fake-ssh.sh and fake-scp.sh), which run the remote commands in a local
+ * shell and copy the files into local directories. Each machine is
+ * installed in its own local directory.
+ */
+public class ParallelDeployerTest {
+    /** The number of machines to deploy to.*/
+    private static final int MACHINES = 3;
+
+    /** The directory of the test.*/
+    private File dir;
+    /** The directory of the scripts for the machines.*/
+    private File scripts;
+    /** The machines.*/
+    private List<Machine> macs;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("deployer", "");
+        dir.delete();
+        FileUtils.createDir(new File(dir, "data"));
+        copyResource("fake-ssh.sh");
+        copyResource("fake-scp.sh");
+        File batchPack = new File(dir, "batch.jar");
+        write(batchPack, "");
+        File classFile = new File(dir, "Job.class");
+        write(classFile, "");
+
+        scripts = new File(dir, "scripts");
+        FileUtils.createDir(scripts);
+
+        XmlStructure settings = new XmlStructure(DocumentHelper.parseText(
+                "<settings><host>localhost</host></settings>")
+                .getRootElement());
+        macs = new ArrayList<Machine>();
+        for(int i = 0; i < MACHINES; i++) {
+            Element conf = DocumentHelper.parseText("<machine name=\"m" + i
+                    + "\" os=\"linux\"><installDir>" + dir + "/install" + i
+                    + "</installDir><directory>" + dir
+                    + "/data</directory></machine>").getRootElement();
+            Machine mac = new MachineLinux(conf, settings, batchPack,
+                    classFile.getPath());
+            mac.createScripts(scripts);
+            macs.add(mac);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(dir);
+    }
+
+    /**
+     * The start command must return at once, even though the batch job
+     * runs longer than the deadline for installing, and the machines
+     * after the first fan-out must not wait for the earlier runs.
+     */
+    @Test
+    public void testStartIsDetached() throws Exception {
+        for(int i = 0; i < MACHINES; i++) {
+            // a batch job, which runs for 4 seconds in the foreground.
+            write(new File(dir, "scripts/m" + i + "/start.sh"),
+                    "sleep 4; touch " + dir + "/install" + i + "/finished\n");
+        }
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        ParallelDeployer deployer = new ParallelDeployer(macs, scripts,
+                fakeShell(), 1, 2L, new PrintStream(table));
+
+        long begin = System.currentTimeMillis();
+        assertTrue(table.toString(), deployer.deploy());
+        assertTrue("The deployment waited for the batch jobs",
+                System.currentTimeMillis() - begin < 4000L);
+
+        for(int i = 0; i < MACHINES; i++) {
+            assertTrue(new File(dir, "install" + i + "/start.sh").isFile());
+            assertFalse(new File(dir, "install" + i + "/finished").exists());
+        }
+        // the batch jobs keep running after the deployment.
+        long deadline = System.currentTimeMillis() + 20000L;
+        for(int i = 0; i < MACHINES; i++) {
+            File finished = new File(dir, "install" + i + "/finished");
+            while(!finished.exists()
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100L);
+            }
+            assertTrue(finished.getPath(), finished.exists());
+        }
+    }
+
+    /**
+     * An install command, which hangs, is killed at the deadline, and the
+     * machine is reported as timed out.
+     */
+    @Test
+    public void testInstallDeadline() throws Exception {
+        File hang = new File(dir, "hang.sh");
+        write(hang, "sleep 30\n");
+        RemoteShell shell = new RemoteShell("bash " + dir + "/fake-ssh.sh",
+                "bash " + hang);
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        ParallelDeployer deployer = new ParallelDeployer(macs, scripts,
+                shell, MACHINES, 1L, new PrintStream(table));
+
+        long begin = System.currentTimeMillis();
+        assertFalse(deployer.deploy());
+        assertTrue(System.currentTimeMillis() - begin < 10000L);
+        String status = deployer.getStatusTable();
+        for(int i = 0; i < MACHINES; i++) {
+            assertTrue(status, status.matches("(?s).*m" + i
+                    + " +TIMEOUT.*"));
+        }
+    }
+
+    /**
+     * A failing install command stops the deployment of the machine before
+     * its start command.
+     */
+    @Test
+    public void testFailedInstall() throws Exception {
+        RemoteShell shell = new RemoteShell("bash " + dir + "/fake-ssh.sh",
+                "false");
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        ParallelDeployer deployer = new ParallelDeployer(macs, scripts,
+                shell, MACHINES, 10L, new PrintStream(table));
+
+        assertFalse(deployer.deploy());
+        String status = deployer.getStatusTable();
+        assertEquals(status, MACHINES, status.split("FAILED", -1).length - 1);
+        for(int i = 0; i < MACHINES; i++) {
+            assertFalse(new File(dir, "install" + i + "/start.sh").exists());
+        }
+    }
+
+    /**
+     * @return The shell, which reaches the machines through the local
+     * stand-ins.
+     */
+    private RemoteShell fakeShell() {
+        return new RemoteShell("bash " + dir + "/fake-ssh.sh",
+                "bash " + dir + "/fake-scp.sh");
+    }
+
+    /**
+     * Copies a script next to this test into the directory of the test.
+     */
+    private void copyResource(String name) throws IOException {
+        InputStream in = getClass().getResourceAsStream(name);
+        OutputStream out = new FileOutputStream(new File(dir, name));
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            out.close();
+            in.close();
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileWriter fw = new FileWriter(file);
+        try {
+            fw.write(content);
+        } finally {
+            fw.close();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+
+/**
+ * Tests running a batch job, which cannot handle more than one file at the
+ * same time, with several workers.
+ */
+public class ParallelFileProcessorTest {
+    /** The number of files to process.*/
+    private static final int FILES = 40;
+    /** The number of worker threads.*/
+    private static final int WORKERS = 4;
+
+    /**
+     * The output of the files is written in the order they were submitted,
+     * and the counts and failed files of all the copies of the batch job add
+     * up to the files.
+     */
+    @Test
+    public void testCopiesPerWorker() throws IOException {
+        CountJob job = new CountJob();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelFileProcessor parallel = new ParallelFileProcessor(job, 
+                WORKERS, out, new ByteArrayOutputStream());
+        StringBuilder expected = new StringBuilder();
+        for(int i = 0; i < FILES; i++) {
+            parallel.submit(new File("f" + i));
+            expected.append("f").append(i).append('\n');
+        }
+        parallel.drain();
+        parallel.shutdown();
+        String files = out.toString();
+        assertEquals(expected.toString(), files);
+
+        assertTrue(parallel.finish(out));
+        int total = 0;
+        int copies = 0;
+        for(String line : out.toString().substring(files.length())
+                .split("\n")) {
+            assertTrue(line, line.startsWith("count "));
+            total += Integer.parseInt(line.substring("count ".length()));
+            copies++;
+        }
+        assertEquals(FILES, total);
+        assertTrue(copies <= WORKERS);
+        assertEquals(FILES, job.getFilesFailed().size());
+        // the batch job itself has not processed any files.
+        assertEquals(0, job.count);
+    }
+
+    /**
+     * Without any files, there are no copies to finish.
+     */
+    @Test
+    public void testNoFiles() throws IOException {
+        ParallelFileProcessor parallel = new ParallelFileProcessor(
+                new CountJob(), WORKERS, new ByteArrayOutputStream(), 
+                new ByteArrayOutputStream());
+        parallel.drain();
+        parallel.shutdown();
+        assertFalse(parallel.finish(new ByteArrayOutputStream()));
+    }
+
+    /**
+     * The workers do not start on a file while the disc is full, though 
+     * the files have been handed to them.
+     */
+    @Test
+    public void testWorkersWaitForSpace() throws Exception {
+        // never enough space, thus paused until stopped.
+        SpaceMonitor monitor = new SpaceMonitor(Collections.singletonList(
+                new File(System.getProperty("java.io.tmpdir"))), 
+                Long.MAX_VALUE, Long.MAX_VALUE);
+        monitor.start();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelFileProcessor parallel = new ParallelFileProcessor(
+                new StartedJob(), WORKERS, out, new ByteArrayOutputStream(), 
+                null, new RecordCounter(), monitor);
+        StartedJob.STARTED.set(0);
+        for(int i = 0; i < WORKERS; i++) {
+            parallel.submit(new File("f" + i));
+        }
+        Thread.sleep(500L);
+        assertEquals(0, StartedJob.STARTED.get());
+
+        monitor.stop();
+        parallel.drain();
+        parallel.shutdown();
+        assertEquals(WORKERS, StartedJob.STARTED.get());
+        assertEquals("f0\nf1\nf2\nf3\n", out.toString());
+    }
+
+    /**
+     * Writes the name of every file, and counts the files started by all 
+     * the copies.
+     */
+    @SuppressWarnings("serial")
+    private static class StartedJob extends FileBatchJob {
+        /** The number of files started by all the copies.*/
+        private static final AtomicInteger STARTED = new AtomicInteger();
+
+        @Override
+        public void initialize(OutputStream os) {
+        }
+
+        @Override
+        public boolean processFile(File file, OutputStream os) {
+            STARTED.incrementAndGet();
+            try {
+                os.write((file.getName() + "\n").getBytes());
+            } catch (IOException e) {
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void finish(OutputStream os) {
+        }
+    }
+
+    /**
+     * Counts the files without any synchronization, and reports every file
+     * as failed.
+     */
+    @SuppressWarnings("serial")
+    private static class CountJob extends FileBatchJob {
+        /** The number of files processed.*/
+        private int count = 0;
+
+        @Override
+        public void initialize(OutputStream os) {
+            try {
+                os.write("beginning\n".getBytes());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public boolean processFile(File file, OutputStream os) {
+            int current = count;
+            Thread.yield();
+            count = current + 1;
+            filesFailed.add(file);
+            try {
+                os.write((file.getName() + "\n").getBytes());
+            } catch (IOException e) {
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void finish(OutputStream os) {
+            try {
+                os.write(("count " + count + "\n").getBytes());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
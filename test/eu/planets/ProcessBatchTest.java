@@ -0,0 +1,310 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+
+/**
+ * Tests running a batch job upon the files of a directory.
+ */
+public class ProcessBatchTest {
+    /** The directory of the test.*/
+    private File dir;
+    /** The directory with the files to run upon.*/
+    private File data;
+    /** The output file.*/
+    private File out;
+    /** The error file.*/
+    private File err;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("processbatch", "");
+        dir.delete();
+        data = new File(dir, "data");
+        FileUtils.createDir(new File(data, "sub"));
+        write(new File(data, "a.arc"), "a");
+        write(new File(data, "b.arc"), "b");
+        write(new File(data, "sub/c.arc"), "c");
+        out = new File(dir, "out.txt");
+        err = new File(dir, "err.txt");
+        write(out, "");
+        write(err, "");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(dir);
+    }
+
+    /**
+     * A directory given through a symbolic link is run upon, as when the
+     * directories were listed.
+     */
+    @Test
+    public void testLinkedDirectory() throws Exception {
+        File link = new File(dir, "link");
+        Files.createSymbolicLink(link.toPath(), data.toPath());
+
+        run(link, false);
+        assertEquals(Arrays.asList("a.arc", "b.arc"), lines(out));
+    }
+
+    /**
+     * The linked sub-directories are walked through, and a link back to a
+     * parent directory is reported instead of aborting the run.
+     */
+    @Test
+    public void testLinkedSubDirectories() throws Exception {
+        File other = new File(dir, "other");
+        FileUtils.createDir(other);
+        write(new File(other, "d.arc"), "d");
+        Files.createSymbolicLink(new File(data, "linked").toPath(),
+                other.toPath());
+        Files.createSymbolicLink(new File(data, "sub/loop").toPath(),
+                data.toPath());
+
+        run(data, true);
+        assertEquals(Arrays.asList("a.arc", "b.arc", "c.arc", "d.arc"),
+                lines(out));
+        String errors = new String(Files.readAllBytes(err.toPath()));
+        assertTrue(errors, errors.contains(Constants.WARN_MSG_DIRECTORY_LOOP(
+                new File(data, "sub/loop").getAbsolutePath())));
+    }
+
+    /**
+     * An interrupted run is resumed after the last checkpoint, and the 
+     * endings written at the checkpoints count the skipped files.
+     */
+    @Test
+    public void testResumeKeepsEndings() throws Exception {
+        checkResume(1);
+    }
+
+    /**
+     * As above, with several workers.
+     */
+    @Test
+    public void testResumeKeepsEndingsParallel() throws Exception {
+        checkResume(3);
+    }
+
+    /**
+     * Without an existing journal, the run starts over, even though the 
+     * output and error files exist.
+     */
+    @Test
+    public void testNewJournal() throws Exception {
+        write(out, "old output\n");
+        write(err, "old error\n");
+        File journal = new File(dir, "journal.txt");
+        run(data, false, 1, journal);
+        assertEquals(Arrays.asList("a.arc", "b.arc", "count 2"), lines(out));
+        assertFalse(read(err).contains("old error"));
+        assertTrue(journal.exists());
+    }
+
+    /**
+     * The output to the standard streams is not paused by the free space of
+     * the current directory.
+     */
+    @Test(timeout = 10000L)
+    public void testStandardStreamsNotMonitored() {
+        ProcessBatch pb = new ProcessBatch(new FileBatchJob() {
+            @Override
+            public void initialize(OutputStream os) {
+            }
+
+            @Override
+            public boolean processFile(File file, OutputStream os) {
+                return true;
+            }
+
+            @Override
+            public void finish(OutputStream os) {
+            }
+        }, null, null, ".*\\.arc", true);
+        pb.setSpaceMarks(Long.MAX_VALUE, Long.MAX_VALUE);
+        pb.initialise();
+        pb.process(data);
+        pb.finalize();
+    }
+
+    /**
+     * Runs upon more files than between two checkpoints, then interrupts 
+     * the run by cutting the journal after the first checkpoint and adding
+     * output of unfinished files, and resumes the run.
+     *
+     * @param workers The number of workers.
+     */
+    private void checkResume(int workers) throws Exception {
+        int files = Constants.CHECKPOINT_SYNC_INTERVAL * 2 + 50;
+        File many = new File(dir, "many");
+        FileUtils.createDir(many);
+        for(int i = 0; i < files; i++) {
+            write(new File(many, "f" + i + ".arc"), "");
+        }
+        File journal = new File(dir, "journal.txt");
+        run(many, false, workers, journal);
+        String first = read(journal);
+        Matcher checkpoint = Pattern.compile("(?m)^\\d+\n").matcher(first);
+        assertTrue(first, checkpoint.find());
+        write(journal, first.substring(0, checkpoint.end()));
+        FileWriter fw = new FileWriter(out, true);
+        try {
+            fw.write("f" + (files - 1) + ".arc\n");
+        } finally {
+            fw.close();
+        }
+
+        run(many, false, workers, journal);
+        int counted = 0;
+        List<String> names = new ArrayList<String>();
+        for(String line : lines(out)) {
+            if(line.startsWith("count ")) {
+                counted += Integer.parseInt(line.substring(6));
+            } else {
+                names.add(line);
+            }
+        }
+        assertEquals(files, counted);
+        assertEquals(files, names.size());
+        assertEquals(files, new HashSet<String>(names).size());
+    }
+
+    /**
+     * Runs the job, which writes the name of every file, upon a directory.
+     */
+    private void run(File directory, boolean recursively) {
+        ProcessBatch pb = new ProcessBatch(new NameJob(), out, err,
+                ".*\\.arc", recursively);
+        pb.initialise();
+        pb.process(directory);
+        pb.finalize();
+    }
+
+    /**
+     * Runs the job, which writes the name of every file and counts them, 
+     * upon a directory with a checkpoint journal.
+     */
+    private void run(File directory, boolean recursively, int workers, 
+            File journal) {
+        ProcessBatch pb = new ProcessBatch(new CountJob(), out, err,
+                ".*\\.arc", recursively, workers);
+        pb.setCheckpointJournal(journal);
+        pb.initialise();
+        pb.process(directory);
+        pb.finalize();
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+    }
+
+    /**
+     * @return The sorted lines of a file.
+     */
+    private static List<String> lines(File file) throws IOException {
+        List<String> res = new ArrayList<String>(Files.readAllLines(
+                file.toPath(), Charset.forName("UTF-8")));
+        Collections.sort(res);
+        return res;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileWriter fw = new FileWriter(file);
+        try {
+            fw.write(content);
+        } finally {
+            fw.close();
+        }
+    }
+
+    /**
+     * Writes the name of every file on a line, and the number of files in 
+     * the ending.
+     */
+    @SuppressWarnings("serial")
+    private static class CountJob extends NameJob {
+        /** The number of files processed.*/
+        private int count = 0;
+
+        @Override
+        public boolean processFile(File file, OutputStream os) {
+            count++;
+            return super.processFile(file, os);
+        }
+
+        @Override
+        public void finish(OutputStream os) {
+            try {
+                os.write(("count " + count + "\n").getBytes());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes the name of every file on a line.
+     */
+    @SuppressWarnings("serial")
+    private static class NameJob extends FileBatchJob {
+        @Override
+        public void initialize(OutputStream os) {
+        }
+
+        @Override
+        public boolean processFile(File file, OutputStream os) {
+            try {
+                os.write((file.getName() + "\n").getBytes());
+            } catch (IOException e) {
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void finish(OutputStream os) {
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *   USA
+ */
+package eu.planets;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.archive.ArchiveBatchJobBase;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+
+/**
+ * Tests counting the records processed by the copies of a batch job.
+ */
+public class RecordCounterTest {
+    /** The number of files.*/
+    private static final int FILES = 20;
+    /** The number of records in every file.*/
+    private static final int RECORDS = 3;
+
+    /** The directory of the test.*/
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("records", "");
+        dir.delete();
+        FileUtils.createDir(dir);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(dir);
+    }
+
+    /**
+     * The records of every copy made by the workers are counted, though 
+     * the batch job itself processes nothing.
+     */
+    @Test
+    public void testCountsCopies() throws IOException {
+        RecordCounter counter = new RecordCounter();
+        ParallelFileProcessor parallel = new ParallelFileProcessor(
+                new RecordJob(), 3, new ByteArrayOutputStream(), 
+                new ByteArrayOutputStream(), null, counter, null);
+        for(int i = 0; i < FILES; i++) {
+            parallel.submit(writeFile("f" + i + ".txt"));
+        }
+        parallel.drain();
+        parallel.shutdown();
+        assertEquals(FILES * RECORDS, counter.getRecords());
+    }
+
+    /**
+     * A batch job, which does not count records, has no records.
+     */
+    @Test
+    public void testUnknown() throws IOException {
+        RecordCounter counter = new RecordCounter();
+        counter.processFile(new FileBatchJob() {
+            @Override
+            public void initialize(OutputStream os) {
+            }
+
+            @Override
+            public boolean processFile(File file, OutputStream os) {
+                return true;
+            }
+
+            @Override
+            public void finish(OutputStream os) {
+            }
+        }, writeFile("a.txt"), new ByteArrayOutputStream());
+        assertEquals(-1L, counter.getRecords());
+    }
+
+    /**
+     * Writes a file with a line for every record.
+     */
+    private File writeFile(String name) throws IOException {
+        File res = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(res);
+        try {
+            for(int i = 0; i < RECORDS; i++) {
+                out.write(("record " + i + "\n").getBytes("US-ASCII"));
+            }
+        } finally {
+            out.close();
+        }
+        return res;
+    }
+
+    /**
+     * Counts every line of a file as a record, as the batch jobs on arc- 
+     * and warc-records count their records.
+     */
+    @SuppressWarnings("serial")
+    private static class RecordJob extends ArchiveBatchJobBase {
+        @Override
+        public void initialize(OutputStream os) {
+        }
+
+        @Override
+        public boolean processFile(File file, OutputStream os) {
+            try {
+                byte[] content = Files.readAllBytes(file.toPath());
+                for(byte b : content) {
+                    if(b == '\n') {
+                        noOfRecordsProcessed++;
+                    }
+                }
+            } catch (IOException e) {
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void finish(OutputStream os) {
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Tests shipping a result file to a local directory standing in for the
+ * host, through a ship script like the one made by MachineLinux.
+ */
+public class ResultShipperTest {
+    /** The directory of the test.*/
+    private File dir;
+    /** The directory standing in for the host.*/
+    private File host;
+    /** The result file.*/
+    private File result;
+    /** The ship script.*/
+    private File script;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("shipper", "");
+        dir.delete();
+        host = new File(dir, "host");
+        FileUtils.createDir(host);
+        result = new File(dir, "out.txt");
+        script = new File(dir, "ship.sh");
+        // fails once after appending, when the 'fail' file exists.
+        write(script, "rm -f " + host + "/$1.done"
+                + " && truncate -s $3 " + host + "/$1$2"
+                + " && cat >> " + host + "/$1$2"
+                + " && if [ -e " + dir + "/fail ]; then rm " + dir
+                + "/fail; exit 1; fi\n", false);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(dir);
+    }
+
+    /**
+     * The whole file is shipped, and the copy is marked as complete.
+     */
+    @Test
+    public void testShip() throws IOException {
+        write(result, lines(0, 1000), false);
+        assertTrue(shipAll());
+        assertEquals(read(result), hostCopy());
+        assertTrue(new File(host, "out.txt.done").exists());
+    }
+
+    /**
+     * A resumed run continues after the shipped bytes, thus nothing is
+     * shipped twice.
+     */
+    @Test
+    public void testResume() throws IOException {
+        write(result, lines(0, 100), false);
+        assertTrue(shipAll());
+        write(result, lines(100, 200), true);
+        assertTrue(shipAll());
+        assertEquals(read(result), hostCopy());
+    }
+
+    /**
+     * When the file is cut by a resumed run, the copy on the host is cut
+     * back to the last shipment within the file, so the results written
+     * again are not duplicated on the host.
+     */
+    @Test
+    public void testResumeAfterCut() throws IOException {
+        write(result, lines(0, 100), false);
+        assertTrue(shipAll());
+        long firstEnd = result.length();
+        write(result, lines(100, 200), true);
+        assertTrue(shipAll());
+
+        // cut within the second shipment, as to the checkpoint journal,
+        // before the shipper is started and the results are written again.
+        cut(result, firstEnd + 100);
+        assertTrue(shipAll("\n" + lines(150, 300)));
+        assertEquals(read(result), hostCopy());
+    }
+
+    /**
+     * A new run re-creates the file, and the copy on the host starts over.
+     */
+    @Test
+    public void testNewRun() throws IOException {
+        write(result, lines(0, 1000), false);
+        assertTrue(shipAll());
+        write(result, "", false);
+        assertTrue(shipAll(lines(5000, 5010)));
+        assertEquals(read(result), hostCopy());
+    }
+
+    /**
+     * A shipment, which failed after appending to the copy on the host, is
+     * cut away again, when it is retried.
+     */
+    @Test
+    public void testRetryAfterFailure() throws IOException {
+        write(result, lines(0, 100), false);
+        assertTrue(shipAll());
+        write(result, lines(100, 200), true);
+        write(new File(dir, "fail"), "", false);
+        assertFalse(shipAll());
+        assertTrue(shipAll());
+        assertEquals(read(result), hostCopy());
+    }
+
+    /**
+     * Runs a shipper from start to finish, as a run of the batch job.
+     * 
+     * @return Whether the whole file was shipped.
+     */
+    private boolean shipAll() throws IOException {
+        return shipAll("");
+    }
+
+    /**
+     * Runs a shipper from start to finish, as a run of the batch job, which
+     * writes some results while running.
+     * 
+     * @param results The results written after the shipper has started.
+     * @return Whether the whole file was shipped.
+     */
+    private boolean shipAll(String results) throws IOException {
+        ResultShipper shipper = new ResultShipper(result, script);
+        shipper.start();
+        write(result, results, true);
+        return shipper.finish();
+    }
+
+    /**
+     * @return The decompressed copy on the host.
+     */
+    private String hostCopy() throws IOException {
+        return new String(readAll(new GZIPInputStream(new FileInputStream(
+                new File(host, "out.txt.gz")))), "UTF-8");
+    }
+
+    private static String lines(int from, int to) {
+        StringBuilder res = new StringBuilder();
+        for(int i = from; i < to; i++) {
+            res.append("line ").append(i).append('\n');
+        }
+        return res.toString();
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(readAll(new FileInputStream(file)), "UTF-8");
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream res = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while((read = in.read(buffer)) != -1) {
+                res.write(buffer, 0, read);
+            }
+            return res.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void cut(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void write(File file, String content, boolean append)
+            throws IOException {
+        FileOutputStream out = new FileOutputStream(file, append);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Tests pausing the processing while the disc is full.
+ */
+public class SpaceMonitorTest {
+    /**
+     * The processing waits while the space is below the low-water mark, 
+     * until the monitor is stopped.
+     */
+    @Test(timeout = 5000L)
+    public void testPausedUntilStopped() throws Exception {
+        final SpaceMonitor monitor = new SpaceMonitor(
+                Collections.singletonList(new File(
+                        System.getProperty("java.io.tmpdir"))), 
+                Long.MAX_VALUE, Long.MAX_VALUE);
+        monitor.start();
+        Thread stopper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300L);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                monitor.stop();
+            }
+        });
+        long begin = System.currentTimeMillis();
+        stopper.start();
+        monitor.awaitSpace();
+        assertTrue(System.currentTimeMillis() - begin >= 250L);
+    }
+}
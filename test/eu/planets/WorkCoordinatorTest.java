@@ -0,0 +1,157 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests handing the work units to machines, which lose their connection
+ * while processing a unit.
+ */
+public class WorkCoordinatorTest {
+    /** The files of the single unit.*/
+    private static final List<String> FILES = Arrays.asList(
+            "/data/a.arc", "/data/b c.arc", "/data/d.arc");
+
+    /**
+     * Only the files, which the lost machine has not reported as finished,
+     * are handed to another machine.
+     */
+    @Test
+    public void testRequeueUnfinishedFiles() throws Exception {
+        int port = freePort();
+        ByteArrayOutputStream status = new ByteArrayOutputStream();
+        WorkCoordinator coordinator = new WorkCoordinator(
+                Collections.singletonList(new WorkUnit(0, "m0", FILES, 300L)),
+                port, new PrintStream(status));
+        coordinator.start();
+
+        // the first machine finishes a file, and dies.
+        Socket socket = new Socket("localhost", port);
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), "UTF-8"));
+        Writer out = new OutputStreamWriter(socket.getOutputStream(), 
+                "UTF-8");
+        assertEquals("UNIT 0 3", request(in, out, "NEXT m0"));
+        for(String path : FILES) {
+            assertEquals(path, in.readLine());
+        }
+        assertEquals("OK", request(in, out, "FILE 0 " + FILES.get(1)));
+        socket.close();
+
+        // the second machine gets the rest, once the loss is noticed.
+        assertEquals(Arrays.asList(FILES.get(0), FILES.get(2)), 
+                takeAll("m1", port));
+        coordinator.await();
+        assertTrue(status.toString(), status.toString().contains(
+                Constants.WARN_MSG_WORK_UNIT_REQUEUED + 0));
+        assertTrue(status.toString(), status.toString().contains(
+                "1/1 units finished"));
+    }
+
+    /**
+     * A unit, which has every file reported as finished, is not handed out
+     * again, even though it was not reported as done.
+     */
+    @Test
+    public void testLostAfterLastFile() throws Exception {
+        int port = freePort();
+        ByteArrayOutputStream status = new ByteArrayOutputStream();
+        WorkCoordinator coordinator = new WorkCoordinator(
+                Collections.singletonList(new WorkUnit(0, "m0", FILES, 300L)),
+                port, new PrintStream(status));
+        coordinator.start();
+
+        Socket socket = new Socket("localhost", port);
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), "UTF-8"));
+        Writer out = new OutputStreamWriter(socket.getOutputStream(), 
+                "UTF-8");
+        assertEquals("UNIT 0 3", request(in, out, "NEXT m0"));
+        for(String path : FILES) {
+            assertEquals(path, in.readLine());
+        }
+        for(String path : FILES) {
+            assertEquals("OK", request(in, out, "FILE 0 " + path));
+        }
+        socket.close();
+
+        assertTrue(takeAll("m1", port).isEmpty());
+        coordinator.await();
+        assertFalse(status.toString(), status.toString().contains(
+                Constants.WARN_MSG_WORK_UNIT_REQUEUED));
+    }
+
+    /**
+     * Takes and finishes every unit handed to a machine.
+     * 
+     * @return The paths of the files handed out.
+     */
+    private static List<String> takeAll(String machine, int port) {
+        WorkClient client = new WorkClient("localhost", port, machine);
+        List<String> res = new ArrayList<String>();
+        try {
+            Iterator<File> files = client.files(null);
+            while(files.hasNext()) {
+                File fil = files.next();
+                res.add(fil.getPath());
+                client.fileFinished(fil);
+            }
+        } finally {
+            client.close();
+        }
+        return res;
+    }
+
+    private static String request(BufferedReader in, Writer out, 
+            String request) throws IOException {
+        out.write(request + "\n");
+        out.flush();
+        return in.readLine();
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+}
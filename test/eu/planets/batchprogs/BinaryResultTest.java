@@ -0,0 +1,155 @@
+/*
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2007 Det Kongelige Bibliotek and Statsbiblioteket, Denmark
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package eu.planets.batchprogs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests writing binary results and reading them back.
+ */
+public class BinaryResultTest {
+    /**
+     * The strings and numbers of the records are read back as written,
+     * also negative, large and unknown numbers.
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryResultWriter writer = new BinaryResultWriter(out, "SLS");
+        writer.string("a.arc").number(0L).string("æøå").end();
+        writer.string(null).number(-5L).string("a.arc").end();
+        writer.string("b.arc").number(Long.MAX_VALUE).string("").end();
+        writer.string("b.arc").number(Long.MIN_VALUE).string("x").end();
+        writer.string("c.arc").number("garbage").string("x").end();
+
+        BinaryResultReader reader = reader(out);
+        assertTrue(reader.next());
+        assertEquals("SLS", reader.getTypes());
+        assertEquals("a.arc", reader.getString(0));
+        assertEquals(0L, reader.getNumber(1));
+        assertEquals("æøå", reader.getString(2));
+        assertTrue(reader.next());
+        assertEquals("null", reader.getString(0));
+        assertEquals(-5L, reader.getNumber(1));
+        assertEquals("a.arc", reader.getString(2));
+        assertTrue(reader.next());
+        assertEquals(Long.MAX_VALUE, reader.getNumber(1));
+        assertEquals("", reader.getString(2));
+        assertTrue(reader.next());
+        assertEquals(Long.MIN_VALUE, reader.getNumber(1));
+        assertTrue(reader.next());
+        assertEquals(BinaryResultWriter.UNKNOWN_NUMBER, reader.getNumber(1));
+        assertEquals("null", reader.getNumberText(1));
+        assertFalse(reader.next());
+    }
+
+    /**
+     * A repeated string is defined once, and read back as the same string.
+     */
+    @Test
+    public void testRepeatedStrings() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryResultWriter writer = new BinaryResultWriter(out, "S");
+        writer.string("application/pdf").end();
+        int first = out.size();
+        writer.string("application/pdf").end();
+        assertTrue(out.size() - first < "application/pdf".length());
+
+        BinaryResultReader reader = reader(out);
+        assertTrue(reader.next());
+        String s = reader.getString(0);
+        assertTrue(reader.next());
+        assertSame(s, reader.getString(0));
+    }
+
+    /**
+     * Outputs appended to each other, e.g. by the workers of a parallel
+     * batch, are read as one, each with its own types and dictionary.
+     */
+    @Test
+    public void testConcatenated() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryResultWriter first = new BinaryResultWriter(out, "SL");
+        first.string("a").number(1L).end();
+        BinaryResultWriter second = new BinaryResultWriter(out, "LS");
+        second.number(2L).string("b").end();
+        second.number(3L).string("a").end();
+
+        assertTrue(BinaryResultReader.isBinary(
+                new ByteArrayInputStream(out.toByteArray())));
+        BinaryResultReader reader = reader(out);
+        assertTrue(reader.next());
+        assertEquals("SL", reader.getTypes());
+        assertEquals("a", reader.getString(0));
+        assertEquals(1L, reader.getNumber(1));
+        assertTrue(reader.next());
+        assertEquals("LS", reader.getTypes());
+        assertEquals(2L, reader.getNumber(0));
+        assertEquals("b", reader.getString(1));
+        assertTrue(reader.next());
+        assertEquals("a", reader.getString(1));
+        assertFalse(reader.next());
+    }
+
+    /**
+     * The records before a range are skipped, but the strings they define
+     * are still known to the records within it.
+     */
+    @Test
+    public void testRange() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryResultWriter writer = new BinaryResultWriter(out, "SL");
+        writer.string("a").number(1L).end();
+        long second = out.size();
+        writer.string("a").number(2L).end();
+        long third = out.size();
+        writer.string("b").number(3L).end();
+
+        BinaryResultReader reader = reader(out);
+        reader.setRange(second, third);
+        assertTrue(reader.next());
+        assertEquals("a", reader.getString(0));
+        assertEquals(2L, reader.getNumber(1));
+        assertEquals(third, reader.getPosition());
+        assertFalse(reader.next());
+    }
+
+    /**
+     * Text output is not taken for binary results.
+     */
+    @Test
+    public void testNotBinary() throws IOException {
+        assertFalse(BinaryResultReader.isBinary(new ByteArrayInputStream(
+                "a.arc 1 text/plain\n".getBytes("UTF-8"))));
+    }
+
+    private static BinaryResultReader reader(ByteArrayOutputStream out) {
+        return new BinaryResultReader(new ByteArrayInputStream(
+                out.toByteArray()));
+    }
+}
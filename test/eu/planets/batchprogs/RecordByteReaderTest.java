@@ -0,0 +1,173 @@
+package eu.planets.batchprogs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import uk.gov.nationalarchives.droid.IdentificationFile;
+import uk.gov.nationalarchives.droid.signatureFile.FFSignatureFile;
+import uk.gov.nationalarchives.droid.xmlReader.SAXModelBuilder;
+
+/**
+ * Tests reading records for the DROID identification.
+ */
+public class RecordByteReaderTest {
+    /** The size of the windows.*/
+    private static final int WINDOW = 1024;
+    /** A signature anchored at the start, and one at the end.*/
+    private static final String ANCHORED = "<InternalSignature ID=\"1\" "
+        + "Specificity=\"Specific\"><ByteSequence Reference=\"BOFoffset\">"
+        + "<SubSequence Position=\"1\" SubSeqMinOffset=\"0\" "
+        + "SubSeqMaxOffset=\"0\"><Sequence>25504446</Sequence>"
+        + "<DefaultShift>5</DefaultShift></SubSequence></ByteSequence>"
+        + "<ByteSequence Reference=\"EOFoffset\"><SubSequence Position=\"1\""
+        + " SubSeqMinOffset=\"0\" SubSeqMaxOffset=\"16\">"
+        + "<Sequence>2525454F46</Sequence><DefaultShift>-6</DefaultShift>"
+        + "</SubSequence></ByteSequence></InternalSignature>";
+    /** A signature, which may be anywhere.*/
+    private static final String VARIABLE = "<InternalSignature ID=\"2\" "
+        + "Specificity=\"Specific\"><ByteSequence><SubSequence Position=\"1\""
+        + " SubSeqMinOffset=\"0\"><Sequence>2525454F46</Sequence>"
+        + "<DefaultShift>6</DefaultShift></SubSequence></ByteSequence>"
+        + "</InternalSignature>";
+    /** The namespace of the signature files.*/
+    private static final String NAMESPACE = 
+        "http://www.nationalarchives.gov.uk/pronom/SignatureFile";
+
+    /**
+     * A record larger than the windows keeps its first and last bytes,
+     * though the bytes in between are not kept.
+     */
+    @Test
+    public void testHeadAndTail() throws IOException {
+        byte[] content = content(WINDOW * 3 + 123);
+        RecordByteReader reader = new RecordByteReader(WINDOW, false);
+        reader.read(new IdentificationFile("a"), 
+                new ByteArrayInputStream(content));
+        assertEquals(content.length, reader.getNumBytes());
+        for (int i = 0; i < WINDOW; i++) {
+            assertEquals(content[i], reader.getByte(i));
+            int end = content.length - 1 - i;
+            assertEquals(content[end], reader.getByte(end));
+        }
+        try {
+            reader.getByte(WINDOW * 2);
+            fail("The middle of the record is not kept");
+        } catch (IndexOutOfBoundsException e) {
+            // expected.
+        }
+        reader.close();
+    }
+
+    /**
+     * A record, which only just exceeds the first window, keeps every byte.
+     */
+    @Test
+    public void testShortTail() throws IOException {
+        byte[] content = content(WINDOW + 10);
+        RecordByteReader reader = new RecordByteReader(WINDOW, false);
+        reader.read(new IdentificationFile("a"), 
+                new ByteArrayInputStream(content));
+        assertEquals(content.length, reader.getNumBytes());
+        for (int i = 0; i < content.length; i++) {
+            assertEquals(content[i], reader.getByte(i));
+        }
+    }
+
+    /**
+     * The whole record is kept, when the signatures may look anywhere.
+     */
+    @Test
+    public void testWholeRecord() throws IOException {
+        byte[] content = content(WINDOW * 3 + 123);
+        RecordByteReader reader = new RecordByteReader(WINDOW, true);
+        reader.read(new IdentificationFile("a"), 
+                new ByteArrayInputStream(content));
+        assertEquals(content.length, reader.getNumBytes());
+        for (int i = 0; i < content.length; i++) {
+            assertEquals(content[i], reader.getByte(i));
+        }
+        reader.close();
+    }
+
+    /**
+     * Only the signatures, which may look beyond the windows, need the
+     * whole records, and the anchored signatures are found through the 
+     * windows.
+     */
+    @Test
+    public void testSignatures() throws Exception {
+        FFSignatureFile anchored = sigFile(ANCHORED);
+        assertFalse(RecordByteReader.needsWholeRecord(anchored, WINDOW));
+        assertTrue(RecordByteReader.needsWholeRecord(anchored, 2));
+        assertTrue(RecordByteReader.needsWholeRecord(
+                sigFile(ANCHORED + VARIABLE), WINDOW));
+
+        byte[] content = content(WINDOW * 5);
+        System.arraycopy("%PDF".getBytes("US-ASCII"), 0, content, 0, 4);
+        System.arraycopy("%%EOF\n".getBytes("US-ASCII"), 0, content, 
+                content.length - 6, 6);
+        RecordByteReader reader = new RecordByteReader(WINDOW, false);
+        IdentificationFile idFile = new IdentificationFile("a.pdf");
+        reader.read(idFile, new ByteArrayInputStream(content));
+        anchored.runFileIdentification(reader);
+        reader.close();
+        assertEquals(1, idFile.getNumHits());
+        assertEquals("Test", idFile.getHit(0).getFileFormatName());
+    }
+
+    /**
+     * @return Content of the length, without the bytes of the signatures.
+     */
+    private static byte[] content(int length) {
+        byte[] res = new byte[length];
+        for (int i = 0; i < length; i++) {
+            res[i] = (byte) ('a' + i % 26);
+        }
+        return res;
+    }
+
+    /**
+     * @return The prepared signature file with the signatures of a format.
+     */
+    private static FFSignatureFile sigFile(String signatures)
+            throws Exception {
+        StringBuilder ids = new StringBuilder();
+        for (String id : new String[] {"1", "2"}) {
+            if (signatures.contains("InternalSignature ID=\"" + id + "\"")) {
+                ids.append("<InternalSignatureID>" + id 
+                        + "</InternalSignatureID>");
+            }
+        }
+        // parsed as by the AnalysisController.
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        XMLReader parser = factory.newSAXParser().getXMLReader();
+        SAXModelBuilder builder = new SAXModelBuilder();
+        builder.setupNamespace(NAMESPACE, true);
+        parser.setContentHandler(builder);
+        parser.parse(new InputSource(new StringReader(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<FFSignatureFile xmlns=\"" + NAMESPACE + "\" "
+                + "Version=\"1\" DateCreated=\"2009-01-01T00:00:00\">"
+                + "<InternalSignatureCollection>" + signatures
+                + "</InternalSignatureCollection><FileFormatCollection>"
+                + "<FileFormat ID=\"1\" Name=\"Test\" PUID=\"x-fmt/1\">"
+                + ids + "<Extension>pdf</Extension></FileFormat>"
+                + "</FileFormatCollection></FFSignatureFile>")));
+        FFSignatureFile res = (FFSignatureFile) builder.getModel();
+        res.prepareForUse();
+        return res;
+    }
+}
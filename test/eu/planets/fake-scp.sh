@@ -0,0 +1,10 @@
+#!/bin/bash
+# A local stand-in for scp, for testing the deployment without any real
+# machines: 'fake-scp.sh [options] files login:dir' copies the files into
+# the local directory.
+while [ "${1#-}" != "$1" ]; do
+    shift
+done
+target="${@: -1}"
+files=("${@:1:$#-1}")
+exec cp "${files[@]}" "${target#*:}"
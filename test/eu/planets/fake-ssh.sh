@@ -0,0 +1,9 @@
+#!/bin/bash
+# A local stand-in for ssh, for testing the deployment without any real
+# machines: 'fake-ssh.sh [options] login command' runs the command in a
+# local shell, as ssh would run it on the machine of the login.
+while [ "${1#-}" != "$1" ]; do
+    shift
+done
+shift
+exec bash -c "$*"
@@ -0,0 +1,155 @@
+package eu.planets.outputHandler;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+import eu.planets.batchprogs.BinaryResultReader;
+import eu.planets.batchprogs.BinaryResultWriter;
+
+/**
+ * Tests the incremental handling of gzip input files, which grow by 
+ * shipments between the runs, with both text and binary results.
+ */
+public class HandlerStateTest {
+    /** The directory of the test.*/
+    private File dir;
+    /** The input with text results.*/
+    private File text;
+    /** The input with binary results.*/
+    private File binary;
+    /** The state file.*/
+    private File stateFile;
+
+    @Before
+    public void setUp() throws IOException {
+	dir = File.createTempFile("handlerstate", "");
+	dir.delete();
+	FileUtils.createDir(dir);
+	text = new File(dir, "text.gz");
+	binary = new File(dir, "binary.gz");
+	stateFile = new File(dir, "out" + HandlerState.STATE_SUFFIX);
+    }
+
+    @After
+    public void tearDown() {
+	FileUtils.removeRecursively(dir);
+    }
+
+    /**
+     * Every entry is handled exactly once, though the binary records are 
+     * cut between the shipments, and only the first shipment has the 
+     * header and the dictionary.
+     */
+    @Test
+    public void testTextAndBinaryShipments() throws IOException {
+	StringBuilder lines = new StringBuilder();
+	List<String> expected = new ArrayList<String>();
+	for(int i = 0; i < 300; i++) {
+	    lines.append("line ").append(i).append('\n');
+	    expected.add("line " + i);
+	}
+	// two outputs, each with its own header and dictionary.
+	ByteArrayOutputStream records = new ByteArrayOutputStream();
+	for(int output = 0; output < 2; output++) {
+	    BinaryResultWriter writer = new BinaryResultWriter(records, "SL");
+	    for(int i = 0; i < 150; i++) {
+		int n = output * 150 + i;
+		writer.string("s" + (n % 7)).number(n).end();
+		expected.add("s" + (n % 7) + ":" + n);
+	    }
+	}
+	byte[] textBytes = lines.toString().getBytes("UTF-8");
+	int cut1 = lines.lastIndexOf("\n", 1000) + 1;
+	int cut2 = lines.lastIndexOf("\n", 2000) + 1;
+	byte[] binaryBytes = records.toByteArray();
+	
+	List<String> handled = new ArrayList<String>();
+	// the text is cut at newlines, the binary results anywhere.
+	ship(text, textBytes, 0, cut1);
+	ship(binary, binaryBytes, 0, 301);
+	handled.addAll(run());
+	ship(text, textBytes, cut1, cut2);
+	ship(binary, binaryBytes, 301, 777);
+	handled.addAll(run());
+	assertEquals(new ArrayList<String>(), run());
+	ship(text, textBytes, cut2, textBytes.length);
+	ship(binary, binaryBytes, 777, binaryBytes.length);
+	handled.addAll(run());
+	
+	List<String> sorted = new ArrayList<String>(handled);
+	Collections.sort(sorted);
+	Collections.sort(expected);
+	assertEquals(expected, sorted);
+    }
+
+    /**
+     * Handles the new parts of the inputs as the handlers do, and saves the
+     * state.
+     * 
+     * @return The entries handled.
+     */
+    private List<String> run() throws IOException {
+	HandlerState state = HandlerState.load(stateFile, "test");
+	List<File> files = state.selectNew(Arrays.asList(text, binary));
+	List<String> res = new ArrayList<String>();
+	for(File f : files) {
+	    InputStream in = ResultInput.open(f);
+	    if(BinaryResultReader.isBinary(in)) {
+		BinaryResultReader reader = ResultInput.openBinary(f, in);
+		try {
+		    while(reader.next()) {
+			res.add(reader.getString(0) + ":" 
+				+ reader.getNumber(1));
+		    }
+		} finally {
+		    reader.close();
+		}
+	    } else {
+		BufferedReader br = new BufferedReader(
+			new InputStreamReader(in, "UTF-8"));
+		try {
+		    String line;
+		    while((line = br.readLine()) != null) {
+			res.add(line);
+		    }
+		} finally {
+		    br.close();
+		}
+	    }
+	}
+	state.markHandled(files);
+	state.save(stateFile);
+	return res;
+    }
+
+    /**
+     * Appends a shipment to an input file as a gzip member.
+     */
+    private static void ship(File f, byte[] bytes, int from, int to) 
+	    throws IOException {
+	GZIPOutputStream gzip = new GZIPOutputStream(
+		new FileOutputStream(f, true));
+	try {
+	    gzip.write(bytes, from, to - from);
+	} finally {
+	    gzip.close();
+	}
+    }
+}
@@ -0,0 +1,73 @@
+package eu.planets.outputHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the estimates of the top keys, also after merging summaries.
+ */
+public class TopKSummaryTest {
+    /** The relative error of the summaries.*/
+    private static final double EPSILON = 0.001;
+
+    /**
+     * A key, which is monitored by one summary, but has been replaced in 
+     * the other, is not estimated below its real counter after the merge.
+     */
+    @Test
+    public void testMergeEvictedKey() {
+	TopKSummary a = new TopKSummary(2, EPSILON);
+	a.increment("x", 100L);
+	TopKSummary b = new TopKSummary(2, EPSILON);
+	b.increment("x", 5L);
+	for(int i = 0; i < 10; i++) {
+	    b.increment("other" + i, 10L);
+	}
+	
+	a.addAll(b);
+	assertTrue(a.estimate("x") >= 105L);
+	StringBuilder top = new StringBuilder();
+	a.appendTo(top);
+	assertTrue(top.toString(), top.toString().startsWith("x;"));
+    }
+
+    /**
+     * The estimates of a stream split over several merged summaries are 
+     * never below the real counters, and the heavy keys are the top keys.
+     */
+    @Test
+    public void testMergedEstimates() {
+	Random random = new Random(42L);
+	Map<String, Long> real = new HashMap<String, Long>();
+	TopKSummary all = new TopKSummary(3, EPSILON);
+	for(int part = 0; part < 5; part++) {
+	    TopKSummary summary = new TopKSummary(3, EPSILON);
+	    for(int i = 0; i < 2000; i++) {
+		// three heavy keys, and many light keys.
+		String key = random.nextInt(4) != 0 ? "heavy" 
+			+ random.nextInt(3) : "light" + random.nextInt(500);
+		long value = 1 + random.nextInt(3);
+		summary.increment(key, value);
+		Long old = real.get(key);
+		real.put(key, (old == null ? 0L : old) + value);
+	    }
+	    all.addAll(summary);
+	}
+	
+	for(Map.Entry<String, Long> e : real.entrySet()) {
+	    assertTrue(e.getKey(), all.estimate(e.getKey()) >= e.getValue());
+	}
+	assertEquals(3, all.size());
+	StringBuilder top = new StringBuilder();
+	all.appendTo(top);
+	for(String line : top.toString().split("\n")) {
+	    assertTrue(top.toString(), line.startsWith("heavy"));
+	}
+    }
+}